@@ -7,6 +7,10 @@ public class SpatialDataSetModule extends AbstractModule {
 
     @Override
     protected void configure() {
+        bind(BulkLoader.class).asEagerSingleton();
         bind(ShapeDataSetService.class).asEagerSingleton();
+        bind(TransportDistributedDataSetIndexAction.class).asEagerSingleton();
+        bind(ReverseGeocodingService.class).asEagerSingleton();
+        bind(TransportDataSetRegistryAction.class).asEagerSingleton();
     }
 }
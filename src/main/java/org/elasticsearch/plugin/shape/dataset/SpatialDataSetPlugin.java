@@ -21,6 +21,10 @@ public class SpatialDataSetPlugin extends AbstractPlugin {
     public void onModule(RestModule module) {
         module.addRestAction(RestShapeDataSetListAction.class);
         module.addRestAction(RestShapeDataSetIndexAction.class);
+        module.addRestAction(RestShapeDataSetLocateAction.class);
+        module.addRestAction(RestShapeDataSetExportAction.class);
+        module.addRestAction(RestShapeDataSetRegisterAction.class);
+        module.addRestAction(RestShapeDataSetJoinAction.class);
     }
 
     @Override
@@ -0,0 +1,64 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+
+/**
+ * Adjusts the size of bulk batches based on how the cluster handled previous bulks.
+ * Batches shrink quickly when items are rejected or bulks exceed the target latency,
+ * and grow gradually while bulks complete well within it.
+ */
+public class AdaptiveBatchSizer {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyMillis;
+
+    private int batchSize;
+
+    /**
+     * Creates a new AdaptiveBatchSizer
+     *
+     * @param initialBatchSize Batch size used for the first bulk
+     * @param minBatchSize Smallest batch size that will be used
+     * @param maxBatchSize Largest batch size that will be used
+     * @param targetLatencyMillis Latency, in milliseconds, bulks should take to complete
+     */
+    public AdaptiveBatchSizer(int initialBatchSize, int minBatchSize, int maxBatchSize, long targetLatencyMillis) {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new ElasticSearchIllegalArgumentException("Invalid batch size range [" + minBatchSize + "-" + maxBatchSize + "]");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.batchSize = clamp(initialBatchSize);
+    }
+
+    /**
+     * @return Size the next batch should be
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Records the outcome of a bulk, adjusting the batch size accordingly
+     *
+     * @param size Number of items in the bulk
+     * @param latencyMillis Time, in milliseconds, the bulk took to complete
+     * @param rejected Number of items in the bulk that were rejected
+     */
+    public void onBulk(int size, long latencyMillis, int rejected) {
+        if (rejected > 0) {
+            batchSize = clamp(batchSize / 2);
+        } else if (latencyMillis > targetLatencyMillis) {
+            batchSize = clamp(batchSize - batchSize / 4);
+        } else if (latencyMillis < targetLatencyMillis / 2 && size >= batchSize) {
+            // Only grow when the batch was full, otherwise the latency says nothing about larger batches
+            batchSize = clamp(batchSize + Math.max(1, batchSize / 4));
+        }
+    }
+
+    private int clamp(int size) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+}
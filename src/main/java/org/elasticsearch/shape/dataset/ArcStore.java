@@ -0,0 +1,158 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchParseException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * View over the arcs written by a {@link TopologyEncoder}, from which the geometries
+ * referencing them are rebuilt.  Like {@link PackedGeometry}, only absolute reads are made,
+ * so the buffer can be shared between threads.
+ * <p>
+ * The arcs consist of their number, the index of the first coordinate of each arc followed
+ * by the total number of coordinates, and then the coordinates as consecutive x and y
+ * doubles.  A geometry referencing the arcs is either a packed point, or consists of:
+ * <ul>
+ * <li>Type, number of parts, number of rings and number of coordinates once rebuilt</li>
+ * <li>Index of the first ring of each part, where the first ring of a part is its shell</li>
+ * <li>Per ring, the index of its original first vertex in the rebuilt ring, its number of
+ * arcs and the references to its arcs.  The bitwise complement of an arc's index refers
+ * to the arc in reverse.</li>
+ * </ul>
+ * </p>
+ */
+public class ArcStore {
+
+    static final byte ARCS = 2;
+
+    private final ByteBuffer buffer;
+    private final int numArcs;
+    private final int arcsOffset;
+    private final int coordinatesOffset;
+
+    /**
+     * Creates a new ArcStore reading the arcs at the given offset of the buffer
+     *
+     * @param buffer Buffer holding the arcs
+     * @param offset Offset of the arcs in the buffer
+     */
+    public ArcStore(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.numArcs = buffer.getInt(offset);
+        this.arcsOffset = offset + 4;
+        this.coordinatesOffset = arcsOffset + (numArcs + 1) * 4;
+    }
+
+    /**
+     * @return Number of arcs in the store
+     */
+    public int numArcs() {
+        return numArcs;
+    }
+
+    /**
+     * Rebuilds the geometry at the given offset of the buffer from the arcs it references.
+     * Points are read from the buffer in place, while polygons are rebuilt into a heap
+     * buffer of their own that is not retained by the store.
+     *
+     * @param geometryBuffer Buffer holding the geometry
+     * @param offset Offset of the geometry in the buffer
+     * @return PackedGeometry of the rebuilt geometry
+     */
+    public PackedGeometry decode(ByteBuffer geometryBuffer, int offset) {
+        byte type = geometryBuffer.get(offset);
+        if (type == PackedGeometry.POINT) {
+            return new PackedGeometry(geometryBuffer, offset);
+        } else if (type != ARCS) {
+            throw new ElasticSearchParseException("Unknown geometry type [" + type + "]");
+        }
+
+        int numParts = geometryBuffer.getInt(offset + 1);
+        int numRings = geometryBuffer.getInt(offset + 5);
+        int numCoordinates = geometryBuffer.getInt(offset + 9);
+        int position = offset + 13;
+
+        ByteBuffer packed = ByteBuffer.allocate(13 + numParts * 4 + numRings * 4 + numCoordinates * 16);
+        packed.put(PackedGeometry.POLYGONS).putInt(numParts).putInt(numRings).putInt(numCoordinates);
+        for (int i = 0; i < numParts; i++) {
+            packed.putInt(geometryBuffer.getInt(position));
+            position += 4;
+        }
+
+        // Ring starts precede the coordinates, so the length of each ring is worked out first
+        int ringsPosition = position;
+        int coordinate = 0;
+        for (int ring = 0; ring < numRings; ring++) {
+            packed.putInt(coordinate);
+            int ringArcs = geometryBuffer.getInt(position + 4);
+            position += 8;
+            for (int i = 0; i < ringArcs; i++) {
+                coordinate += arcLength(geometryBuffer.getInt(position)) - 1;
+                position += 4;
+            }
+            // Rings repeat their first vertex to close
+            coordinate++;
+        }
+        if (coordinate != numCoordinates) {
+            throw new ElasticSearchParseException("Geometry references arcs of [" + coordinate +
+                    "] coordinates, but expected [" + numCoordinates + "]");
+        }
+
+        position = ringsPosition;
+        for (int ring = 0; ring < numRings; ring++) {
+            int rotation = geometryBuffer.getInt(position);
+            int ringArcs = geometryBuffer.getInt(position + 4);
+            position += 8;
+
+            int numVertices = 0;
+            for (int i = 0; i < ringArcs; i++) {
+                numVertices += arcLength(geometryBuffer.getInt(position + i * 4)) - 1;
+            }
+            double[] vertices = new double[numVertices * 2];
+            int vertex = 0;
+            for (int i = 0; i < ringArcs; i++) {
+                int reference = geometryBuffer.getInt(position);
+                position += 4;
+                // The last vertex of each arc is the first of the next, so it is skipped
+                int length = arcLength(reference) - 1;
+                for (int j = 0; j < length; j++) {
+                    int arcCoordinate = arcCoordinate(reference, j);
+                    vertices[vertex * 2] = x(arcCoordinate);
+                    vertices[vertex * 2 + 1] = y(arcCoordinate);
+                    vertex++;
+                }
+            }
+
+            for (int i = 0; i <= numVertices; i++) {
+                int source = (rotation + i) % numVertices;
+                packed.putDouble(vertices[source * 2]).putDouble(vertices[source * 2 + 1]);
+            }
+        }
+
+        return new PackedGeometry(packed, 0);
+    }
+
+    private int arcLength(int reference) {
+        int arc = reference < 0 ? ~reference : reference;
+        return arcStart(arc + 1) - arcStart(arc);
+    }
+
+    private int arcCoordinate(int reference, int index) {
+        if (reference < 0) {
+            return arcStart(~reference + 1) - 1 - index;
+        }
+        return arcStart(reference) + index;
+    }
+
+    private int arcStart(int arc) {
+        return buffer.getInt(arcsOffset + arc * 4);
+    }
+
+    private double x(int coordinate) {
+        return buffer.getDouble(coordinatesOffset + coordinate * 16);
+    }
+
+    private double y(int coordinate) {
+        return buffer.getDouble(coordinatesOffset + coordinate * 16 + 8);
+    }
+}
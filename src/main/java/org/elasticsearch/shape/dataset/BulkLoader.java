@@ -0,0 +1,266 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads DataSets into a fresh version of an index, reached through an alias.  The version
+ * is created without replicas and with refresh disabled, so the ingest runs as fast as
+ * possible.  Once loaded, the version is optimized, given back its refresh interval and
+ * replicas, and the alias is repointed to it from the previous version in a single atomic
+ * update.  Queries against the alias see either the previous or the new version in full,
+ * never a partially loaded one.
+ * <p>
+ * Versions are named after the alias, such as {@code shapes_v3}.  The settings and mappings
+ * of a new version are copied from the version the alias currently points to, such as its
+ * number of shards and analysis.  Settings that would slow or block the load, namely its
+ * replicas, refresh interval, auto expanded replicas and write blocks, are held back until
+ * the load completes.
+ * </p>
+ */
+public class BulkLoader extends AbstractComponent {
+
+    private static final String VERSION_SEPARATOR = "_v";
+
+    private static final String NUMBER_OF_REPLICAS = IndexMetaData.SETTING_NUMBER_OF_REPLICAS;
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    // Settings of the previous version held back until the load completes
+    private static final String[] DEFERRED_SETTINGS = {
+            IndexMetaData.SETTING_AUTO_EXPAND_REPLICAS,
+            IndexMetaData.SETTING_READ_ONLY,
+            IndexMetaData.SETTING_BLOCKS_WRITE
+    };
+
+    private final Client client;
+    private final ClusterService clusterService;
+    private final ThreadPool threadPool;
+
+    private final int maxNumSegments;
+    private final int defaultNumberOfReplicas;
+    private final String defaultRefreshInterval;
+    private final boolean deletePrevious;
+
+    @Inject
+    public BulkLoader(Settings settings, Client client, ClusterService clusterService, ThreadPool threadPool) {
+        super(settings);
+        this.client = client;
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+
+        this.maxNumSegments = componentSettings.getAsInt("bulk_load.max_num_segments", 1);
+        this.defaultNumberOfReplicas = settings.getAsInt(NUMBER_OF_REPLICAS, 1);
+        this.defaultRefreshInterval = settings.get(REFRESH_INTERVAL, "1s");
+        this.deletePrevious = componentSettings.getAsBoolean("bulk_load.delete_previous", false);
+    }
+
+    /**
+     * Creates the next version of the index reached through the given alias, with the
+     * settings and mappings of the current version, but with refresh disabled and no
+     * replicas, waiting for its shards to be allocated
+     *
+     * @param alias Alias the DataSet is loaded for
+     * @return Name of the new version of the index
+     */
+    public String start(String alias) {
+        MetaData metaData = clusterService.state().metaData();
+        if (metaData.hasIndex(alias)) {
+            throw new ElasticSearchIllegalArgumentException("Cannot bulk load into [" + alias + "], " +
+                    "which is an index rather than an alias");
+        }
+
+        String index = alias + VERSION_SEPARATOR + (latestVersion(metaData, alias) + 1);
+        IndexMetaData current = current(metaData, alias);
+
+        ImmutableSettings.Builder indexSettings = ImmutableSettings.settingsBuilder();
+        CreateIndexRequestBuilder createIndex = client.admin().indices().prepareCreate(index);
+        if (current != null) {
+            indexSettings.put(current.settings());
+            // Set by the cluster when the version is created
+            indexSettings.remove(IndexMetaData.SETTING_VERSION_CREATED);
+            for (String setting : DEFERRED_SETTINGS) {
+                indexSettings.remove(setting);
+            }
+            for (MappingMetaData mapping : current.mappings().values()) {
+                try {
+                    createIndex.addMapping(mapping.type(), mapping.source().string());
+                } catch (IOException ioe) {
+                    throw new ElasticSearchIllegalArgumentException("Failed to read mapping [" + mapping.type() +
+                            "] of [" + current.index() + "]", ioe);
+                }
+            }
+        }
+        indexSettings.put(NUMBER_OF_REPLICAS, 0).put(REFRESH_INTERVAL, -1);
+        createIndex.setSettings(indexSettings).execute().actionGet();
+        client.admin().cluster().prepareHealth(index).setWaitForYellowStatus().execute().actionGet();
+
+        logger.info("Bulk loading [{}] into [{}]", alias, index);
+        return index;
+    }
+
+    /**
+     * Completes the bulk load into the given version of the index.  The version is optimized
+     * while it has no replicas, so that they later recover the merged segments, and is then
+     * given the refresh interval, replicas and other held back settings of the previous
+     * version before the alias is repointed to it.
+     *
+     * @param alias Alias the DataSet was loaded for
+     * @param index Version of the index the DataSet was loaded into
+     */
+    public void finish(String alias, String index) {
+        client.admin().indices().prepareOptimize(index)
+                .setMaxNumSegments(maxNumSegments)
+                .setWaitForMerge(true)
+                .setFlush(true)
+                .setRefresh(true)
+                .execute().actionGet();
+
+        MetaData metaData = clusterService.state().metaData();
+        IndexMetaData current = current(metaData, alias);
+        ImmutableSettings.Builder indexSettings = ImmutableSettings.settingsBuilder()
+                .put(NUMBER_OF_REPLICAS, current != null ? current.numberOfReplicas() : defaultNumberOfReplicas)
+                .put(REFRESH_INTERVAL, current != null ?
+                        current.settings().get(REFRESH_INTERVAL, defaultRefreshInterval) : defaultRefreshInterval);
+        if (current != null) {
+            for (String setting : DEFERRED_SETTINGS) {
+                if (current.settings().get(setting) != null) {
+                    indexSettings.put(setting, current.settings().get(setting));
+                }
+            }
+        }
+        client.admin().indices().prepareUpdateSettings(index).setSettings(indexSettings).execute().actionGet();
+
+        Set<String> previous = aliasedIndices(metaData, alias);
+        IndicesAliasesRequestBuilder aliases = client.admin().indices().prepareAliases().addAlias(index, alias);
+        for (String previousIndex : previous) {
+            aliases.removeAlias(previousIndex, alias);
+        }
+        aliases.execute().actionGet();
+        logger.info("Alias [{}] now points to [{}], previously {}", alias, index, previous);
+
+        if (deletePrevious && !previous.isEmpty()) {
+            // The new version is live at this point, so failing to delete the previous ones fails nothing
+            try {
+                client.admin().indices().prepareDelete(previous.toArray(new String[previous.size()])).execute().actionGet();
+            } catch (Exception e) {
+                logger.warn("Failed to delete previous versions {} of [{}]", e, previous, alias);
+            }
+        }
+    }
+
+    /**
+     * Deletes a version of the index whose bulk load failed.  The alias was never pointed
+     * to it, so queries are unaffected.
+     *
+     * @param index Version of the index to delete
+     */
+    public void abort(String index) {
+        try {
+            client.admin().indices().prepareDelete(index).execute().actionGet();
+        } catch (Exception e) {
+            logger.warn("Failed to delete [{}] after its bulk load failed", e, index);
+        }
+    }
+
+    /**
+     * Wraps the given listener so that the bulk load is completed before the listener is
+     * told the ingest succeeded, or aborted before it is told the ingest failed.  Completing
+     * the load blocks, so it runs on the generic thread pool.
+     *
+     * @param alias Alias the DataSet is loaded for
+     * @param index Version of the index the DataSet is loaded into
+     * @param listener Listener for success and failure of the bulk load
+     * @return Listener for success and failure of the ingest
+     */
+    public ActionListener<DataSetIndexResponse> listener(
+            final String alias,
+            final String index,
+            final ActionListener<DataSetIndexResponse> listener) {
+        return new ActionListener<DataSetIndexResponse>() {
+
+            @Override
+            public void onResponse(final DataSetIndexResponse response) {
+                threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            finish(alias, index);
+                        } catch (Exception e) {
+                            onFailure(e);
+                            return;
+                        }
+                        listener.onResponse(new DataSetIndexResponse(response.totalCount(), response.stats(), index));
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Throwable e) {
+                threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        abort(index);
+                        listener.onFailure(e);
+                    }
+                });
+            }
+        };
+    }
+
+    private static IndexMetaData current(MetaData metaData, String alias) {
+        int latest = -1;
+        IndexMetaData current = null;
+        for (String index : aliasedIndices(metaData, alias)) {
+            int version = version(alias, index);
+            if (current == null || version > latest) {
+                latest = version;
+                current = metaData.index(index);
+            }
+        }
+        return current;
+    }
+
+    private static Set<String> aliasedIndices(MetaData metaData, String alias) {
+        ImmutableMap<String, AliasMetaData> indices = metaData.aliases().get(alias);
+        return indices != null ? indices.keySet() : Collections.<String>emptySet();
+    }
+
+    private static int latestVersion(MetaData metaData, String alias) {
+        int latest = 0;
+        for (String index : metaData.concreteAllIndices()) {
+            latest = Math.max(latest, version(alias, index));
+        }
+        return latest;
+    }
+
+    /**
+     * @param alias Alias the DataSet is loaded for
+     * @param index Name of an index
+     * @return Version of the index if it is a version of the alias, otherwise {@code 0}
+     */
+    static int version(String alias, String index) {
+        Matcher matcher = Pattern.compile(Pattern.quote(alias + VERSION_SEPARATOR) + "(\\d+)").matcher(index);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+}
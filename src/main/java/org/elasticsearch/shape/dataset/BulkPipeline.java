@@ -0,0 +1,311 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.ElasticSearchInterruptedException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+
+/**
+ * Pipeline of bulk requests for the documents of an ingest.  Documents are queued by the
+ * shard they target, and each shard sends its own bulks with a bounded number in flight, so
+ * a slow shard only holds up its own documents while the bulks of the other shards keep
+ * draining.  Documents are only held up once the queue of their shard is full.
+ * <p>
+ * Items rejected by the cluster are retried by the shard they belong to after an exponential
+ * backoff, their bulk staying in flight until they are indexed.  Other failures, or items
+ * still rejected once the retries are exhausted, fail the pipeline, which is reported by
+ * the next document added or by {@link #flush()}.
+ * </p>
+ */
+public class BulkPipeline {
+
+    /**
+     * Shard of the documents whose target shard is not known, such as when the index has
+     * yet to be created
+     */
+    public static final int UNKNOWN_SHARD = -1;
+
+    private static final ESLogger logger = Loggers.getLogger(BulkPipeline.class);
+
+    private static final String REJECTION = EsRejectedExecutionException.class.getSimpleName() + "[";
+    private static final String NESTED = "nested: ";
+
+    private final Client client;
+    private final ThreadPool threadPool;
+    private final int batchSize;
+    private final AdaptiveBatchSizer batchSizer;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final TimeValue initialBackoff;
+
+    private final Map<Integer, ShardQueue> queues = newHashMap();
+    private int inFlight;
+    private Throwable failure;
+
+    /**
+     * Creates a new BulkPipeline
+     *
+     * @param client Client the bulks are sent with
+     * @param threadPool ThreadPool rejected items are retried on
+     * @param batchSize Number of documents in a bulk, if they are not sized by a batch sizer
+     * @param batchSizer Sizer informed of the outcome of each bulk, or {@code null} if batches are fixed size
+     * @param maxInFlight Maximum number of bulks of a shard in flight at once
+     * @param maxRetries Maximum number of times rejected items are retried
+     * @param initialBackoff Time waited before rejected items are first retried, doubling with each retry
+     */
+    public BulkPipeline(
+            Client client,
+            ThreadPool threadPool,
+            int batchSize,
+            AdaptiveBatchSizer batchSizer,
+            int maxInFlight,
+            int maxRetries,
+            TimeValue initialBackoff) {
+        this.client = client;
+        this.threadPool = threadPool;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchSizer = batchSizer;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * Adds a document to the queue of the shard it targets, sending the queue as a bulk once
+     * it is full.  Blocks while the shard already has the maximum number of bulks in flight.
+     *
+     * @param request Index request of the document
+     * @param shard Shard the document targets, or {@link #UNKNOWN_SHARD}
+     */
+    public void add(IndexRequest request, int shard) {
+        List<IndexRequest> batch;
+        ShardQueue queue;
+        synchronized (this) {
+            checkFailure();
+            queue = queues.get(shard);
+            if (queue == null) {
+                queue = new ShardQueue(shard);
+                queues.put(shard, queue);
+            }
+            queue.documents.add(request);
+            if (queue.documents.size() < batchSize()) {
+                return;
+            }
+            batch = take(queue);
+        }
+        send(queue, batch, 0);
+    }
+
+    /**
+     * Sends the documents left in the queues and waits for every bulk in flight to complete
+     *
+     * @throws ElasticSearchIllegalStateException Thrown if any documents failed to be indexed
+     */
+    public void flush() {
+        for (ShardQueue queue : queues()) {
+            List<IndexRequest> batch;
+            synchronized (this) {
+                checkFailure();
+                if (queue.documents.isEmpty()) {
+                    continue;
+                }
+                batch = take(queue);
+            }
+            send(queue, batch, 0);
+        }
+
+        synchronized (this) {
+            while (inFlight > 0) {
+                await();
+            }
+            checkFailure();
+        }
+    }
+
+    /**
+     * @return Number of bulks in flight across all shards, including those waiting to retry rejected items
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private synchronized List<ShardQueue> queues() {
+        return newArrayList(queues.values());
+    }
+
+    private int batchSize() {
+        return batchSizer != null ? batchSizer.batchSize() : batchSize;
+    }
+
+    /**
+     * Takes the documents queued for the given shard once it has room for another bulk in flight
+     */
+    private List<IndexRequest> take(ShardQueue queue) {
+        while (queue.inFlight >= maxInFlight) {
+            await();
+            checkFailure();
+        }
+        List<IndexRequest> batch = queue.documents;
+        queue.documents = newArrayList();
+        queue.inFlight++;
+        inFlight++;
+        return batch;
+    }
+
+    private void send(final ShardQueue queue, final List<IndexRequest> batch, final int retry) {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (IndexRequest indexRequest : batch) {
+            bulkRequest.add(indexRequest);
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            client.bulk(bulkRequest, new ActionListener<BulkResponse>() {
+
+                @Override
+                public void onResponse(BulkResponse response) {
+                    List<IndexRequest> rejected = newArrayList();
+                    StringBuilder failures = null;
+                    for (BulkItemResponse itemResponse : response) {
+                        if (!itemResponse.isFailed()) {
+                            continue;
+                        }
+                        if (isRejection(itemResponse)) {
+                            rejected.add(batch.get(itemResponse.itemId()));
+                        } else {
+                            if (failures == null) {
+                                failures = new StringBuilder("failure in bulk execution:");
+                            }
+                            failures.append("\n[").append(itemResponse.itemId()).append("]: index [").append(itemResponse.getIndex())
+                                    .append("], type [").append(itemResponse.getType()).append("], id [").append(itemResponse.getId())
+                                    .append("], message [").append(itemResponse.getFailureMessage()).append("]");
+                        }
+                    }
+                    onBulk(queue, batch, retry, System.currentTimeMillis() - start, rejected,
+                            failures != null ? new ElasticSearchIllegalStateException(failures.toString()) : null);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException) {
+                        onBulk(queue, batch, retry, System.currentTimeMillis() - start, batch, null);
+                    } else {
+                        onBulk(queue, batch, retry, System.currentTimeMillis() - start, null, e);
+                    }
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            onBulk(queue, batch, retry, System.currentTimeMillis() - start, batch, null);
+        }
+    }
+
+    private void onBulk(
+            final ShardQueue queue,
+            List<IndexRequest> batch,
+            final int retry,
+            long latencyMillis,
+            final List<IndexRequest> rejected,
+            Throwable bulkFailure) {
+        synchronized (this) {
+            if (batchSizer != null) {
+                batchSizer.onBulk(batch.size(), latencyMillis, rejected != null ? rejected.size() : 0);
+            }
+
+            if (bulkFailure == null && rejected != null && !rejected.isEmpty() && failure == null) {
+                if (retry == maxRetries) {
+                    bulkFailure = new ElasticSearchIllegalStateException("Failed to index [" + rejected.size() + "] documents, " +
+                            "still rejected after [" + maxRetries + "] retries");
+                } else {
+                    long backoff = initialBackoff.millis() << Math.min(retry, 16);
+                    logger.debug("[{}] documents rejected by shard [{}], retrying in [{}ms]", rejected.size(), queue.shard, backoff);
+                    try {
+                        // The bulk stays in flight until its rejected items are indexed
+                        threadPool.schedule(TimeValue.timeValueMillis(backoff), ThreadPool.Names.GENERIC, new Runnable() {
+
+                            @Override
+                            public void run() {
+                                send(queue, rejected, retry + 1);
+                            }
+                        });
+                        return;
+                    } catch (Exception e) {
+                        // Such as once the thread pool has been shut down, the bulk then leaving flight as failed
+                        bulkFailure = new ElasticSearchIllegalStateException("Failed to schedule the retry of [" +
+                                rejected.size() + "] rejected documents", e);
+                    }
+                }
+            }
+
+            if (bulkFailure != null && failure == null) {
+                failure = bulkFailure;
+            }
+            queue.inFlight--;
+            inFlight--;
+            notifyAll();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            throw new ElasticSearchIllegalStateException("Failed to execute bulk", failure);
+        }
+    }
+
+    private void await() {
+        try {
+            wait();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchInterruptedException("Interrupted while waiting for bulks in flight", ie);
+        }
+    }
+
+    /**
+     * Failed bulk items only carry the detailed message of their failure, which names the
+     * exception and each of its causes as {@code Name[message]}, causes following
+     * {@code nested: }.  Items are rejected if the failure or one of its causes is an
+     * {@link EsRejectedExecutionException}, rather than if the name appears anywhere in the
+     * message, such as in the source of a document that failed to parse.
+     *
+     * @param itemResponse Response of a failed item
+     * @return Whether the item was rejected by the thread pool of its shard
+     */
+    static boolean isRejection(BulkItemResponse itemResponse) {
+        String failureMessage = itemResponse.getFailureMessage();
+        return failureMessage != null &&
+                (failureMessage.startsWith(REJECTION) || failureMessage.contains(NESTED + REJECTION));
+    }
+
+    /**
+     * Documents queued for a shard, and the number of its bulks in flight
+     */
+    private static class ShardQueue {
+
+        private final int shard;
+        private List<IndexRequest> documents = newArrayList();
+        private int inFlight;
+
+        private ShardQueue(int shard) {
+            this.shard = shard;
+        }
+    }
+}
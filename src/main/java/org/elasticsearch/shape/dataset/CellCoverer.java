@@ -0,0 +1,233 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Point;
+import com.spatial4j.core.shape.Rectangle;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Covers Shapes with the cells of a geohash or quad grid, so that the cells can be stored
+ * with their documents and filtered on without tessellating the Shapes at query time.
+ * <p>
+ * A covering is computed by refining the grid a level at a time from the whole world.
+ * Cells entirely within the Shape are kept at the level they were found, as their
+ * descendants are all covered too, while cells crossing the boundary of the Shape are
+ * refined until the precision is reached.  When refining a level would exceed the maximum
+ * number of cells, the covering stops at the previous level, so it is coarser but still
+ * covers the whole Shape.
+ * </p>
+ * <p>
+ * Geohash cells are named as geohashes.  Quad cells are named by the quadrant of each level,
+ * {@code 0} to {@code 3} for the lower left, lower right, upper left and upper right.  The
+ * cells of a covering are those intersecting the Shape, so a document intersects a cell if
+ * its covering holds the cell, one of its ancestors or one of its descendants.
+ * </p>
+ */
+public class CellCoverer {
+
+    /**
+     * Grid of cells a Shape is covered with
+     */
+    public static enum Type {
+        /**
+         * Cells of 32 children each, named as geohashes
+         */
+        GEOHASH(12, "0123456789bcdefghjkmnpqrstuvwxyz"),
+        /**
+         * Cells of 4 children each, one per quadrant
+         */
+        QUAD(26, "0123");
+
+        private final int maxPrecision;
+        private final String alphabet;
+
+        private Type(int maxPrecision, String alphabet) {
+            this.maxPrecision = maxPrecision;
+            this.alphabet = alphabet;
+        }
+
+        /**
+         * @return Deepest level of the grid cells can be covered at
+         */
+        public int maxPrecision() {
+            return maxPrecision;
+        }
+
+        /**
+         * @param value Name of the Type, such as {@code geohash}
+         * @return Type with the name
+         */
+        public static Type fromString(String value) {
+            for (Type type : values()) {
+                if (type.name().equalsIgnoreCase(value)) {
+                    return type;
+                }
+            }
+            throw new ElasticSearchIllegalArgumentException("Unknown cell covering type [" + value + "]");
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final String GEOHASH_ALPHABET = Type.GEOHASH.alphabet;
+
+    private final Type type;
+    private final int precision;
+    private final int maxCells;
+
+    /**
+     * Creates a new CellCoverer
+     *
+     * @param type Grid the Shapes are covered with
+     * @param precision Level of the grid the boundaries of the Shapes are covered at
+     * @param maxCells Maximum number of cells in a covering, beyond which coverings are coarser
+     */
+    public CellCoverer(Type type, int precision, int maxCells) {
+        if (precision < 1 || precision > type.maxPrecision()) {
+            throw new ElasticSearchIllegalArgumentException("Precision of " + type + " coverings must be between 1 and [" +
+                    type.maxPrecision() + "], found [" + precision + "]");
+        }
+        this.type = type;
+        this.precision = precision;
+        this.maxCells = Math.max(1, maxCells);
+    }
+
+    /**
+     * Covers the given Shape with cells
+     *
+     * @param shape Shape to cover
+     * @return Names of the cells covering the Shape, sorted, or empty if the Shape has no area or extent
+     */
+    public List<String> cover(Shape shape) {
+        Geometry geometry = toGeometry(shape);
+        if (geometry == null || geometry.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        PreparedGeometry prepared = new PreparedGeometryFactory().create(geometry);
+        Envelope envelope = geometry.getEnvelopeInternal();
+
+        List<String> covered = newArrayList();
+        List<String> boundary = Collections.singletonList("");
+        for (int level = 1; level <= precision; level++) {
+            int numCovered = covered.size();
+            List<String> nextBoundary = newArrayList();
+            for (String cell : boundary) {
+                for (int i = 0; i < type.alphabet.length(); i++) {
+                    String child = cell + type.alphabet.charAt(i);
+                    Envelope cellEnvelope = envelope(child);
+                    if (!cellEnvelope.intersects(envelope)) {
+                        continue;
+                    }
+                    Geometry cellGeometry = GeoShapeConstants.GEOMETRY_FACTORY.toGeometry(cellEnvelope);
+                    if (prepared.contains(cellGeometry)) {
+                        covered.add(child);
+                    } else if (prepared.intersects(cellGeometry)) {
+                        nextBoundary.add(child);
+                    }
+                }
+            }
+
+            if (level > 1 && covered.size() + nextBoundary.size() > maxCells) {
+                // Too fine, so the cells of the previous level are kept instead
+                covered.subList(numCovered, covered.size()).clear();
+                break;
+            }
+            boundary = nextBoundary;
+        }
+
+        covered.addAll(boundary);
+        Collections.sort(covered);
+        return covered;
+    }
+
+    /**
+     * Calculates the bounds of the given cell
+     *
+     * @param cell Name of the cell
+     * @return Envelope of the cell
+     */
+    Envelope envelope(String cell) {
+        double minX = -180;
+        double maxX = 180;
+        double minY = -90;
+        double maxY = 90;
+
+        if (type == Type.QUAD) {
+            for (int i = 0; i < cell.length(); i++) {
+                int quadrant = cell.charAt(i) - '0';
+                double midX = (minX + maxX) / 2;
+                double midY = (minY + maxY) / 2;
+                if ((quadrant & 1) != 0) {
+                    minX = midX;
+                } else {
+                    maxX = midX;
+                }
+                if ((quadrant & 2) != 0) {
+                    minY = midY;
+                } else {
+                    maxY = midY;
+                }
+            }
+            return new Envelope(minX, maxX, minY, maxY);
+        }
+
+        // Geohashes interleave 5 bits per character, starting with longitude
+        boolean longitude = true;
+        for (int i = 0; i < cell.length(); i++) {
+            int bits = GEOHASH_ALPHABET.indexOf(cell.charAt(i));
+            if (bits < 0) {
+                throw new ElasticSearchIllegalArgumentException("Invalid geohash [" + cell + "]");
+            }
+            for (int bit = 4; bit >= 0; bit--) {
+                boolean upper = (bits & (1 << bit)) != 0;
+                if (longitude) {
+                    double midX = (minX + maxX) / 2;
+                    if (upper) {
+                        minX = midX;
+                    } else {
+                        maxX = midX;
+                    }
+                } else {
+                    double midY = (minY + maxY) / 2;
+                    if (upper) {
+                        minY = midY;
+                    } else {
+                        maxY = midY;
+                    }
+                }
+                longitude = !longitude;
+            }
+        }
+        return new Envelope(minX, maxX, minY, maxY);
+    }
+
+    private static Geometry toGeometry(Shape shape) {
+        if (shape instanceof JtsGeometry) {
+            return ((JtsGeometry) shape).getGeom();
+        } else if (shape instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) shape;
+            return GeoShapeConstants.GEOMETRY_FACTORY.toGeometry(
+                    new Envelope(rectangle.getMinX(), rectangle.getMaxX(), rectangle.getMinY(), rectangle.getMaxY()));
+        } else if (shape instanceof Point) {
+            Point point = (Point) shape;
+            return GeoShapeConstants.GEOMETRY_FACTORY.createPoint(new Coordinate(point.getX(), point.getY()));
+        }
+        return null;
+    }
+}
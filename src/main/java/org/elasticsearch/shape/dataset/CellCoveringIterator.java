@@ -0,0 +1,180 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Shape;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ElasticSearchInterruptedException;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Iterator over ShapeData which tiles and covers the Shapes ahead of them being returned,
+ * in parallel on an Executor.  The ShapeData are read from the underlying iterator on the
+ * calling thread, and up to a window of them are tiled and covered at once, so the cost of
+ * covering large polygons is spread over the cores of the node while the documents are
+ * still indexed in order.
+ */
+public class CellCoveringIterator implements Iterator<ShapeData> {
+
+    private final Iterator<ShapeData> shapeData;
+    private final CellCoverer coverer;
+    private final ShapeTiler shapeTiler;
+    private final int maxVertices;
+    private final GeometryValidation validation;
+    private final Executor executor;
+    private final int window;
+
+    private final Deque<FutureTask<Covering>> pending = new ArrayDeque<FutureTask<Covering>>();
+    private Covering current;
+
+    /**
+     * Creates a new CellCoveringIterator
+     *
+     * @param shapeData ShapeData to cover
+     * @param coverer Coverer of the Shapes
+     * @param shapeTiler Tiler of Shapes with too many vertices, or {@code null} if Shapes are not tiled
+     * @param maxVertices Maximum number of vertices of a Shape before it is tiled
+     * @param validation Validation counting the packed geometry whose Shape cannot be built
+     * @param executor Executor the Shapes are covered on
+     * @param window Maximum number of Shapes covered ahead of the one last returned
+     */
+    public CellCoveringIterator(
+            Iterator<ShapeData> shapeData,
+            CellCoverer coverer,
+            ShapeTiler shapeTiler,
+            int maxVertices,
+            GeometryValidation validation,
+            Executor executor,
+            int window) {
+        this.shapeData = shapeData;
+        this.coverer = coverer;
+        this.shapeTiler = shapeTiler;
+        this.maxVertices = maxVertices;
+        this.validation = validation;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public ShapeData next() {
+        fill();
+        if (pending.isEmpty()) {
+            throw new NoSuchElementException("No more records");
+        }
+
+        try {
+            current = pending.poll().get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchInterruptedException("Interrupted while covering Shapes", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new ElasticSearchException("Failed to cover Shape", ee.getCause());
+        }
+        fill();
+        return current.shapeData;
+    }
+
+    /**
+     * @return Tiles of the ShapeData last returned, or {@code null} if its packed geometry
+     *         is indexed as it is
+     */
+    public List<Shape> tiles() {
+        return current.tiles;
+    }
+
+    /**
+     * @param tile Number of the tile, {@code 0} if the ShapeData was not tiled
+     * @return Cells covering the tile of the ShapeData last returned
+     */
+    public List<String> cells(int tile) {
+        return current.cells.get(tile);
+    }
+
+    /**
+     * @return Time spent tiling the ShapeData last returned, in nanoseconds
+     */
+    public long tileNanos() {
+        return current.tileNanos;
+    }
+
+    /**
+     * @return Time spent covering the ShapeData last returned, in nanoseconds
+     */
+    public long coverNanos() {
+        return current.coverNanos;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Cannot remove from this iterator");
+    }
+
+    private void fill() {
+        while (pending.size() < window && shapeData.hasNext()) {
+            final ShapeData next = shapeData.next();
+            FutureTask<Covering> task = new FutureTask<Covering>(new Callable<Covering>() {
+
+                @Override
+                public Covering call() {
+                    return cover(next);
+                }
+            });
+            executor.execute(task);
+            pending.add(task);
+        }
+    }
+
+    private Covering cover(ShapeData shapeData) {
+        long tileStart = System.nanoTime();
+        List<Shape> tiles = ShapeDataSetService.tiles(shapeData, shapeTiler, maxVertices, validation);
+        long coverStart = System.nanoTime();
+
+        List<List<String>> cells = newArrayList();
+        if (tiles != null) {
+            for (Shape tile : tiles) {
+                cells.add(coverer.cover(tile));
+            }
+        } else if (shapeData.hasGeometry()) {
+            // Packed geometry whose Shape cannot be built is covered by its bounding box instead,
+            // having already been counted if it failed to build for tiling
+            PackedGeometry packedGeometry = shapeData.packedGeometry();
+            Shape shape = ShapeDataSetService.needsTiling(packedGeometry, shapeTiler, maxVertices) ?
+                    null : ShapeDataSetService.shape(shapeData, validation);
+            cells.add(coverer.cover(shape != null ? shape : packedGeometry.boundingBox()));
+        } else {
+            cells.add(Collections.<String>emptyList());
+        }
+        return new Covering(shapeData, tiles, cells, coverStart - tileStart, System.nanoTime() - coverStart);
+    }
+
+    private static class Covering {
+
+        private final ShapeData shapeData;
+        private final List<Shape> tiles;
+        private final List<List<String>> cells;
+        private final long tileNanos;
+        private final long coverNanos;
+
+        private Covering(ShapeData shapeData, List<Shape> tiles, List<List<String>> cells, long tileNanos, long coverNanos) {
+            this.shapeData = shapeData;
+            this.tiles = tiles;
+            this.cells = cells;
+            this.tileNanos = tileNanos;
+            this.coverNanos = coverNanos;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Definition of a {@link ShapeDataSet} registered at runtime, from which the DataSet is
+ * created on every node.  A definition is either of a shapefile archive or directory read
+ * by a {@link RemoteESRIShapeDataSet}, or of a file written for a {@link PackedShapeDataSet}.
+ */
+public class DataSetDefinition implements Streamable {
+
+    public static final String ESRI_TYPE = "esri";
+    public static final String PACKED_TYPE = "packed";
+
+    private String id;
+    private String type;
+    private String url;
+    private String nameField;
+    private boolean offHeap;
+
+    DataSetDefinition() {
+    }
+
+    /**
+     * Creates a new DataSetDefinition
+     *
+     * @param id ID of the DataSet
+     * @param type Type of the DataSet, either {@link #ESRI_TYPE} or {@link #PACKED_TYPE}
+     * @param url URL of the archive or directory of an ESRI DataSet, or of the file of a
+     *        packed DataSet
+     * @param nameField Name of the attribute holding the names of the Shapes of an ESRI DataSet
+     * @param offHeap Whether the geometries of an ESRI DataSet are parsed off-heap
+     */
+    public DataSetDefinition(String id, String type, String url, String nameField, boolean offHeap) {
+        if (id == null || url == null) {
+            throw new ElasticSearchIllegalArgumentException("Data set definitions need an id and a url");
+        } else if (!ESRI_TYPE.equals(type) && !PACKED_TYPE.equals(type)) {
+            throw new ElasticSearchIllegalArgumentException("Unsupported data set type [" + type + "]");
+        } else if (PACKED_TYPE.equals(type) && !url.startsWith("file:")) {
+            throw new ElasticSearchIllegalArgumentException("Packed data sets must be local files, but found [" + url + "]");
+        }
+        this.id = id;
+        this.type = type;
+        this.url = url;
+        this.nameField = nameField;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return ID of the DataSet
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return Type of the DataSet
+     */
+    public String type() {
+        return type;
+    }
+
+    /**
+     * @return URL of the files of the DataSet
+     */
+    public String url() {
+        return url;
+    }
+
+    /**
+     * Creates the DataSet described by the definition.  No files are read until the DataSet
+     * is first used, other than the mapping of packed files.
+     *
+     * @return DataSet described by the definition
+     * @throws IOException Can be thrown if there is a problem mapping a packed file
+     */
+    public ShapeDataSet dataSet() throws IOException {
+        if (PACKED_TYPE.equals(type)) {
+            return new PackedShapeDataSet(id, new File(URI.create(url)));
+        }
+        return new RemoteESRIShapeDataSet(id, url, nameField, offHeap);
+    }
+
+    /**
+     * Writes the definition as the fields of a document
+     *
+     * @param builder Builder to write the fields to
+     * @throws IOException Can be thrown if there is a problem writing the fields
+     */
+    public void toXContent(XContentBuilder builder) throws IOException {
+        builder.field(Fields.ID, id)
+                .field(Fields.TYPE, type)
+                .field(Fields.URL, url)
+                .field(Fields.NAME_FIELD, nameField)
+                .field(Fields.OFF_HEAP, offHeap);
+    }
+
+    /**
+     * Reads a definition from the source of a document written by {@link #toXContent(XContentBuilder)}
+     *
+     * @param source Source of the document
+     * @return Definition read from the source
+     */
+    public static DataSetDefinition fromMap(Map<String, Object> source) {
+        return new DataSetDefinition(
+                XContentMapValues.nodeStringValue(source.get(Fields.ID), null),
+                XContentMapValues.nodeStringValue(source.get(Fields.TYPE), ESRI_TYPE),
+                XContentMapValues.nodeStringValue(source.get(Fields.URL), null),
+                XContentMapValues.nodeStringValue(source.get(Fields.NAME_FIELD), null),
+                XContentMapValues.nodeBooleanValue(source.get(Fields.OFF_HEAP), false));
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        id = in.readString();
+        type = in.readString();
+        url = in.readString();
+        nameField = in.readOptionalString();
+        offHeap = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(id);
+        out.writeString(type);
+        out.writeString(url);
+        out.writeOptionalString(nameField);
+        out.writeBoolean(offHeap);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DataSetDefinition)) {
+            return false;
+        }
+        DataSetDefinition that = (DataSetDefinition) o;
+        return id.equals(that.id) && type.equals(that.type) && url.equals(that.url) && offHeap == that.offHeap
+                && (nameField != null ? nameField.equals(that.nameField) : that.nameField == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode() * 31 + url.hashCode();
+    }
+
+    private static interface Fields {
+        String ID = "id";
+        String TYPE = "type";
+        String URL = "url";
+        String NAME_FIELD = "name_field";
+        String OFF_HEAP = "off_heap";
+    }
+}
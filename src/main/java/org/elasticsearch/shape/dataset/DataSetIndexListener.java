@@ -0,0 +1,15 @@
+package org.elasticsearch.shape.dataset;
+
+/**
+ * Listener notified by the {@link ShapeDataSetService} when a {@link ShapeDataSet} has been
+ * indexed on the local node
+ */
+public interface DataSetIndexListener {
+
+    /**
+     * Called after the data from the given ShapeDataSet, or a slice of it, has been indexed
+     *
+     * @param dataSet ShapeDataSet that was indexed
+     */
+    void onIndexed(ShapeDataSet dataSet);
+}
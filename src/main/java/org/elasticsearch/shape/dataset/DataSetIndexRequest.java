@@ -0,0 +1,425 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+
+/**
+ * Request for indexing the Shapes from a {@link ShapeDataSet}
+ */
+public class DataSetIndexRequest implements Streamable {
+
+    private String index = "shapes";
+    private String type;
+    private int batchSize = Integer.MAX_VALUE;
+    private double precision = 0;
+    private boolean shardAware = false;
+    private XContentType contentType = XContentType.JSON;
+    private int maxVertices = 0;
+    private boolean adaptiveBatchSize = false;
+    private boolean typePerLayer = false;
+    private boolean dryRun = false;
+    private IngestMemoryBudget.OverBudget overBudget = null;
+    private boolean hilbertOrder = false;
+    private boolean bulkLoad = false;
+    private CellCoverer.Type covering = null;
+    private int coveringPrecision = 0;
+    private GeometryValidation.Policy validation = null;
+
+    DataSetIndexRequest() {
+    }
+
+    /**
+     * Creates a new DataSetIndexRequest with the same options as the given request
+     *
+     * @param request Request to copy
+     */
+    DataSetIndexRequest(DataSetIndexRequest request) {
+        this.index = request.index;
+        this.type = request.type;
+        this.batchSize = request.batchSize;
+        this.precision = request.precision;
+        this.shardAware = request.shardAware;
+        this.contentType = request.contentType;
+        this.maxVertices = request.maxVertices;
+        this.adaptiveBatchSize = request.adaptiveBatchSize;
+        this.typePerLayer = request.typePerLayer;
+        this.dryRun = request.dryRun;
+        this.overBudget = request.overBudget;
+        this.hilbertOrder = request.hilbertOrder;
+        this.bulkLoad = request.bulkLoad;
+        this.covering = request.covering;
+        this.coveringPrecision = request.coveringPrecision;
+        this.validation = request.validation;
+    }
+
+    /**
+     * Creates a new DataSetIndexRequest which will index into the given type
+     *
+     * @param type Name of the index type where the data will be indexed
+     */
+    public DataSetIndexRequest(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return Name of the index where the data will be indexed
+     */
+    public String index() {
+        return index;
+    }
+
+    /**
+     * Sets the name of the index where the data will be indexed
+     *
+     * @param index Name of the index
+     * @return this
+     */
+    public DataSetIndexRequest index(String index) {
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * @return Name of the index type where the data will be indexed
+     */
+    public String type() {
+        return type;
+    }
+
+    /**
+     * Sets the name of the index type where the data will be indexed
+     *
+     * @param type Name of the index type
+     * @return this
+     */
+    public DataSetIndexRequest type(String type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * @return The maximum batch size for indexing requests
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum batch size for indexing requests
+     *
+     * @param batchSize Maximum batch size
+     * @return this
+     */
+    public DataSetIndexRequest batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @return Precision, in degrees, that coordinates are quantized to.  {@code 0} means
+     *         coordinates are serialized with full precision
+     */
+    public double precision() {
+        return precision;
+    }
+
+    /**
+     * Sets the precision, in degrees, that coordinates are quantized to when serialized
+     *
+     * @param precision Precision of the coordinates, such as {@code 1e-6}, or {@code 0} for full precision
+     * @return this
+     */
+    public DataSetIndexRequest precision(double precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    /**
+     * @return Whether documents are queued into separate bulk requests per target shard
+     */
+    public boolean shardAware() {
+        return shardAware;
+    }
+
+    /**
+     * Sets whether documents are queued into separate bulk requests per target shard, each
+     * shard sending its own bulks so that a slow shard only holds up its own documents
+     *
+     * @param shardAware Whether bulks are grouped by target shard
+     * @return this
+     */
+    public DataSetIndexRequest shardAware(boolean shardAware) {
+        this.shardAware = shardAware;
+        return this;
+    }
+
+    /**
+     * @return Type of XContent the document sources are built with
+     */
+    public XContentType contentType() {
+        return contentType;
+    }
+
+    /**
+     * Sets the type of XContent the document sources are built with.  Using
+     * {@link XContentType#SMILE} means coordinates are written as binary doubles rather than
+     * decimal strings, producing smaller bulk requests that are also cheaper to parse.
+     *
+     * @param contentType Type of XContent used for the document sources
+     * @return this
+     */
+    public DataSetIndexRequest contentType(XContentType contentType) {
+        this.contentType = contentType;
+        return this;
+    }
+
+    /**
+     * @return Maximum number of vertices a Shape can have before it is split into tiles.
+     *         {@code 0} means Shapes are never split
+     */
+    public int maxVertices() {
+        return maxVertices;
+    }
+
+    /**
+     * Sets the maximum number of vertices a Shape can have before it is split into tiles.
+     * Each tile is indexed as its own document, linked to the feature it was split from.
+     *
+     * @param maxVertices Maximum number of vertices, or {@code 0} to never split Shapes
+     * @return this
+     */
+    public DataSetIndexRequest maxVertices(int maxVertices) {
+        this.maxVertices = maxVertices;
+        return this;
+    }
+
+    /**
+     * @return Whether the batch size is adjusted based on the latency and rejections of
+     *         previous bulks, in which case {@link #batchSize()} is the upper limit
+     */
+    public boolean adaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    /**
+     * Sets whether the batch size is adjusted based on the latency and rejections of
+     * previous bulks.  Batches shrink when the cluster is under pressure and grow when
+     * it has spare capacity, never exceeding {@link #batchSize()}.
+     *
+     * @param adaptiveBatchSize Whether the batch size is adjusted
+     * @return this
+     */
+    public DataSetIndexRequest adaptiveBatchSize(boolean adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+        return this;
+    }
+
+    /**
+     * @return Whether Shapes from multi-layer DataSets are indexed into a type named after
+     *         their layer, rather than into {@link #type()}
+     */
+    public boolean typePerLayer() {
+        return typePerLayer;
+    }
+
+    /**
+     * Sets whether Shapes from multi-layer DataSets are indexed into a type named after
+     * their layer.  Otherwise all layers are indexed into {@link #type()} and each document
+     * records its layer in a field.
+     *
+     * @param typePerLayer Whether each layer is indexed into its own type
+     * @return this
+     */
+    public DataSetIndexRequest typePerLayer(boolean typePerLayer) {
+        this.typePerLayer = typePerLayer;
+        return this;
+    }
+
+    /**
+     * @return Whether the data is downloaded, parsed and serialized without being indexed
+     */
+    public boolean dryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Sets whether the data is downloaded, parsed and serialized without being indexed.
+     * Bulk requests are dropped, so the {@link DataSetIndexStats} of a dry run profile
+     * the cost of preparing the DataSet alone.
+     *
+     * @param dryRun Whether the bulk requests are dropped
+     * @return this
+     */
+    public DataSetIndexRequest dryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    /**
+     * @return What happens if the estimated heap of the ingest exceeds the available
+     *         budget of the node, or {@code null} for the default of the node
+     */
+    public IngestMemoryBudget.OverBudget overBudget() {
+        return overBudget;
+    }
+
+    /**
+     * Sets what happens if the estimated heap of the ingest exceeds the available budget of
+     * the node
+     *
+     * @param overBudget What happens to the ingest, or {@code null} for the default of the node
+     * @return this
+     */
+    public DataSetIndexRequest overBudget(IngestMemoryBudget.OverBudget overBudget) {
+        this.overBudget = overBudget;
+        return this;
+    }
+
+    /**
+     * @return Whether Shapes are indexed in the order of their position along a Hilbert
+     *         curve, rather than in the order of the DataSet
+     */
+    public boolean hilbertOrder() {
+        return hilbertOrder;
+    }
+
+    /**
+     * Sets whether Shapes are indexed in the order of their position along a Hilbert curve.
+     * Shapes close to each other are then indexed in the same bulks, which improves the
+     * locality of segments and the speed of spatial queries against them.
+     *
+     * @param hilbertOrder Whether Shapes are sorted along a Hilbert curve before indexing
+     * @return this
+     */
+    public DataSetIndexRequest hilbertOrder(boolean hilbertOrder) {
+        this.hilbertOrder = hilbertOrder;
+        return this;
+    }
+
+    /**
+     * @return Whether the data is bulk loaded into a new version of the index, with
+     *         {@link #index()} being the alias repointed to the version once loaded
+     */
+    public boolean bulkLoad() {
+        return bulkLoad;
+    }
+
+    /**
+     * Sets whether the data is bulk loaded into a new version of the index, which is created
+     * without replicas and with refresh disabled.  Once loaded, {@link #index()}, which must
+     * be an alias, is atomically repointed to the new version.  See {@link BulkLoader}.
+     *
+     * @param bulkLoad Whether the data is bulk loaded
+     * @return this
+     */
+    public DataSetIndexRequest bulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+        return this;
+    }
+
+    /**
+     * @return Grid the Shapes are covered with before indexing, or {@code null} if they are not covered
+     */
+    public CellCoverer.Type covering() {
+        return covering;
+    }
+
+    /**
+     * Sets the grid the Shapes are covered with before indexing.  The cells covering each
+     * document are computed on this node, in parallel across Shapes, and stored with the
+     * document so that filtering on them needs no tessellation.  See {@link CellCoverer}.
+     *
+     * @param covering Grid of the coverings, or {@code null} to not cover the Shapes
+     * @return this
+     */
+    public DataSetIndexRequest covering(CellCoverer.Type covering) {
+        this.covering = covering;
+        return this;
+    }
+
+    /**
+     * @return Level of the grid the boundaries of the Shapes are covered at
+     */
+    public int coveringPrecision() {
+        return coveringPrecision;
+    }
+
+    /**
+     * Sets the level of the grid the boundaries of the Shapes are covered at, such as the
+     * length of the geohashes
+     *
+     * @param coveringPrecision Level of the grid
+     * @return this
+     */
+    public DataSetIndexRequest coveringPrecision(int coveringPrecision) {
+        this.coveringPrecision = coveringPrecision;
+        return this;
+    }
+
+    /**
+     * @return What happens to records whose geometry is invalid, or {@code null} for the default of the node
+     */
+    public GeometryValidation.Policy validation() {
+        return validation;
+    }
+
+    /**
+     * Sets what happens to records whose geometry is invalid.  Records always go through
+     * cheap checks of their coordinates and rings first, with their topology then validated
+     * under every policy but {@code skip}.  See {@link GeometryValidation}.
+     *
+     * @param validation Validation policy, or {@code null} for the default of the node
+     * @return this
+     */
+    public DataSetIndexRequest validation(GeometryValidation.Policy validation) {
+        this.validation = validation;
+        return this;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        index = in.readString();
+        type = in.readString();
+        batchSize = in.readVInt();
+        precision = in.readDouble();
+        shardAware = in.readBoolean();
+        contentType = XContentType.fromRestContentType(in.readString());
+        maxVertices = in.readVInt();
+        adaptiveBatchSize = in.readBoolean();
+        typePerLayer = in.readBoolean();
+        dryRun = in.readBoolean();
+        String overBudgetName = in.readOptionalString();
+        overBudget = overBudgetName != null ? IngestMemoryBudget.OverBudget.fromString(overBudgetName) : null;
+        hilbertOrder = in.readBoolean();
+        bulkLoad = in.readBoolean();
+        String coveringName = in.readOptionalString();
+        covering = coveringName != null ? CellCoverer.Type.fromString(coveringName) : null;
+        coveringPrecision = in.readVInt();
+        String validationName = in.readOptionalString();
+        validation = validationName != null ? GeometryValidation.Policy.fromString(validationName) : null;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(index);
+        out.writeString(type);
+        out.writeVInt(batchSize);
+        out.writeDouble(precision);
+        out.writeBoolean(shardAware);
+        out.writeString(contentType.shortName());
+        out.writeVInt(maxVertices);
+        out.writeBoolean(adaptiveBatchSize);
+        out.writeBoolean(typePerLayer);
+        out.writeBoolean(dryRun);
+        out.writeOptionalString(overBudget != null ? overBudget.toString() : null);
+        out.writeBoolean(hilbertOrder);
+        out.writeBoolean(bulkLoad);
+        out.writeOptionalString(covering != null ? covering.toString() : null);
+        out.writeVInt(coveringPrecision);
+        out.writeOptionalString(validation != null ? validation.toString() : null);
+    }
+}
@@ -6,14 +6,30 @@ package org.elasticsearch.shape.dataset;
 public class DataSetIndexResponse {
 
     private final int totalCount;
+    private final DataSetIndexStats stats;
+    private final String bulkLoadIndex;
 
     /**
      * Creates a new DataSetIndexResponse
      *
      * @param totalCount Number of shapes indexed from the dataset
+     * @param stats Statistics about the indexing
      */
-    public DataSetIndexResponse(int totalCount) {
+    public DataSetIndexResponse(int totalCount, DataSetIndexStats stats) {
+        this(totalCount, stats, null);
+    }
+
+    /**
+     * Creates a new DataSetIndexResponse for a bulk load
+     *
+     * @param totalCount Number of shapes indexed from the dataset
+     * @param stats Statistics about the indexing
+     * @param bulkLoadIndex Version of the index the dataset was bulk loaded into
+     */
+    public DataSetIndexResponse(int totalCount, DataSetIndexStats stats, String bulkLoadIndex) {
         this.totalCount = totalCount;
+        this.stats = stats;
+        this.bulkLoadIndex = bulkLoadIndex;
     }
 
     /**
@@ -22,4 +38,19 @@ public class DataSetIndexResponse {
     public int totalCount() {
         return totalCount;
     }
+
+    /**
+     * @return Statistics about the indexing
+     */
+    public DataSetIndexStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return Version of the index the dataset was bulk loaded into, or {@code null} if
+     *         the dataset was not bulk loaded
+     */
+    public String bulkLoadIndex() {
+        return bulkLoadIndex;
+    }
 }
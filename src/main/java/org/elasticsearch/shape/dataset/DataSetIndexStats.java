@@ -0,0 +1,458 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Point;
+import com.spatial4j.core.shape.Rectangle;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Statistics about the indexing of a {@link ShapeDataSet}, breaking down where the time
+ * went and how much data was produced.  Used to profile DataSets with dry runs before
+ * they are indexed for real.
+ */
+public class DataSetIndexStats implements Streamable, ToXContent {
+
+    private static final String MIXED_ADMISSION = "mixed";
+
+    private long records;
+    private long documents;
+    private long vertices;
+    private long bytes;
+    private long largestDocumentBytes;
+    private String largestDocumentId;
+    private long cells;
+
+    private long loadNanos;
+    private long tileNanos;
+    private long serializeNanos;
+    private long bulkNanos;
+    private long coverNanos;
+    private long validateNanos;
+    private long totalNanos;
+
+    private long estimatedHeapBytes;
+    private String admission;
+
+    private long validRecords;
+    private long repairedRecords;
+    private long invalidRecords;
+    private long reportedRecords;
+    private long unbuiltRecords;
+    private long untiledRecords;
+    private List<String> invalidSamples = newArrayList();
+
+    /**
+     * Records the time spent downloading and parsing the DataSet
+     *
+     * @param nanos Time spent, in nanoseconds
+     */
+    public void onLoad(long nanos) {
+        loadNanos += nanos;
+    }
+
+    /**
+     * Records that a record of the DataSet was tiled
+     *
+     * @param shapeData ShapeData of the record
+     * @param nanos Time spent tiling, in nanoseconds
+     */
+    public void onTile(ShapeData shapeData, long nanos) {
+        records++;
+        vertices += shapeData.packedGeometry() != null ? shapeData.packedGeometry().numCoordinates() : numVertices(shapeData.shape());
+        tileNanos += nanos;
+    }
+
+    /**
+     * Records that a document was serialized
+     *
+     * @param id ID of the document
+     * @param size Size of the document source, in bytes
+     * @param nanos Time spent serializing, in nanoseconds
+     */
+    public void onSerialize(String id, int size, long nanos) {
+        documents++;
+        bytes += size;
+        serializeNanos += nanos;
+        if (size > largestDocumentBytes) {
+            largestDocumentBytes = size;
+            largestDocumentId = id;
+        }
+    }
+
+    /**
+     * Records that a document was covered with cells
+     *
+     * @param numCells Number of cells in the covering
+     * @param nanos Time spent covering, in nanoseconds, summed over the threads covering in parallel
+     */
+    public void onCover(int numCells, long nanos) {
+        cells += numCells;
+        coverNanos += nanos;
+    }
+
+    /**
+     * Records the outcomes of the geometry validation of the records parsed
+     *
+     * @param validation Validation the records went through
+     */
+    public void onValidation(GeometryValidation validation) {
+        validRecords += validation.valid();
+        repairedRecords += validation.repaired();
+        invalidRecords += validation.invalid();
+        reportedRecords += validation.reported();
+        unbuiltRecords += validation.unbuilt();
+        untiledRecords += validation.untiled();
+        validateNanos += validation.topologyNanos();
+        addSamples(validation.samples());
+    }
+
+    /**
+     * Records the time spent executing bulk requests
+     *
+     * @param nanos Time spent, in nanoseconds
+     */
+    public void onBulk(long nanos) {
+        bulkNanos += nanos;
+    }
+
+    /**
+     * Records how the ingest was admitted against the memory budget of the node
+     *
+     * @param estimatedHeapBytes Estimated heap, in bytes, needed by the ingest as admitted
+     * @param admission How the ingest was admitted, such as {@code in_memory} or {@code low_memory}
+     */
+    public void onAdmission(long estimatedHeapBytes, String admission) {
+        this.estimatedHeapBytes = estimatedHeapBytes;
+        this.admission = admission;
+    }
+
+    /**
+     * Records the total time spent indexing
+     *
+     * @param nanos Time spent, in nanoseconds
+     */
+    public void onComplete(long nanos) {
+        totalNanos = nanos;
+    }
+
+    /**
+     * Adds the statistics of another part of the same indexing, such as a slice indexed on
+     * another node.  Stage times are summed while the total time is that of the slowest part.
+     *
+     * @param other Statistics to add
+     */
+    public void merge(DataSetIndexStats other) {
+        records += other.records;
+        documents += other.documents;
+        vertices += other.vertices;
+        bytes += other.bytes;
+        if (other.largestDocumentBytes > largestDocumentBytes) {
+            largestDocumentBytes = other.largestDocumentBytes;
+            largestDocumentId = other.largestDocumentId;
+        }
+        loadNanos += other.loadNanos;
+        tileNanos += other.tileNanos;
+        serializeNanos += other.serializeNanos;
+        bulkNanos += other.bulkNanos;
+        cells += other.cells;
+        coverNanos += other.coverNanos;
+        validateNanos += other.validateNanos;
+        validRecords += other.validRecords;
+        repairedRecords += other.repairedRecords;
+        invalidRecords += other.invalidRecords;
+        reportedRecords += other.reportedRecords;
+        unbuiltRecords += other.unbuiltRecords;
+        untiledRecords += other.untiledRecords;
+        addSamples(other.invalidSamples);
+        totalNanos = Math.max(totalNanos, other.totalNanos);
+        estimatedHeapBytes += other.estimatedHeapBytes;
+        if (admission == null) {
+            admission = other.admission;
+        } else if (other.admission != null && !admission.equals(other.admission)) {
+            admission = MIXED_ADMISSION;
+        }
+    }
+
+    /**
+     * @return Number of records read from the DataSet
+     */
+    public long records() {
+        return records;
+    }
+
+    /**
+     * @return Number of documents produced, which exceeds the number of records when Shapes are tiled
+     */
+    public long documents() {
+        return documents;
+    }
+
+    /**
+     * @return Number of vertices in the Shapes read from the DataSet
+     */
+    public long vertices() {
+        return vertices;
+    }
+
+    /**
+     * @return Total size, in bytes, of the document sources produced
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Size, in bytes, of the largest document source produced
+     */
+    public long largestDocumentBytes() {
+        return largestDocumentBytes;
+    }
+
+    /**
+     * @return ID of the largest document produced, or {@code null} if no documents were produced
+     */
+    public String largestDocumentId() {
+        return largestDocumentId;
+    }
+
+    /**
+     * @return Number of cells in the coverings of the documents produced
+     */
+    public long cells() {
+        return cells;
+    }
+
+    /**
+     * @return Number of records which passed the geometry validation
+     */
+    public long validRecords() {
+        return validRecords;
+    }
+
+    /**
+     * @return Number of records with invalid geometry which were repaired
+     */
+    public long repairedRecords() {
+        return repairedRecords;
+    }
+
+    /**
+     * @return Number of records with invalid geometry replaced by a placeholder
+     */
+    public long invalidRecords() {
+        return invalidRecords;
+    }
+
+    /**
+     * @return Number of records with invalid topology indexed as they are
+     */
+    public long reportedRecords() {
+        return reportedRecords;
+    }
+
+    /**
+     * @return Number of records indexed as they are whose Shape could not be built for
+     *         tiling or covering
+     */
+    public long unbuiltRecords() {
+        return unbuiltRecords;
+    }
+
+    /**
+     * @return Number of records whose Shape could not be tiled and was indexed whole
+     */
+    public long untiledRecords() {
+        return untiledRecords;
+    }
+
+    /**
+     * @return Reasons of the first records with invalid geometry
+     */
+    public List<String> invalidSamples() {
+        return invalidSamples;
+    }
+
+    /**
+     * @return Estimated heap, in bytes, needed by the ingest as admitted
+     */
+    public long estimatedHeapBytes() {
+        return estimatedHeapBytes;
+    }
+
+    /**
+     * @return How the ingest was admitted against the memory budget of the node, or
+     *         {@code null} if its memory could not be estimated
+     */
+    public String admission() {
+        return admission;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        double totalSeconds = totalNanos / 1e9;
+        builder.startObject(Fields.STATS)
+                .field(Fields.TOOK_MILLIS, TimeUnit.NANOSECONDS.toMillis(totalNanos))
+                .field(Fields.RECORDS, records)
+                .field(Fields.DOCUMENTS, documents)
+                .field(Fields.VERTICES, vertices)
+                .field(Fields.BYTES, bytes)
+                .field(Fields.CELLS, cells)
+                .field(Fields.RECORDS_PER_SECOND, totalSeconds > 0 ? records / totalSeconds : 0)
+                .field(Fields.VERTICES_PER_SECOND, totalSeconds > 0 ? vertices / totalSeconds : 0)
+                .startObject(Fields.LARGEST_DOCUMENT)
+                .field(Fields.ID, largestDocumentId)
+                .field(Fields.BYTES, largestDocumentBytes)
+                .endObject()
+                .startObject(Fields.STAGES)
+                .field(Fields.LOAD_MILLIS, TimeUnit.NANOSECONDS.toMillis(loadNanos))
+                .field(Fields.TILE_MILLIS, TimeUnit.NANOSECONDS.toMillis(tileNanos))
+                .field(Fields.SERIALIZE_MILLIS, TimeUnit.NANOSECONDS.toMillis(serializeNanos))
+                .field(Fields.BULK_MILLIS, TimeUnit.NANOSECONDS.toMillis(bulkNanos))
+                .field(Fields.COVER_MILLIS, TimeUnit.NANOSECONDS.toMillis(coverNanos))
+                .field(Fields.VALIDATE_MILLIS, TimeUnit.NANOSECONDS.toMillis(validateNanos))
+                .endObject();
+        if (validRecords + repairedRecords + invalidRecords + reportedRecords + unbuiltRecords + untiledRecords > 0) {
+            builder.startObject(Fields.VALIDATION)
+                    .field(Fields.VALID, validRecords)
+                    .field(Fields.REPAIRED, repairedRecords)
+                    .field(Fields.INVALID, invalidRecords)
+                    .field(Fields.REPORTED, reportedRecords)
+                    .field(Fields.UNBUILT, unbuiltRecords)
+                    .field(Fields.UNTILED, untiledRecords)
+                    .field(Fields.SAMPLES, invalidSamples)
+                    .endObject();
+        }
+        if (admission != null) {
+            builder.startObject(Fields.MEMORY)
+                    .field(Fields.ESTIMATED_HEAP_BYTES, estimatedHeapBytes)
+                    .field(Fields.ADMISSION, admission)
+                    .endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        records = in.readVLong();
+        documents = in.readVLong();
+        vertices = in.readVLong();
+        bytes = in.readVLong();
+        largestDocumentBytes = in.readVLong();
+        largestDocumentId = in.readOptionalString();
+        loadNanos = in.readVLong();
+        tileNanos = in.readVLong();
+        serializeNanos = in.readVLong();
+        bulkNanos = in.readVLong();
+        totalNanos = in.readVLong();
+        estimatedHeapBytes = in.readVLong();
+        admission = in.readOptionalString();
+        cells = in.readVLong();
+        coverNanos = in.readVLong();
+        validateNanos = in.readVLong();
+        validRecords = in.readVLong();
+        repairedRecords = in.readVLong();
+        invalidRecords = in.readVLong();
+        reportedRecords = in.readVLong();
+        unbuiltRecords = in.readVLong();
+        untiledRecords = in.readVLong();
+        int numSamples = in.readVInt();
+        invalidSamples = newArrayList();
+        for (int i = 0; i < numSamples; i++) {
+            invalidSamples.add(in.readString());
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(records);
+        out.writeVLong(documents);
+        out.writeVLong(vertices);
+        out.writeVLong(bytes);
+        out.writeVLong(largestDocumentBytes);
+        out.writeOptionalString(largestDocumentId);
+        out.writeVLong(loadNanos);
+        out.writeVLong(tileNanos);
+        out.writeVLong(serializeNanos);
+        out.writeVLong(bulkNanos);
+        out.writeVLong(totalNanos);
+        out.writeVLong(estimatedHeapBytes);
+        out.writeOptionalString(admission);
+        out.writeVLong(cells);
+        out.writeVLong(coverNanos);
+        out.writeVLong(validateNanos);
+        out.writeVLong(validRecords);
+        out.writeVLong(repairedRecords);
+        out.writeVLong(invalidRecords);
+        out.writeVLong(reportedRecords);
+        out.writeVLong(unbuiltRecords);
+        out.writeVLong(untiledRecords);
+        out.writeVInt(invalidSamples.size());
+        for (String sample : invalidSamples) {
+            out.writeString(sample);
+        }
+    }
+
+    private void addSamples(List<String> samples) {
+        for (String sample : samples) {
+            if (invalidSamples.size() >= GeometryValidation.MAX_SAMPLES) {
+                return;
+            }
+            invalidSamples.add(sample);
+        }
+    }
+
+    private static int numVertices(Shape shape) {
+        if (shape instanceof JtsGeometry) {
+            return ((JtsGeometry) shape).getGeom().getNumPoints();
+        } else if (shape instanceof Rectangle) {
+            return 2;
+        } else if (shape instanceof Point) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static interface Fields {
+        String STATS = "stats";
+        String TOOK_MILLIS = "took_millis";
+        String RECORDS = "records";
+        String DOCUMENTS = "documents";
+        String VERTICES = "vertices";
+        String BYTES = "bytes";
+        String RECORDS_PER_SECOND = "records_per_second";
+        String VERTICES_PER_SECOND = "vertices_per_second";
+        String LARGEST_DOCUMENT = "largest_document";
+        String ID = "id";
+        String STAGES = "stages";
+        String LOAD_MILLIS = "load_millis";
+        String TILE_MILLIS = "tile_millis";
+        String SERIALIZE_MILLIS = "serialize_millis";
+        String BULK_MILLIS = "bulk_millis";
+        String COVER_MILLIS = "cover_millis";
+        String VALIDATE_MILLIS = "validate_millis";
+        String VALIDATION = "validation";
+        String VALID = "valid";
+        String REPAIRED = "repaired";
+        String INVALID = "invalid";
+        String REPORTED = "reported";
+        String UNBUILT = "unbuilt";
+        String UNTILED = "untiled";
+        String SAMPLES = "samples";
+        String CELLS = "cells";
+        String MEMORY = "memory";
+        String ESTIMATED_HEAP_BYTES = "estimated_heap_bytes";
+        String ADMISSION = "admission";
+    }
+}
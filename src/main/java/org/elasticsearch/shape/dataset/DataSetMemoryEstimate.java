@@ -0,0 +1,104 @@
+package org.elasticsearch.shape.dataset;
+
+/**
+ * Estimate of the heap needed to parse a {@link ShapeDataSet}, made from the sizes in the
+ * headers of its files without parsing them.  Estimates are deliberately on the high side,
+ * so that ingests admitted on their basis don't run the node out of memory.
+ */
+public class DataSetMemoryEstimate {
+
+    // JTS Coordinate objects, their references and the packed coordinates they are created from
+    static final int ON_HEAP_BYTES_PER_VERTEX = 64;
+    // ShapeData, PackedGeometry handle and list entry of an off-heap Shape
+    static final int OFF_HEAP_BYTES_PER_RECORD = 96;
+    // AttributeRecord and its arrays, on top of the values themselves
+    static final int BYTES_PER_ATTRIBUTE_RECORD = 128;
+    // Character values are decoded into Strings of two bytes per character, with their headers
+    static final int BYTES_PER_ATTRIBUTE_BYTE = 3;
+
+    private final long records;
+    private final long vertices;
+    private final long fileBytes;
+    private final long attributeBytes;
+    private final boolean filesOnHeap;
+
+    /**
+     * Creates a new DataSetMemoryEstimate
+     *
+     * @param records Number of records in the DataSet
+     * @param vertices Number of vertices in the Shapes of the DataSet
+     * @param fileBytes Uncompressed size of the files of the DataSet, in bytes
+     * @param attributeBytes Size of the attribute values of the records, in bytes
+     * @param filesOnHeap Whether the files are read onto the heap, rather than mapped
+     */
+    public DataSetMemoryEstimate(long records, long vertices, long fileBytes, long attributeBytes, boolean filesOnHeap) {
+        this.records = records;
+        this.vertices = vertices;
+        this.fileBytes = fileBytes;
+        this.attributeBytes = attributeBytes;
+        this.filesOnHeap = filesOnHeap;
+    }
+
+    /**
+     * @return Number of records in the DataSet
+     */
+    public long records() {
+        return records;
+    }
+
+    /**
+     * @return Number of vertices in the Shapes of the DataSet
+     */
+    public long vertices() {
+        return vertices;
+    }
+
+    /**
+     * @return Uncompressed size of the files of the DataSet, in bytes
+     */
+    public long fileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * @return Estimated heap, in bytes, needed to parse the DataSet into on-heap Shapes
+     */
+    public long heapBytes() {
+        return (filesOnHeap ? fileBytes : 0) + vertices * ON_HEAP_BYTES_PER_VERTEX + attributesHeapBytes();
+    }
+
+    /**
+     * @return Estimated heap, in bytes, needed to parse the DataSet with its files mapped
+     *         and its geometry held off-heap
+     */
+    public long lowMemoryHeapBytes() {
+        return records * OFF_HEAP_BYTES_PER_RECORD + attributesHeapBytes();
+    }
+
+    /**
+     * Scales the estimate to a fraction of the records, such as a slice of the DataSet
+     *
+     * @param fraction Fraction of the records, between {@code 0} and {@code 1}
+     * @return Estimate for the fraction of the records.  The files are read whole, so
+     *         their size is not scaled
+     */
+    public DataSetMemoryEstimate scale(double fraction) {
+        return new DataSetMemoryEstimate((long) Math.ceil(records * fraction), (long) Math.ceil(vertices * fraction),
+                fileBytes, (long) Math.ceil(attributeBytes * fraction), filesOnHeap);
+    }
+
+    /**
+     * Adds the estimate of another part of the same DataSet, such as another layer
+     *
+     * @param other Estimate to add
+     * @return Combined estimate
+     */
+    public DataSetMemoryEstimate add(DataSetMemoryEstimate other) {
+        return new DataSetMemoryEstimate(records + other.records, vertices + other.vertices,
+                fileBytes + other.fileBytes, attributeBytes + other.attributeBytes, filesOnHeap || other.filesOnHeap);
+    }
+
+    private long attributesHeapBytes() {
+        return records * BYTES_PER_ATTRIBUTE_RECORD + attributeBytes * BYTES_PER_ATTRIBUTE_BYTE;
+    }
+}
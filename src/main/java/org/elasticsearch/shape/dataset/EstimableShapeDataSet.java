@@ -0,0 +1,23 @@
+package org.elasticsearch.shape.dataset;
+
+import java.io.IOException;
+
+/**
+ * {@link ShapeDataSet} which can estimate the heap needed to parse it before doing so, and
+ * which can be parsed in a low memory mode when the estimate is too high
+ */
+public interface EstimableShapeDataSet extends ShapeDataSet {
+
+    /**
+     * Estimates the heap needed to parse the set, reading no more than the headers of its files
+     *
+     * @return Estimate of the heap needed to parse the set
+     * @throws IOException Can be thrown by implementations when they encounter an IO problem
+     */
+    DataSetMemoryEstimate estimateMemory() throws IOException;
+
+    /**
+     * @return DataSet with the same data, parsed using as little heap as possible
+     */
+    ShapeDataSet lowMemory();
+}
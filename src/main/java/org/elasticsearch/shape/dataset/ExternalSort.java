@@ -0,0 +1,368 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.io.Closeables;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.io.stream.InputStreamStreamInput;
+import org.elasticsearch.common.io.stream.OutputStreamStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Sorts ShapeData by a key, such as their position along a curve or their name.  Up to
+ * {@code sortBufferSize} ShapeData are sorted in memory.  Larger DataSets are sorted in runs
+ * of that size, which are spilled to temporary files and merged as the ShapeData are
+ * iterated.  ShapeData with the same key keep their relative order.  The spilled runs are
+ * deleted once the sorted ShapeData have all been iterated, or once the iterator is closed
+ * by a consumer stopping early.
+ *
+ * @param <K> Type of the key the ShapeData are sorted by
+ */
+abstract class ExternalSort<K extends Comparable<K>> {
+
+    private final int sortBufferSize;
+
+    /**
+     * Creates a new ExternalSort
+     *
+     * @param sortBufferSize Maximum number of ShapeData sorted in memory
+     */
+    protected ExternalSort(int sortBufferSize) {
+        this.sortBufferSize = Math.max(1, sortBufferSize);
+    }
+
+    /**
+     * Sorts the given ShapeData by their keys
+     *
+     * @param shapeData ShapeData to sort
+     * @return Iterator over the sorted ShapeData, to be closed if not iterated to the end
+     * @throws IOException Can be thrown if there is a problem spilling the ShapeData to disk
+     */
+    public SortedIterator sort(Iterator<ShapeData> shapeData) throws IOException {
+        List<Entry<K>> buffer = fill(shapeData);
+        if (!shapeData.hasNext()) {
+            return values(buffer);
+        }
+
+        File directory = File.createTempFile("shape_dataset_sort", "");
+        if (!directory.delete() || !FileSystemUtils.mkdirs(directory)) {
+            throw new IOException("Failed to create sort directory [" + directory + "]");
+        }
+        // Registered before its runs, so it is deleted after them if the node stops mid sort
+        directory.deleteOnExit();
+
+        List<Run> runs = newArrayList();
+        boolean success = false;
+        try {
+            while (!buffer.isEmpty()) {
+                File file = new File(directory, "run_" + runs.size());
+                file.deleteOnExit();
+                spill(buffer, file);
+                runs.add(new Run(runs.size(), file, buffer.size()));
+                buffer = fill(shapeData);
+            }
+            MergeIterator merged = new MergeIterator(runs, directory);
+            success = true;
+            return merged;
+        } finally {
+            // Parsing the ShapeData can fail as well as spilling them
+            if (!success) {
+                for (Run run : runs) {
+                    run.close();
+                }
+                FileSystemUtils.deleteRecursively(directory);
+            }
+        }
+    }
+
+    /**
+     * @param shapeData ShapeData to calculate the key of
+     * @return Key the ShapeData is sorted by
+     */
+    protected abstract K key(ShapeData shapeData);
+
+    /**
+     * Writes the given key to a spilled run
+     */
+    protected abstract void writeKey(K key, StreamOutput out) throws IOException;
+
+    /**
+     * Reads a key written by {@link #writeKey} back from a spilled run
+     */
+    protected abstract K readKey(StreamInput in) throws IOException;
+
+    private List<Entry<K>> fill(Iterator<ShapeData> shapeData) {
+        List<Entry<K>> buffer = newArrayList();
+        while (buffer.size() < sortBufferSize && shapeData.hasNext()) {
+            ShapeData next = shapeData.next();
+            buffer.add(new Entry<K>(key(next), next));
+        }
+        // Collections.sort is stable, so ShapeData with the same key keep their order
+        Collections.sort(buffer);
+        return buffer;
+    }
+
+    private static <K extends Comparable<K>> SortedIterator values(final List<Entry<K>> entries) {
+        final Iterator<Entry<K>> iterator = entries.iterator();
+        return new SortedIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ShapeData next() {
+                return iterator.next().shapeData;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from this iterator");
+            }
+
+            @Override
+            public void close() {
+                // Nothing was spilled
+            }
+        };
+    }
+
+    private void spill(List<Entry<K>> entries, File file) throws IOException {
+        StreamOutput out = new OutputStreamStreamOutput(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (Entry<K> entry : entries) {
+                writeKey(entry.key, out);
+                writeShapeData(entry.shapeData, out);
+                out.writeVInt(entry.shapeData.resolutions().size());
+                for (Map.Entry<String, ShapeData> resolution : entry.shapeData.resolutions().entrySet()) {
+                    out.writeString(resolution.getKey());
+                    writeShapeData(resolution.getValue(), out);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private Entry<K> readEntry(StreamInput in) throws IOException {
+        K key = readKey(in);
+        ShapeData shapeData = readShapeData(in);
+        int numResolutions = in.readVInt();
+        if (numResolutions > 0) {
+            Map<String, ShapeData> resolutions = newLinkedHashMap();
+            for (int i = 0; i < numResolutions; i++) {
+                resolutions.put(in.readString(), readShapeData(in));
+            }
+            shapeData = new ShapeData(shapeData, resolutions);
+        }
+        return new Entry<K>(key, shapeData);
+    }
+
+    /**
+     * Writes the given ShapeData with its geometry packed, so that it is read back as a
+     * {@link PackedGeometry} held in a buffer of its own
+     */
+    private static void writeShapeData(ShapeData shapeData, StreamOutput out) throws IOException {
+        out.writeOptionalString(shapeData.name());
+        out.writeOptionalString(shapeData.layer());
+        // LinkedHashMaps are read back as such, keeping the order of the fields
+        out.writeGenericValue(new LinkedHashMap<String, Object>(shapeData.data()));
+
+        if (!shapeData.hasGeometry()) {
+            out.writeVInt(0);
+            return;
+        }
+
+        ByteArrayOutputStream geometryBytes = new ByteArrayOutputStream();
+        DataOutputStream geometryOutput = new DataOutputStream(geometryBytes);
+        if (shapeData.packedGeometry() != null) {
+            writeGeometry(shapeData.packedGeometry(), geometryOutput);
+        } else {
+            PackedShapeDataSet.writeShape(shapeData.shape(), geometryOutput);
+        }
+        geometryOutput.flush();
+        out.writeVInt(geometryBytes.size());
+        out.writeBytes(geometryBytes.toByteArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ShapeData readShapeData(StreamInput in) throws IOException {
+        String name = in.readOptionalString();
+        String layer = in.readOptionalString();
+        Map<String, Object> data = (Map<String, Object>) in.readGenericValue();
+
+        int numGeometryBytes = in.readVInt();
+        if (numGeometryBytes == 0) {
+            return new ShapeData(name, data, layer, Collections.<String, ShapeData>emptyMap());
+        }
+        byte[] geometryBytes = new byte[numGeometryBytes];
+        in.readBytes(geometryBytes, 0, geometryBytes.length);
+        return new ShapeData(new PackedGeometry(ByteBuffer.wrap(geometryBytes), 0), name, data, layer);
+    }
+
+    private static void writeGeometry(PackedGeometry geometry, DataOutputStream out) throws IOException {
+        if (geometry.isPoint()) {
+            out.writeByte(PackedGeometry.POINT);
+            out.writeDouble(geometry.x(0));
+            out.writeDouble(geometry.y(0));
+            return;
+        }
+
+        out.writeByte(PackedGeometry.POLYGONS);
+        out.writeInt(geometry.numParts());
+        out.writeInt(geometry.numRings());
+        out.writeInt(geometry.numCoordinates());
+        for (int i = 0; i < geometry.numParts(); i++) {
+            out.writeInt(geometry.partStart(i));
+        }
+        for (int i = 0; i < geometry.numRings(); i++) {
+            out.writeInt(geometry.ringStart(i));
+        }
+        for (int i = 0; i < geometry.numCoordinates(); i++) {
+            out.writeDouble(geometry.x(i));
+            out.writeDouble(geometry.y(i));
+        }
+    }
+
+    /**
+     * Iterator over sorted ShapeData, which deletes the runs spilled for them when closed
+     */
+    public interface SortedIterator extends Iterator<ShapeData>, Closeable {
+
+        /**
+         * Deletes the runs spilled for the ShapeData.  Iterating every ShapeData closes the
+         * iterator, and closing it again has no effect.
+         */
+        @Override
+        void close();
+    }
+
+    private static class Entry<K extends Comparable<K>> implements Comparable<Entry<K>> {
+
+        private final K key;
+        private final ShapeData shapeData;
+
+        Entry(K key, ShapeData shapeData) {
+            this.key = key;
+            this.shapeData = shapeData;
+        }
+
+        @Override
+        public int compareTo(Entry<K> other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    /**
+     * Sorted run of ShapeData spilled to disk, read back one entry at a time
+     */
+    private class Run {
+
+        private final int number;
+        private final StreamInput in;
+        private int remaining;
+        private Entry<K> current;
+
+        Run(int number, File file, int size) throws IOException {
+            this.number = number;
+            this.in = new InputStreamStreamInput(new BufferedInputStream(new FileInputStream(file)));
+            this.remaining = size;
+        }
+
+        /**
+         * @return Whether another entry was read into {@link #current}
+         */
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                close();
+                return false;
+            }
+            current = readEntry(in);
+            remaining--;
+            return true;
+        }
+
+        void close() {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Merges the sorted runs, deleting them once they have all been read, or once closed
+     */
+    private class MergeIterator implements SortedIterator {
+
+        private final PriorityQueue<Run> queue;
+        private final File directory;
+
+        MergeIterator(List<Run> runs, File directory) throws IOException {
+            this.directory = directory;
+            // Ties are broken by run, so ShapeData with the same key keep their order
+            this.queue = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() {
+
+                @Override
+                public int compare(Run first, Run second) {
+                    int comparison = first.current.compareTo(second.current);
+                    return comparison != 0 ? comparison : first.number - second.number;
+                }
+            });
+            for (Run run : runs) {
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (queue.isEmpty()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public ShapeData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more records");
+            }
+
+            Run run = queue.poll();
+            ShapeData shapeData = run.current.shapeData;
+            try {
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            } catch (IOException ioe) {
+                run.close();
+                close();
+                throw new ElasticSearchException("Failed to read sorted run", ioe);
+            }
+            return shapeData;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Cannot remove from this iterator");
+        }
+
+        @Override
+        public void close() {
+            for (Run run : queue) {
+                run.close();
+            }
+            queue.clear();
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+}
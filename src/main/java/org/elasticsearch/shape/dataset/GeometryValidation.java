@@ -0,0 +1,258 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchParseException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Validation of the geometry of the records parsed during an ingest, counting the outcome
+ * of each record.  Records are first put through cheap checks, linear in their number of
+ * vertices, of the range of their bounding box and coordinates, of their number of vertices
+ * and of the closure of their rings.  Only records passing them have their topology
+ * validated, which is far more expensive and happens as their on-heap Shape is built.
+ * Records parsed into off-heap storage only have their topology validated under the
+ * {@link Policy#REPORT} policy.  Records whose topology is invalid cannot be built into an
+ * on-heap Shape at all, so DataSets parse records into packed geometry under that policy,
+ * and later stages needing a Shape, such as tiling and covering, count the records whose
+ * Shape they could not build.  Tiling also counts the records whose Shape it could not
+ * clip, which are indexed untiled.
+ * <p>
+ * Records which cannot be indexed are replaced by a placeholder point rather than dropped,
+ * so that they stay aligned with their attributes.  Instances are shared by the threads
+ * parsing the layers of a DataSet.
+ * </p>
+ */
+public class GeometryValidation {
+
+    /**
+     * What happens to records whose geometry is invalid
+     */
+    public static enum Policy {
+        /**
+         * The ingest fails on the first invalid record
+         */
+        STRICT,
+        /**
+         * Invalid records are replaced by a placeholder
+         */
+        SKIP,
+        /**
+         * Open rings are closed, degenerate rings dropped and invalid topology rebuilt, and
+         * records which cannot be repaired are replaced by a placeholder
+         */
+        REPAIR,
+        /**
+         * Invalid records are indexed as they are when they can be, and otherwise replaced by
+         * a placeholder.  Records parsed into off-heap storage have their topology validated
+         * too, on a temporary on-heap geometry, and are indexed as they are.  Records with
+         * invalid topology have no on-heap Shape, so they are only indexed as they are when
+         * parsed into off-heap storage, which DataSets do under this policy.
+         */
+        REPORT;
+
+        /**
+         * @param value Name of the Policy, such as {@code repair}
+         * @return Policy with the name
+         */
+        public static Policy fromString(String value) {
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value)) {
+                    return policy;
+                }
+            }
+            throw new ElasticSearchIllegalArgumentException("Unknown geometry validation policy [" + value + "]");
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Maximum number of invalid records whose reason is kept
+     */
+    static final int MAX_SAMPLES = 10;
+
+    private final Policy policy;
+
+    private long valid;
+    private long repaired;
+    private long invalid;
+    private long reported;
+    private long unbuilt;
+    private long untiled;
+    private long topologyNanos;
+    private final List<String> samples = newArrayList();
+
+    /**
+     * Creates a new GeometryValidation
+     *
+     * @param policy What happens to records whose geometry is invalid
+     */
+    public GeometryValidation(Policy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return What happens to records whose geometry is invalid
+     */
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * @return Whether the topology of records parsed into off-heap storage is validated
+     */
+    public boolean validatesPackedTopology() {
+        return policy == Policy.REPORT;
+    }
+
+    /**
+     * Records that a record passed every check run under the policy
+     */
+    public synchronized void onValid() {
+        valid++;
+    }
+
+    /**
+     * Records that an invalid record was repaired
+     *
+     * @param recordNumber Number of the record in its file
+     * @param reason Why the record was invalid
+     */
+    public synchronized void onRepaired(int recordNumber, String reason) {
+        repaired++;
+        sample(recordNumber, reason);
+    }
+
+    /**
+     * Records that an invalid record is replaced by a placeholder
+     *
+     * @param recordNumber Number of the record in its file
+     * @param reason Why the record is invalid
+     * @throws ElasticSearchParseException Thrown under the strict policy, failing the ingest
+     */
+    public synchronized void onInvalid(int recordNumber, String reason) {
+        if (policy == Policy.STRICT) {
+            throw new ElasticSearchParseException("Invalid geometry in record [" + recordNumber + "]: " + reason);
+        }
+        invalid++;
+        sample(recordNumber, reason);
+    }
+
+    /**
+     * Records that a record with invalid topology is indexed as it is
+     *
+     * @param recordNumber Number of the record in its file
+     * @param reason Why the record is invalid
+     */
+    public synchronized void onReported(int recordNumber, String reason) {
+        reported++;
+        sample(recordNumber, reason);
+    }
+
+    /**
+     * Records that the Shape of a record indexed as it is could not be built, so it was
+     * neither tiled nor covered precisely
+     *
+     * @param name Name of the record
+     * @param reason Why the Shape could not be built
+     */
+    public synchronized void onUnbuilt(String name, String reason) {
+        unbuilt++;
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add("shape [" + name + "]: " + reason);
+        }
+    }
+
+    /**
+     * Records that the Shape of a record could not be split into tiles, so it was indexed
+     * whole
+     *
+     * @param name Name of the record
+     * @param reason Why the Shape could not be tiled
+     */
+    public synchronized void onUntiled(String name, String reason) {
+        untiled++;
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add("shape [" + name + "]: " + reason);
+        }
+    }
+
+    /**
+     * Records the time spent validating the topology of a record
+     *
+     * @param nanos Time spent, in nanoseconds
+     */
+    public synchronized void onTopology(long nanos) {
+        topologyNanos += nanos;
+    }
+
+    /**
+     * @return Number of records which passed every check run under the policy
+     */
+    public synchronized long valid() {
+        return valid;
+    }
+
+    /**
+     * @return Number of invalid records which were repaired
+     */
+    public synchronized long repaired() {
+        return repaired;
+    }
+
+    /**
+     * @return Number of invalid records replaced by a placeholder
+     */
+    public synchronized long invalid() {
+        return invalid;
+    }
+
+    /**
+     * @return Number of records with invalid topology indexed as they are
+     */
+    public synchronized long reported() {
+        return reported;
+    }
+
+    /**
+     * @return Number of records indexed as they are whose Shape could not be built
+     */
+    public synchronized long unbuilt() {
+        return unbuilt;
+    }
+
+    /**
+     * @return Number of records whose Shape could not be tiled and was indexed whole
+     */
+    public synchronized long untiled() {
+        return untiled;
+    }
+
+    /**
+     * @return Time spent validating topology, in nanoseconds, summed over the parsing threads
+     */
+    public synchronized long topologyNanos() {
+        return topologyNanos;
+    }
+
+    /**
+     * @return Reasons of the first invalid records, each prefixed by the number of its record
+     */
+    public synchronized List<String> samples() {
+        return Collections.unmodifiableList(newArrayList(samples));
+    }
+
+    private void sample(int recordNumber, String reason) {
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add("record [" + recordNumber + "]: " + reason);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Rectangle;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * Orders the Shapes of a {@link ShapeDataSet} along a Hilbert curve, so that Shapes close
+ * to each other are indexed in the same bulks and end up in the same segments.  Files are
+ * often ordered alphabetically, in which case consecutive bulks otherwise touch unrelated
+ * parts of the prefix tree.
+ * <p>
+ * Shapes are ordered by the Hilbert index of the centre of their bounding box, on a grid of
+ * {@code 2^16} by {@code 2^16} cells covering the world.  Up to {@code sortBufferSize}
+ * Shapes are sorted in memory.  Larger DataSets are sorted in runs of that size, which are
+ * spilled to temporary files and merged as the Shapes are iterated.
+ * </p>
+ */
+public class HilbertOrder extends ExternalSort<Long> {
+
+    private static final int ORDER = 16;
+    private static final long SIDE = 1L << ORDER;
+
+    /**
+     * Creates a new HilbertOrder
+     *
+     * @param sortBufferSize Maximum number of Shapes sorted in memory
+     */
+    public HilbertOrder(int sortBufferSize) {
+        super(sortBufferSize);
+    }
+
+    /**
+     * Calculates the Hilbert index of the given longitude and latitude
+     *
+     * @param x Longitude, in degrees
+     * @param y Latitude, in degrees
+     * @return Index of the cell containing the point along the Hilbert curve
+     */
+    public static long index(double x, double y) {
+        long cellX = cell(x, -180, 360);
+        long cellY = cell(y, -90, 180);
+
+        long index = 0;
+        for (long s = SIDE / 2; s > 0; s /= 2) {
+            long rx = (cellX & s) > 0 ? 1 : 0;
+            long ry = (cellY & s) > 0 ? 1 : 0;
+            index += s * s * ((3 * rx) ^ ry);
+
+            // Rotate the quadrant so the curve within it runs the same way as the whole
+            if (ry == 0) {
+                if (rx == 1) {
+                    cellX = SIDE - 1 - cellX;
+                    cellY = SIDE - 1 - cellY;
+                }
+                long swap = cellX;
+                cellX = cellY;
+                cellY = swap;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Calculates the Hilbert index of the centre of the bounding box of the given ShapeData.
+     * Packed geometries are scanned in place, rather than built into Shapes.  ShapeData
+     * without geometry of their own are placed by their first resolution with geometry.
+     *
+     * @param shapeData ShapeData to index
+     * @return Index of the ShapeData along the Hilbert curve
+     */
+    static long index(ShapeData shapeData) {
+        if (!shapeData.hasGeometry()) {
+            for (ShapeData resolution : shapeData.resolutions().values()) {
+                if (resolution.hasGeometry()) {
+                    return index(resolution);
+                }
+            }
+            return 0;
+        }
+
+        // Packed geometry indexed as it is can have topology too invalid to build a Shape of
+        PackedGeometry geometry = shapeData.packedGeometry();
+        Rectangle bounds = geometry != null ? geometry.boundingBox() : shapeData.shape().getBoundingBox();
+        return index((bounds.getMinX() + bounds.getMaxX()) / 2, (bounds.getMinY() + bounds.getMaxY()) / 2);
+    }
+
+    private static long cell(double value, double min, double range) {
+        long cell = (long) ((value - min) / range * SIDE);
+        return Math.max(0, Math.min(SIDE - 1, cell));
+    }
+
+    @Override
+    protected Long key(ShapeData shapeData) {
+        return index(shapeData);
+    }
+
+    @Override
+    protected void writeKey(Long key, StreamOutput out) throws IOException {
+        out.writeLong(key);
+    }
+
+    @Override
+    protected Long readKey(StreamInput in) throws IOException {
+        return in.readLong();
+    }
+}
@@ -0,0 +1,129 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchInterruptedException;
+
+import java.util.Locale;
+
+/**
+ * Budget of heap shared by the ingests running on a node.  Ingests reserve their estimated
+ * heap before parsing their DataSet, and release it once indexed.
+ */
+public class IngestMemoryBudget {
+
+    /**
+     * What happens to an ingest whose estimated heap exceeds the available budget
+     */
+    public static enum OverBudget {
+        /**
+         * The ingest is rejected
+         */
+        REJECT,
+        /**
+         * The ingest waits for other ingests to release their heap
+         */
+        QUEUE,
+        /**
+         * The ingest parses its DataSet in low memory mode
+         */
+        LOW_MEMORY;
+
+        /**
+         * @param value Name of the OverBudget, such as {@code low_memory}
+         * @return OverBudget with the name
+         */
+        public static OverBudget fromString(String value) {
+            for (OverBudget overBudget : values()) {
+                if (overBudget.name().equalsIgnoreCase(value)) {
+                    return overBudget;
+                }
+            }
+            throw new ElasticSearchIllegalArgumentException("Unknown over budget policy [" + value + "]");
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final long budgetBytes;
+    private long reservedBytes;
+
+    /**
+     * Creates a new IngestMemoryBudget
+     *
+     * @param budgetBytes Heap, in bytes, that ingests can reserve in total
+     */
+    public IngestMemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return Heap, in bytes, that ingests can reserve in total
+     */
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return Heap, in bytes, currently reserved by ingests
+     */
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Reserves the given heap if it is available
+     *
+     * @param bytes Heap to reserve, in bytes
+     * @return Whether the heap was reserved
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if (reservedBytes + bytes > budgetBytes) {
+            return false;
+        }
+        reservedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Reserves the given heap, waiting for other ingests to release theirs if it is not
+     * available.  Heap exceeding the whole budget can never be reserved.
+     *
+     * @param bytes Heap to reserve, in bytes
+     * @param timeoutMillis Maximum time to wait, in milliseconds
+     * @return Whether the heap was reserved before the timeout
+     */
+    public synchronized boolean reserve(long bytes, long timeoutMillis) {
+        if (bytes > budgetBytes) {
+            return false;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (reservedBytes + bytes > budgetBytes) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ElasticSearchInterruptedException("Interrupted while waiting for ingest memory", ie);
+            }
+        }
+        reservedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Releases heap previously reserved
+     *
+     * @param bytes Heap to release, in bytes
+     */
+    public synchronized void release(long bytes) {
+        reservedBytes -= bytes;
+        notifyAll();
+    }
+}
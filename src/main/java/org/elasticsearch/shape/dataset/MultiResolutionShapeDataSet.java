@@ -0,0 +1,340 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * {@link ShapeDataSet} joining several resolutions of the same data by Shape name, such as
+ * the 10m, 50m and 110m scales published by Natural Earth, so that each feature is indexed
+ * once with a Shape per resolution.  Queries can then pick the resolution suited to their
+ * zoom level.
+ * <p>
+ * The first resolution is the primary one, which provides the Shape and metadata of each
+ * feature, and which validating and parallel parsing are delegated to.  Every resolution is sorted by name, spilling to disk beyond {@code sortBufferSize} Shapes,
+ * and the sorted resolutions are joined in a single streaming pass, so the features come
+ * out in name order.  The other resolutions are parsed in low memory mode when they can be.
+ * The DataSet cannot be sliced, since every slice would have to parse and sort the other
+ * resolutions in full, so it is always indexed on a single node.  Features missing from the primary resolution have no Shape of their own, only their other
+ * resolutions, and the metadata of the first resolution that has them.
+ * </p>
+ * <p>
+ * The iterators returned are {@link Closeable}, deleting the runs spilled by the sorts when
+ * closed by a consumer that stops before the end.
+ * </p>
+ */
+public class MultiResolutionShapeDataSet implements EstimableShapeDataSet,
+        ValidatingShapeDataSet, ParallelShapeDataSet, ReleasableShapeDataSet {
+
+    public static final ShapeDataSet NATURAL_EARTH_DATA_COUNTRIES = new MultiResolutionShapeDataSet(
+            "natural_earth_data_countries_multi_resolution",
+            new String[]{"110m", "50m", "10m"},
+            new ShapeDataSet[]{
+                    RemoteESRIShapeDataSet.NATURAL_EARTH_DATA_COUNTRIES,
+                    new RemoteESRIShapeDataSet("natural_earth_data_countries_50m",
+                            "http://www.naturalearthdata.com/http//www.naturalearthdata.com/download/50m/cultural/50m-admin-0-countries.zip",
+                            "NAME"),
+                    new RemoteESRIShapeDataSet("natural_earth_data_countries_10m",
+                            "http://www.naturalearthdata.com/http//www.naturalearthdata.com/download/10m/cultural/10m-admin-0-countries.zip",
+                            "NAME", true)
+            });
+
+    /**
+     * Default maximum number of Shapes of a resolution sorted in memory
+     */
+    public static final int DEFAULT_SORT_BUFFER_SIZE = 10000;
+
+    private final String id;
+    private final Map<String, ShapeDataSet> resolutions = newLinkedHashMap();
+    private final int sortBufferSize;
+
+    /**
+     * Constructs a new MultiResolutionShapeDataSet joining the given DataSets
+     *
+     * @param id ID for the DataSet
+     * @param resolutions Names of the resolutions, such as {@code 110m}, with the primary resolution first
+     * @param dataSets DataSet for each of the resolutions
+     */
+    public MultiResolutionShapeDataSet(String id, String[] resolutions, ShapeDataSet[] dataSets) {
+        this(id, resolutions, dataSets, DEFAULT_SORT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new MultiResolutionShapeDataSet joining the given DataSets
+     *
+     * @param id ID for the DataSet
+     * @param resolutions Names of the resolutions, such as {@code 110m}, with the primary resolution first
+     * @param dataSets DataSet for each of the resolutions
+     * @param sortBufferSize Maximum number of Shapes of a resolution sorted in memory
+     */
+    public MultiResolutionShapeDataSet(String id, String[] resolutions, ShapeDataSet[] dataSets, int sortBufferSize) {
+        if (resolutions.length == 0 || resolutions.length != dataSets.length) {
+            throw new ElasticSearchIllegalArgumentException("A DataSet is required for each of the resolutions");
+        }
+        this.id = id;
+        this.sortBufferSize = sortBufferSize;
+        for (int i = 0; i < resolutions.length; i++) {
+            if (this.resolutions.put(resolutions[i], dataSets[i]) != null) {
+                throw new ElasticSearchIllegalArgumentException("Duplicate resolution [" + resolutions[i] + "]");
+            }
+        }
+    }
+
+    private MultiResolutionShapeDataSet(MultiResolutionShapeDataSet dataSet, ShapeDataSet primary) {
+        this.id = dataSet.id;
+        this.sortBufferSize = dataSet.sortBufferSize;
+        for (Map.Entry<String, ShapeDataSet> entry : dataSet.resolutions.entrySet()) {
+            this.resolutions.put(entry.getKey(), this.resolutions.isEmpty() ? primary : entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return Names of the resolutions, with the primary resolution first
+     */
+    public Set<String> resolutions() {
+        return Collections.unmodifiableSet(resolutions.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<ShapeData> shapeData() throws IOException {
+        return join(primary().shapeData());
+    }
+
+    /**
+     * Estimates the heap needed to parse every resolution.  Even in low memory mode, each
+     * layer of the other resolutions is parsed whole before it is sorted.
+     */
+    public DataSetMemoryEstimate estimateMemory() throws IOException {
+        DataSetMemoryEstimate estimate = new DataSetMemoryEstimate(0, 0, 0, 0, false);
+        for (ShapeDataSet dataSet : resolutions.values()) {
+            if (dataSet instanceof EstimableShapeDataSet) {
+                estimate = estimate.add(((EstimableShapeDataSet) dataSet).estimateMemory());
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ShapeDataSet lowMemory() {
+        ShapeDataSet primary = primary();
+        return primary instanceof EstimableShapeDataSet ?
+                new MultiResolutionShapeDataSet(this, ((EstimableShapeDataSet) primary).lowMemory()) : this;
+    }
+
+    /**
+     * Validates the primary resolution, which is the only one whose records are counted
+     */
+    public ShapeDataSet validating(GeometryValidation validation) {
+        ShapeDataSet primary = primary();
+        return primary instanceof ValidatingShapeDataSet ?
+                new MultiResolutionShapeDataSet(this, ((ValidatingShapeDataSet) primary).validating(validation)) : this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ShapeDataSet parallel(Executor executor) {
+        ShapeDataSet primary = primary();
+        return primary instanceof ParallelShapeDataSet ?
+                new MultiResolutionShapeDataSet(this, ((ParallelShapeDataSet) primary).parallel(executor)) : this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void release() {
+        for (ShapeDataSet dataSet : resolutions.values()) {
+            if (dataSet instanceof ReleasableShapeDataSet) {
+                ((ReleasableShapeDataSet) dataSet).release();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addMetadata(XContentBuilder contentBuilder) throws IOException {
+        contentBuilder.startObject("resolutions");
+        for (Map.Entry<String, ShapeDataSet> entry : resolutions.entrySet()) {
+            contentBuilder.startObject(entry.getKey());
+            entry.getValue().addMetadata(contentBuilder);
+            contentBuilder.endObject();
+        }
+        contentBuilder.endObject();
+    }
+
+    private ShapeDataSet primary() {
+        return resolutions.values().iterator().next();
+    }
+
+    /**
+     * Joins the given ShapeData of the primary resolution with the other resolutions, sorting
+     * each of them by name
+     */
+    private JoinIterator join(Iterator<ShapeData> primary) throws IOException {
+        ExternalSort.SortedIterator sortedPrimary = new NameOrder(sortBufferSize).sort(primary);
+        Map<String, ExternalSort.SortedIterator> secondaries = newLinkedHashMap();
+        boolean success = false;
+        try {
+            Iterator<Map.Entry<String, ShapeDataSet>> entries = resolutions.entrySet().iterator();
+            entries.next();
+            while (entries.hasNext()) {
+                Map.Entry<String, ShapeDataSet> entry = entries.next();
+                ShapeDataSet dataSet = entry.getValue() instanceof EstimableShapeDataSet ?
+                        ((EstimableShapeDataSet) entry.getValue()).lowMemory() : entry.getValue();
+                secondaries.put(entry.getKey(), new NameOrder(sortBufferSize).sort(dataSet.shapeData()));
+            }
+            success = true;
+        } finally {
+            // The runs spilled for the resolutions sorted so far are deleted if one fails
+            if (!success) {
+                sortedPrimary.close();
+                for (ExternalSort.SortedIterator iterator : secondaries.values()) {
+                    iterator.close();
+                }
+            }
+        }
+        return new JoinIterator(sortedPrimary, secondaries);
+    }
+
+    /**
+     * Joins the primary resolution with the other resolutions, all sorted by name.  Only the
+     * first Shape with a name in each resolution is joined, so later primary Shapes with the
+     * same name have no other resolutions.  Closing the iterator closes the sorted resolutions.
+     */
+    private static class JoinIterator implements Iterator<ShapeData>, Closeable {
+
+        private final Head primary;
+        private final Map<String, Head> secondaries = newLinkedHashMap();
+        private final List<ExternalSort.SortedIterator> sorted = newArrayList();
+
+        private ShapeData next;
+
+        /**
+         * @param primary Primary resolution, sorted by name
+         * @param secondaries Other resolutions, sorted by name and keyed by resolution
+         */
+        JoinIterator(ExternalSort.SortedIterator primary, Map<String, ExternalSort.SortedIterator> secondaries) {
+            this.primary = new Head(primary);
+            this.sorted.add(primary);
+            for (Map.Entry<String, ExternalSort.SortedIterator> entry : secondaries.entrySet()) {
+                this.secondaries.put(entry.getKey(), new Head(entry.getValue()));
+                this.sorted.add(entry.getValue());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public ShapeData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more records");
+            }
+            ShapeData shapeData = next;
+            next = null;
+            return shapeData;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Cannot remove from this iterator");
+        }
+
+        @Override
+        public void close() {
+            for (ExternalSort.SortedIterator iterator : sorted) {
+                iterator.close();
+            }
+        }
+
+        private ShapeData advance() {
+            String name = primary.name();
+            for (Head secondary : secondaries.values()) {
+                String secondaryName = secondary.name();
+                if (secondaryName != null && (name == null || secondaryName.compareTo(name) < 0)) {
+                    name = secondaryName;
+                }
+            }
+            if (name == null) {
+                return null;
+            }
+
+            ShapeData primaryData = name.equals(primary.name()) ? primary.next() : null;
+            Map<String, ShapeData> shapes = newLinkedHashMap();
+            for (Map.Entry<String, Head> entry : secondaries.entrySet()) {
+                if (name.equals(entry.getValue().name())) {
+                    shapes.put(entry.getKey(), entry.getValue().next());
+                    entry.getValue().skip(name);
+                }
+            }
+
+            if (primaryData != null) {
+                return shapes.isEmpty() ? primaryData : new ShapeData(primaryData, shapes);
+            }
+            // The feature is missing from the primary resolution, so it has no Shape of
+            // its own rather than the Shape of another resolution
+            ShapeData first = shapes.values().iterator().next();
+            return new ShapeData(first.name(), first.data(), first.layer(), shapes);
+        }
+    }
+
+    /**
+     * Iterator over ShapeData sorted by name, exposing the name of the next ShapeData
+     */
+    private static class Head {
+
+        private final Iterator<ShapeData> shapeData;
+        private ShapeData current;
+
+        Head(Iterator<ShapeData> shapeData) {
+            this.shapeData = shapeData;
+            this.current = shapeData.hasNext() ? shapeData.next() : null;
+        }
+
+        /**
+         * @return Name of the next ShapeData, or {@code null} if there are none left
+         */
+        String name() {
+            return current != null ? (current.name() != null ? current.name() : "") : null;
+        }
+
+        ShapeData next() {
+            ShapeData next = current;
+            current = shapeData.hasNext() ? shapeData.next() : null;
+            return next;
+        }
+
+        /**
+         * Skips the ShapeData with the given name
+         */
+        void skip(String name) {
+            while (name.equals(name())) {
+                next();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * Orders the Shapes of a {@link ShapeDataSet} by their names, so that DataSets holding the
+ * same features can be joined by name in a single streaming pass
+ */
+class NameOrder extends ExternalSort<String> {
+
+    /**
+     * Creates a new NameOrder
+     *
+     * @param sortBufferSize Maximum number of Shapes sorted in memory
+     */
+    NameOrder(int sortBufferSize) {
+        super(sortBufferSize);
+    }
+
+    @Override
+    protected String key(ShapeData shapeData) {
+        return shapeData.name() != null ? shapeData.name() : "";
+    }
+
+    @Override
+    protected void writeKey(String key, StreamOutput out) throws IOException {
+        out.writeString(key);
+    }
+
+    @Override
+    protected String readKey(StreamInput in) throws IOException {
+        return in.readString();
+    }
+}
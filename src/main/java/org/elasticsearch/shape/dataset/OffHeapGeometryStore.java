@@ -0,0 +1,105 @@
+package org.elasticsearch.shape.dataset;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Append-only store of {@link PackedGeometry}s held in direct buffers outside of the Java
+ * heap.  Parsing large DataSets into a store keeps their coordinates away from the garbage
+ * collector, leaving only a small handle per geometry on the heap.
+ * <p>
+ * Buffers are allocated in chunks, with geometries larger than a chunk given a buffer of
+ * their own.  The memory is released once the store and every geometry in it are no longer
+ * referenced.  Geometries can be written by one thread at a time, but read by any number.
+ * </p>
+ */
+public class OffHeapGeometryStore {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final int chunkSize;
+
+    private ByteBuffer chunk;
+    private long sizeInBytes;
+
+    /**
+     * Creates a new OffHeapGeometryStore allocating chunks of {@link #DEFAULT_CHUNK_SIZE} bytes
+     */
+    public OffHeapGeometryStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new OffHeapGeometryStore allocating chunks of the given size
+     *
+     * @param chunkSize Size, in bytes, of the buffers allocated by the store
+     */
+    public OffHeapGeometryStore(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Adds a point to the store
+     *
+     * @param x X value of the point
+     * @param y Y value of the point
+     * @return PackedGeometry reading the point from the store
+     */
+    public synchronized PackedGeometry addPoint(double x, double y) {
+        ByteBuffer buffer = reserve(17);
+        int offset = buffer.position();
+        buffer.put(PackedGeometry.POINT).putDouble(x).putDouble(y);
+        return new PackedGeometry(buffer, offset);
+    }
+
+    /**
+     * Adds polygons to the store
+     *
+     * @param coordinates Packed x and y values of the coordinates of all the rings
+     * @param numCoordinates Number of coordinates in the array
+     * @param parts Index of the first ring of each polygon, which is its shell
+     * @param numParts Number of polygons
+     * @param rings Index of the first coordinate of each ring
+     * @param numRings Number of rings
+     * @return PackedGeometry reading the polygons from the store
+     */
+    public synchronized PackedGeometry addPolygons(
+            double[] coordinates,
+            int numCoordinates,
+            int[] parts,
+            int numParts,
+            int[] rings,
+            int numRings) {
+        ByteBuffer buffer = reserve(13 + numParts * 4 + numRings * 4 + numCoordinates * 16);
+        int offset = buffer.position();
+
+        buffer.put(PackedGeometry.POLYGONS).putInt(numParts).putInt(numRings).putInt(numCoordinates);
+        for (int i = 0; i < numParts; i++) {
+            buffer.putInt(parts[i]);
+        }
+        for (int i = 0; i < numRings; i++) {
+            buffer.putInt(rings[i]);
+        }
+        buffer.asDoubleBuffer().put(coordinates, 0, numCoordinates * 2);
+        buffer.position(buffer.position() + numCoordinates * 16);
+
+        return new PackedGeometry(buffer, offset);
+    }
+
+    /**
+     * @return Number of bytes used by the geometries in the store
+     */
+    public synchronized long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    private ByteBuffer reserve(int bytes) {
+        sizeInBytes += bytes;
+        if (bytes > chunkSize) {
+            return ByteBuffer.allocateDirect(bytes);
+        }
+        if (chunk == null || chunk.remaining() < bytes) {
+            chunk = ByteBuffer.allocateDirect(chunkSize);
+        }
+        return chunk;
+    }
+}
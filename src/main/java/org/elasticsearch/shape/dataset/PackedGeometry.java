@@ -0,0 +1,195 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.exception.InvalidShapeException;
+import com.spatial4j.core.shape.Rectangle;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.impl.PointImpl;
+import com.spatial4j.core.shape.impl.RectangleImpl;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import org.elasticsearch.ElasticSearchParseException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * View over a geometry packed into a {@link ByteBuffer}, such as a mapped
+ * {@link PackedShapeDataSet} file or an {@link OffHeapGeometryStore}.  Coordinates are read
+ * directly from the buffer, so geometries can be serialized without creating any on-heap
+ * JTS objects.
+ * <p>
+ * A packed geometry is either a point, consisting of its type followed by its x and y, or
+ * polygons, consisting of:
+ * <ul>
+ * <li>Type, number of parts, number of rings and number of coordinates</li>
+ * <li>Index of the first ring of each part, where the first ring of a part is its shell</li>
+ * <li>Index of the first coordinate of each ring</li>
+ * <li>Coordinates as consecutive x and y doubles</li>
+ * </ul>
+ * </p>
+ */
+public class PackedGeometry {
+
+    static final byte POINT = 0;
+    static final byte POLYGONS = 1;
+
+    private final ByteBuffer buffer;
+    private final byte type;
+    private final int numParts;
+    private final int numRings;
+    private final int numCoordinates;
+    private final int partsOffset;
+    private final int ringsOffset;
+    private final int coordinatesOffset;
+
+    /**
+     * Creates a new PackedGeometry reading the geometry at the given offset of the buffer.
+     * Only absolute reads are made, so the buffer can be shared between threads.
+     *
+     * @param buffer Buffer holding the geometry
+     * @param offset Offset of the geometry in the buffer
+     */
+    public PackedGeometry(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.type = buffer.get(offset);
+
+        if (type == POINT) {
+            this.numParts = 0;
+            this.numRings = 0;
+            this.numCoordinates = 1;
+            this.partsOffset = offset + 1;
+            this.ringsOffset = offset + 1;
+            this.coordinatesOffset = offset + 1;
+        } else if (type == POLYGONS) {
+            this.numParts = buffer.getInt(offset + 1);
+            this.numRings = buffer.getInt(offset + 5);
+            this.numCoordinates = buffer.getInt(offset + 9);
+            this.partsOffset = offset + 13;
+            this.ringsOffset = partsOffset + numParts * 4;
+            this.coordinatesOffset = ringsOffset + numRings * 4;
+        } else {
+            throw new ElasticSearchParseException("Unknown geometry type [" + type + "]");
+        }
+    }
+
+    /**
+     * @return Whether the geometry is a point
+     */
+    public boolean isPoint() {
+        return type == POINT;
+    }
+
+    /**
+     * @return Number of polygons in the geometry
+     */
+    public int numParts() {
+        return numParts;
+    }
+
+    /**
+     * @return Number of rings across all the polygons in the geometry
+     */
+    public int numRings() {
+        return numRings;
+    }
+
+    /**
+     * @return Number of coordinates in the geometry
+     */
+    public int numCoordinates() {
+        return numCoordinates;
+    }
+
+    /**
+     * @param part Index of the polygon, or {@link #numParts()} for the end of the last polygon
+     * @return Index of the first ring of the polygon, which is its shell
+     */
+    public int partStart(int part) {
+        return part == numParts ? numRings : buffer.getInt(partsOffset + part * 4);
+    }
+
+    /**
+     * @param ring Index of the ring, or {@link #numRings()} for the end of the last ring
+     * @return Index of the first coordinate of the ring
+     */
+    public int ringStart(int ring) {
+        return ring == numRings ? numCoordinates : buffer.getInt(ringsOffset + ring * 4);
+    }
+
+    /**
+     * @param coordinate Index of the coordinate
+     * @return X value of the coordinate
+     */
+    public double x(int coordinate) {
+        return buffer.getDouble(coordinatesOffset + coordinate * 16);
+    }
+
+    /**
+     * @param coordinate Index of the coordinate
+     * @return Y value of the coordinate
+     */
+    public double y(int coordinate) {
+        return buffer.getDouble(coordinatesOffset + coordinate * 16 + 8);
+    }
+
+    /**
+     * Calculates the bounding box of the geometry by scanning its coordinates in place,
+     * which works for geometry whose topology is too invalid to build a Shape of
+     *
+     * @return Bounding box of the geometry
+     */
+    public Rectangle boundingBox() {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numCoordinates; i++) {
+            minX = Math.min(minX, x(i));
+            minY = Math.min(minY, y(i));
+            maxX = Math.max(maxX, x(i));
+            maxY = Math.max(maxY, y(i));
+        }
+        return new RectangleImpl(minX, maxX, minY, maxY, GeoShapeConstants.SPATIAL_CONTEXT);
+    }
+
+    /**
+     * Builds an on-heap {@link Shape} from the packed geometry, for uses which need the JTS
+     * representation such as tiling.  The Shape is not retained by the PackedGeometry.
+     *
+     * @return Shape representing the geometry
+     * @throws InvalidShapeException Thrown if the topology of the geometry is invalid, which
+     *         packed geometry indexed as it is under the report policy can be
+     */
+    public Shape toShape() {
+        if (type == POINT) {
+            return new PointImpl(x(0), y(0), GeoShapeConstants.SPATIAL_CONTEXT);
+        }
+
+        Polygon[] polygons = new Polygon[numParts];
+        for (int part = 0; part < numParts; part++) {
+            int firstRing = partStart(part);
+            LinearRing shell = toRing(firstRing);
+            LinearRing[] holes = new LinearRing[partStart(part + 1) - firstRing - 1];
+            for (int hole = 0; hole < holes.length; hole++) {
+                holes[hole] = toRing(firstRing + 1 + hole);
+            }
+            polygons[part] = GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(shell, holes);
+        }
+
+        Geometry geometry = polygons.length == 1 ? polygons[0] : GeoShapeConstants.GEOMETRY_FACTORY.createMultiPolygon(polygons);
+        return new JtsGeometry(geometry, GeoShapeConstants.SPATIAL_CONTEXT, true);
+    }
+
+    private LinearRing toRing(int ring) {
+        int start = ringStart(ring);
+        int end = ringStart(ring + 1);
+        double[] coordinates = new double[(end - start) * 2];
+        for (int i = start; i < end; i++) {
+            coordinates[(i - start) * 2] = x(i);
+            coordinates[(i - start) * 2 + 1] = y(i);
+        }
+        return GeoShapeConstants.GEOMETRY_FACTORY.createLinearRing(new PackedCoordinateSequence.Double(coordinates, 2));
+    }
+}
@@ -0,0 +1,546 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Point;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.ElasticSearchParseException;
+import org.elasticsearch.common.io.Closeables;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * {@link ShapeDataSet} implementation backed by a compact, memory mapped binary file
+ * written by {@link #write(ShapeDataSet, File)}.  Converting a DataSet once means
+ * subsequent loads skip downloading and parsing the original files.
+ * <p>
+ * The file consists of a fixed header followed by:
+ * <ul>
+ * <li>Geometry section: per record a {@link PackedGeometry}, or references to shared arcs
+ * if the file was written with topology</li>
+ * <li>Arcs: the {@link ArcStore} of a file written with topology</li>
+ * <li>Record index: offset of each record in the geometry section</li>
+ * <li>Name column: the names of the Shapes</li>
+ * <li>Attribute columns: one typed column per metadata field</li>
+ * <li>Schema: the name, type and column offset of each metadata field</li>
+ * <li>Metadata: the DataSet metadata, encoded as JSON</li>
+ * </ul>
+ * Since the file is mapped into a single buffer, it cannot exceed 2GB.
+ * </p>
+ */
+public class PackedShapeDataSet implements SliceableShapeDataSet {
+
+    private static final int MAGIC = 0x53504453;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_DOUBLE = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_BOOLEAN = 3;
+    private static final byte TYPE_DATE = 4;
+
+    private final String id;
+    private final ByteBuffer buffer;
+    private final int numRecords;
+    private final int geometryOffset;
+    private final int recordIndexOffset;
+    private final int namesOffset;
+    private final ArcStore arcStore;
+    private final String[] fieldNames;
+    private final byte[] fieldTypes;
+    private final int[] fieldOffsets;
+    private final Map<String, Object> metadata;
+
+    /**
+     * Creates a new PackedShapeDataSet which maps the given file
+     *
+     * @param id ID for the DataSet
+     * @param file File previously written by {@link #write(ShapeDataSet, File)}
+     * @throws IOException Can be thrown if there is a problem mapping the file
+     */
+    public PackedShapeDataSet(String id, File file) throws IOException {
+        this.id = id;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ElasticSearchIllegalArgumentException("Packed data set [" + file + "] is larger than 2GB");
+            }
+            MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.buffer = mappedBuffer;
+        } finally {
+            Closeables.closeQuietly(randomAccessFile);
+        }
+
+        int magic = buffer.getInt(0);
+        if (magic != MAGIC) {
+            throw new ElasticSearchParseException("File [" + file + "] is not a packed data set");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new ElasticSearchParseException("Packed data set has unsupported version. " +
+                    "Expected [" + VERSION + "] but found [" + version + "]");
+        }
+
+        this.numRecords = buffer.getInt(8);
+        int numFields = buffer.getInt(12);
+        this.geometryOffset = buffer.getInt(16);
+        this.recordIndexOffset = buffer.getInt(20);
+        this.namesOffset = buffer.getInt(24);
+        int schemaOffset = buffer.getInt(28);
+        int metadataOffset = buffer.getInt(32);
+        int arcsOffset = buffer.getInt(36);
+        this.arcStore = arcsOffset != 0 ? new ArcStore(buffer, arcsOffset) : null;
+
+        this.fieldNames = new String[numFields];
+        this.fieldTypes = new byte[numFields];
+        this.fieldOffsets = new int[numFields];
+
+        ByteBuffer schemaBuffer = buffer.duplicate();
+        schemaBuffer.position(schemaOffset);
+        for (int i = 0; i < numFields; i++) {
+            fieldNames[i] = readString(schemaBuffer);
+            fieldTypes[i] = schemaBuffer.get();
+            fieldOffsets[i] = schemaBuffer.getInt();
+        }
+
+        int metadataLength = buffer.getInt(metadataOffset);
+        byte[] metadataBytes = new byte[metadataLength];
+        ByteBuffer metadataBuffer = buffer.duplicate();
+        metadataBuffer.position(metadataOffset + 4);
+        metadataBuffer.get(metadataBytes);
+        this.metadata = XContentHelper.convertToMap(metadataBytes, true).v2();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<ShapeData> shapeData() throws IOException {
+        return shapeData(0, numRecords);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<ShapeData> shapeData(final int from, int to) throws IOException {
+        final int end = Math.min(to, numRecords);
+        return new Iterator<ShapeData>() {
+
+            private int record = from;
+
+            @Override
+            public boolean hasNext() {
+                return record < end;
+            }
+
+            @Override
+            public ShapeData next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more records");
+                }
+                return shapeData(record++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from this iterator");
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addMetadata(XContentBuilder contentBuilder) throws IOException {
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            contentBuilder.field(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Reads the ShapeData of the record with the given number
+     *
+     * @param record Number of the record to read
+     * @return ShapeData of the record
+     */
+    private ShapeData shapeData(int record) {
+        // Geometry is read straight from the mapped file when serialized, or rebuilt from
+        // its arcs if the file was written with topology
+        int offset = geometryOffset + buffer.getInt(recordIndexOffset + record * 4);
+        PackedGeometry geometry = arcStore != null ? arcStore.decode(buffer, offset) : new PackedGeometry(buffer, offset);
+        String name = readStringValue(namesOffset, record);
+
+        Map<String, Object> data = newHashMap();
+        for (int i = 0; i < fieldNames.length; i++) {
+            Object value = readValue(fieldTypes[i], fieldOffsets[i], record);
+            if (value != null) {
+                data.put(fieldNames[i], value);
+            }
+        }
+
+        return new ShapeData(geometry, name, data, null);
+    }
+
+    private Object readValue(byte type, int columnOffset, int record) {
+        if (isNull(columnOffset, record)) {
+            return null;
+        }
+
+        int valuesOffset = columnOffset + nullBitmapSize(numRecords);
+        switch (type) {
+            case TYPE_STRING:
+                return readStringValue(columnOffset, record);
+            case TYPE_DOUBLE:
+                return buffer.getDouble(valuesOffset + record * 8);
+            case TYPE_FLOAT:
+                return buffer.getFloat(valuesOffset + record * 4);
+            case TYPE_BOOLEAN:
+                return buffer.get(valuesOffset + record) != 0;
+            case TYPE_DATE:
+                return new Date(buffer.getLong(valuesOffset + record * 8));
+            default:
+                throw new ElasticSearchParseException("Unknown field type [" + type + "]");
+        }
+    }
+
+    private String readStringValue(int columnOffset, int record) {
+        if (isNull(columnOffset, record)) {
+            return null;
+        }
+
+        int offsetsOffset = columnOffset + nullBitmapSize(numRecords);
+        int start = buffer.getInt(offsetsOffset + record * 4);
+        int end = buffer.getInt(offsetsOffset + (record + 1) * 4);
+
+        byte[] bytes = new byte[end - start];
+        ByteBuffer stringBuffer = buffer.duplicate();
+        stringBuffer.position(offsetsOffset + (numRecords + 1) * 4 + start);
+        stringBuffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private boolean isNull(int columnOffset, int record) {
+        return (buffer.get(columnOffset + (record >>> 3)) & (1 << (record & 7))) != 0;
+    }
+
+    private static String readString(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.getShort()];
+        byteBuffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int nullBitmapSize(int numRecords) {
+        return (numRecords + 7) >>> 3;
+    }
+
+    /**
+     * Writes the contents of the given {@link ShapeDataSet} into the given file, using the
+     * format read by PackedShapeDataSet
+     *
+     * @param dataSet DataSet to write
+     * @param file File to write the DataSet into
+     * @throws IOException Can be thrown if there is a problem reading the DataSet or writing the file
+     */
+    public static void write(ShapeDataSet dataSet, File file) throws IOException {
+        write(dataSet, file, false);
+    }
+
+    /**
+     * Writes the contents of the given {@link ShapeDataSet} into the given file, using the
+     * format read by PackedShapeDataSet.  With topology, the borders shared by neighbouring
+     * polygons are found by a {@link TopologyEncoder} and written once, which shrinks
+     * the geometry of boundary DataSets at the cost of holding all of it while writing.
+     *
+     * @param dataSet DataSet to write
+     * @param file File to write the DataSet into
+     * @param topology Whether to write shared borders once
+     * @throws IOException Can be thrown if there is a problem reading the DataSet or writing the file
+     */
+    public static void write(ShapeDataSet dataSet, File file, boolean topology) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.write(new byte[HEADER_SIZE]);
+
+            List<Integer> recordOffsets = newArrayList();
+            List<String> names = newArrayList();
+            Map<String, List<Object>> columns = newLinkedHashMap();
+
+            int geometryOffset = out.size();
+            TopologyEncoder topologyEncoder = topology ? new TopologyEncoder() : null;
+            Iterator<ShapeData> shapeDataIterator = dataSet.shapeData();
+            int numRecords = 0;
+            while (shapeDataIterator.hasNext()) {
+                ShapeData shapeData = shapeDataIterator.next();
+                if (!shapeData.hasGeometry()) {
+                    throw new ElasticSearchIllegalArgumentException("ShapeData [" + shapeData.name() + "] has no geometry to pack");
+                }
+
+                if (topologyEncoder != null) {
+                    topologyEncoder.add(shapeData.shape());
+                } else {
+                    recordOffsets.add(out.size() - geometryOffset);
+                    writeShape(shapeData.shape(), out);
+                }
+                names.add(shapeData.name());
+
+                for (Map.Entry<String, Object> entry : shapeData.data().entrySet()) {
+                    List<Object> column = columns.get(entry.getKey());
+                    if (column == null) {
+                        column = newArrayList();
+                        columns.put(entry.getKey(), column);
+                    }
+                    while (column.size() < numRecords) {
+                        column.add(null);
+                    }
+                    column.add(entry.getValue());
+                }
+                numRecords++;
+            }
+
+            int arcsOffset = 0;
+            if (topologyEncoder != null) {
+                // Arcs are only known once every Shape has been added
+                topologyEncoder.cutArcs();
+                for (int i = 0; i < numRecords; i++) {
+                    recordOffsets.add(out.size() - geometryOffset);
+                    topologyEncoder.writeShape(i, out);
+                }
+                arcsOffset = out.size();
+                topologyEncoder.writeArcs(out);
+            }
+
+            int recordIndexOffset = out.size();
+            for (Integer recordOffset : recordOffsets) {
+                out.writeInt(recordOffset);
+            }
+
+            int namesOffset = out.size();
+            writeStringColumn(names, numRecords, out);
+
+            byte[] fieldTypes = new byte[columns.size()];
+            int[] fieldOffsets = new int[columns.size()];
+            int field = 0;
+            for (List<Object> column : columns.values()) {
+                while (column.size() < numRecords) {
+                    column.add(null);
+                }
+                fieldTypes[field] = columnType(column);
+                fieldOffsets[field] = out.size();
+                writeColumn(fieldTypes[field], column, numRecords, out);
+                field++;
+            }
+
+            int schemaOffset = out.size();
+            field = 0;
+            for (String fieldName : columns.keySet()) {
+                byte[] nameBytes = fieldName.getBytes(UTF_8);
+                out.writeShort(nameBytes.length);
+                out.write(nameBytes);
+                out.writeByte(fieldTypes[field]);
+                out.writeInt(fieldOffsets[field]);
+                field++;
+            }
+
+            int metadataOffset = out.size();
+            XContentBuilder metadataBuilder = XContentFactory.jsonBuilder().startObject();
+            dataSet.addMetadata(metadataBuilder);
+            byte[] metadataBytes = metadataBuilder.endObject().bytes().toBytes();
+            out.writeInt(metadataBytes.length);
+            out.write(metadataBytes);
+
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new ElasticSearchIllegalStateException("Packed data set for [" + dataSet.id() + "] exceeds 2GB");
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(numRecords)
+                    .putInt(columns.size())
+                    .putInt(geometryOffset)
+                    .putInt(recordIndexOffset)
+                    .putInt(namesOffset)
+                    .putInt(schemaOffset)
+                    .putInt(metadataOffset)
+                    .putInt(arcsOffset);
+            header.flip();
+            fileOutputStream.getChannel().write(header, 0);
+        } finally {
+            Closeables.closeQuietly(fileOutputStream);
+        }
+    }
+
+    /**
+     * Writes the given Shape in the format read by {@link PackedGeometry}
+     *
+     * @param shape Shape to write, which must be a point or polygonal
+     * @param out Stream to write the Shape to
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    static void writeShape(Shape shape, DataOutputStream out) throws IOException {
+        if (shape instanceof Point) {
+            Point point = (Point) shape;
+            out.writeByte(PackedGeometry.POINT);
+            out.writeDouble(point.getX());
+            out.writeDouble(point.getY());
+            return;
+        } else if (!(shape instanceof JtsGeometry)) {
+            throw new ElasticSearchIllegalArgumentException("Shape [" + shape.getClass().getName() + "] not currently supported");
+        }
+
+        Geometry geometry = ((JtsGeometry) shape).getGeom();
+
+        List<Integer> parts = newArrayList();
+        List<LineString> rings = newArrayList();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (!(part instanceof Polygon)) {
+                throw new ElasticSearchIllegalArgumentException("Geometry [" + part.getGeometryType() + "] not currently supported");
+            }
+            Polygon polygon = (Polygon) part;
+            parts.add(rings.size());
+            rings.add(polygon.getExteriorRing());
+            for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                rings.add(polygon.getInteriorRingN(j));
+            }
+        }
+
+        out.writeByte(PackedGeometry.POLYGONS);
+        out.writeInt(parts.size());
+        out.writeInt(rings.size());
+        out.writeInt(geometry.getNumPoints());
+
+        for (Integer part : parts) {
+            out.writeInt(part);
+        }
+
+        int coordinates = 0;
+        for (LineString ring : rings) {
+            out.writeInt(coordinates);
+            coordinates += ring.getNumPoints();
+        }
+
+        for (LineString ring : rings) {
+            for (int i = 0; i < ring.getNumPoints(); i++) {
+                out.writeDouble(ring.getCoordinateSequence().getX(i));
+                out.writeDouble(ring.getCoordinateSequence().getY(i));
+            }
+        }
+    }
+
+    private static byte columnType(List<Object> column) {
+        byte type = -1;
+        for (Object value : column) {
+            byte valueType;
+            if (value == null) {
+                continue;
+            } else if (value instanceof Double) {
+                valueType = TYPE_DOUBLE;
+            } else if (value instanceof Float) {
+                valueType = TYPE_FLOAT;
+            } else if (value instanceof Boolean) {
+                valueType = TYPE_BOOLEAN;
+            } else if (value instanceof Date) {
+                valueType = TYPE_DATE;
+            } else {
+                valueType = TYPE_STRING;
+            }
+
+            if (type == -1) {
+                type = valueType;
+            } else if (type != valueType) {
+                // Mixed types are stored in their String form
+                return TYPE_STRING;
+            }
+        }
+        return type == -1 ? TYPE_STRING : type;
+    }
+
+    private static void writeNullBitmap(List<?> column, int numRecords, DataOutputStream out) throws IOException {
+        byte[] bitmap = new byte[nullBitmapSize(numRecords)];
+        for (int i = 0; i < numRecords; i++) {
+            if (column.get(i) == null) {
+                bitmap[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.write(bitmap);
+    }
+
+    private static void writeColumn(byte type, List<Object> column, int numRecords, DataOutputStream out) throws IOException {
+        if (type == TYPE_STRING) {
+            writeStringColumn(column, numRecords, out);
+            return;
+        }
+
+        writeNullBitmap(column, numRecords, out);
+        for (Object value : column) {
+            switch (type) {
+                case TYPE_DOUBLE:
+                    out.writeDouble(value == null ? 0 : (Double) value);
+                    break;
+                case TYPE_FLOAT:
+                    out.writeFloat(value == null ? 0 : (Float) value);
+                    break;
+                case TYPE_BOOLEAN:
+                    out.writeByte(value != null && (Boolean) value ? 1 : 0);
+                    break;
+                case TYPE_DATE:
+                    out.writeLong(value == null ? 0 : ((Date) value).getTime());
+                    break;
+            }
+        }
+    }
+
+    private static void writeStringColumn(List<?> column, int numRecords, DataOutputStream out) throws IOException {
+        writeNullBitmap(column, numRecords, out);
+
+        byte[][] values = new byte[numRecords][];
+        int offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < numRecords; i++) {
+            Object value = column.get(i);
+            values[i] = value == null ? new byte[0] : value.toString().getBytes(UTF_8);
+            offset += values[i].length;
+            out.writeInt(offset);
+        }
+        for (byte[] value : values) {
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.elasticsearch.shape.dataset;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link ShapeDataSet} whose parsing can be split into tasks run in parallel, such as one
+ * per layer of a multi-layer archive
+ */
+public interface ParallelShapeDataSet extends ShapeDataSet {
+
+    /**
+     * @param executor Executor the parsing tasks are run on, such as a pool of the node's ThreadPool
+     * @return DataSet with the same data, parsed in parallel on the given executor
+     */
+    ShapeDataSet parallel(Executor executor);
+}
@@ -0,0 +1,15 @@
+package org.elasticsearch.shape.dataset;
+
+/**
+ * {@link ShapeDataSet} holding resources between the stages of an ingest, such as a
+ * downloaded copy of its files, which are released once the ingest completes
+ */
+public interface ReleasableShapeDataSet extends ShapeDataSet {
+
+    /**
+     * Releases the resources held by the set and by every copy of it, such as those made
+     * for low memory or validating parsing.  The set remains usable, acquiring the
+     * resources again when next parsed.
+     */
+    void release();
+}
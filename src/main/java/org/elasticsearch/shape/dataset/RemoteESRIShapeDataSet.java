@@ -3,20 +3,27 @@ package org.elasticsearch.shape.dataset;
 import com.spatial4j.core.shape.Shape;
 import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.ElasticSearchInterruptedException;
 import org.elasticsearch.common.io.Closeables;
+import org.elasticsearch.common.io.FileSystemUtils;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.shape.dataset.parsers.AttributeRecord;
+import org.elasticsearch.shape.dataset.parsers.DBaseFileParser;
 import org.elasticsearch.shape.dataset.parsers.ESRIShapeFileParser;
+import org.elasticsearch.shape.dataset.parsers.PrjFileParser;
+import org.elasticsearch.shape.dataset.parsers.RecordSchema;
+import org.elasticsearch.shape.dataset.projection.Projection;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import static org.elasticsearch.common.collect.Lists.newArrayList;
@@ -24,8 +31,16 @@ import static org.elasticsearch.common.collect.Lists.newArrayList;
 /**
  * {@link ShapeDataSet} implementation supporting remotely archieved ESRI Shapefile bundles
  * such as those used by http://www.naturalearthdata.com
+ * <p>
+ * Bundles, either archives or local directories, can contain multiple layers.  The files
+ * of each layer are paired by their path in the bundle, which names the layer, and each
+ * {@link ShapeData} is tagged with the name of its layer.  Layers are parsed in parallel
+ * once an executor is given with {@link #parallel(java.util.concurrent.Executor)}.
+ * </p>
  */
-public class RemoteESRIShapeDataSet implements ShapeDataSet {
+public class RemoteESRIShapeDataSet
+        implements SliceableShapeDataSet, EstimableShapeDataSet, ValidatingShapeDataSet, ParallelShapeDataSet,
+        ReleasableShapeDataSet {
 
     public static final ShapeDataSet NATURAL_EARTH_DATA_COUNTRIES = new RemoteESRIShapeDataSet("natural_earth_data_cities",
             "http://www.naturalearthdata.com/http//www.naturalearthdata.com/download/110m/cultural/110m-admin-0-countries.zip",
@@ -33,10 +48,22 @@ public class RemoteESRIShapeDataSet implements ShapeDataSet {
 
     private static final String SHP_SUFFIX = ".shp";
     private static final String DBF_SUFFIX = ".dbf";
+    private static final String SHX_SUFFIX = ".shx";
+    private static final String PRJ_SUFFIX = ".prj";
+
+    private static final int SHP_HEADER_BYTES = 100;
+    private static final int SHP_RECORD_OVERHEAD_BYTES = 52;
+    private static final int DBF_HEADER_BYTES = 12;
 
     private final String id;
     private final URL url;
     private final String nameField;
+    private final boolean offHeap;
+    private final boolean lowMemory;
+    private final GeometryValidation validation;
+    private final Executor executor;
+
+    private final Download download;
 
     /**
      * Constructs a new RemoteESRIShapeDataSet which will retrieve from the given URL
@@ -46,8 +73,28 @@ public class RemoteESRIShapeDataSet implements ShapeDataSet {
      * @param nameField Name of the metadata field that has the Shape names
      */
     public RemoteESRIShapeDataSet(String id, String url, String nameField) {
+        this(id, url, nameField, false);
+    }
+
+    /**
+     * Constructs a new RemoteESRIShapeDataSet which will retrieve from the given URL,
+     * optionally parsing the geometry into an {@link OffHeapGeometryStore}.  Off-heap
+     * geometry suits very large DataSets, since it is serialized without ever creating
+     * on-heap Shapes.  Shapes are then only validated to have coordinates in range.
+     *
+     * @param id ID for the DataSet
+     * @param url URL to retrieve the shapefile data from
+     * @param nameField Name of the metadata field that has the Shape names
+     * @param offHeap Whether the geometry is parsed into off-heap storage
+     */
+    public RemoteESRIShapeDataSet(String id, String url, String nameField, boolean offHeap) {
         this.id = id;
         this.nameField = nameField;
+        this.offHeap = offHeap;
+        this.lowMemory = false;
+        this.validation = null;
+        this.executor = null;
+        this.download = new Download();
         try {
             // Construct it ourselves so that fields don't have to catch exception
             this.url = new URL(url);
@@ -56,6 +103,23 @@ public class RemoteESRIShapeDataSet implements ShapeDataSet {
         }
     }
 
+    private RemoteESRIShapeDataSet(
+            RemoteESRIShapeDataSet dataSet,
+            boolean lowMemory,
+            GeometryValidation validation,
+            Executor executor) {
+        this.id = dataSet.id;
+        this.url = dataSet.url;
+        this.nameField = dataSet.nameField;
+        // Records with invalid topology can only be indexed as they are, as the report policy
+        // asks, once parsed into off-heap storage, since no on-heap Shape can be built of them
+        this.offHeap = dataSet.offHeap || lowMemory || (validation != null && validation.validatesPackedTopology());
+        this.lowMemory = lowMemory;
+        this.validation = validation;
+        this.executor = executor;
+        this.download = dataSet.download;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -67,61 +131,645 @@ public class RemoteESRIShapeDataSet implements ShapeDataSet {
      * {@inheritDoc}
      */
     public Iterator<ShapeData> shapeData() throws IOException {
-        InputStream urlInputStream = null;
-        ZipInputStream zipInputStream = null;
+        Archive archive = readArchive(false);
+        List<LayerSlice> slices = newArrayList();
+        for (Layer layer : archive.layers.values()) {
+            slices.add(new LayerSlice(archive, layer, 0, -1));
+        }
+        return parseLayers(slices).iterator();
+    }
 
-        try {
-            urlInputStream = url.openStream();
-            zipInputStream = new ZipInputStream(urlInputStream);
-
-            List<Shape> shapes = null;
-            List<Map<String, Object>> shapeMetadata = null;
-
-            ZipEntry zipEntry;
-            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                String name = zipEntry.getName();
-
-                if (name.endsWith(SHP_SUFFIX)) {
-                    shapes = ESRIShapeFileParser.parseShpFile(ByteBuffer.wrap(ByteStreams.toByteArray(zipInputStream)));
-                } else if (name.endsWith(DBF_SUFFIX)) {
-                    // For some reason javadbf fails when reading directly from the ZIPInputStream
-                    // But works when read from a ByteArrayInputStream.
-                    ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(ByteStreams.toByteArray(zipInputStream));
-                    shapeMetadata = ESRIShapeFileParser.parseDBFFile(byteArrayInputStream);
+    /**
+     * {@inheritDoc}
+     */
+    public int numRecords() throws IOException {
+        Archive archive = readArchive(true);
+        int numRecords = 0;
+        for (Layer layer : archive.layers.values()) {
+            numRecords += layer.recordOffsets().length;
+        }
+        return numRecords;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DataSetMemoryEstimate estimateMemory() throws IOException {
+        File source = localArchive();
+        Map<String, LayerHeaders> layers = new TreeMap<String, LayerHeaders>();
+
+        if (source.isDirectory()) {
+            estimateDirectory(source, "", layers);
+        } else {
+            ZipFile zipFile = new ZipFile(source);
+            try {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry zipEntry = entries.nextElement();
+                    if (!zipEntry.isDirectory() && isLayerFile(zipEntry.getName())) {
+                        InputStream entryInputStream = zipFile.getInputStream(zipEntry);
+                        try {
+                            layerHeaders(layers, zipEntry.getName()).add(zipEntry.getName(), zipEntry.getSize(), entryInputStream);
+                        } finally {
+                            Closeables.closeQuietly(entryInputStream);
+                        }
+                    }
                 }
+            } finally {
+                zipFile.close();
+            }
+        }
 
-                zipInputStream.closeEntry();
+        // Files of directories and of low memory DataSets are mapped rather than read onto the heap
+        boolean filesOnHeap = !source.isDirectory() && !lowMemory;
+        DataSetMemoryEstimate estimate = new DataSetMemoryEstimate(0, 0, 0, 0, filesOnHeap);
+        for (LayerHeaders layer : layers.values()) {
+            if (layer.shpBytes > 0) {
+                estimate = estimate.add(layer.estimate(filesOnHeap));
             }
+        }
+        return estimate;
+    }
 
-            if (shapes == null) {
-                throw new ElasticSearchIllegalStateException("Dataset does not contain SHP file");
-            } else if (shapeMetadata == null) {
-                throw new ElasticSearchIllegalStateException("Dataset does not contain DBF file");
+    /**
+     * {@inheritDoc}
+     */
+    public ShapeDataSet lowMemory() {
+        return lowMemory ? this : new RemoteESRIShapeDataSet(this, true, validation, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ShapeDataSet validating(GeometryValidation validation) {
+        return new RemoteESRIShapeDataSet(this, lowMemory, validation, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ShapeDataSet parallel(Executor executor) {
+        return new RemoteESRIShapeDataSet(this, lowMemory, validation, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void release() {
+        synchronized (download) {
+            if (download.file != null && download.file.exists() && !download.file.delete()) {
+                download.file.deleteOnExit();
+            }
+            download.file = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<ShapeData> shapeData(int from, int to) throws IOException {
+        Archive archive = readArchive(true);
+
+        // Records are numbered across the layers in order of their names
+        List<LayerSlice> slices = newArrayList();
+        int layerStart = 0;
+        for (Layer layer : archive.layers.values()) {
+            int layerEnd = layerStart + layer.recordOffsets().length;
+            if (from < layerEnd && to > layerStart) {
+                slices.add(new LayerSlice(archive, layer, Math.max(from, layerStart) - layerStart, Math.min(to, layerEnd) - layerStart));
+            }
+            layerStart = layerEnd;
+        }
+        return parseLayers(slices).iterator();
+    }
+
+    /**
+     * Parses the given slices of layers, in parallel on the executor of the DataSet if there
+     * is more than one, and otherwise on the calling thread
+     *
+     * @param slices Slices of layers to parse
+     * @return ShapeData parsed from the slices, in the order of the slices
+     * @throws IOException Can be thrown if there is a problem parsing a layer
+     */
+    private List<ShapeData> parseLayers(List<LayerSlice> slices) throws IOException {
+        if (slices.size() == 1 || executor == null) {
+            List<ShapeData> shapeData = newArrayList();
+            for (LayerSlice slice : slices) {
+                shapeData.addAll(slice.call());
+            }
+            return shapeData;
+        }
+
+        List<FutureTask<List<ShapeData>>> tasks = newArrayList();
+        try {
+            for (LayerSlice slice : slices) {
+                FutureTask<List<ShapeData>> task = new FutureTask<List<ShapeData>>(slice);
+                tasks.add(task);
+                executor.execute(task);
             }
 
             List<ShapeData> shapeData = newArrayList();
+            for (FutureTask<List<ShapeData>> task : tasks) {
+                shapeData.addAll(task.get());
+            }
+            return shapeData;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchInterruptedException("Interrupted while parsing layers", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            } else if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new ElasticSearchIllegalStateException("Failed to parse layer", ee.getCause());
+        } finally {
+            // Tasks left over by a failure are not worth finishing
+            for (FutureTask<List<ShapeData>> task : tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private List<ShapeData> toShapeData(List<Shape> shapes, List<AttributeRecord> records, String layer) {
+        List<ShapeData> shapeData = newArrayList();
+
+        for (int i = 0; i < shapes.size(); i++) {
+            AttributeRecord record = records.get(i);
+            if (record == null) {
+                // Deleted from the DBF, so the Shape is skipped too
+                continue;
+            }
+            shapeData.add(new ShapeData(shapes.get(i), name(record), record, layer));
+        }
+
+        return shapeData;
+    }
+
+    private List<ShapeData> toPackedShapeData(List<PackedGeometry> geometries, List<AttributeRecord> records, String layer) {
+        List<ShapeData> shapeData = newArrayList();
+
+        for (int i = 0; i < geometries.size(); i++) {
+            AttributeRecord record = records.get(i);
+            if (record == null) {
+                // Deleted from the DBF, so the Shape is skipped too
+                continue;
+            }
+            shapeData.add(new ShapeData(geometries.get(i), name(record), record, layer));
+        }
+
+        return shapeData;
+    }
+
+    private String name(AttributeRecord record) {
+        int nameColumn = record.schema().column(nameField);
+        Object name = nameColumn != -1 ? record.get(nameColumn) : null;
+        if (name == null) {
+            throw new ElasticSearchIllegalArgumentException("Could not find Shape name in field [" + nameField + "]");
+        }
+        return name.toString().trim();
+    }
 
-            for (int i = 0; i < shapes.size(); i++) {
-                Map<String, Object> metadata = shapeMetadata.get(i);
-                String name = (String) metadata.remove(nameField);
-                if (name == null) {
-                    throw new ElasticSearchIllegalArgumentException("Could not find Shape name in field [" + nameField + "]");
+    /**
+     * Reads the contents of the files at the URL, which is either an archive or, for file
+     * URLs, a directory.  Files are paired into layers by their names without the suffix.
+     * Files in a directory are mapped rather than read onto the heap.
+     *
+     * @param requireShx Whether each layer must contain a SHX file
+     * @return Contents of the files at the URL
+     * @throws IOException Can be thrown if there is a problem reading the files
+     */
+    private Archive readArchive(boolean requireShx) throws IOException {
+        Archive archive = new Archive();
+
+        File source = localArchive();
+        if (source.isDirectory()) {
+            readDirectory(source, "", archive);
+        } else if (lowMemory) {
+            // Entries are extracted to disk and mapped, the mappings outliving the files
+            File directory = File.createTempFile("shape_dataset_archive", "");
+            if (!directory.delete() || !FileSystemUtils.mkdirs(directory)) {
+                throw new IOException("Failed to create archive directory [" + directory + "]");
+            }
+            try {
+                InputStream fileInputStream = new FileInputStream(source);
+                try {
+                    extractArchive(fileInputStream, directory);
+                } finally {
+                    Closeables.closeQuietly(fileInputStream);
                 }
+                readDirectory(directory, "", archive);
+            } finally {
+                FileSystemUtils.deleteRecursively(directory);
+            }
+        } else {
+            InputStream fileInputStream = null;
+            ZipInputStream zipInputStream = null;
+
+            try {
+                fileInputStream = new FileInputStream(source);
+                zipInputStream = new ZipInputStream(new BufferedInputStream(fileInputStream));
 
-                shapeData.add(new ShapeData(shapes.get(i), name.trim(), metadata));
+                ZipEntry zipEntry;
+                while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                    if (!zipEntry.isDirectory() && isLayerFile(zipEntry.getName())) {
+                        archive.add(zipEntry.getName(), ByteBuffer.wrap(ByteStreams.toByteArray(zipInputStream)));
+                    }
+                    zipInputStream.closeEntry();
+                }
+            } finally {
+                Closeables.closeQuietly(zipInputStream);
+                Closeables.closeQuietly(fileInputStream);
             }
+        }
 
-            return shapeData.iterator();
-        } finally {
-            Closeables.closeQuietly(zipInputStream);
-            Closeables.closeQuietly(urlInputStream);
+        archive.validate(requireShx);
+        return archive;
+    }
+
+    /**
+     * Returns a local copy of the files at the URL.  File URLs are used directly, while
+     * archives at other URLs are downloaded to a temporary file, which is then shared by
+     * estimating and parsing the DataSet and its copies until {@link #release()} deletes it.
+     * Each ingest releases the DataSet once done, so the next one downloads the archive again.
+     *
+     * @return Local archive or directory of the files
+     * @throws IOException Can be thrown if there is a problem downloading the archive
+     */
+    private File localArchive() throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            return new File(url.getPath());
+        }
+
+        synchronized (download) {
+            if (download.file != null && download.file.exists()) {
+                return download.file;
+            }
+
+            File file = File.createTempFile("shape_dataset_download", ".zip");
+            InputStream urlInputStream = url.openStream();
+            try {
+                OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+                try {
+                    ByteStreams.copy(urlInputStream, fileOutputStream);
+                } finally {
+                    Closeables.closeQuietly(fileOutputStream);
+                }
+            } catch (IOException ioe) {
+                file.delete();
+                throw ioe;
+            } finally {
+                Closeables.closeQuietly(urlInputStream);
+            }
+            download.file = file;
+            return file;
+        }
+    }
+
+    /**
+     * Reads the headers of the layer files in the given directory and its subdirectories
+     *
+     * @param directory Directory to read
+     * @param prefix Path of the directory relative to the root directory
+     * @param layers Headers of the layers, by name
+     * @throws IOException Can be thrown if there is a problem reading a file
+     */
+    private static void estimateDirectory(File directory, String prefix, Map<String, LayerHeaders> layers) throws IOException {
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.isDirectory()) {
+                estimateDirectory(file, prefix + file.getName() + "/", layers);
+            } else if (isLayerFile(file.getName())) {
+                InputStream fileInputStream = new FileInputStream(file);
+                try {
+                    String name = prefix + file.getName();
+                    layerHeaders(layers, name).add(name, file.length(), fileInputStream);
+                } finally {
+                    Closeables.closeQuietly(fileInputStream);
+                }
+            }
+        }
+    }
+
+    private static LayerHeaders layerHeaders(Map<String, LayerHeaders> layers, String fileName) {
+        String baseName = fileName.substring(0, fileName.length() - suffix(fileName).length());
+        LayerHeaders headers = layers.get(baseName);
+        if (headers == null) {
+            headers = new LayerHeaders();
+            layers.put(baseName, headers);
+        }
+        return headers;
+    }
+
+    /**
+     * Maps the layer files in the given directory and its subdirectories into the archive,
+     * naming them by their path relative to the root directory as entries of a ZIP would be
+     *
+     * @param directory Directory to read
+     * @param prefix Path of the directory relative to the root directory
+     * @param archive Archive to add the files to
+     * @throws IOException Can be thrown if there is a problem mapping a file
+     */
+    private static void readDirectory(File directory, String prefix, Archive archive) throws IOException {
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.isDirectory()) {
+                readDirectory(file, prefix + file.getName() + "/", archive);
+            } else if (isLayerFile(file.getName())) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                try {
+                    FileChannel channel = randomAccessFile.getChannel();
+                    if (channel.size() > Integer.MAX_VALUE) {
+                        throw new ElasticSearchIllegalArgumentException("File [" + file + "] is larger than 2GB");
+                    }
+                    archive.add(prefix + file.getName(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                } finally {
+                    Closeables.closeQuietly(randomAccessFile);
+                }
+            }
         }
     }
 
+    /**
+     * Extracts the layer files of the given ZIP archive into the given directory, from which
+     * the DataSet can then be read with a file URL.  Since the SHP and DBF files of a layer
+     * can come in any order in the archive, entries are spilled to disk as they are
+     * decompressed rather than being held on the heap until their layer is complete.
+     *
+     * @param zip Stream of the ZIP archive
+     * @param directory Directory to extract the files into
+     * @return Number of files extracted
+     * @throws IOException Can be thrown if there is a problem reading the archive or writing the files
+     */
+    public static int extractArchive(InputStream zip, File directory) throws IOException {
+        String directoryPath = directory.getCanonicalPath() + File.separator;
+        ZipInputStream zipInputStream = new ZipInputStream(zip);
+        int numFiles = 0;
+
+        ZipEntry zipEntry;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            if (!zipEntry.isDirectory() && isLayerFile(zipEntry.getName())) {
+                File file = new File(directory, zipEntry.getName());
+                if (!file.getCanonicalPath().startsWith(directoryPath)) {
+                    throw new ElasticSearchIllegalArgumentException("Archive entry [" + zipEntry.getName() + "] is outside of the archive");
+                }
+                FileSystemUtils.mkdirs(file.getParentFile());
+
+                OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+                try {
+                    ByteStreams.copy(zipInputStream, fileOutputStream);
+                } finally {
+                    Closeables.closeQuietly(fileOutputStream);
+                }
+                numFiles++;
+            }
+            zipInputStream.closeEntry();
+        }
+
+        if (numFiles == 0) {
+            throw new ElasticSearchIllegalArgumentException("Archive does not contain any shapefiles");
+        }
+        return numFiles;
+    }
+
+    private static boolean isLayerFile(String name) {
+        return suffix(name) != null;
+    }
+
+    private static String suffix(String name) {
+        String lowerCaseName = name.toLowerCase(Locale.ROOT);
+        for (String suffix : new String[] {SHP_SUFFIX, DBF_SUFFIX, SHX_SUFFIX, PRJ_SUFFIX}) {
+            if (lowerCaseName.endsWith(suffix)) {
+                return suffix;
+            }
+        }
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void addMetadata(XContentBuilder contentBuilder) throws IOException {
         contentBuilder.field("source_url", url.toExternalForm());
     }
+
+    /**
+     * Downloaded archive, shared by a DataSet and its copies
+     */
+    private static class Download {
+
+        private File file;
+    }
+
+    /**
+     * Sizes read from the headers of the files making up a single layer
+     */
+    private static class LayerHeaders {
+
+        private long shpBytes;
+        private long dbfBytes;
+        private long shxBytes;
+        private long numRecords;
+        private long recordBytes;
+
+        /**
+         * Reads the sizes from the header of the given file of the layer
+         *
+         * @param fileName Name of the file
+         * @param size Size of the file, or {@code -1} if it is not known
+         * @param inputStream Stream of the contents of the file
+         * @throws IOException Can be thrown if there is a problem reading the header
+         */
+        private void add(String fileName, long size, InputStream inputStream) throws IOException {
+            String suffix = suffix(fileName);
+            if (suffix.equals(SHP_SUFFIX)) {
+                // Length is defined as 16-bit words in file
+                ByteBuffer header = readHeader(inputStream, SHP_HEADER_BYTES);
+                shpBytes = header != null ? header.order(ByteOrder.BIG_ENDIAN).getInt(24) * 2L : Math.max(size, 0);
+            } else if (suffix.equals(DBF_SUFFIX)) {
+                ByteBuffer header = readHeader(inputStream, DBF_HEADER_BYTES);
+                if (header != null) {
+                    header.order(ByteOrder.LITTLE_ENDIAN);
+                    numRecords = header.getInt(4) & 0xFFFFFFFFL;
+                    recordBytes = header.getShort(10) & 0xFFFF;
+                    dbfBytes = (header.getShort(8) & 0xFFFF) + numRecords * recordBytes;
+                }
+            } else if (suffix.equals(SHX_SUFFIX)) {
+                shxBytes = Math.max(size, 0);
+            }
+        }
+
+        private DataSetMemoryEstimate estimate(boolean filesOnHeap) {
+            // Each record has a header and polygon preamble, leaving 16 bytes per vertex
+            long vertices = Math.max(0, (shpBytes - SHP_HEADER_BYTES - numRecords * SHP_RECORD_OVERHEAD_BYTES) / 16);
+            return new DataSetMemoryEstimate(numRecords, vertices, shpBytes + dbfBytes + shxBytes,
+                    numRecords * recordBytes, filesOnHeap);
+        }
+
+        private static ByteBuffer readHeader(InputStream inputStream, int length) throws IOException {
+            byte[] header = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int count = inputStream.read(header, read, length - read);
+                if (count == -1) {
+                    return null;
+                }
+                read += count;
+            }
+            return ByteBuffer.wrap(header);
+        }
+    }
+
+    /**
+     * Contents of the files read from an archive, grouped into layers
+     */
+    private static class Archive {
+
+        private final Map<String, Layer> layers = new TreeMap<String, Layer>();
+
+        private void add(String fileName, ByteBuffer contents) {
+            String suffix = suffix(fileName);
+            String baseName = fileName.substring(0, fileName.length() - suffix.length());
+
+            Layer layer = layers.get(baseName);
+            if (layer == null) {
+                // Layers are named by their path so that same-named files of different directories stay apart
+                layer = new Layer(baseName);
+                layers.put(baseName, layer);
+            }
+
+            if (suffix.equals(SHP_SUFFIX)) {
+                layer.shp = contents;
+            } else if (suffix.equals(DBF_SUFFIX)) {
+                layer.dbf = contents;
+            } else if (suffix.equals(SHX_SUFFIX)) {
+                layer.shx = contents;
+            } else {
+                byte[] prj = new byte[contents.remaining()];
+                contents.duplicate().get(prj);
+                layer.prj = new String(prj, DBaseFileParser.CHARSET);
+            }
+        }
+
+        private void validate(boolean requireShx) {
+            // Files that don't belong to a SHP file, such as standalone attribute tables, are ignored
+            for (Iterator<Layer> iterator = layers.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().shp == null) {
+                    iterator.remove();
+                }
+            }
+
+            if (layers.isEmpty()) {
+                throw new ElasticSearchIllegalStateException("Dataset does not contain SHP file");
+            }
+            for (Layer layer : layers.values()) {
+                if (layer.dbf == null) {
+                    throw new ElasticSearchIllegalStateException("Dataset does not contain DBF file for layer [" + layer.name + "]");
+                } else if (requireShx && layer.shx == null) {
+                    throw new ElasticSearchIllegalStateException("Dataset does not contain SHX file for layer [" + layer.name + "]");
+                }
+            }
+        }
+
+        /**
+         * @return Whether the archive contains more than one layer, in which case ShapeData
+         *         is tagged with the name of its layer
+         */
+        private boolean multiLayer() {
+            return layers.size() > 1;
+        }
+    }
+
+    /**
+     * Contents of the files making up a single layer of an archive
+     */
+    private static class Layer {
+
+        private final String name;
+        private ByteBuffer shp;
+        private ByteBuffer dbf;
+        private ByteBuffer shx;
+        private String prj;
+        private int[] recordOffsets;
+
+        private Layer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return Projection of the coordinates in the SHP file, as defined by the PRJ file.
+         *         Coordinates are assumed to be longitude and latitude if there is no PRJ file
+         */
+        private Projection projection() {
+            return prj != null ? PrjFileParser.parsePrjFile(prj) : Projection.IDENTITY;
+        }
+
+        /**
+         * @return Offsets of the records in the SHP file, as defined by the SHX file
+         */
+        private int[] recordOffsets() {
+            if (recordOffsets == null) {
+                recordOffsets = ESRIShapeFileParser.parseShxFile(shx.duplicate());
+            }
+            return recordOffsets;
+        }
+    }
+
+    /**
+     * Task parsing a range of records from a layer
+     */
+    private class LayerSlice implements Callable<List<ShapeData>> {
+
+        private final Archive archive;
+        private final Layer layer;
+        private final int from;
+        private final int to;
+
+        /**
+         * @param archive Archive the layer belongs to
+         * @param layer Layer to parse
+         * @param from Index of the first record to parse (inclusive)
+         * @param to Index of the last record to parse (exclusive), or {@code -1} to parse
+         *        the whole layer without using its SHX file
+         */
+        private LayerSlice(Archive archive, Layer layer, int from, int to) {
+            this.archive = archive;
+            this.layer = layer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public List<ShapeData> call() throws IOException {
+            String layerName = archive.multiLayer() ? layer.name : null;
+            // Slices of the same layer are parsed concurrently, so each reads its own view of the files
+            ByteBuffer shpBuffer = layer.shp.duplicate();
+
+            // The schema is shared by all records of the layer, with the name field hidden
+            // since it is extracted separately
+            DBaseFileParser dbfParser = new DBaseFileParser(layer.dbf.duplicate());
+            RecordSchema schema = new RecordSchema(dbfParser.fields(), nameField);
+
+            // Without a validation of the ingest, records are only put through the cheap checks
+            GeometryValidation layerValidation = validation != null ?
+                    validation : new GeometryValidation(GeometryValidation.Policy.SKIP);
+
+            if (to == -1) {
+                List<AttributeRecord> records = dbfParser.records(schema, 0, dbfParser.numRecords());
+                if (offHeap) {
+                    return toPackedShapeData(ESRIShapeFileParser.parseShpFile(
+                            shpBuffer, layer.projection(), new OffHeapGeometryStore(), layerValidation), records, layerName);
+                }
+                return toShapeData(ESRIShapeFileParser.parseShpFile(shpBuffer, layer.projection(), layerValidation), records, layerName);
+            }
+
+            List<AttributeRecord> records = dbfParser.records(schema, from, to);
+            if (offHeap) {
+                return toPackedShapeData(ESRIShapeFileParser.parseShpFile(shpBuffer, layer.recordOffsets(), from, to,
+                        layer.projection(), new OffHeapGeometryStore(), layerValidation), records, layerName);
+            }
+            return toShapeData(ESRIShapeFileParser.parseShpFile(
+                    shpBuffer, layer.recordOffsets(), from, to, layer.projection(), layerValidation), records, layerName);
+        }
+    }
 }
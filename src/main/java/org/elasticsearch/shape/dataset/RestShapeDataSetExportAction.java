@@ -0,0 +1,176 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.Closeables;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Exports the documents indexed from a {@link ShapeDataSet} as a shapefile archive or as
+ * newline delimited GeoJSON, using a {@link ShapeDataSetExporter}.  The export is either
+ * returned as the body of the response or, for exports too large to be held in memory,
+ * written to a {@code path} on the node handling the request.  Paths are relative to the
+ * export directory, {@code shape.dataset.export.directory} under {@code path.work}, and
+ * cannot escape it.
+ */
+public class RestShapeDataSetExportAction extends BaseRestHandler {
+
+    private static final String SHAPEFILE_FORMAT = "shapefile";
+    private static final String GEOJSON_FORMAT = "geojson";
+
+    private final ThreadPool threadPool;
+    private final File exportDirectory;
+
+    @Inject
+    public RestShapeDataSetExportAction(
+            Settings settings,
+            Client client,
+            RestController restController,
+            ThreadPool threadPool,
+            Environment environment) {
+        super(settings, client);
+        this.threadPool = threadPool;
+        this.exportDirectory = new File(environment.workFile(), componentSettings.get("export.directory", Defaults.EXPORT_DIRECTORY));
+        restController.registerHandler(RestRequest.Method.GET, "/_shapedataset/export", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        try {
+            final String dataSetId = request.param(Fields.DATASET_ID);
+            if (dataSetId == null) {
+                XContentBuilder builder = restContentBuilder(request)
+                        .startObject()
+                        .field(Fields.RESULT, "data_set_id missing")
+                        .endObject();
+                channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
+            }
+
+            final String format = request.param(Fields.FORMAT, Defaults.FORMAT);
+            if (!format.equals(SHAPEFILE_FORMAT) && !format.equals(GEOJSON_FORMAT)) {
+                throw new ElasticSearchIllegalArgumentException("Unsupported export format [" + format + "]");
+            }
+
+            final String index = request.param(Fields.INDEX, Defaults.INDEX);
+            final String name = request.param(Fields.NAME, dataSetId);
+            final File file = request.hasParam(Fields.PATH) ? exportFile(exportDirectory, request.param(Fields.PATH)) : null;
+            final ShapeDataSetExporter exporter = new ShapeDataSetExporter(client,
+                    request.paramAsInt(Fields.SIZE, Defaults.SIZE),
+                    request.paramAsTime(Fields.SCROLL, Defaults.SCROLL));
+
+            // Scrolling blocks, so the export runs off the network thread
+            threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        if (file != null) {
+                            FileSystemUtils.mkdirs(file.getParentFile());
+                        }
+                        OutputStream out = file != null ?
+                                new BufferedOutputStream(new FileOutputStream(file)) : new BytesStreamOutput();
+                        int count;
+                        try {
+                            count = format.equals(SHAPEFILE_FORMAT) ?
+                                    exporter.exportShapefile(index, dataSetId, name, out) :
+                                    exporter.exportGeoJson(index, dataSetId, out);
+                        } finally {
+                            Closeables.closeQuietly(out);
+                        }
+
+                        if (file != null) {
+                            XContentBuilder builder = restContentBuilder(request)
+                                    .startObject()
+                                    .field(Fields.RESULT, count + " shapes exported")
+                                    .field(Fields.PATH, file.getPath())
+                                    .endObject();
+                            channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+                        } else {
+                            byte[] content = ((BytesStreamOutput) out).bytes().toBytes();
+                            channel.sendResponse(new BytesRestResponse(content,
+                                    format.equals(SHAPEFILE_FORMAT) ? Defaults.SHAPEFILE_CONTENT_TYPE : Defaults.GEOJSON_CONTENT_TYPE));
+                        }
+                    } catch (Exception e) {
+                        onFailure(e, request, channel);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            onFailure(e, request, channel);
+        }
+    }
+
+    /**
+     * Resolves the given path of an export against the export directory
+     *
+     * @param exportDirectory Directory exports are written to
+     * @param path Path of the export, relative to the export directory
+     * @return File the export is written to
+     * @throws ElasticSearchIllegalArgumentException Thrown if the path is absolute or leads
+     *         outside of the export directory
+     * @throws IOException Can be thrown if there is a problem resolving the path
+     */
+    static File exportFile(File exportDirectory, String path) throws IOException {
+        if (path.length() == 0 || new File(path).isAbsolute() || path.startsWith("/") || path.startsWith("\\")) {
+            throw new ElasticSearchIllegalArgumentException("Export path [" + path + "] must be relative to the export directory");
+        }
+        for (String segment : path.split("[/\\\\]")) {
+            if (segment.equals("..")) {
+                throw new ElasticSearchIllegalArgumentException("Export path [" + path + "] must not contain [..]");
+            }
+        }
+
+        // Links within the export directory could still lead outside of it
+        File file = new File(exportDirectory, path);
+        if (!file.getCanonicalPath().startsWith(exportDirectory.getCanonicalPath() + File.separator)) {
+            throw new ElasticSearchIllegalArgumentException("Export path [" + path + "] is outside of the export directory");
+        }
+        return file;
+    }
+
+    private void onFailure(Throwable e, RestRequest request, RestChannel channel) {
+        try {
+            channel.sendResponse(new XContentThrowableRestResponse(request, e));
+        } catch (IOException ioe) {
+            logger.error("Failed to send error", ioe);
+        }
+    }
+
+    private static interface Fields {
+        String RESULT = "result";
+        String DATASET_ID = "data_set_id";
+        String INDEX = "index";
+        String FORMAT = "format";
+        String NAME = "name";
+        String PATH = "path";
+        String SIZE = "size";
+        String SCROLL = "scroll";
+    }
+
+    private static interface Defaults {
+        String INDEX = "shapes";
+        String FORMAT = GEOJSON_FORMAT;
+        int SIZE = 100;
+        TimeValue SCROLL = TimeValue.timeValueMinutes(1);
+        String SHAPEFILE_CONTENT_TYPE = "application/zip";
+        String GEOJSON_CONTENT_TYPE = "application/x-ndjson";
+        String EXPORT_DIRECTORY = "shape_dataset_exports";
+    }
+}
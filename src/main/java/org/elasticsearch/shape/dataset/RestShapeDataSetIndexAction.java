@@ -1,12 +1,17 @@
 package org.elasticsearch.shape.dataset;
 
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.FileSystemUtils;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.rest.*;
+import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.File;
 import java.io.IOException;
 
 import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
@@ -14,64 +19,227 @@ import static org.elasticsearch.rest.action.support.RestXContentBuilder.restCont
 public class RestShapeDataSetIndexAction extends BaseRestHandler {
 
     private final ShapeDataSetService dataSetService;
+    private final TransportDistributedDataSetIndexAction distributedIndexAction;
+    private final ThreadPool threadPool;
 
     @Inject
-    public RestShapeDataSetIndexAction(Settings settings, Client client, RestController restController, ShapeDataSetService dataSetService) {
+    public RestShapeDataSetIndexAction(
+            Settings settings,
+            Client client,
+            RestController restController,
+            ShapeDataSetService dataSetService,
+            TransportDistributedDataSetIndexAction distributedIndexAction,
+            ThreadPool threadPool) {
         super(settings, client);
         this.dataSetService = dataSetService;
+        this.distributedIndexAction = distributedIndexAction;
+        this.threadPool = threadPool;
         restController.registerHandler(RestRequest.Method.PUT, "/_shapedataset/index", this);
     }
 
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel) {
         try {
-            String dataSetId = request.param(Fields.DATASET_ID);
-            ShapeDataSet dataSet = dataSetService.dataSet(dataSetId);
-
-            if (dataSet == null) {
+            final String dataSetId = request.param(Fields.DATASET_ID);
+            String type = request.param(Fields.TYPE);
+            if (type == null) {
                 XContentBuilder builder = restContentBuilder(request)
                         .startObject()
-                        .field(Fields.RESULT, "ShapeDataSet with ID [" + dataSetId + "] not found")
+                        .field(Fields.RESULT, "type missing")
                         .endObject();
-                channel.sendResponse(new XContentRestResponse(request, RestStatus.NOT_FOUND, builder));
+                channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
             }
 
-            String type = request.param(Fields.TYPE);
-            if (type == null) {
+            final DataSetIndexRequest indexRequest = new DataSetIndexRequest(type)
+                    .index(request.param(Fields.INDEX, Defaults.INDEX))
+                    .batchSize(request.paramAsInt(Fields.BATCH_SIZE, Defaults.BATCH_SIZE))
+                    .precision(paramAsDouble(request, Fields.PRECISION, Defaults.PRECISION))
+                    .shardAware(request.paramAsBoolean(Fields.SHARD_AWARE, Defaults.SHARD_AWARE))
+                    .contentType(paramAsContentType(request, Fields.CONTENT_TYPE, Defaults.CONTENT_TYPE))
+                    .maxVertices(request.paramAsInt(Fields.MAX_VERTICES, Defaults.MAX_VERTICES))
+                    .adaptiveBatchSize(request.paramAsBoolean(Fields.ADAPTIVE_BATCH_SIZE, Defaults.ADAPTIVE_BATCH_SIZE))
+                    .typePerLayer(request.paramAsBoolean(Fields.TYPE_PER_LAYER, Defaults.TYPE_PER_LAYER))
+                    .dryRun(request.paramAsBoolean(Fields.DRY_RUN, Defaults.DRY_RUN))
+                    .overBudget(paramAsOverBudget(request, Fields.OVER_BUDGET))
+                    .hilbertOrder(request.paramAsBoolean(Fields.HILBERT_ORDER, Defaults.HILBERT_ORDER))
+                    .bulkLoad(request.paramAsBoolean(Fields.BULK_LOAD, Defaults.BULK_LOAD))
+                    .covering(paramAsCovering(request, Fields.COVERING))
+                    .coveringPrecision(request.paramAsInt(Fields.COVERING_PRECISION, Defaults.COVERING_PRECISION))
+                    .validation(paramAsValidation(request, Fields.VALIDATION));
+
+            if (!request.hasContent()) {
+                ShapeDataSet dataSet = dataSetService.dataSet(dataSetId);
+                if (dataSet == null) {
+                    XContentBuilder builder = restContentBuilder(request)
+                            .startObject()
+                            .field(Fields.RESULT, "ShapeDataSet with ID [" + dataSetId + "] not found")
+                            .endObject();
+                    channel.sendResponse(new XContentRestResponse(request, RestStatus.NOT_FOUND, builder));
+                    return;
+                }
+                index(dataSet, null, indexRequest, request, channel);
+                return;
+            }
+
+            // The body is a shapefile archive to index, rather than a reference to a registered DataSet
+            if (dataSetId == null || dataSetService.dataSet(dataSetId) != null) {
                 XContentBuilder builder = restContentBuilder(request)
                         .startObject()
-                        .field(Fields.RESULT, "type missing")
+                        .field(Fields.RESULT, dataSetId == null ? "data_set_id missing" :
+                                "ShapeDataSet with ID [" + dataSetId + "] is already registered")
                         .endObject();
                 channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
+            }
+            if (request.paramAsBoolean(Fields.DISTRIBUTED, Defaults.DISTRIBUTED)) {
+                throw new ElasticSearchIllegalArgumentException("Uploaded archives cannot be indexed in a distributed manner");
             }
 
-            String index = request.param(Fields.INDEX, Defaults.INDEX);
-            int batchSize = request.paramAsInt(Fields.BATCH_SIZE, Defaults.BATCH_SIZE);
-
-            dataSetService.index(dataSet, index, type, batchSize, new ActionListener<DataSetIndexResponse>() {
+            // Decompressing the archive blocks, so it is extracted off the network thread
+            threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
 
                 @Override
-                public void onResponse(DataSetIndexResponse dataSetIndexResponse) {
+                public void run() {
+                    File uploadDirectory = null;
                     try {
+                        uploadDirectory = extractUpload(request);
+                        ShapeDataSet dataSet = new RemoteESRIShapeDataSet(dataSetId, uploadDirectory.toURI().toString(),
+                                request.param(Fields.NAME_FIELD, Defaults.NAME_FIELD),
+                                request.paramAsBoolean(Fields.OFF_HEAP, Defaults.OFF_HEAP));
+                        index(dataSet, uploadDirectory, indexRequest, request, channel);
+                    } catch (Exception e) {
+                        deleteUpload(uploadDirectory);
+                        onFailure(e, request, channel);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            onFailure(e, request, channel);
+        }
+    }
+
+    /**
+     * Indexes the given DataSet, deleting the directory of its upload, if any, once the
+     * index completes
+     *
+     * @param dataSet DataSet to index
+     * @param uploadDirectory Directory the DataSet was uploaded into, or {@code null}
+     * @param indexRequest Request for how the DataSet is indexed
+     * @param request REST request being handled
+     * @param channel Channel the response is sent over
+     */
+    private void index(ShapeDataSet dataSet, final File uploadDirectory, final DataSetIndexRequest indexRequest,
+                       final RestRequest request, final RestChannel channel) {
+        ActionListener<DataSetIndexResponse> listener = new ActionListener<DataSetIndexResponse>() {
+
+            @Override
+            public void onResponse(DataSetIndexResponse dataSetIndexResponse) {
+                deleteUpload(uploadDirectory);
+                try {
+                    String result = dataSetIndexResponse.totalCount() + (indexRequest.dryRun() ? " shapes prepared (dry run)" : " shapes indexed");
                     XContentBuilder builder = restContentBuilder(request)
                             .startObject()
-                            .field(Fields.RESULT, dataSetIndexResponse.totalCount() + " shapes indexed")
-                            .endObject();
-                    channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
-                    } catch (IOException ioe) {
-                        onFailure(ioe);
+                            .field(Fields.RESULT, result);
+                    if (dataSetIndexResponse.bulkLoadIndex() != null) {
+                        builder.field(Fields.BULK_LOAD_INDEX, dataSetIndexResponse.bulkLoadIndex());
                     }
+                    dataSetIndexResponse.stats().toXContent(builder, request);
+                    builder.endObject();
+                    channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+                } catch (IOException ioe) {
+                    onFailure(ioe);
                 }
+            }
 
-                @Override
-                public void onFailure(Throwable e) {
-                    RestShapeDataSetIndexAction.this.onFailure(e, request, channel);
-                }
-            });
+            @Override
+            public void onFailure(Throwable e) {
+                deleteUpload(uploadDirectory);
+                RestShapeDataSetIndexAction.this.onFailure(e, request, channel);
+            }
+        };
+
+        if (request.paramAsBoolean(Fields.DISTRIBUTED, Defaults.DISTRIBUTED)) {
+            distributedIndexAction.execute(dataSet, indexRequest, listener);
+        } else {
+            dataSetService.index(dataSet, indexRequest, listener);
+        }
+    }
 
+    /**
+     * Extracts the shapefile archive in the body of the request into a temporary directory.
+     * The body is read in place, and the files are spilled to disk as they are decompressed,
+     * so the extracted archive is never held on the heap.
+     *
+     * @param request Request whose body is a ZIP archive
+     * @return Directory the archive was extracted into
+     * @throws IOException Can be thrown if there is a problem extracting the archive
+     */
+    private File extractUpload(RestRequest request) throws IOException {
+        File directory = File.createTempFile("shape_dataset_upload", "");
+        if (!directory.delete() || !FileSystemUtils.mkdirs(directory)) {
+            throw new IOException("Failed to create upload directory [" + directory + "]");
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            int numFiles = RemoteESRIShapeDataSet.extractArchive(request.content().streamInput(), directory);
+            logger.debug("Extracted [{}] files of [{}] byte upload in [{}ms]",
+                    numFiles, request.content().length(), System.currentTimeMillis() - start);
+            return directory;
         } catch (IOException ioe) {
-            onFailure(ioe, request, channel);
+            deleteUpload(directory);
+            throw ioe;
+        } catch (RuntimeException re) {
+            deleteUpload(directory);
+            throw re;
+        }
+    }
+
+    private void deleteUpload(File directory) {
+        if (directory != null && directory.exists() && !FileSystemUtils.deleteRecursively(directory)) {
+            logger.warn("Failed to delete upload directory [{}]", directory);
+        }
+    }
+
+    private static double paramAsDouble(RestRequest request, String key, double defaultValue) {
+        String value = request.param(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            throw new ElasticSearchIllegalArgumentException("Failed to parse double parameter [" + key + "] with value [" + value + "]", nfe);
+        }
+    }
+
+    private static XContentType paramAsContentType(RestRequest request, String key, XContentType defaultValue) {
+        String value = request.param(key);
+        if (value == null) {
+            return defaultValue;
         }
+        // Documents are only indexed as JSON or SMILE, so YAML is refused along with unknown types
+        XContentType contentType = XContentType.fromRestContentType(value);
+        if (contentType != XContentType.JSON && contentType != XContentType.SMILE) {
+            throw new ElasticSearchIllegalArgumentException("Unsupported content type [" + value + "] for parameter [" + key + "]");
+        }
+        return contentType;
+    }
+
+    private static IngestMemoryBudget.OverBudget paramAsOverBudget(RestRequest request, String key) {
+        String value = request.param(key);
+        return value != null ? IngestMemoryBudget.OverBudget.fromString(value) : null;
+    }
+
+    private static CellCoverer.Type paramAsCovering(RestRequest request, String key) {
+        String value = request.param(key);
+        return value != null ? CellCoverer.Type.fromString(value) : null;
+    }
+
+    private static GeometryValidation.Policy paramAsValidation(RestRequest request, String key) {
+        String value = request.param(key);
+        return value != null ? GeometryValidation.Policy.fromString(value) : null;
     }
 
     private void onFailure(Throwable e, RestRequest request, RestChannel channel) {
@@ -88,10 +256,40 @@ public class RestShapeDataSetIndexAction extends BaseRestHandler {
         String INDEX = "index";
         String TYPE = "type";
         String BATCH_SIZE = "batch_size";
+        String PRECISION = "precision";
+        String DISTRIBUTED = "distributed";
+        String SHARD_AWARE = "shard_aware";
+        String CONTENT_TYPE = "content_type";
+        String MAX_VERTICES = "max_vertices";
+        String ADAPTIVE_BATCH_SIZE = "adaptive_batch_size";
+        String TYPE_PER_LAYER = "type_per_layer";
+        String DRY_RUN = "dry_run";
+        String NAME_FIELD = "name_field";
+        String OFF_HEAP = "off_heap";
+        String OVER_BUDGET = "over_budget";
+        String HILBERT_ORDER = "hilbert_order";
+        String BULK_LOAD = "bulk_load";
+        String BULK_LOAD_INDEX = "bulk_load_index";
+        String COVERING = "covering";
+        String COVERING_PRECISION = "covering_precision";
+        String VALIDATION = "validation";
     }
 
     private static interface Defaults {
         String INDEX = "shapes";
         int BATCH_SIZE = Integer.MAX_VALUE;
+        double PRECISION = 0;
+        boolean DISTRIBUTED = false;
+        boolean SHARD_AWARE = false;
+        XContentType CONTENT_TYPE = XContentType.JSON;
+        int MAX_VERTICES = 0;
+        boolean ADAPTIVE_BATCH_SIZE = false;
+        boolean TYPE_PER_LAYER = false;
+        boolean DRY_RUN = false;
+        String NAME_FIELD = "NAME";
+        boolean OFF_HEAP = false;
+        boolean HILBERT_ORDER = false;
+        boolean BULK_LOAD = false;
+        int COVERING_PRECISION = 6;
     }
 }
@@ -0,0 +1,131 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.elasticsearch.common.collect.Sets.newHashSet;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Tags the documents of an index with the Shape of a {@link ShapeDataSet} containing their
+ * point, using a {@link SpatialJoin} over the node-local {@link ReverseGeocoder} of the
+ * ShapeDataSet
+ */
+public class RestShapeDataSetJoinAction extends BaseRestHandler {
+
+    private final ClusterService clusterService;
+    private final ThreadPool threadPool;
+    private final ReverseGeocodingService geocodingService;
+
+    @Inject
+    public RestShapeDataSetJoinAction(
+            Settings settings,
+            Client client,
+            RestController restController,
+            ClusterService clusterService,
+            ThreadPool threadPool,
+            ReverseGeocodingService geocodingService) {
+        super(settings, client);
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.geocodingService = geocodingService;
+        restController.registerHandler(RestRequest.Method.POST, "/_shapedataset/join", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        try {
+            final String dataSetId = request.param(Fields.DATASET_ID);
+            final String index = request.param(Fields.INDEX);
+            if (dataSetId == null || index == null) {
+                XContentBuilder builder = restContentBuilder(request)
+                        .startObject()
+                        .field(Fields.RESULT, dataSetId == null ? "data_set_id missing" : "index missing")
+                        .endObject();
+                channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
+            }
+
+            final String pointField = request.param(Fields.FIELD, Defaults.FIELD);
+            final String targetField = request.param(Fields.TARGET_FIELD, dataSetId);
+            final Set<String> fields = newHashSet(Arrays.asList(request.paramAsStringArray(Fields.FIELDS, new String[0])));
+            final SpatialJoin join = new SpatialJoin(client, clusterService, threadPool,
+                    request.paramAsInt(Fields.SIZE, Defaults.SIZE),
+                    request.paramAsTime(Fields.SCROLL, Defaults.SCROLL),
+                    request.paramAsInt(Fields.BATCH_SIZE, Defaults.BATCH_SIZE),
+                    request.paramAsInt(Fields.CONCURRENCY, Defaults.CONCURRENCY));
+
+            // Loading the ReverseGeocoder and scanning the index block, so the join runs off the network thread
+            threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        long start = System.currentTimeMillis();
+                        SpatialJoin.Result result = join.join(geocodingService.geocoder(dataSetId),
+                                index, pointField, targetField, fields);
+
+                        XContentBuilder builder = restContentBuilder(request)
+                                .startObject()
+                                .field(Fields.RESULT, result.updated() + " documents tagged")
+                                .field(Fields.SCANNED, result.scanned())
+                                .field(Fields.MATCHED, result.matched())
+                                .field(Fields.UPDATED, result.updated())
+                                .field(Fields.FAILED, result.failed())
+                                .field(Fields.TOOK, System.currentTimeMillis() - start)
+                                .endObject();
+                        channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+                    } catch (Exception e) {
+                        onFailure(e, request, channel);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            onFailure(e, request, channel);
+        }
+    }
+
+    private void onFailure(Throwable e, RestRequest request, RestChannel channel) {
+        try {
+            channel.sendResponse(new XContentThrowableRestResponse(request, e));
+        } catch (IOException ioe) {
+            logger.error("Failed to send error", ioe);
+        }
+    }
+
+    private static interface Fields {
+        String RESULT = "result";
+        String DATASET_ID = "data_set_id";
+        String INDEX = "index";
+        String FIELD = "field";
+        String TARGET_FIELD = "target_field";
+        String FIELDS = "fields";
+        String SIZE = "size";
+        String SCROLL = "scroll";
+        String BATCH_SIZE = "batch_size";
+        String CONCURRENCY = "concurrency";
+        String SCANNED = "scanned";
+        String MATCHED = "matched";
+        String UPDATED = "updated";
+        String FAILED = "failed";
+        String TOOK = "took";
+    }
+
+    private static interface Defaults {
+        String FIELD = "location";
+        int SIZE = 100;
+        TimeValue SCROLL = TimeValue.timeValueMinutes(5);
+        int BATCH_SIZE = 500;
+        int CONCURRENCY = 4;
+    }
+}
@@ -0,0 +1,184 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Sets.newHashSet;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Finds the Shapes of a {@link ShapeDataSet} containing each of a batch of points, using
+ * the node-local {@link ReverseGeocoder} of the ShapeDataSet.  Points are given either as
+ * a {@code points} parameter of the form {@code lon,lat;lon,lat} or in the body as
+ * {@code {"points": [[lon, lat], ...], "fields": [...]}}.
+ */
+public class RestShapeDataSetLocateAction extends BaseRestHandler {
+
+    private static final String ALL_FIELDS = "*";
+
+    private final ThreadPool threadPool;
+    private final ReverseGeocodingService geocodingService;
+
+    @Inject
+    public RestShapeDataSetLocateAction(
+            Settings settings,
+            Client client,
+            RestController restController,
+            ThreadPool threadPool,
+            ReverseGeocodingService geocodingService) {
+        super(settings, client);
+        this.threadPool = threadPool;
+        this.geocodingService = geocodingService;
+        restController.registerHandler(RestRequest.Method.GET, "/_shapedataset/locate", this);
+        restController.registerHandler(RestRequest.Method.POST, "/_shapedataset/locate", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        try {
+            final String dataSetId = request.param(Fields.DATASET_ID);
+            if (dataSetId == null) {
+                XContentBuilder builder = restContentBuilder(request)
+                        .startObject()
+                        .field(Fields.RESULT, "data_set_id missing")
+                        .endObject();
+                channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
+            }
+
+            final List<double[]> points = newArrayList();
+            final Set<String> fields = newHashSet();
+            parseParams(request, points, fields);
+            if (request.content().length() > 0) {
+                parseBody(request, points, fields);
+            }
+
+            // The first lookup in a ShapeDataSet loads its ReverseGeocoder, so lookups run off the network thread
+            threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ReverseGeocoder geocoder = geocodingService.geocoder(dataSetId);
+
+                        XContentBuilder builder = restContentBuilder(request).startObject();
+                        long start = System.nanoTime();
+                        builder.startArray(Fields.RESULTS);
+                        for (double[] point : points) {
+                            builder.startObject().array(Fields.POINT, point[0], point[1]).startArray(Fields.MATCHES);
+                            for (ShapeData shapeData : geocoder.locate(point[0], point[1])) {
+                                builder.startObject().field(Fields.NAME, shapeData.name());
+                                if (shapeData.layer() != null) {
+                                    builder.field(Fields.LAYER, shapeData.layer());
+                                }
+                                if (!fields.isEmpty()) {
+                                    builder.startObject(Fields.FIELDS);
+                                    for (Map.Entry<String, Object> entry : shapeData.data().entrySet()) {
+                                        if (fields.contains(ALL_FIELDS) || fields.contains(entry.getKey())) {
+                                            builder.field(entry.getKey(), entry.getValue());
+                                        }
+                                    }
+                                    builder.endObject();
+                                }
+                                builder.endObject();
+                            }
+                            builder.endArray().endObject();
+                        }
+                        builder.endArray();
+                        builder.field(Fields.TOOK_MICROS, (System.nanoTime() - start) / 1000);
+                        builder.endObject();
+
+                        channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+                    } catch (Exception e) {
+                        onFailure(e, request, channel);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            onFailure(e, request, channel);
+        }
+    }
+
+    private static void parseParams(RestRequest request, List<double[]> points, Set<String> fields) {
+        String pointsParam = request.param(Fields.POINTS);
+        if (pointsParam != null) {
+            for (String point : pointsParam.split(";")) {
+                String[] lonLat = point.split(",");
+                if (lonLat.length != 2) {
+                    throw new ElasticSearchIllegalArgumentException("Invalid point [" + point + "], expected [lon,lat]");
+                }
+                points.add(new double[] {parseCoordinate(lonLat[0]), parseCoordinate(lonLat[1])});
+            }
+        }
+        fields.addAll(Arrays.asList(request.paramAsStringArray(Fields.FIELDS, new String[0])));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void parseBody(RestRequest request, List<double[]> points, Set<String> fields) {
+        Map<String, Object> body = XContentHelper.convertToMap(request.content(), false).v2();
+
+        Object bodyPoints = body.get(Fields.POINTS);
+        if (bodyPoints instanceof List) {
+            for (Object point : (List<Object>) bodyPoints) {
+                if (!(point instanceof List) || ((List<Object>) point).size() != 2) {
+                    throw new ElasticSearchIllegalArgumentException("Invalid point [" + point + "], expected [lon, lat]");
+                }
+                List<Object> lonLat = (List<Object>) point;
+                points.add(new double[] {toCoordinate(lonLat.get(0)), toCoordinate(lonLat.get(1))});
+            }
+        }
+
+        Object bodyFields = body.get(Fields.FIELDS);
+        if (bodyFields instanceof List) {
+            for (Object field : (List<Object>) bodyFields) {
+                fields.add(field.toString());
+            }
+        }
+    }
+
+    private static double parseCoordinate(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new ElasticSearchIllegalArgumentException("Invalid coordinate [" + value + "]", nfe);
+        }
+    }
+
+    private static double toCoordinate(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : parseCoordinate(String.valueOf(value));
+    }
+
+    private void onFailure(Throwable e, RestRequest request, RestChannel channel) {
+        try {
+            channel.sendResponse(new XContentThrowableRestResponse(request, e));
+        } catch (IOException ioe) {
+            logger.error("Failed to send error", ioe);
+        }
+    }
+
+    private static interface Fields {
+        String RESULT = "result";
+        String DATASET_ID = "data_set_id";
+        String POINTS = "points";
+        String FIELDS = "fields";
+        String RESULTS = "results";
+        String POINT = "point";
+        String MATCHES = "matches";
+        String NAME = "name";
+        String LAYER = "layer";
+        String TOOK_MICROS = "took_micros";
+    }
+}
@@ -0,0 +1,120 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.*;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Registers {@link ShapeDataSet}s at runtime with a {@link TransportDataSetRegistryAction},
+ * and removes them again
+ */
+public class RestShapeDataSetRegisterAction extends BaseRestHandler {
+
+    private final TransportDataSetRegistryAction registryAction;
+
+    @Inject
+    public RestShapeDataSetRegisterAction(
+            Settings settings,
+            Client client,
+            RestController restController,
+            TransportDataSetRegistryAction registryAction) {
+        super(settings, client);
+        this.registryAction = registryAction;
+
+        restController.registerHandler(RestRequest.Method.PUT, "/_shapedataset/register", this);
+        restController.registerHandler(RestRequest.Method.DELETE, "/_shapedataset/register", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        try {
+            final String dataSetId = request.param(Fields.DATASET_ID);
+            if (dataSetId == null) {
+                XContentBuilder builder = restContentBuilder(request)
+                        .startObject()
+                        .field(Fields.RESULT, "data_set_id missing")
+                        .endObject();
+                channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
+            }
+
+            ActionListener<Integer> listener = new ActionListener<Integer>() {
+
+                @Override
+                public void onResponse(Integer numNodes) {
+                    try {
+                        XContentBuilder builder = restContentBuilder(request)
+                                .startObject()
+                                .field(Fields.RESULT, request.method() == RestRequest.Method.DELETE ?
+                                        "ShapeDataSet removed" : "ShapeDataSet registered")
+                                .field(Fields.DATASET_ID, dataSetId)
+                                .field(Fields.NODES, numNodes)
+                                .endObject();
+                        channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+                    } catch (IOException ioe) {
+                        onFailure(ioe);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    RestShapeDataSetRegisterAction.this.onFailure(e, request, channel);
+                }
+            };
+
+            if (request.method() == RestRequest.Method.DELETE) {
+                registryAction.remove(dataSetId, listener);
+                return;
+            }
+
+            String url = request.param(Fields.URL);
+            if (url == null) {
+                XContentBuilder builder = restContentBuilder(request)
+                        .startObject()
+                        .field(Fields.RESULT, "url missing")
+                        .endObject();
+                channel.sendResponse(new XContentRestResponse(request, RestStatus.BAD_REQUEST, builder));
+                return;
+            }
+
+            registryAction.register(new DataSetDefinition(
+                    dataSetId,
+                    request.param(Fields.TYPE, Defaults.TYPE),
+                    url,
+                    request.param(Fields.NAME_FIELD, Defaults.NAME_FIELD),
+                    request.paramAsBoolean(Fields.OFF_HEAP, false)), listener);
+        } catch (Exception e) {
+            onFailure(e, request, channel);
+        }
+    }
+
+    private void onFailure(Throwable e, RestRequest request, RestChannel channel) {
+        try {
+            channel.sendResponse(new XContentThrowableRestResponse(request, e));
+        } catch (IOException ioe) {
+            logger.error("Failed to send error", ioe);
+        }
+    }
+
+    private static interface Fields {
+        String RESULT = "result";
+        String DATASET_ID = "data_set_id";
+        String URL = "url";
+        String TYPE = "type";
+        String NAME_FIELD = "name_field";
+        String OFF_HEAP = "off_heap";
+        String NODES = "nodes";
+    }
+
+    private static interface Defaults {
+        String TYPE = DataSetDefinition.ESRI_TYPE;
+        String NAME_FIELD = "NAME";
+    }
+}
@@ -0,0 +1,131 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.exception.InvalidShapeException;
+import com.spatial4j.core.shape.Rectangle;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * In-memory index over the Shapes of a {@link ShapeDataSet}, answering which Shapes contain
+ * a point.  Shapes are held as prepared JTS geometries in an STR-tree, so a lookup only
+ * tests the few Shapes whose envelopes contain the point, each against an indexed
+ * representation of its rings.
+ * <p>
+ * Once built, a ReverseGeocoder is immutable and can be used by many threads concurrently.
+ * </p>
+ */
+public class ReverseGeocoder {
+
+    private final STRtree tree = new STRtree();
+    private final int size;
+    private final int skipped;
+
+    /**
+     * Creates a new ReverseGeocoder over the given ShapeData
+     *
+     * @param shapeData ShapeData to index.  Point Shapes are ignored as they cannot contain other points,
+     *        and packed geometry too invalid to build a Shape of is skipped and counted
+     */
+    public ReverseGeocoder(Iterator<ShapeData> shapeData) {
+        PreparedGeometryFactory preparedGeometryFactory = new PreparedGeometryFactory();
+        int size = 0;
+        int skipped = 0;
+
+        while (shapeData.hasNext()) {
+            ShapeData data = shapeData.next();
+            Shape shape;
+            try {
+                shape = data.shape();
+            } catch (InvalidShapeException ise) {
+                // Packed geometry indexed as it is under the report policy can have invalid topology
+                skipped++;
+                continue;
+            }
+            Geometry geometry = toGeometry(shape);
+            if (geometry == null || geometry.getDimension() < 2) {
+                continue;
+            }
+
+            PreparedGeometry prepared = preparedGeometryFactory.create(geometry);
+            // Prepared geometries build their indexes lazily and without synchronization, so
+            // force them to be built now rather than by concurrent lookups
+            prepared.intersects(geometry.getInteriorPoint());
+
+            tree.insert(geometry.getEnvelopeInternal(), new Entry(prepared, data));
+            size++;
+        }
+
+        tree.build();
+        this.size = size;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Finds the Shapes containing the given point.  Points on the boundary of a Shape are
+     * considered to be contained by it.
+     *
+     * @param lon Longitude of the point
+     * @param lat Latitude of the point
+     * @return ShapeData of the Shapes containing the point, empty if there are none
+     */
+    public List<ShapeData> locate(double lon, double lat) {
+        Point point = GeoShapeConstants.GEOMETRY_FACTORY.createPoint(new Coordinate(lon, lat));
+
+        List<ShapeData> matches = newArrayList();
+        for (Object candidate : tree.query(new Envelope(lon, lon, lat, lat))) {
+            Entry entry = (Entry) candidate;
+            if (entry.prepared.intersects(point)) {
+                matches.add(entry.shapeData);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return Number of Shapes in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of Shapes skipped because their topology is too invalid to build them
+     */
+    public int skipped() {
+        return skipped;
+    }
+
+    private static Geometry toGeometry(Shape shape) {
+        if (shape instanceof JtsGeometry) {
+            return ((JtsGeometry) shape).getGeom();
+        } else if (shape instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) shape;
+            return GeoShapeConstants.GEOMETRY_FACTORY.toGeometry(
+                    new Envelope(rectangle.getMinX(), rectangle.getMaxX(), rectangle.getMinY(), rectangle.getMaxY()));
+        }
+        return null;
+    }
+
+    private static class Entry {
+
+        private final PreparedGeometry prepared;
+        private final ShapeData shapeData;
+
+        private Entry(PreparedGeometry prepared, ShapeData shapeData) {
+            this.prepared = prepared;
+            this.shapeData = shapeData;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.ElasticSearchInterruptedException;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static org.elasticsearch.common.util.concurrent.ConcurrentCollections.newConcurrentMap;
+
+/**
+ * Service holding node-local {@link ReverseGeocoder}s for the registered {@link ShapeDataSet}s.
+ * ReverseGeocoders are loaded when first used, each under a future of its own so that loading
+ * one ShapeDataSet does not hold up lookups in the others, and rebuilt in the background whenever their
+ * ShapeDataSet is indexed again so that lookups keep up with the indexed data.
+ */
+public class ReverseGeocodingService extends AbstractComponent implements DataSetIndexListener {
+
+    private final ShapeDataSetService dataSetService;
+    private final ThreadPool threadPool;
+
+    private final ConcurrentMap<String, FutureTask<ReverseGeocoder>> geocoders = newConcurrentMap();
+
+    @Inject
+    public ReverseGeocodingService(Settings settings, ShapeDataSetService dataSetService, ThreadPool threadPool) {
+        super(settings);
+        this.dataSetService = dataSetService;
+        this.threadPool = threadPool;
+
+        dataSetService.addIndexListener(this);
+    }
+
+    /**
+     * Returns the ReverseGeocoder for the ShapeDataSet with the given ID, loading it if
+     * this is the first time it is used
+     *
+     * @param dataSetId ID of the ShapeDataSet
+     * @return ReverseGeocoder over the Shapes of the ShapeDataSet
+     * @throws IOException Can be thrown if there is a problem loading the ShapeDataSet
+     */
+    public ReverseGeocoder geocoder(String dataSetId) throws IOException {
+        FutureTask<ReverseGeocoder> geocoder = geocoders.get(dataSetId);
+        if (geocoder == null) {
+            ShapeDataSet dataSet = dataSetService.dataSet(dataSetId);
+            if (dataSet == null) {
+                throw new ElasticSearchIllegalArgumentException("ShapeDataSet with ID [" + dataSetId + "] not found");
+            }
+
+            FutureTask<ReverseGeocoder> task = loader(dataSet);
+            geocoder = geocoders.putIfAbsent(dataSetId, task);
+            if (geocoder == null) {
+                // Requests for the same ShapeDataSet wait on this load, those for others go ahead
+                geocoder = task;
+                task.run();
+            }
+        }
+
+        try {
+            return geocoder.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchInterruptedException("Interrupted while loading reverse geocoder for [" + dataSetId + "]", ie);
+        } catch (ExecutionException ee) {
+            // A failed load is dropped so that the next request tries again
+            geocoders.remove(dataSetId, geocoder);
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            } else if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new ElasticSearchIllegalStateException("Failed to load reverse geocoder for [" + dataSetId + "]", ee.getCause());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onIndexed(final ShapeDataSet dataSet) {
+        if (!geocoders.containsKey(dataSet.id())) {
+            return;
+        }
+
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                FutureTask<ReverseGeocoder> task = loader(dataSet);
+                task.run();
+                try {
+                    task.get();
+                    // The previous ReverseGeocoder keeps serving lookups until its replacement is ready
+                    geocoders.put(dataSet.id(), task);
+                } catch (Exception e) {
+                    logger.warn("Failed to refresh reverse geocoder for [{}]", e, dataSet.id());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the ReverseGeocoder for the ShapeDataSet with the given ID, so that it is loaded
+     * from whichever ShapeDataSet is registered with the ID when next used
+     *
+     * @param dataSetId ID of the ShapeDataSet
+     */
+    public void evict(String dataSetId) {
+        geocoders.remove(dataSetId);
+    }
+
+    private FutureTask<ReverseGeocoder> loader(final ShapeDataSet dataSet) {
+        return new FutureTask<ReverseGeocoder>(new Callable<ReverseGeocoder>() {
+
+            @Override
+            public ReverseGeocoder call() throws IOException {
+                return load(dataSet);
+            }
+        });
+    }
+
+    private ReverseGeocoder load(ShapeDataSet dataSet) throws IOException {
+        long start = System.currentTimeMillis();
+        ReverseGeocoder geocoder = new ReverseGeocoder(dataSet.shapeData());
+        logger.debug("Loaded [{}] shapes of [{}] for reverse geocoding in [{}ms]",
+                geocoder.size(), dataSet.id(), System.currentTimeMillis() - start);
+        if (geocoder.skipped() > 0) {
+            logger.warn("Skipped [{}] shapes of [{}] with invalid topology for reverse geocoding", geocoder.skipped(), dataSet.id());
+        }
+        return geocoder;
+    }
+}
@@ -2,6 +2,7 @@ package org.elasticsearch.shape.dataset;
 
 import com.spatial4j.core.shape.Shape;
 
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -10,8 +11,11 @@ import java.util.Map;
 public class ShapeData {
 
     private final Shape shape;
+    private final PackedGeometry packedGeometry;
     private final String name;
     private final Map<String, Object> data;
+    private final String layer;
+    private final Map<String, ShapeData> resolutions;
 
     /**
      * Creates a new ShapeData wrapping the given Shape with its name and metadata
@@ -21,16 +25,105 @@ public class ShapeData {
      * @param data Metadata about the Shape
      */
     public ShapeData(Shape shape, String name, Map<String, Object> data) {
+        this(shape, name, data, null);
+    }
+
+    /**
+     * Creates a new ShapeData wrapping the given Shape with its name and metadata, which
+     * belongs to the given layer of its DataSet
+     *
+     * @param shape Shape the data is about
+     * @param name Name of the Shape
+     * @param data Metadata about the Shape
+     * @param layer Name of the layer the Shape belongs to, or {@code null} if the DataSet has a single layer
+     */
+    public ShapeData(Shape shape, String name, Map<String, Object> data, String layer) {
         this.shape = shape;
+        this.packedGeometry = null;
+        this.name = name;
+        this.data = data;
+        this.layer = layer;
+        this.resolutions = Collections.emptyMap();
+    }
+
+    /**
+     * Creates a new ShapeData referencing the given packed geometry, such as one held in an
+     * {@link OffHeapGeometryStore}, with its name and metadata
+     *
+     * @param packedGeometry Packed geometry of the Shape the data is about
+     * @param name Name of the Shape
+     * @param data Metadata about the Shape
+     * @param layer Name of the layer the Shape belongs to, or {@code null} if the DataSet has a single layer
+     */
+    public ShapeData(PackedGeometry packedGeometry, String name, Map<String, Object> data, String layer) {
+        this.shape = null;
+        this.packedGeometry = packedGeometry;
+        this.name = name;
+        this.data = data;
+        this.layer = layer;
+        this.resolutions = Collections.emptyMap();
+    }
+
+    /**
+     * Creates a new ShapeData with the Shape, name, metadata and layer of the given ShapeData,
+     * and the given additional resolutions of the Shape
+     *
+     * @param shapeData ShapeData whose Shape and metadata are used
+     * @param resolutions ShapeData for other resolutions of the Shape, keyed by resolution
+     */
+    public ShapeData(ShapeData shapeData, Map<String, ShapeData> resolutions) {
+        this.shape = shapeData.shape;
+        this.packedGeometry = shapeData.packedGeometry;
+        this.name = shapeData.name;
+        this.data = shapeData.data;
+        this.layer = shapeData.layer;
+        this.resolutions = resolutions;
+    }
+
+    /**
+     * Creates a new ShapeData without geometry of its own, only having the given resolutions
+     * of its Shape, such as a feature missing from the primary resolution of a
+     * {@link MultiResolutionShapeDataSet}
+     *
+     * @param name Name of the Shape
+     * @param data Metadata about the Shape
+     * @param layer Name of the layer the Shape belongs to, or {@code null} if the DataSet has a single layer
+     * @param resolutions ShapeData for the resolutions of the Shape, keyed by resolution
+     */
+    public ShapeData(String name, Map<String, Object> data, String layer, Map<String, ShapeData> resolutions) {
+        this.shape = null;
+        this.packedGeometry = null;
         this.name = name;
         this.data = data;
+        this.layer = layer;
+        this.resolutions = resolutions;
     }
 
     /**
-     * @return Shape the data is about
+     * Returns the Shape the data is about.  If the data references a packed geometry, the
+     * Shape is built from it on every call, so callers able to work with the packed geometry
+     * should use {@link #packedGeometry()} instead.
+     *
+     * @return Shape the data is about, or {@code null} if the data has no geometry of its own
      */
     public Shape shape() {
-        return shape;
+        return packedGeometry != null ? packedGeometry.toShape() : shape;
+    }
+
+    /**
+     * @return Whether the data has geometry of its own, rather than only other resolutions
+     *         of its Shape
+     */
+    public boolean hasGeometry() {
+        return packedGeometry != null || shape != null;
+    }
+
+    /**
+     * @return Packed geometry of the Shape the data is about, or {@code null} if the data
+     *         holds an on-heap Shape
+     */
+    public PackedGeometry packedGeometry() {
+        return packedGeometry;
     }
 
     /**
@@ -46,4 +139,20 @@ public class ShapeData {
     public Map<String, Object> data() {
         return data;
     }
+
+    /**
+     * @return Name of the layer the Shape belongs to, or {@code null} if the DataSet has
+     *         a single layer
+     */
+    public String layer() {
+        return layer;
+    }
+
+    /**
+     * @return ShapeData for other resolutions of the Shape, keyed by resolution, which is
+     *         empty unless the Shape comes from a {@link MultiResolutionShapeDataSet}
+     */
+    public Map<String, ShapeData> resolutions() {
+        return resolutions;
+    }
 }
@@ -0,0 +1,328 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.Closeables;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.io.stream.InputStreamStreamInput;
+import org.elasticsearch.common.io.stream.OutputStreamStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.shape.dataset.parsers.DBaseFileParser;
+import org.elasticsearch.shape.dataset.writers.DBaseFileWriter;
+import org.elasticsearch.shape.dataset.writers.ESRIShapeFileWriter;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+import static org.elasticsearch.index.query.QueryBuilders.matchPhraseQuery;
+
+/**
+ * Exports the documents indexed from a {@link ShapeDataSet} by {@link ShapeDataSetService}
+ * back into a shapefile archive or newline delimited GeoJSON.  Documents are scrolled a page
+ * at a time and written out as they arrive, so memory use is independent of the size of
+ * the export.
+ * <p>
+ * Each document becomes a record, so tiled Shapes are exported a tile per record.  The
+ * attributes of a record are the fields of the document other than its Shapes, tile and
+ * metadata.
+ * </p>
+ */
+public class ShapeDataSetExporter {
+
+    private static final String RESOLUTION_FIELD_PREFIX = "shape_";
+
+    private static final String WGS84_PRJ = "GEOGCS[\"GCS_WGS_1984\",DATUM[\"D_WGS_1984\"," +
+            "SPHEROID[\"WGS_1984\",6378137.0,298.257223563]],PRIMEM[\"Greenwich\",0.0]," +
+            "UNIT[\"Degree\",0.0174532925199433]]";
+
+    private final Client client;
+    private final int pageSize;
+    private final TimeValue keepAlive;
+
+    /**
+     * Creates a new ShapeDataSetExporter
+     *
+     * @param client Client used to scroll the documents
+     * @param pageSize Number of documents retrieved from each shard per scroll request
+     * @param keepAlive How long the scroll is kept alive between requests
+     */
+    public ShapeDataSetExporter(Client client, int pageSize, TimeValue keepAlive) {
+        this.client = client;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Exports the documents of the given DataSet as GeoJSON Features, one per line
+     *
+     * @param index Index the DataSet was indexed into
+     * @param dataSetId ID of the DataSet
+     * @param out Stream to write the Features to
+     * @return Number of Features exported
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    public int exportGeoJson(String index, String dataSetId, final OutputStream out) throws IOException {
+        return scroll(index, dataSetId, new HitHandler() {
+
+            @Override
+            public void onHit(SearchHit hit, Map<String, Object> source) throws IOException {
+                XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
+                        .field(Fields.TYPE, Fields.FEATURE)
+                        .field(Fields.ID, hit.id())
+                        .field(Fields.GEOMETRY, source.get(Fields.SHAPE))
+                        .field(Fields.PROPERTIES, attributes(source))
+                        .endObject();
+                builder.bytes().writeTo(out);
+                out.write('\n');
+            }
+        });
+    }
+
+    /**
+     * Exports the documents of the given DataSet as a ZIP archive of a shapefile.  The SHP
+     * and SHX files are written as the documents are scrolled, while the attributes are
+     * spilled to disk until the fields of the DBF file are known.
+     *
+     * @param index Index the DataSet was indexed into
+     * @param dataSetId ID of the DataSet
+     * @param name Name of the files in the archive, without suffix
+     * @param out Stream to write the archive to
+     * @return Number of records exported
+     * @throws IOException Can be thrown if there is a problem writing the files
+     */
+    public int exportShapefile(String index, String dataSetId, String name, OutputStream out) throws IOException {
+        File directory = File.createTempFile("shape_dataset_export", "");
+        if (!directory.delete() || !FileSystemUtils.mkdirs(directory)) {
+            throw new IOException("Failed to create export directory [" + directory + "]");
+        }
+
+        try {
+            File shp = new File(directory, "export.shp");
+            File shx = new File(directory, "export.shx");
+            File attributes = new File(directory, "export.attributes");
+
+            final ESRIShapeFileWriter shapeWriter = new ESRIShapeFileWriter(shp, shx);
+            final DBaseFileWriter.FieldsBuilder fieldsBuilder = new DBaseFileWriter.FieldsBuilder();
+            final StreamOutput attributesOutput = new OutputStreamStreamOutput(
+                    new BufferedOutputStream(new FileOutputStream(attributes)));
+            int numRecords;
+            try {
+                numRecords = scroll(index, dataSetId, new HitHandler() {
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void onHit(SearchHit hit, Map<String, Object> source) throws IOException {
+                        Object shape = source.get(Fields.SHAPE);
+                        List<double[][]> polygons = shape instanceof Map ? polygons((Map<String, Object>) shape) : null;
+                        if (polygons != null) {
+                            shapeWriter.writePolygons(polygons);
+                        } else {
+                            shapeWriter.writeNull();
+                        }
+
+                        Map<String, Object> values = attributes(source);
+                        fieldsBuilder.add(values);
+                        attributesOutput.writeMap(values);
+                    }
+                });
+            } finally {
+                shapeWriter.close();
+                attributesOutput.close();
+            }
+
+            ZipOutputStream zipOutputStream = new ZipOutputStream(out);
+            copyEntry(zipOutputStream, name + ".shp", shp);
+            copyEntry(zipOutputStream, name + ".shx", shx);
+
+            zipOutputStream.putNextEntry(new ZipEntry(name + ".dbf"));
+            StreamInput attributesInput = new InputStreamStreamInput(new BufferedInputStream(new FileInputStream(attributes)));
+            try {
+                OutputStream dbfOutputStream = new BufferedOutputStream(zipOutputStream);
+                DBaseFileWriter dbfWriter = new DBaseFileWriter(dbfOutputStream, fieldsBuilder.build(), numRecords);
+                for (int i = 0; i < numRecords; i++) {
+                    dbfWriter.write(attributesInput.readMap());
+                }
+                dbfWriter.close();
+            } finally {
+                Closeables.closeQuietly(attributesInput);
+            }
+            zipOutputStream.closeEntry();
+
+            zipOutputStream.putNextEntry(new ZipEntry(name + ".prj"));
+            zipOutputStream.write(WGS84_PRJ.getBytes(DBaseFileParser.CHARSET));
+            zipOutputStream.closeEntry();
+            zipOutputStream.finish();
+
+            return numRecords;
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Scrolls the documents of the given DataSet, passing each to the given handler.  The
+     * ID of the DataSet is dynamically mapped as an analyzed string, so IDs containing
+     * upper case letters or punctuation match no term.  Documents are instead matched by
+     * the phrase of the ID, and those whose ID merely contains the phrase are skipped.
+     *
+     * @param index Index the DataSet was indexed into
+     * @param dataSetId ID of the DataSet
+     * @param handler Handler of the documents
+     * @return Number of documents scrolled
+     * @throws IOException Can be thrown by the handler
+     */
+    private int scroll(String index, String dataSetId, HitHandler handler) throws IOException {
+        SearchResponse response = client.prepareSearch(index)
+                .setSearchType(SearchType.SCAN)
+                .setQuery(matchPhraseQuery(Fields.METADATA + "." + Fields.DATASET_ID, dataSetId))
+                .setScroll(keepAlive)
+                .setSize(pageSize)
+                .execute().actionGet();
+
+        int count = 0;
+        while (true) {
+            response = client.prepareSearchScroll(response.scrollId())
+                    .setScroll(keepAlive)
+                    .execute().actionGet();
+            if (response.hits().hits().length == 0) {
+                return count;
+            }
+            for (SearchHit hit : response.hits().hits()) {
+                Map<String, Object> source = hit.sourceAsMap();
+                if (dataSetId.equals(dataSetId(source))) {
+                    handler.onHit(hit, source);
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return ID of the DataSet in the metadata of the given document, or {@code null} if
+     *         it has none
+     */
+    static Object dataSetId(Map<String, Object> source) {
+        Object metadata = source.get(Fields.METADATA);
+        return metadata instanceof Map ? ((Map<?, ?>) metadata).get(Fields.DATASET_ID) : null;
+    }
+
+    private static void copyEntry(ZipOutputStream zipOutputStream, String name, File file) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(name));
+        InputStream fileInputStream = new FileInputStream(file);
+        try {
+            ByteStreams.copy(fileInputStream, zipOutputStream);
+        } finally {
+            Closeables.closeQuietly(fileInputStream);
+        }
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * Extracts the attributes of a document, which are its scalar fields other than its
+     * Shapes, tile and metadata
+     *
+     * @param source Source of the document
+     * @return Attributes of the document
+     */
+    static Map<String, Object> attributes(Map<String, Object> source) {
+        Map<String, Object> attributes = newLinkedHashMap();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            String key = entry.getKey();
+            if (key.equals(Fields.SHAPE) || key.startsWith(RESOLUTION_FIELD_PREFIX)
+                    || key.equals(Fields.METADATA) || key.equals(Fields.TILE)) {
+                continue;
+            }
+            if (entry.getValue() instanceof Map || entry.getValue() instanceof List) {
+                continue;
+            }
+            attributes.put(key, entry.getValue());
+        }
+        return attributes;
+    }
+
+    /**
+     * Reads the polygons of a Shape in the GeoJSON style format written by {@link ShapeSerializer}
+     *
+     * @param shape Shape to read
+     * @return Rings of each of the polygons of the Shape, or {@code null} if the Shape is
+     *         not polygonal
+     */
+    @SuppressWarnings("unchecked")
+    static List<double[][]> polygons(Map<String, Object> shape) {
+        String type = String.valueOf(shape.get(Fields.TYPE));
+        Object coordinates = shape.get(Fields.COORDINATES);
+        List<double[][]> polygons = newArrayList();
+
+        if ("polygon".equalsIgnoreCase(type)) {
+            polygons.add(rings((List<Object>) coordinates));
+        } else if ("multipolygon".equalsIgnoreCase(type)) {
+            for (Object polygon : (List<Object>) coordinates) {
+                polygons.add(rings((List<Object>) polygon));
+            }
+        } else if ("envelope".equalsIgnoreCase(type)) {
+            // Envelopes are given by their top left and bottom right corners
+            List<Object> corners = (List<Object>) coordinates;
+            double[] topLeft = coordinate(corners.get(0));
+            double[] bottomRight = coordinate(corners.get(1));
+            polygons.add(new double[][]{{
+                    topLeft[0], topLeft[1], bottomRight[0], topLeft[1], bottomRight[0], bottomRight[1],
+                    topLeft[0], bottomRight[1], topLeft[0], topLeft[1]}});
+        } else {
+            return null;
+        }
+        return polygons;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double[][] rings(List<Object> coordinates) {
+        double[][] rings = new double[coordinates.size()][];
+        for (int i = 0; i < rings.length; i++) {
+            List<Object> ring = (List<Object>) coordinates.get(i);
+            rings[i] = new double[ring.size() * 2];
+            for (int j = 0; j < ring.size(); j++) {
+                double[] coordinate = coordinate(ring.get(j));
+                rings[i][j * 2] = coordinate[0];
+                rings[i][j * 2 + 1] = coordinate[1];
+            }
+        }
+        return rings;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double[] coordinate(Object coordinate) {
+        List<Number> values = (List<Number>) coordinate;
+        return new double[]{values.get(0).doubleValue(), values.get(1).doubleValue()};
+    }
+
+    /**
+     * Handler of the documents of a scroll
+     */
+    private static interface HitHandler {
+
+        void onHit(SearchHit hit, Map<String, Object> source) throws IOException;
+    }
+
+    private static interface Fields {
+        String SHAPE = "shape";
+        String METADATA = "metadata";
+        String DATASET_ID = "data_set_id";
+        String TILE = "tile";
+        String TYPE = "type";
+        String COORDINATES = "coordinates";
+        String FEATURE = "Feature";
+        String ID = "id";
+        String GEOMETRY = "geometry";
+        String PROPERTIES = "properties";
+    }
+}
@@ -1,58 +1,155 @@
 package org.elasticsearch.shape.dataset;
 
-import org.elasticsearch.ElasticSearchIllegalStateException;
+import com.spatial4j.core.exception.InvalidShapeException;
+import com.spatial4j.core.shape.Shape;
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.Closeables;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.shape.dataset.parsers.AttributeRecord;
 import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.elasticsearch.common.collect.Lists.newArrayList;
-import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
 
 /**
  * Service that facilitates indexing the Shapes from {@link ShapeDataSet}s
  */
 public class ShapeDataSetService extends AbstractComponent {
 
+    private static final int MAX_REUSED_DOCUMENT_BYTES = 1024 * 1024;
+
+    private static final String TILE_ID_SEPARATOR = "#";
+    private static final String LAYER_ID_SEPARATOR = "/";
+    private static final String RESOLUTION_FIELD_SEPARATOR = "_";
+
+    private static final ThreadLocal<BytesStreamOutput> DOCUMENT_OUTPUT = new ThreadLocal<BytesStreamOutput>() {
+
+        @Override
+        protected BytesStreamOutput initialValue() {
+            return new BytesStreamOutput();
+        }
+    };
+
     private final Client client;
+    private final ClusterService clusterService;
     private final ThreadPool threadPool;
+    private final BulkLoader bulkLoader;
 
-    private final List<ShapeDataSet> dataSets = newArrayList();
-    private final Map<String, ShapeDataSet> dataSetsById = newHashMap();
+    private final int maxRetries;
+    private final TimeValue initialBackoff;
+    private final int maxInFlight;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final TimeValue targetBulkLatency;
+    private final IngestMemoryBudget memoryBudget;
+    private final IngestMemoryBudget.OverBudget defaultOverBudget;
+    private final GeometryValidation.Policy defaultValidation;
+    private final TimeValue queueTimeout;
+    private final int sortBufferSize;
+    private final int maxCoveringCells;
+    private final int coveringWindow;
+
+    // Registrations replace the map rather than modifying it, so lookups need no locking
+    private volatile Map<String, ShapeDataSet> dataSets = Collections.emptyMap();
+    private final List<DataSetIndexListener> indexListeners = new CopyOnWriteArrayList<DataSetIndexListener>();
 
     @Inject
-    public ShapeDataSetService(Client client, Settings settings, ThreadPool threadPool) {
+    public ShapeDataSetService(
+            Client client,
+            Settings settings,
+            ClusterService clusterService,
+            ThreadPool threadPool,
+            BulkLoader bulkLoader) {
         super(settings);
         this.client = client;
+        this.clusterService = clusterService;
         this.threadPool = threadPool;
+        this.bulkLoader = bulkLoader;
+
+        this.maxRetries = componentSettings.getAsInt("bulk.max_retries", 8);
+        this.initialBackoff = componentSettings.getAsTime("bulk.initial_backoff", TimeValue.timeValueMillis(50));
+        this.maxInFlight = componentSettings.getAsInt("bulk.max_in_flight", 1);
+        this.minBatchSize = componentSettings.getAsInt("bulk.adaptive.min_size", 10);
+        this.maxBatchSize = componentSettings.getAsInt("bulk.adaptive.max_size", 5000);
+        this.targetBulkLatency = componentSettings.getAsTime("bulk.adaptive.target_latency", TimeValue.timeValueSeconds(1));
+        this.memoryBudget = new IngestMemoryBudget(parseMemoryBudget(componentSettings.get("ingest.memory_budget", "25%")));
+        this.defaultOverBudget = IngestMemoryBudget.OverBudget.fromString(componentSettings.get("ingest.over_budget", "low_memory"));
+        this.defaultValidation = GeometryValidation.Policy.fromString(componentSettings.get("ingest.validation", "skip"));
+        this.queueTimeout = componentSettings.getAsTime("ingest.queue_timeout", TimeValue.timeValueMinutes(30));
+        this.sortBufferSize = componentSettings.getAsInt("ingest.sort_buffer_size", 100000);
+        this.maxCoveringCells = componentSettings.getAsInt("ingest.covering.max_cells", 1024);
+        this.coveringWindow = componentSettings.getAsInt("ingest.covering.window", Runtime.getRuntime().availableProcessors() * 2);
 
         register(RemoteESRIShapeDataSet.NATURAL_EARTH_DATA_COUNTRIES);
+        register(MultiResolutionShapeDataSet.NATURAL_EARTH_DATA_COUNTRIES);
     }
 
     /**
-     * Registers the given {@link ShapeDataSet} with this service
+     * Registers the given {@link ShapeDataSet} with this service, replacing and releasing
+     * any DataSet registered with the same ID
      *
      * @param dataSet DataSet to register
      */
-    public void register(ShapeDataSet dataSet) {
-        dataSets.add(dataSet);
-        dataSetsById.put(dataSet.id(), dataSet);
+    public synchronized void register(ShapeDataSet dataSet) {
+        Map<String, ShapeDataSet> registered = newLinkedHashMap(dataSets);
+        ShapeDataSet replaced = registered.put(dataSet.id(), dataSet);
+        dataSets = Collections.unmodifiableMap(registered);
+        if (replaced != null && replaced != dataSet) {
+            release(replaced);
+        }
+    }
+
+    /**
+     * Removes the {@link ShapeDataSet} with the given ID from this service, releasing any
+     * files it holds.  Ingests of the DataSet already running are unaffected, since their
+     * open files outlive the release and the files are otherwise fetched again.
+     *
+     * @param id ID of the DataSet to remove
+     * @return Whether a DataSet with the ID was registered
+     */
+    public synchronized boolean unregister(String id) {
+        if (!dataSets.containsKey(id)) {
+            return false;
+        }
+        Map<String, ShapeDataSet> registered = newLinkedHashMap(dataSets);
+        ShapeDataSet removed = registered.remove(id);
+        dataSets = Collections.unmodifiableMap(registered);
+        release(removed);
+        return true;
+    }
+
+    /**
+     * Adds a listener to be notified whenever a ShapeDataSet has been indexed on this node
+     *
+     * @param listener Listener to add
+     */
+    public void addIndexListener(DataSetIndexListener listener) {
+        indexListeners.add(listener);
     }
 
     /**
-     * @return Returns an unmodifiable view of the current registered ShapeDataSets
+     * @return Returns an unmodifiable snapshot of the currently registered ShapeDataSets
      */
     public List<ShapeDataSet> dataSets() {
-        return Collections.unmodifiableList(dataSets);
+        return Collections.unmodifiableList(newArrayList(dataSets.values()));
     }
 
     /**
@@ -63,31 +160,118 @@ public class ShapeDataSetService extends AbstractComponent {
      *         is currently registered
      */
     public ShapeDataSet dataSet(String id) {
-        return dataSetsById.get(id);
+        return dataSets.get(id);
     }
 
     /**
-     * Indexes the data from the given ShapeDataSet, into the given index and type
+     * Indexes the data from the given ShapeDataSet, as described by the given request.  If
+     * the request is a bulk load, the data is indexed into a new version of the index which
+     * the alias named by the request is repointed to once loaded.
      *
      * @param dataSet ShapeDataSet whose data will be indexed
-     * @param index Name of the index where the data will be indexed
-     * @param type Name of the index type where the data will be indexed
-     * @param batchSize The maximum batch size for indexing requests
+     * @param request Request describing where and how the data will be indexed
      * @param listener Listener for success and failure of the indexing
      */
     public void index(
             final ShapeDataSet dataSet,
-            final String index,
-            final String type,
-            final int batchSize,
+            final DataSetIndexRequest request,
+            final ActionListener<DataSetIndexResponse> listener) {
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                ActionListener<DataSetIndexResponse> indexListener = listener;
+                try {
+                    DataSetIndexRequest indexRequest = request;
+                    if (request.bulkLoad() && !request.dryRun()) {
+                        String bulkLoadIndex = bulkLoader.start(request.index());
+                        indexListener = bulkLoader.listener(request.index(), bulkLoadIndex, listener);
+                        indexRequest = new DataSetIndexRequest(request).index(bulkLoadIndex).bulkLoad(false);
+                    }
+
+                    DataSetIndexStats stats = new DataSetIndexStats();
+                    long start = System.nanoTime();
+                    GeometryValidation validation = validation(indexRequest);
+                    int totalCount;
+                    Admission admission = null;
+                    Iterator<ShapeData> shapeData = null;
+                    try {
+                        // Estimating may download the DataSet, which is released even if it is rejected
+                        admission = admit(dataSet, -1, indexRequest, stats);
+                        shapeData = order(parallel(validating(admission.dataSet, validation)).shapeData(), indexRequest);
+                        stats.onLoad(System.nanoTime() - start);
+                        totalCount = index(dataSet, shapeData, new Date(), indexRequest, validation, stats);
+                        stats.onValidation(validation);
+                    } finally {
+                        close(shapeData);
+                        if (admission != null) {
+                            memoryBudget.release(admission.reservedBytes);
+                        }
+                        release(dataSet);
+                    }
+                    stats.onComplete(System.nanoTime() - start);
+                    if (!indexRequest.dryRun()) {
+                        notifyIndexed(dataSet);
+                    }
+                    indexListener.onResponse(new DataSetIndexResponse(totalCount, stats));
+                } catch (Exception e) {
+                    indexListener.onFailure(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the data in the given range of records from the given ShapeDataSet, as
+     * described by the given request
+     *
+     * @param dataSet ShapeDataSet whose data will be indexed
+     * @param from Index of the first record to index (inclusive)
+     * @param to Index of the last record to index (exclusive)
+     * @param insertDate Insert date of the documents, shared by every slice of an ingest
+     * @param request Request describing where and how the data will be indexed
+     * @param listener Listener for success and failure of the indexing
+     */
+    public void index(
+            final SliceableShapeDataSet dataSet,
+            final int from,
+            final int to,
+            final Date insertDate,
+            final DataSetIndexRequest request,
             final ActionListener<DataSetIndexResponse> listener) {
         threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
 
             @Override
             public void run() {
                 try {
-                    int totalCount = index(dataSet, index, type, batchSize);
-                    listener.onResponse(new DataSetIndexResponse(totalCount));
+                    DataSetIndexStats stats = new DataSetIndexStats();
+                    long start = System.nanoTime();
+                    GeometryValidation validation = validation(request);
+                    int totalCount;
+                    Admission admission = null;
+                    Iterator<ShapeData> shapeData = null;
+                    try {
+                        // Estimating may download the DataSet, which is released even if it is rejected
+                        admission = admit(dataSet, to - from, request, stats);
+                        ShapeDataSet validated = parallel(validating(admission.dataSet, validation));
+                        SliceableShapeDataSet admitted = validated instanceof SliceableShapeDataSet ?
+                                (SliceableShapeDataSet) validated : dataSet;
+                        shapeData = order(admitted.shapeData(from, to), request);
+                        stats.onLoad(System.nanoTime() - start);
+                        totalCount = index(dataSet, shapeData, insertDate, request, validation, stats);
+                        stats.onValidation(validation);
+                    } finally {
+                        close(shapeData);
+                        if (admission != null) {
+                            memoryBudget.release(admission.reservedBytes);
+                        }
+                        release(dataSet);
+                    }
+                    stats.onComplete(System.nanoTime() - start);
+                    if (!request.dryRun()) {
+                        notifyIndexed(dataSet);
+                    }
+                    listener.onResponse(new DataSetIndexResponse(totalCount, stats));
                 } catch (Exception e) {
                     listener.onFailure(e);
                 }
@@ -95,56 +279,420 @@ public class ShapeDataSetService extends AbstractComponent {
         });
     }
 
-    private int index(ShapeDataSet dataSet, String index, String type, int batchSize) throws IOException {
-        Iterator<ShapeData> shapeDataIterator = dataSet.shapeData();
+    /**
+     * Admits an ingest of the given DataSet against the memory budget of the node, using
+     * the estimate of the heap it needs if the DataSet is an {@link EstimableShapeDataSet}.
+     * Ingests exceeding the available budget are rejected, queued or switched to low memory
+     * parsing, as described by the request or the node default.
+     *
+     * @param dataSet DataSet to ingest
+     * @param numRecords Number of records of the DataSet to ingest, or {@code -1} for all of them
+     * @param request Request describing how the data will be indexed
+     * @param stats Statistics the admission is recorded in
+     * @return Admission of the ingest, whose reserved heap must be released once indexed
+     * @throws IOException Can be thrown if there is a problem estimating the DataSet
+     */
+    private Admission admit(ShapeDataSet dataSet, int numRecords, DataSetIndexRequest request, DataSetIndexStats stats) throws IOException {
+        if (!(dataSet instanceof EstimableShapeDataSet)) {
+            return new Admission(dataSet, 0);
+        }
+
+        EstimableShapeDataSet estimableDataSet = (EstimableShapeDataSet) dataSet;
+        DataSetMemoryEstimate estimate = estimableDataSet.estimateMemory();
+        if (numRecords >= 0 && estimate.records() > 0) {
+            estimate = estimate.scale(Math.min(1, (double) numRecords / estimate.records()));
+        }
+
+        long heapBytes = estimate.heapBytes();
+        logger.debug("Estimated [{}] of heap to ingest [{}], [{}] of [{}] budget reserved", new ByteSizeValue(heapBytes),
+                dataSet.id(), new ByteSizeValue(memoryBudget.reservedBytes()), new ByteSizeValue(memoryBudget.budgetBytes()));
+        if (memoryBudget.tryReserve(heapBytes)) {
+            stats.onAdmission(heapBytes, Admission.IN_MEMORY);
+            return new Admission(dataSet, heapBytes);
+        }
+
+        IngestMemoryBudget.OverBudget overBudget = request.overBudget() != null ? request.overBudget() : defaultOverBudget;
+        if (overBudget == IngestMemoryBudget.OverBudget.QUEUE) {
+            if (memoryBudget.reserve(heapBytes, queueTimeout.millis())) {
+                stats.onAdmission(heapBytes, Admission.QUEUED);
+                return new Admission(dataSet, heapBytes);
+            }
+        } else if (overBudget == IngestMemoryBudget.OverBudget.LOW_MEMORY) {
+            long lowMemoryHeapBytes = estimate.lowMemoryHeapBytes();
+            if (memoryBudget.tryReserve(lowMemoryHeapBytes)) {
+                stats.onAdmission(lowMemoryHeapBytes, Admission.LOW_MEMORY);
+                return new Admission(estimableDataSet.lowMemory(), lowMemoryHeapBytes);
+            }
+        }
+
+        throw new EsRejectedExecutionException("Ingest of [" + dataSet.id() + "] needs an estimated [" + new ByteSizeValue(heapBytes) +
+                "] of heap, exceeding the available ingest memory budget of [" +
+                new ByteSizeValue(memoryBudget.budgetBytes() - memoryBudget.reservedBytes()) + "]");
+    }
+
+    /**
+     * Releases the files the given DataSet holds between ingests if it is a
+     * {@link ReleasableShapeDataSet}, so that the next ingest reads them afresh
+     *
+     * @param dataSet DataSet to release
+     */
+    private static void release(ShapeDataSet dataSet) {
+        if (dataSet instanceof ReleasableShapeDataSet) {
+            ((ReleasableShapeDataSet) dataSet).release();
+        }
+    }
+
+    /**
+     * @param request Request describing how the data will be indexed
+     * @return Validation of the geometry parsed for the request, using the policy of the
+     *         request or the node default
+     */
+    private GeometryValidation validation(DataSetIndexRequest request) {
+        return new GeometryValidation(request.validation() != null ? request.validation() : defaultValidation);
+    }
+
+    /**
+     * Applies the given validation to the given DataSet if it is a {@link ValidatingShapeDataSet}.
+     * Other DataSets are indexed as they are, with none of their records counted.
+     *
+     * @param dataSet DataSet to validate
+     * @param validation Validation the geometry of each record goes through
+     * @return DataSet validated when parsed
+     */
+    private static ShapeDataSet validating(ShapeDataSet dataSet, GeometryValidation validation) {
+        return dataSet instanceof ValidatingShapeDataSet ? ((ValidatingShapeDataSet) dataSet).validating(validation) : dataSet;
+    }
+
+    /**
+     * Has the given DataSet parsed in parallel on the generic pool if it is a {@link ParallelShapeDataSet}
+     *
+     * @param dataSet DataSet to parse
+     * @return DataSet parsed in parallel where it can be
+     */
+    private ShapeDataSet parallel(ShapeDataSet dataSet) {
+        return dataSet instanceof ParallelShapeDataSet ?
+                ((ParallelShapeDataSet) dataSet).parallel(threadPool.executor(ThreadPool.Names.GENERIC)) : dataSet;
+    }
+
+    /**
+     * Closes the given ShapeData if they hold resources until iterated to the end, such as
+     * the runs spilled by a sort, as an ingest that fails stops iterating them early
+     *
+     * @param shapeData ShapeData of an ingest, or {@code null} if none were parsed
+     */
+    private static void close(Iterator<ShapeData> shapeData) {
+        if (shapeData instanceof Closeable) {
+            Closeables.closeQuietly((Closeable) shapeData);
+        }
+    }
+
+    /**
+     * Orders the given ShapeData along a Hilbert curve if requested, spilling them to disk
+     * if there are more than fit in the sort buffer
+     *
+     * @param shapeData ShapeData to order
+     * @param request Request describing how the data will be indexed
+     * @return ShapeData in the order they will be indexed
+     * @throws IOException Can be thrown if there is a problem spilling the ShapeData
+     */
+    private Iterator<ShapeData> order(Iterator<ShapeData> shapeData, DataSetIndexRequest request) throws IOException {
+        if (!request.hilbertOrder()) {
+            return shapeData;
+        }
+        try {
+            return new HilbertOrder(sortBufferSize).sort(shapeData);
+        } finally {
+            // Sorting reads every ShapeData unless it fails part way
+            close(shapeData);
+        }
+    }
+
+    /**
+     * Tiles the Shape of the given ShapeData if it has more than the maximum number of
+     * vertices.  Packed geometry that does not need tiling is serialized straight from its
+     * buffer, so it is not built into a Shape.  Neither is packed geometry whose topology is
+     * too invalid to build a Shape of, which is indexed as it is and counted by the validation.
+     * Shapes which fail to be tiled are indexed whole, and counted by the validation too.
+     *
+     * @param shapeData ShapeData to tile
+     * @param shapeTiler Tiler of Shapes with too many vertices, or {@code null} if Shapes are not tiled
+     * @param maxVertices Maximum number of vertices of a Shape before it is tiled
+     * @param validation Validation counting the packed geometry whose Shape cannot be built, and
+     *        the Shapes which cannot be tiled
+     * @return Tiles of the Shape, or {@code null} if the packed geometry is indexed as it is
+     *         or the ShapeData has no geometry of its own
+     */
+    static List<Shape> tiles(ShapeData shapeData, ShapeTiler shapeTiler, int maxVertices, GeometryValidation validation) {
+        if (!shapeData.hasGeometry()) {
+            return null;
+        }
+        PackedGeometry packedGeometry = shapeData.packedGeometry();
+        if (packedGeometry == null) {
+            Shape shape = shapeData.shape();
+            return shapeTiler != null ? shapeTiler.tile(shape, shapeData.name(), validation) : Collections.singletonList(shape);
+        }
+        if (needsTiling(packedGeometry, shapeTiler, maxVertices)) {
+            Shape shape = shape(shapeData, validation);
+            if (shape != null) {
+                return shapeTiler.tile(shape, shapeData.name(), validation);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the given packed geometry has too many vertices and is built into a
+     *         Shape to be tiled
+     */
+    static boolean needsTiling(PackedGeometry packedGeometry, ShapeTiler shapeTiler, int maxVertices) {
+        return shapeTiler != null && packedGeometry.numCoordinates() > maxVertices;
+    }
+
+    /**
+     * Builds the Shape of the given ShapeData, which fails for packed geometry indexed as it
+     * is under the report policy when its topology is invalid
+     *
+     * @param shapeData ShapeData to build the Shape of
+     * @param validation Validation counting the ShapeData whose Shape cannot be built
+     * @return Shape of the ShapeData, or {@code null} if it cannot be built
+     */
+    static Shape shape(ShapeData shapeData, GeometryValidation validation) {
+        try {
+            return shapeData.shape();
+        } catch (InvalidShapeException ise) {
+            validation.onUnbuilt(shapeData.name(), ise.getMessage());
+            return null;
+        }
+    }
+
+    private void notifyIndexed(ShapeDataSet dataSet) {
+        for (DataSetIndexListener indexListener : indexListeners) {
+            try {
+                indexListener.onIndexed(dataSet);
+            } catch (Exception e) {
+                logger.warn("Failed to notify listener of indexing of [{}]", e, dataSet.id());
+            }
+        }
+    }
+
+    private int index(
+            ShapeDataSet dataSet,
+            Iterator<ShapeData> shapeDataIterator,
+            Date insertDate,
+            DataSetIndexRequest request,
+            GeometryValidation validation,
+            DataSetIndexStats stats) throws IOException {
+        ShapeSerializer shapeSerializer = new ShapeSerializer(request.precision());
+        ShapeTiler shapeTiler = request.maxVertices() > 0 ? new ShapeTiler(request.maxVertices()) : null;
 
-        int batchCount = 0;
         int totalCount = 0;
 
-        Date insertDate = new Date();
+        // Metadata is the same for every document so it is only encoded once
+        XContentBuilder metadataBuilder = XContentFactory.contentBuilder(request.contentType()).startObject()
+                .field(Fields.DATASET_ID, dataSet.id())
+                .field(Fields.INSERT_DATE, insertDate);
+        dataSet.addMetadata(metadataBuilder);
+        byte[] metadata = metadataBuilder.endObject().bytes().toBytes();
+
+        BytesStreamOutput documentOutput = DOCUMENT_OUTPUT.get();
+        // The buffer keeps the capacity of the largest document written to it
+        int largestDocumentBytes = 0;
+
+        AdaptiveBatchSizer batchSizer = null;
+        if (request.adaptiveBatchSize()) {
+            int maxSize = Math.max(minBatchSize, Math.min(maxBatchSize, request.batchSize()));
+            batchSizer = new AdaptiveBatchSizer(minBatchSize * 10, minBatchSize, maxSize, targetBulkLatency.millis());
+        }
+
+        // Coverings are computed ahead of the documents, tiling the Shapes along the way
+        CellCoveringIterator coveringIterator = null;
+        if (request.covering() != null) {
+            CellCoverer coverer = new CellCoverer(request.covering(), request.coveringPrecision(), maxCoveringCells);
+            coveringIterator = new CellCoveringIterator(shapeDataIterator, coverer, shapeTiler, request.maxVertices(),
+                    validation, threadPool.executor(ThreadPool.Names.GENERIC), coveringWindow);
+            shapeDataIterator = coveringIterator;
+        }
 
-        BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, request.batchSize(), batchSizer, maxInFlight,
+                maxRetries, initialBackoff);
 
+        long loadStart = System.nanoTime();
         while (shapeDataIterator.hasNext()) {
             ShapeData shapeData = shapeDataIterator.next();
+            long tileStart = System.nanoTime();
+            // Lazy DataSets do their parsing as they are iterated
+            stats.onLoad(tileStart - loadStart);
 
-            XContentBuilder contentBuilder = XContentFactory.jsonBuilder().startObject();
-            for (Map.Entry<String, Object> entry : shapeData.data().entrySet()) {
-                contentBuilder.field(entry.getKey(), entry.getValue());
+            PackedGeometry packedGeometry = shapeData.packedGeometry();
+            List<Shape> tiles;
+            if (coveringIterator != null) {
+                tiles = coveringIterator.tiles();
+                stats.onTile(shapeData, coveringIterator.tileNanos());
+            } else {
+                tiles = tiles(shapeData, shapeTiler, request.maxVertices(), validation);
+                stats.onTile(shapeData, System.nanoTime() - tileStart);
+            }
+            int numTiles = tiles != null ? tiles.size() : 1;
+
+            // Layers of a DataSet either get their own type, or share the type with their names keeping IDs unique
+            String type = request.type();
+            String featureId = shapeData.name();
+            if (shapeData.layer() != null) {
+                if (request.typePerLayer()) {
+                    type = shapeData.layer();
+                } else {
+                    featureId = shapeData.layer() + LAYER_ID_SEPARATOR + featureId;
+                }
             }
 
-            contentBuilder.startObject(Fields.SHAPE);
-            // TODO: Serialize Shape
-            contentBuilder.endObject();
+            for (int tile = 0; tile < numTiles; tile++) {
+                long serializeStart = System.nanoTime();
+                documentOutput.reset();
+                XContentBuilder contentBuilder = XContentFactory.contentBuilder(request.contentType(), documentOutput).startObject();
+                if (shapeData.data() instanceof AttributeRecord) {
+                    ((AttributeRecord) shapeData.data()).writeTo(contentBuilder);
+                } else {
+                    for (Map.Entry<String, Object> entry : shapeData.data().entrySet()) {
+                        contentBuilder.field(entry.getKey(), entry.getValue());
+                    }
+                }
 
-            contentBuilder.startObject(Fields.METADATA)
-                    .field(Fields.DATASET_ID, dataSet.id())
-                    .field(Fields.INSERT_DATE, insertDate);
-            dataSet.addMetadata(contentBuilder);
-            contentBuilder.endObject();
+                if (shapeData.layer() != null) {
+                    contentBuilder.field(Fields.LAYER, shapeData.layer());
+                }
 
-            bulkRequestBuilder.add(client.prepareIndex(index, type, shapeData.name()).setSource(contentBuilder).request());
+                // Features missing from the primary resolution only have their other resolutions
+                if (shapeData.hasGeometry()) {
+                    contentBuilder.startObject(Fields.SHAPE);
+                    if (tiles != null) {
+                        shapeSerializer.serialize(tiles.get(tile), contentBuilder);
+                    } else {
+                        shapeSerializer.serialize(packedGeometry, contentBuilder);
+                    }
+                    contentBuilder.endObject();
+                }
+
+                // Other resolutions of the Shape are whole, so only the first tile carries them
+                if (tile == 0) {
+                    for (Map.Entry<String, ShapeData> resolution : shapeData.resolutions().entrySet()) {
+                        contentBuilder.startObject(Fields.SHAPE + RESOLUTION_FIELD_SEPARATOR + resolution.getKey());
+                        if (resolution.getValue().packedGeometry() != null) {
+                            shapeSerializer.serialize(resolution.getValue().packedGeometry(), contentBuilder);
+                        } else {
+                            shapeSerializer.serialize(resolution.getValue().shape(), contentBuilder);
+                        }
+                        contentBuilder.endObject();
+                    }
+                }
 
-            if (++batchCount == batchSize) {
-                executeBulkRequest(bulkRequestBuilder);
-                bulkRequestBuilder = client.prepareBulk();
-                totalCount += batchCount;
-                batchCount = 0;
+                if (coveringIterator != null) {
+                    List<String> cells = coveringIterator.cells(tile);
+                    contentBuilder.startObject(Fields.CELLS)
+                            .field(request.covering().toString(), cells)
+                            .endObject();
+                    // Every tile of a Shape is covered in the same task, which is timed once
+                    stats.onCover(cells.size(), tile == 0 ? coveringIterator.coverNanos() : 0);
+                }
+
+                String id = featureId;
+                if (numTiles > 1) {
+                    id += TILE_ID_SEPARATOR + tile;
+                    contentBuilder.startObject(Fields.TILE)
+                            .field(Fields.PARENT, featureId)
+                            .field(Fields.NUMBER, tile)
+                            .field(Fields.COUNT, numTiles)
+                            .endObject();
+                }
+
+                contentBuilder.rawField(Fields.METADATA, metadata);
+                contentBuilder.endObject().close();
+
+                IndexRequest indexRequest = client.prepareIndex(request.index(), type, id)
+                        .setSource(documentOutput.bytes().copyBytesArray(), false).request();
+                stats.onSerialize(id, documentOutput.size(), System.nanoTime() - serializeStart);
+                largestDocumentBytes = Math.max(largestDocumentBytes, documentOutput.size());
+
+                // Documents of dry runs are dropped
+                if (!request.dryRun()) {
+                    long bulkStart = System.nanoTime();
+                    int shard = request.shardAware() ? shard(clusterService.state(), indexRequest) : BulkPipeline.UNKNOWN_SHARD;
+                    pipeline.add(indexRequest, shard);
+                    stats.onBulk(System.nanoTime() - bulkStart);
+                }
+                totalCount++;
             }
+            loadStart = System.nanoTime();
+        }
+
+        long bulkStart = System.nanoTime();
+        try {
+            pipeline.flush();
+        } finally {
+            stats.onBulk(System.nanoTime() - bulkStart);
         }
 
-        if (batchCount > 0) {
-            executeBulkRequest(bulkRequestBuilder);
-            totalCount += batchCount;
+        if (largestDocumentBytes > MAX_REUSED_DOCUMENT_BYTES) {
+            // Don't hold on to the memory used by exceptionally large documents
+            DOCUMENT_OUTPUT.remove();
         }
 
         return totalCount;
     }
 
-    private void executeBulkRequest(BulkRequestBuilder builder) {
-        BulkResponse response = builder.execute().actionGet();
-        if (response.hasFailures()) {
-            throw new ElasticSearchIllegalStateException(response.buildFailureMessage());
+    /**
+     * Resolves the shard the given index request targets, so that documents can be queued
+     * by shard.  Aliases are resolved to the index they point to.
+     *
+     * @param clusterState Current state of the cluster
+     * @param indexRequest Index request of a document
+     * @return Shard the document targets, or {@link BulkPipeline#UNKNOWN_SHARD} if the index does
+     *         not exist yet, such as until it is created by the first bulk, or if it is an alias
+     *         of several indices
+     */
+    private int shard(ClusterState clusterState, IndexRequest indexRequest) {
+        String index = concreteIndex(clusterState.metaData(), indexRequest.index());
+        if (index == null) {
+            return BulkPipeline.UNKNOWN_SHARD;
+        }
+        String routing = clusterState.metaData().resolveIndexRouting(indexRequest.routing(), indexRequest.index());
+        return clusterService.operationRouting().indexShards(clusterState, index, indexRequest.type(), indexRequest.id(),
+                routing).shardId().id();
+    }
+
+    /**
+     * @param metaData Current metadata of the cluster
+     * @param index Name of an index or of an alias
+     * @return Index with the given name, or the index the alias with the name points to, or
+     *         {@code null} if there is no such index or the alias points to several indices
+     */
+    static String concreteIndex(MetaData metaData, String index) {
+        String[] concreteIndices = metaData.concreteIndicesIgnoreMissing(new String[]{index});
+        return concreteIndices.length == 1 ? concreteIndices[0] : null;
+    }
+
+    private static long parseMemoryBudget(String value) {
+        if (value.endsWith("%")) {
+            double percent = Double.parseDouble(value.substring(0, value.length() - 1));
+            return (long) (Runtime.getRuntime().maxMemory() * percent / 100);
+        }
+        return ByteSizeValue.parseBytesSizeValue(value).bytes();
+    }
+
+    /**
+     * Ingest admitted against the memory budget of the node
+     */
+    private static class Admission {
+
+        private static final String IN_MEMORY = "in_memory";
+        private static final String QUEUED = "queued";
+        private static final String LOW_MEMORY = "low_memory";
+
+        private final ShapeDataSet dataSet;
+        private final long reservedBytes;
+
+        private Admission(ShapeDataSet dataSet, long reservedBytes) {
+            this.dataSet = dataSet;
+            this.reservedBytes = reservedBytes;
         }
     }
 
@@ -153,5 +701,11 @@ public class ShapeDataSetService extends AbstractComponent {
         public final String METADATA = "metadata";
         public final String DATASET_ID = "data_set_id";
         public final String INSERT_DATE = "insert_date";
+        public final String TILE = "tile";
+        public final String PARENT = "parent";
+        public final String NUMBER = "number";
+        public final String COUNT = "count";
+        public final String LAYER = "layer";
+        public final String CELLS = "cells";
     }
 }
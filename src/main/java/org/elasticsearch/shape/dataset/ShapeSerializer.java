@@ -0,0 +1,202 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Point;
+import com.spatial4j.core.shape.Rectangle;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.*;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * Serializes {@link Shape}s into the GeoJSON style format understood by the
+ * {@code geo_shape} field type.  Coordinates can optionally be quantized to a given
+ * precision, in which case consecutive vertices that become duplicates are dropped.
+ */
+public class ShapeSerializer {
+
+    private final double scale;
+
+    /**
+     * Creates a new ShapeSerializer which quantizes coordinates to the given precision
+     *
+     * @param precision Precision, in degrees, of the serialized coordinates.  {@code 0}
+     *                  means coordinates are serialized with full precision
+     */
+    public ShapeSerializer(double precision) {
+        if (precision < 0) {
+            throw new ElasticSearchIllegalArgumentException("Precision must be positive, found [" + precision + "]");
+        }
+        if (precision == 0) {
+            this.scale = 0;
+        } else {
+            // Precisions such as 1e-6 aren't exactly representable, rounding the scale means
+            // quantized values print with the expected number of digits
+            double scale = 1 / precision;
+            this.scale = Math.abs(scale - Math.rint(scale)) < 1e-9 * scale ? Math.rint(scale) : scale;
+        }
+    }
+
+    /**
+     * Serializes the given Shape into the current object of the given builder
+     *
+     * @param shape Shape to serialize
+     * @param contentBuilder Builder to serialize the Shape into
+     * @throws IOException Can be thrown if there is a problem writing to the builder
+     */
+    public void serialize(Shape shape, XContentBuilder contentBuilder) throws IOException {
+        if (shape instanceof Point) {
+            Point point = (Point) shape;
+            contentBuilder.field(Fields.TYPE, "point").field(Fields.COORDINATES);
+            writeCoordinate(quantize(point.getX()), quantize(point.getY()), contentBuilder);
+        } else if (shape instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) shape;
+            contentBuilder.field(Fields.TYPE, "envelope").startArray(Fields.COORDINATES);
+            writeCoordinate(quantize(rectangle.getMinX()), quantize(rectangle.getMaxY()), contentBuilder);
+            writeCoordinate(quantize(rectangle.getMaxX()), quantize(rectangle.getMinY()), contentBuilder);
+            contentBuilder.endArray();
+        } else if (shape instanceof JtsGeometry) {
+            serialize(((JtsGeometry) shape).getGeom(), contentBuilder);
+        } else {
+            throw new ElasticSearchIllegalArgumentException("Shape [" + shape.getClass().getName() + "] not currently supported");
+        }
+    }
+
+    /**
+     * Serializes the given packed geometry into the current object of the given builder,
+     * reading its coordinates directly without building a {@link Shape}
+     *
+     * @param geometry Packed geometry to serialize
+     * @param contentBuilder Builder to serialize the geometry into
+     * @throws IOException Can be thrown if there is a problem writing to the builder
+     */
+    public void serialize(PackedGeometry geometry, XContentBuilder contentBuilder) throws IOException {
+        if (geometry.isPoint()) {
+            contentBuilder.field(Fields.TYPE, "point").field(Fields.COORDINATES);
+            writeCoordinate(quantize(geometry.x(0)), quantize(geometry.y(0)), contentBuilder);
+            return;
+        }
+
+        if (geometry.numParts() == 1) {
+            contentBuilder.field(Fields.TYPE, "polygon").field(Fields.COORDINATES);
+            writePolygon(geometry, 0, contentBuilder);
+        } else {
+            contentBuilder.field(Fields.TYPE, "multipolygon").startArray(Fields.COORDINATES);
+            for (int part = 0; part < geometry.numParts(); part++) {
+                writePolygon(geometry, part, contentBuilder);
+            }
+            contentBuilder.endArray();
+        }
+    }
+
+    private void serialize(Geometry geometry, XContentBuilder contentBuilder) throws IOException {
+        if (geometry instanceof Polygon) {
+            contentBuilder.field(Fields.TYPE, "polygon").field(Fields.COORDINATES);
+            writePolygon((Polygon) geometry, contentBuilder);
+        } else if (geometry instanceof MultiPolygon) {
+            contentBuilder.field(Fields.TYPE, "multipolygon").startArray(Fields.COORDINATES);
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                writePolygon((Polygon) geometry.getGeometryN(i), contentBuilder);
+            }
+            contentBuilder.endArray();
+        } else if (geometry instanceof LineString) {
+            contentBuilder.field(Fields.TYPE, "linestring").field(Fields.COORDINATES);
+            writeCoordinates(((LineString) geometry).getCoordinateSequence(), 2, contentBuilder);
+        } else if (geometry instanceof com.vividsolutions.jts.geom.Point) {
+            com.vividsolutions.jts.geom.Point point = (com.vividsolutions.jts.geom.Point) geometry;
+            contentBuilder.field(Fields.TYPE, "point").field(Fields.COORDINATES);
+            writeCoordinate(quantize(point.getX()), quantize(point.getY()), contentBuilder);
+        } else {
+            throw new ElasticSearchIllegalArgumentException("Geometry [" + geometry.getGeometryType() + "] not currently supported");
+        }
+    }
+
+    private void writePolygon(Polygon polygon, XContentBuilder contentBuilder) throws IOException {
+        contentBuilder.startArray();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence(), 4, contentBuilder);
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence(), 4, contentBuilder);
+        }
+        contentBuilder.endArray();
+    }
+
+    private void writeCoordinates(CoordinateSequence sequence, int minCoordinates, XContentBuilder contentBuilder) throws IOException {
+        int size = sequence.size();
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = sequence.getX(i);
+            ys[i] = sequence.getY(i);
+        }
+        writeCoordinates(xs, ys, size, minCoordinates, contentBuilder);
+    }
+
+    private void writeCoordinates(PackedGeometry geometry, int ring, int minCoordinates, XContentBuilder contentBuilder) throws IOException {
+        int start = geometry.ringStart(ring);
+        int size = geometry.ringStart(ring + 1) - start;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = geometry.x(start + i);
+            ys[i] = geometry.y(start + i);
+        }
+        writeCoordinates(xs, ys, size, minCoordinates, contentBuilder);
+    }
+
+    private void writePolygon(PackedGeometry geometry, int part, XContentBuilder contentBuilder) throws IOException {
+        contentBuilder.startArray();
+        for (int ring = geometry.partStart(part); ring < geometry.partStart(part + 1); ring++) {
+            writeCoordinates(geometry, ring, 4, contentBuilder);
+        }
+        contentBuilder.endArray();
+    }
+
+    /**
+     * Writes the given coordinates, dropping consecutive duplicates unless doing so would
+     * leave fewer than the given minimum number of coordinates
+     *
+     * @param xs X values of the coordinates, quantized in place
+     * @param ys Y values of the coordinates, quantized in place
+     * @param size Number of coordinates
+     * @param minCoordinates Minimum number of coordinates that must be written
+     * @param contentBuilder Builder to write the coordinates to
+     * @throws IOException Can be thrown if there is a problem writing to the builder
+     */
+    private void writeCoordinates(double[] xs, double[] ys, int size, int minCoordinates, XContentBuilder contentBuilder) throws IOException {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            xs[i] = quantize(xs[i]);
+            ys[i] = quantize(ys[i]);
+            if (i == 0 || xs[i] != xs[i - 1] || ys[i] != ys[i - 1]) {
+                count++;
+            }
+        }
+
+        // Collapsed rings are left intact so the shape keeps its structure
+        boolean dedup = count >= Math.min(minCoordinates, size);
+
+        contentBuilder.startArray();
+        for (int i = 0; i < size; i++) {
+            if (dedup && i > 0 && xs[i] == xs[i - 1] && ys[i] == ys[i - 1]) {
+                continue;
+            }
+            writeCoordinate(xs[i], ys[i], contentBuilder);
+        }
+        contentBuilder.endArray();
+    }
+
+    private void writeCoordinate(double x, double y, XContentBuilder contentBuilder) throws IOException {
+        contentBuilder.startArray().value(x).value(y).endArray();
+    }
+
+    private double quantize(double value) {
+        return scale == 0 ? value : Math.round(value * scale) / scale;
+    }
+
+    private static interface Fields {
+        String TYPE = "type";
+        String COORDINATES = "coordinates";
+    }
+}
@@ -0,0 +1,143 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.exception.InvalidShapeException;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.TopologyException;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Splits Shapes with more than a maximum number of vertices into tiles, by clipping
+ * them against a regular grid over their bounding box.  Tiles that still exceed the
+ * maximum are split again, so every tile is bounded in size.  Shapes whose clipping fails
+ * can be indexed whole instead, see {@link #tile(Shape, String, GeometryValidation)}.
+ */
+public class ShapeTiler {
+
+    private static final int MAX_DEPTH = 8;
+
+    private final int maxVertices;
+
+    /**
+     * Creates a new ShapeTiler which splits Shapes with more than the given number of vertices
+     *
+     * @param maxVertices Maximum number of vertices a Shape can have before it is split
+     */
+    public ShapeTiler(int maxVertices) {
+        if (maxVertices < 4) {
+            throw new ElasticSearchIllegalArgumentException("Maximum vertices must be at least 4, found [" + maxVertices + "]");
+        }
+        this.maxVertices = maxVertices;
+    }
+
+    /**
+     * Splits the given Shape into tiles if it has more than the maximum number of vertices
+     *
+     * @param shape Shape to split
+     * @return Tiles of the Shape, or a List containing only the Shape if it does not need
+     *         to be split
+     */
+    public List<Shape> tile(Shape shape) throws TopologyException, InvalidShapeException {
+        if (!(shape instanceof JtsGeometry) || ((JtsGeometry) shape).getGeom().getNumPoints() <= maxVertices) {
+            return Collections.singletonList(shape);
+        }
+
+        List<Geometry> tiles = newArrayList();
+        tile(((JtsGeometry) shape).getGeom(), 0, tiles);
+
+        List<Shape> shapes = newArrayList();
+        for (Geometry tile : tiles) {
+            shapes.add(new JtsGeometry(tile, GeoShapeConstants.SPATIAL_CONTEXT, true));
+        }
+        return shapes;
+    }
+
+    /**
+     * Splits the given Shape into tiles as {@link #tile(Shape)} does, falling back to the
+     * whole Shape if JTS fails to clip it or a tile is not a valid Shape
+     *
+     * @param shape Shape to split
+     * @param name Name of the record of the Shape
+     * @param validation Validation counting the Shapes which could not be tiled
+     * @return Tiles of the Shape, or a List containing only the Shape if it does not need
+     *         to be split or could not be
+     */
+    public List<Shape> tile(Shape shape, String name, GeometryValidation validation) {
+        try {
+            return tile(shape);
+        } catch (TopologyException te) {
+            validation.onUntiled(name, te.getMessage());
+        } catch (InvalidShapeException ise) {
+            validation.onUntiled(name, ise.getMessage());
+        }
+        return Collections.singletonList(shape);
+    }
+
+    private void tile(Geometry geometry, int depth, List<Geometry> tiles) {
+        if (geometry.getNumPoints() <= maxVertices || depth == MAX_DEPTH) {
+            tiles.add(geometry);
+            return;
+        }
+
+        int gridSize = Math.max(2, (int) Math.ceil(Math.sqrt((double) geometry.getNumPoints() / maxVertices)));
+        Envelope envelope = geometry.getEnvelopeInternal();
+        double cellWidth = envelope.getWidth() / gridSize;
+        double cellHeight = envelope.getHeight() / gridSize;
+
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                double minX = envelope.getMinX() + x * cellWidth;
+                double minY = envelope.getMinY() + y * cellHeight;
+                // Use the envelope edges for the last cells so rounding never drops a sliver
+                double maxX = x == gridSize - 1 ? envelope.getMaxX() : minX + cellWidth;
+                double maxY = y == gridSize - 1 ? envelope.getMaxY() : minY + cellHeight;
+
+                Geometry cell = GeoShapeConstants.GEOMETRY_FACTORY.toGeometry(new Envelope(minX, maxX, minY, maxY));
+                Geometry clipped = polygonal(clip(geometry, cell));
+                if (clipped != null) {
+                    tile(clipped, depth + 1, tiles);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Intersection of the given Geometry with a cell of the grid
+     * @throws TopologyException Thrown if JTS cannot compute the intersection, such as for
+     *         nearly coincident edges
+     */
+    Geometry clip(Geometry geometry, Geometry cell) throws TopologyException {
+        return geometry.intersection(cell);
+    }
+
+    /**
+     * Extracts the Polygons from the given Geometry, discarding any lines or points produced
+     * where the Geometry only touches a grid cell
+     *
+     * @param geometry Geometry to extract the Polygons from
+     * @return Polygon or MultiPolygon, or {@code null} if the Geometry has no Polygons
+     */
+    private static Geometry polygonal(Geometry geometry) {
+        List<Polygon> polygons = newArrayList();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon && !part.isEmpty()) {
+                polygons.add((Polygon) part);
+            }
+        }
+
+        if (polygons.isEmpty()) {
+            return null;
+        }
+        return polygons.size() == 1 ? polygons.get(0) :
+                GeoShapeConstants.GEOMETRY_FACTORY.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+    }
+}
@@ -0,0 +1,27 @@
+package org.elasticsearch.shape.dataset;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * {@link ShapeDataSet} whose records can be retrieved in ranges, allowing different
+ * slices of the set to be processed independently
+ */
+public interface SliceableShapeDataSet extends ShapeDataSet {
+
+    /**
+     * @return Number of records contained in the set
+     * @throws IOException Can be thrown by implementations when they encounter an IO problem
+     */
+    int numRecords() throws IOException;
+
+    /**
+     * Returns a new Iterator to retrieve the {@link ShapeData} in the given range of records
+     *
+     * @param from Index of the first record to retrieve (inclusive)
+     * @param to Index of the last record to retrieve (exclusive)
+     * @return Iterator for retrieving the data in the range
+     * @throws IOException Can be thrown by implementations when they encounter an IO problem
+     */
+    Iterator<ShapeData> shapeData(int from, int to) throws IOException;
+}
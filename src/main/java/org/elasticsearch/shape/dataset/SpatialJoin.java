@@ -0,0 +1,347 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ElasticSearchInterruptedException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.search.geo.GeoHashUtils;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+
+/**
+ * Tags the documents of an index with the Shape of a {@link ShapeDataSet} containing their
+ * point, in a single streaming pass.  The Shapes are held in a {@link ReverseGeocoder}, and
+ * the index is scanned in one slice per shard, several slices at a time.  The point of each
+ * document is located in the ReverseGeocoder, and the name and chosen attributes of the
+ * first Shape containing it are written back to the document in bulks.
+ * <p>
+ * Documents are written back whole, with the version they were scanned at, so documents
+ * changed while the join runs are left alone and counted as failed rather than overwritten.
+ * Documents whose point is outside every Shape are left unchanged.
+ * </p>
+ */
+public class SpatialJoin {
+
+    private static final String SHARDS_PREFERENCE = "_shards:";
+
+    private final Client client;
+    private final ClusterService clusterService;
+    private final ThreadPool threadPool;
+    private final int pageSize;
+    private final TimeValue keepAlive;
+    private final int batchSize;
+    private final int concurrency;
+
+    /**
+     * Creates a new SpatialJoin
+     *
+     * @param client Client used to scan and write back the documents
+     * @param clusterService ClusterService used to find the shards of the index
+     * @param threadPool ThreadPool the slices are scanned on
+     * @param pageSize Number of documents retrieved from the shard per scroll request
+     * @param keepAlive How long the scroll of a slice is kept alive between requests
+     * @param batchSize Number of documents written back per bulk
+     * @param concurrency Number of slices scanned at the same time
+     */
+    public SpatialJoin(
+            Client client,
+            ClusterService clusterService,
+            ThreadPool threadPool,
+            int pageSize,
+            TimeValue keepAlive,
+            int batchSize,
+            int concurrency) {
+        this.client = client;
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+        this.batchSize = Math.max(1, batchSize);
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Tags the documents of the given index with the Shape containing their point, blocking
+     * until every slice has been joined
+     *
+     * @param geocoder ReverseGeocoder over the Shapes to join with
+     * @param index Index, or alias, of the documents to tag
+     * @param pointField Path of the field holding the point of each document
+     * @param targetField Field the Shape is written to
+     * @param fields Attributes of the Shape written along with its name
+     * @return Counts of the documents joined
+     */
+    public Result join(
+            final ReverseGeocoder geocoder,
+            String index,
+            final String pointField,
+            final String targetField,
+            final Set<String> fields) {
+        MetaData metaData = clusterService.state().metaData();
+        final List<Slice> slices = newArrayList();
+        for (String concreteIndex : metaData.concreteIndices(new String[] {index})) {
+            for (int shard = 0; shard < metaData.index(concreteIndex).numberOfShards(); shard++) {
+                slices.add(new Slice(concreteIndex, shard));
+            }
+        }
+
+        final Result result = new Result();
+        final AtomicInteger nextSlice = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        int numWorkers = Math.min(concurrency, slices.size());
+        final CountDownLatch latch = new CountDownLatch(numWorkers);
+
+        for (int i = 0; i < numWorkers; i++) {
+            threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        int slice;
+                        while (failure.get() == null && (slice = nextSlice.getAndIncrement()) < slices.size()) {
+                            joinSlice(slices.get(slice), geocoder, pointField, targetField, fields, result);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchInterruptedException("Interrupted while joining [" + index + "]", ie);
+        }
+        if (failure.get() != null) {
+            throw new ElasticSearchException("Failed to join [" + index + "]", failure.get());
+        }
+        return result;
+    }
+
+    private void joinSlice(
+            Slice slice,
+            ReverseGeocoder geocoder,
+            String pointField,
+            String targetField,
+            Set<String> fields,
+            Result result) {
+        SearchResponse response = client.prepareSearch(slice.index)
+                .setSearchType(SearchType.SCAN)
+                .setPreference(SHARDS_PREFERENCE + slice.shard)
+                .setQuery(matchAllQuery())
+                .addFields("_source", "_routing", "_parent")
+                .setVersion(true)
+                .setScroll(keepAlive)
+                .setSize(pageSize)
+                .execute().actionGet();
+
+        List<IndexRequest> batch = newArrayList();
+        while (true) {
+            response = client.prepareSearchScroll(response.scrollId())
+                    .setScroll(keepAlive)
+                    .execute().actionGet();
+            if (response.hits().hits().length == 0) {
+                break;
+            }
+
+            for (SearchHit hit : response.hits().hits()) {
+                result.scanned.incrementAndGet();
+                Map<String, Object> source = hit.sourceAsMap();
+                double[] point = point(XContentMapValues.extractValue(pointField, source));
+                if (point == null) {
+                    continue;
+                }
+                List<ShapeData> matches = geocoder.locate(point[0], point[1]);
+                if (matches.isEmpty()) {
+                    continue;
+                }
+                result.matched.incrementAndGet();
+
+                source.put(targetField, tag(matches.get(0), fields));
+                IndexRequest indexRequest = new IndexRequest(hit.index(), hit.type(), hit.id())
+                        .source(source)
+                        .version(hit.version())
+                        .routing(fieldValue(hit, "_routing"))
+                        .parent(fieldValue(hit, "_parent"));
+                batch.add(indexRequest);
+                if (batch.size() >= batchSize) {
+                    write(batch, result);
+                }
+            }
+        }
+        write(batch, result);
+    }
+
+    private void write(List<IndexRequest> batch, Result result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (IndexRequest indexRequest : batch) {
+            bulkRequest.add(indexRequest);
+        }
+        BulkResponse response = bulkRequest.execute().actionGet();
+        for (BulkItemResponse item : response) {
+            if (item.failed()) {
+                result.failed.incrementAndGet();
+            } else {
+                result.updated.incrementAndGet();
+            }
+        }
+        batch.clear();
+    }
+
+    private static String fieldValue(SearchHit hit, String field) {
+        SearchHitField hitField = hit.field(field);
+        return hitField != null && hitField.value() != null ? hitField.value().toString() : null;
+    }
+
+    /**
+     * Reads the point of a document from the value of its point field, which is either a
+     * {@code geo_point} given as a {@code [lon, lat]} array, a {@code "lat,lon"} string, a
+     * geohash or an object with {@code lat} and {@code lon}, or a GeoJSON style point as
+     * indexed in a {@code geo_shape} field
+     *
+     * @param value Value of the point field
+     * @return Longitude and latitude of the point, or {@code null} if the value is not a point
+     */
+    @SuppressWarnings("unchecked")
+    static double[] point(Object value) {
+        if (value instanceof List) {
+            List<Object> lonLat = (List<Object>) value;
+            if (lonLat.size() == 2 && lonLat.get(0) instanceof Number && lonLat.get(1) instanceof Number) {
+                return new double[] {((Number) lonLat.get(0)).doubleValue(), ((Number) lonLat.get(1)).doubleValue()};
+            }
+        } else if (value instanceof Map) {
+            Map<String, Object> object = (Map<String, Object>) value;
+            if (object.containsKey("lat") && object.containsKey("lon")) {
+                return new double[] {
+                        XContentMapValues.nodeDoubleValue(object.get("lon")),
+                        XContentMapValues.nodeDoubleValue(object.get("lat"))};
+            } else if ("point".equalsIgnoreCase(String.valueOf(object.get("type")))) {
+                return point(object.get("coordinates"));
+            }
+        } else if (value instanceof String) {
+            String string = ((String) value).trim();
+            int comma = string.indexOf(',');
+            try {
+                if (comma > 0) {
+                    return new double[] {
+                            Double.parseDouble(string.substring(comma + 1).trim()),
+                            Double.parseDouble(string.substring(0, comma).trim())};
+                }
+                double[] latLon = GeoHashUtils.decode(string);
+                return new double[] {latLon[1], latLon[0]};
+            } catch (RuntimeException e) {
+                // Neither coordinates nor a geohash
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the value written to the target field of a document for the given Shape
+     *
+     * @param shapeData Shape containing the point of the document
+     * @param fields Attributes of the Shape to write along with its name
+     * @return Name, layer and chosen attributes of the Shape
+     */
+    static Map<String, Object> tag(ShapeData shapeData, Set<String> fields) {
+        Map<String, Object> tag = newLinkedHashMap();
+        tag.put(Fields.NAME, shapeData.name());
+        if (shapeData.layer() != null) {
+            tag.put(Fields.LAYER, shapeData.layer());
+        }
+        for (Map.Entry<String, Object> entry : shapeData.data().entrySet()) {
+            if (fields.contains(Fields.ALL) || fields.contains(entry.getKey())) {
+                tag.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Counts of the documents of a join
+     */
+    public static class Result {
+
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong matched = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        /**
+         * @return Number of documents scanned
+         */
+        public long scanned() {
+            return scanned.get();
+        }
+
+        /**
+         * @return Number of documents whose point is in a Shape
+         */
+        public long matched() {
+            return matched.get();
+        }
+
+        /**
+         * @return Number of documents written back
+         */
+        public long updated() {
+            return updated.get();
+        }
+
+        /**
+         * @return Number of documents that failed to be written back, including those
+         *         changed since they were scanned
+         */
+        public long failed() {
+            return failed.get();
+        }
+    }
+
+    private static class Slice {
+
+        private final String index;
+        private final int shard;
+
+        private Slice(String index, int shard) {
+            this.index = index;
+            this.shard = shard;
+        }
+    }
+
+    private static interface Fields {
+        String NAME = "name";
+        String LAYER = "layer";
+        String ALL = "*";
+    }
+}
@@ -0,0 +1,394 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Point;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Topology pass over the polygons of a {@link ShapeDataSet}, which finds the arcs shared by
+ * neighbouring polygons so that each is stored once in an {@link ArcStore}.  Boundary
+ * DataSets, such as countries or administrative areas, otherwise hold every shared border
+ * twice, once for each neighbour.
+ * <p>
+ * A vertex is a junction when the vertices either side of it differ between the rings
+ * passing through it.  Rings are cut into arcs at their junctions, and arcs with the same
+ * coordinates in either direction are stored once.  Rings without junctions are stored as a
+ * single arc starting from their smallest vertex, so that rings shared whole, such as the
+ * shell of an enclave and the hole it fills, are stored once too.  Each ring records which
+ * of its vertices came first, so rings are rebuilt with exactly their original coordinates.
+ * </p>
+ * <p>
+ * Junctions can only be found once every ring has been added, so the encoder holds the
+ * coordinates of the whole DataSet until it has been written.
+ * </p>
+ */
+public class TopologyEncoder {
+
+    private final List<Object> records = newArrayList();
+    private final Map<Vertex, Neighbours> neighbours = newHashMap();
+    private final Map<Arc, Integer> arcs = newLinkedHashMap();
+
+    private int numArcCoordinates;
+    private boolean cut;
+
+    /**
+     * Adds the Shape of the next record
+     *
+     * @param shape Shape to add, which must be a point or polygonal
+     * @return Number of the record the Shape was added as
+     */
+    public int add(Shape shape) {
+        if (cut) {
+            throw new ElasticSearchIllegalStateException("Shapes cannot be added once the arcs have been cut");
+        }
+
+        if (shape instanceof Point) {
+            Point point = (Point) shape;
+            records.add(new double[]{point.getX(), point.getY()});
+            return records.size() - 1;
+        } else if (!(shape instanceof JtsGeometry)) {
+            throw new ElasticSearchIllegalArgumentException("Shape [" + shape.getClass().getName() + "] not currently supported");
+        }
+
+        Geometry geometry = ((JtsGeometry) shape).getGeom();
+        PolygonsRecord record = new PolygonsRecord();
+        record.parts = new int[geometry.getNumGeometries()];
+        List<double[]> rings = newArrayList();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (!(part instanceof Polygon)) {
+                throw new ElasticSearchIllegalArgumentException("Geometry [" + part.getGeometryType() + "] not currently supported");
+            }
+            Polygon polygon = (Polygon) part;
+            record.parts[i] = rings.size();
+            rings.add(addRing(polygon.getExteriorRing()));
+            for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                rings.add(addRing(polygon.getInteriorRingN(j)));
+            }
+        }
+        record.rings = rings.toArray(new double[rings.size()][]);
+        record.numCoordinates = geometry.getNumPoints();
+        records.add(record);
+        return records.size() - 1;
+    }
+
+    /**
+     * Cuts the rings of every Shape added into arcs, storing each distinct arc once.  No
+     * further Shapes can be added afterwards.
+     */
+    public void cutArcs() {
+        if (cut) {
+            return;
+        }
+        cut = true;
+
+        for (Object record : records) {
+            if (!(record instanceof PolygonsRecord)) {
+                continue;
+            }
+            PolygonsRecord polygonsRecord = (PolygonsRecord) record;
+            polygonsRecord.rotations = new int[polygonsRecord.rings.length];
+            polygonsRecord.arcs = new int[polygonsRecord.rings.length][];
+            for (int ring = 0; ring < polygonsRecord.rings.length; ring++) {
+                cutRing(polygonsRecord, ring);
+            }
+            // The coordinates are held by the arcs from now on
+            polygonsRecord.rings = null;
+        }
+        neighbours.clear();
+    }
+
+    /**
+     * @return Number of distinct arcs the rings were cut into
+     */
+    public int numArcs() {
+        return arcs.size();
+    }
+
+    /**
+     * @return Number of coordinates across all the distinct arcs
+     */
+    public int numArcCoordinates() {
+        return numArcCoordinates;
+    }
+
+    /**
+     * Writes the Shape of the given record as references to its arcs, in the format read
+     * by {@link ArcStore#decode(java.nio.ByteBuffer, int)}
+     *
+     * @param record Number of the record to write
+     * @param out Stream to write the record to
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    public void writeShape(int record, DataOutputStream out) throws IOException {
+        cutArcs();
+
+        Object shape = records.get(record);
+        if (shape instanceof double[]) {
+            double[] point = (double[]) shape;
+            out.writeByte(PackedGeometry.POINT);
+            out.writeDouble(point[0]);
+            out.writeDouble(point[1]);
+            return;
+        }
+
+        PolygonsRecord polygonsRecord = (PolygonsRecord) shape;
+        out.writeByte(ArcStore.ARCS);
+        out.writeInt(polygonsRecord.parts.length);
+        out.writeInt(polygonsRecord.arcs.length);
+        out.writeInt(polygonsRecord.numCoordinates);
+        for (int part : polygonsRecord.parts) {
+            out.writeInt(part);
+        }
+        for (int ring = 0; ring < polygonsRecord.arcs.length; ring++) {
+            out.writeInt(polygonsRecord.rotations[ring]);
+            out.writeInt(polygonsRecord.arcs[ring].length);
+            for (int arc : polygonsRecord.arcs[ring]) {
+                out.writeInt(arc);
+            }
+        }
+    }
+
+    /**
+     * Writes the distinct arcs, in the format read by {@link ArcStore}
+     *
+     * @param out Stream to write the arcs to
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    public void writeArcs(DataOutputStream out) throws IOException {
+        cutArcs();
+
+        out.writeInt(arcs.size());
+        int coordinates = 0;
+        for (Arc arc : arcs.keySet()) {
+            out.writeInt(coordinates);
+            coordinates += arc.coordinates.length / 2;
+        }
+        out.writeInt(coordinates);
+
+        for (Arc arc : arcs.keySet()) {
+            for (double value : arc.coordinates) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    /**
+     * Records the neighbours of each vertex of the ring, marking those vertices whose
+     * neighbours differ from those seen in other rings as junctions
+     *
+     * @param ring Ring to add
+     * @return Packed x and y values of the vertices of the ring, without the closing vertex
+     */
+    private double[] addRing(LineString ring) {
+        CoordinateSequence sequence = ring.getCoordinateSequence();
+        int numVertices = sequence.size() - 1;
+        double[] coordinates = new double[numVertices * 2];
+        for (int i = 0; i < numVertices; i++) {
+            coordinates[i * 2] = sequence.getX(i);
+            coordinates[i * 2 + 1] = sequence.getY(i);
+        }
+
+        for (int i = 0; i < numVertices; i++) {
+            Vertex vertex = vertex(coordinates, i);
+            Vertex previous = vertex(coordinates, (i + numVertices - 1) % numVertices);
+            Vertex next = vertex(coordinates, (i + 1) % numVertices);
+
+            Neighbours existing = neighbours.get(vertex);
+            if (existing == null) {
+                neighbours.put(vertex, new Neighbours(previous, next));
+            } else if (!existing.junction && !existing.matches(previous, next)) {
+                existing.junction = true;
+            }
+        }
+        return coordinates;
+    }
+
+    private void cutRing(PolygonsRecord record, int ring) {
+        double[] coordinates = record.rings[ring];
+        int numVertices = coordinates.length / 2;
+
+        List<Integer> junctions = newArrayList();
+        for (int i = 0; i < numVertices; i++) {
+            if (neighbours.get(vertex(coordinates, i)).junction) {
+                junctions.add(i);
+            }
+        }
+        if (junctions.isEmpty()) {
+            junctions.add(smallestVertex(coordinates));
+        }
+
+        // The rebuilt ring starts at the first junction, so note where the original start lies
+        int first = junctions.get(0);
+        record.rotations[ring] = (numVertices - first) % numVertices;
+
+        int[] references = new int[junctions.size()];
+        for (int i = 0; i < junctions.size(); i++) {
+            int from = junctions.get(i);
+            int to = i + 1 < junctions.size() ? junctions.get(i + 1) : first + numVertices;
+
+            double[] arc = new double[(to - from + 1) * 2];
+            for (int j = from; j <= to; j++) {
+                int vertex = j % numVertices;
+                arc[(j - from) * 2] = coordinates[vertex * 2];
+                arc[(j - from) * 2 + 1] = coordinates[vertex * 2 + 1];
+            }
+            references[i] = reference(arc);
+        }
+        record.arcs[ring] = references;
+    }
+
+    /**
+     * Finds the stored arc with the same coordinates as the given arc, in either direction,
+     * storing the arc if there is none
+     *
+     * @param coordinates Packed x and y values of the coordinates of the arc
+     * @return Index of the arc, or its bitwise complement if the stored arc runs in the
+     *         opposite direction
+     */
+    private int reference(double[] coordinates) {
+        double[] reversed = reverse(coordinates);
+        boolean forward = compare(coordinates, reversed) <= 0;
+        Arc arc = new Arc(forward ? coordinates : reversed);
+
+        Integer index = arcs.get(arc);
+        if (index == null) {
+            index = arcs.size();
+            arcs.put(arc, index);
+            numArcCoordinates += coordinates.length / 2;
+        }
+        return forward ? index : ~index;
+    }
+
+    private static Vertex vertex(double[] coordinates, int vertex) {
+        return new Vertex(coordinates[vertex * 2], coordinates[vertex * 2 + 1]);
+    }
+
+    private static int smallestVertex(double[] coordinates) {
+        int smallest = 0;
+        for (int i = 1; i < coordinates.length / 2; i++) {
+            if (compareVertex(coordinates, i, coordinates, smallest) < 0) {
+                smallest = i;
+            }
+        }
+        return smallest;
+    }
+
+    private static double[] reverse(double[] coordinates) {
+        int numVertices = coordinates.length / 2;
+        double[] reversed = new double[coordinates.length];
+        for (int i = 0; i < numVertices; i++) {
+            reversed[i * 2] = coordinates[(numVertices - 1 - i) * 2];
+            reversed[i * 2 + 1] = coordinates[(numVertices - 1 - i) * 2 + 1];
+        }
+        return reversed;
+    }
+
+    private static int compare(double[] first, double[] second) {
+        for (int i = 0; i < first.length / 2; i++) {
+            int comparison = compareVertex(first, i, second, i);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareVertex(double[] first, int firstVertex, double[] second, int secondVertex) {
+        int comparison = Double.compare(first[firstVertex * 2], second[secondVertex * 2]);
+        return comparison != 0 ? comparison : Double.compare(first[firstVertex * 2 + 1], second[secondVertex * 2 + 1]);
+    }
+
+    /**
+     * Rings of a polygonal Shape, replaced by arc references once the arcs are cut
+     */
+    private static class PolygonsRecord {
+        int[] parts;
+        double[][] rings;
+        int numCoordinates;
+        int[] rotations;
+        int[][] arcs;
+    }
+
+    private static class Vertex {
+
+        private final double x;
+        private final double y;
+
+        Vertex(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Vertex)) {
+                return false;
+            }
+            Vertex vertex = (Vertex) o;
+            return Double.compare(x, vertex.x) == 0 && Double.compare(y, vertex.y) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+            return (int) (bits ^ (bits >>> 32));
+        }
+    }
+
+    /**
+     * Vertices either side of a vertex, in no particular order
+     */
+    private static class Neighbours {
+
+        private final Vertex first;
+        private final Vertex second;
+        private boolean junction;
+
+        Neighbours(Vertex first, Vertex second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        boolean matches(Vertex previous, Vertex next) {
+            return (first.equals(previous) && second.equals(next)) || (first.equals(next) && second.equals(previous));
+        }
+    }
+
+    private static class Arc {
+
+        private final double[] coordinates;
+        private final int hashCode;
+
+        Arc(double[] coordinates) {
+            this.coordinates = coordinates;
+            this.hashCode = Arrays.hashCode(coordinates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Arc && Arrays.equals(coordinates, ((Arc) o).coordinates);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
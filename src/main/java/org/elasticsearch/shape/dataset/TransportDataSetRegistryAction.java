@@ -0,0 +1,539 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.io.stream.VoidStreamable;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.gateway.GatewayService;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+
+/**
+ * Registers and removes {@link ShapeDataSet}s at runtime.  The {@link DataSetDefinition}s
+ * of the DataSets are persisted as documents of an index, so they survive restarts, and
+ * are synced to the {@link ShapeDataSetService} of every node whenever one is registered
+ * or removed.  Each node also loads the definitions once the index is available after it
+ * starts, and again whenever it joins a new master.
+ * <p>
+ * Every register and remove bumps the version of a document of its own, which versions the
+ * snapshots of the definitions that are synced.  Nodes ignore snapshots older than the one
+ * they applied last, so syncs that cross on the wire cannot bring back stale definitions.
+ * Failed syncs are retried after {@code shape.dataset.registry.retry_interval}, and the
+ * master syncs every node again whenever nodes join.
+ * </p>
+ * <p>
+ * DataSets registered in code are never replaced or removed.  When warm-up is enabled, the
+ * files of registered DataSets are downloaded and their headers read in the background, so
+ * the first ingest of a DataSet does not pay for fetching it.
+ * </p>
+ */
+public class TransportDataSetRegistryAction extends AbstractComponent implements ClusterStateListener {
+
+    static final String INDEX = ".shape_datasets";
+    static final String TYPE = "definition";
+    static final String VERSION_TYPE = "version";
+    static final String VERSION_ID = "definitions";
+
+    private static final String SYNC_ACTION = "shapedataset/registry/sync";
+
+    private final Client client;
+    private final ClusterService clusterService;
+    private final TransportService transportService;
+    private final ThreadPool threadPool;
+    private final ShapeDataSetService dataSetService;
+    private final ReverseGeocodingService geocodingService;
+
+    private final boolean warmUp;
+    private final int pageSize;
+    private final TimeValue keepAlive;
+    private final TimeValue retryInterval;
+
+    private final AtomicBoolean loaded = new AtomicBoolean();
+    private final AtomicBoolean resyncScheduled = new AtomicBoolean();
+    // Definitions of the DataSets registered through this action, and the version of the
+    // snapshot they were applied from, guarded by this
+    private Map<String, DataSetDefinition> definitions = newHashMap();
+    private long version = -1;
+
+    @Inject
+    public TransportDataSetRegistryAction(
+            Settings settings,
+            Client client,
+            ClusterService clusterService,
+            TransportService transportService,
+            ThreadPool threadPool,
+            ShapeDataSetService dataSetService,
+            ReverseGeocodingService geocodingService) {
+        super(settings);
+        this.client = client;
+        this.clusterService = clusterService;
+        this.transportService = transportService;
+        this.threadPool = threadPool;
+        this.dataSetService = dataSetService;
+        this.geocodingService = geocodingService;
+
+        this.warmUp = componentSettings.getAsBoolean("registry.warm_up", false);
+        this.pageSize = componentSettings.getAsInt("registry.page_size", 100);
+        this.keepAlive = componentSettings.getAsTime("registry.keep_alive", TimeValue.timeValueMinutes(1));
+        this.retryInterval = componentSettings.getAsTime("registry.retry_interval", TimeValue.timeValueSeconds(30));
+
+        transportService.registerHandler(SYNC_ACTION, new SyncRequestHandler());
+        clusterService.add(this);
+    }
+
+    /**
+     * Registers the DataSet of the given definition on every node, replacing the DataSet of
+     * any definition previously registered with the same ID
+     *
+     * @param definition Definition of the DataSet to register
+     * @param listener Listener told the number of nodes the DataSet was registered on
+     */
+    public void register(final DataSetDefinition definition, final ActionListener<Integer> listener) {
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (builtIn(definition.id())) {
+                        throw new ElasticSearchIllegalArgumentException("ShapeDataSet [" + definition.id() +
+                                "] is built in and cannot be replaced");
+                    }
+                    // Fails on a bad packed file before the definition is persisted
+                    definition.dataSet();
+
+                    XContentBuilder source = XContentFactory.jsonBuilder().startObject();
+                    definition.toXContent(source);
+                    source.endObject();
+                    client.prepareIndex(INDEX, TYPE, definition.id())
+                            .setSource(source)
+                            .setRefresh(true)
+                            .execute().actionGet();
+                    bumpVersion();
+
+                    sync(resyncOnFailure(listener));
+                } catch (Exception e) {
+                    listener.onFailure(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the DataSet with the given ID from every node
+     *
+     * @param id ID of the DataSet to remove
+     * @param listener Listener told the number of nodes the DataSet was removed from
+     */
+    public void remove(final String id, final ActionListener<Integer> listener) {
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (builtIn(id)) {
+                        throw new ElasticSearchIllegalArgumentException("ShapeDataSet [" + id +
+                                "] is built in and cannot be removed");
+                    }
+
+                    DeleteResponse response = null;
+                    if (clusterService.state().metaData().hasIndex(INDEX)) {
+                        response = client.prepareDelete(INDEX, TYPE, id).setRefresh(true).execute().actionGet();
+                    }
+                    if (response == null || response.notFound()) {
+                        throw new ElasticSearchIllegalArgumentException("ShapeDataSet with ID [" + id + "] not found");
+                    }
+                    bumpVersion();
+
+                    sync(resyncOnFailure(listener));
+                } catch (Exception e) {
+                    listener.onFailure(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the registered definitions once the state of the cluster has been recovered and
+     * the primaries of the index holding them are active, and again after this node joins a
+     * new master, as it may have missed syncs while it was away.  The master syncs every node
+     * when nodes join.
+     *
+     * @param event Event describing the change to the cluster state
+     */
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        if (event.nodesDelta().masterNodeChanged()) {
+            loaded.set(false);
+        }
+        if (event.localNodeMaster() && event.nodesAdded() && loaded.get()) {
+            resync();
+        }
+        if (loaded.get()) {
+            return;
+        }
+
+        ClusterState state = event.state();
+        if (state.blocks().hasGlobalBlock(GatewayService.STATE_NOT_RECOVERED_BLOCK)) {
+            return;
+        }
+        if (state.metaData().hasIndex(INDEX)) {
+            IndexRoutingTable routingTable = state.routingTable().index(INDEX);
+            if (routingTable == null || !routingTable.allPrimaryShardsActive()) {
+                return;
+            }
+        }
+
+        if (!loaded.compareAndSet(false, true)) {
+            return;
+        }
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Snapshot snapshot = load();
+                    apply(snapshot.version, snapshot.definitions);
+                    for (ShapeDataSet dataSet : dataSetService.dataSets()) {
+                        warmUp(dataSet);
+                    }
+                } catch (Exception e) {
+                    // Retried on the next change to the cluster state
+                    loaded.set(false);
+                    logger.warn("Failed to load registered ShapeDataSets", e);
+                }
+            }
+        });
+    }
+
+    private synchronized boolean builtIn(String id) {
+        return dataSetService.dataSet(id) != null && !definitions.containsKey(id);
+    }
+
+    /**
+     * Bumps the version of the definitions after one was registered or removed, so that the
+     * snapshots loaded from then on supersede the ones loaded before
+     */
+    private void bumpVersion() throws IOException {
+        client.prepareIndex(INDEX, VERSION_TYPE, VERSION_ID)
+                .setSource(XContentFactory.jsonBuilder().startObject().endObject())
+                .setRefresh(true)
+                .execute().actionGet();
+    }
+
+    /**
+     * Scrolls every registered definition, along with the version of the definitions
+     */
+    private Snapshot load() {
+        Snapshot snapshot = new Snapshot();
+        if (!clusterService.state().metaData().hasIndex(INDEX)) {
+            return snapshot;
+        }
+
+        SearchResponse response = client.prepareSearch(INDEX)
+                .setTypes(TYPE, VERSION_TYPE)
+                .setSearchType(SearchType.SCAN)
+                .setQuery(matchAllQuery())
+                .setVersion(true)
+                .setScroll(keepAlive)
+                .setSize(pageSize)
+                .execute().actionGet();
+        while (true) {
+            response = client.prepareSearchScroll(response.scrollId())
+                    .setScroll(keepAlive)
+                    .execute().actionGet();
+            if (response.hits().hits().length == 0) {
+                return snapshot;
+            }
+            for (SearchHit hit : response.hits().hits()) {
+                if (hit.type().equals(VERSION_TYPE)) {
+                    snapshot.version = hit.version();
+                } else {
+                    snapshot.definitions.add(DataSetDefinition.fromMap(hit.sourceAsMap()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps the given listener so that a failed sync is retried until every node has the
+     * definitions, even though the listener is told of the failure
+     */
+    private ActionListener<Integer> resyncOnFailure(final ActionListener<Integer> listener) {
+        return new ActionListener<Integer>() {
+
+            @Override
+            public void onResponse(Integer numNodes) {
+                listener.onResponse(numNodes);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                scheduleResync();
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    private void scheduleResync() {
+        if (!resyncScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        threadPool.schedule(retryInterval, ThreadPool.Names.GENERIC, new Runnable() {
+
+            @Override
+            public void run() {
+                resyncScheduled.set(false);
+                resync();
+            }
+        });
+    }
+
+    /**
+     * Syncs every node in the background, retrying after a failure
+     */
+    private void resync() {
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    sync(new ActionListener<Integer>() {
+
+                        @Override
+                        public void onResponse(Integer numNodes) {
+                            logger.debug("Synced registered ShapeDataSets to [{}] nodes", numNodes);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            logger.warn("Failed to sync registered ShapeDataSets, retrying in [{}]", e, retryInterval);
+                            scheduleResync();
+                        }
+                    });
+                } catch (Exception e) {
+                    logger.warn("Failed to sync registered ShapeDataSets, retrying in [{}]", e, retryInterval);
+                    scheduleResync();
+                }
+            }
+        });
+    }
+
+    private void sync(final ActionListener<Integer> listener) {
+        Snapshot snapshot = load();
+        SyncRequest request = new SyncRequest(snapshot.version, snapshot.definitions);
+        final List<DiscoveryNode> nodes = newArrayList(clusterService.state().nodes().nodes().values());
+
+        final AtomicInteger pendingNodes = new AtomicInteger(nodes.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (DiscoveryNode node : nodes) {
+            transportService.sendRequest(node, SYNC_ACTION, request, new BaseTransportResponseHandler<VoidStreamable>() {
+
+                @Override
+                public VoidStreamable newInstance() {
+                    return VoidStreamable.INSTANCE;
+                }
+
+                @Override
+                public void handleResponse(VoidStreamable response) {
+                    onNodeDone();
+                }
+
+                @Override
+                public void handleException(TransportException exp) {
+                    failure.compareAndSet(null, exp);
+                    onNodeDone();
+                }
+
+                @Override
+                public String executor() {
+                    return ThreadPool.Names.SAME;
+                }
+
+                private void onNodeDone() {
+                    if (pendingNodes.decrementAndGet() == 0) {
+                        if (failure.get() != null) {
+                            listener.onFailure(failure.get());
+                        } else {
+                            listener.onResponse(nodes.size());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Brings the DataSets registered with the local {@link ShapeDataSetService} in line with
+     * the given definitions.  Only DataSets whose definitions changed are created again, so
+     * the downloads of unchanged ones are kept.
+     *
+     * @param newVersion Version of the snapshot of the definitions
+     * @param newDefinitions Definitions of the snapshot, which are ignored if a later
+     *        snapshot has already been applied
+     */
+    synchronized void apply(long newVersion, List<DataSetDefinition> newDefinitions) {
+        if (newVersion < version) {
+            logger.debug("Ignoring definitions of version [{}], as version [{}] is applied", newVersion, version);
+            return;
+        }
+        version = newVersion;
+
+        Map<String, DataSetDefinition> applied = newHashMap();
+        for (DataSetDefinition definition : newDefinitions) {
+            String id = definition.id();
+            if (!definitions.containsKey(id) && dataSetService.dataSet(id) != null) {
+                logger.warn("Ignoring definition of ShapeDataSet [{}], which is built in", id);
+                continue;
+            }
+            if (definition.equals(definitions.get(id))) {
+                applied.put(id, definition);
+                continue;
+            }
+
+            try {
+                ShapeDataSet dataSet = definition.dataSet();
+                dataSetService.register(dataSet);
+                geocodingService.evict(id);
+                applied.put(id, definition);
+                logger.info("Registered ShapeDataSet [{}] from [{}]", id, definition.url());
+                warmUp(dataSet);
+            } catch (Exception e) {
+                // The previous DataSet stays registered, and creating the new one is retried on the next sync
+                logger.warn("Failed to register ShapeDataSet [{}] from [{}]", e, id, definition.url());
+                if (definitions.containsKey(id)) {
+                    applied.put(id, definitions.get(id));
+                }
+            }
+        }
+
+        for (String id : definitions.keySet()) {
+            if (!applied.containsKey(id)) {
+                dataSetService.unregister(id);
+                geocodingService.evict(id);
+                logger.info("Removed ShapeDataSet [{}]", id);
+            }
+        }
+        definitions = applied;
+    }
+
+    private void warmUp(final ShapeDataSet dataSet) {
+        if (!warmUp) {
+            return;
+        }
+
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    if (dataSet instanceof EstimableShapeDataSet) {
+                        ((EstimableShapeDataSet) dataSet).estimateMemory();
+                    } else if (dataSet instanceof SliceableShapeDataSet) {
+                        ((SliceableShapeDataSet) dataSet).numRecords();
+                    } else {
+                        return;
+                    }
+                    logger.debug("Warmed up ShapeDataSet [{}] in [{}ms]", dataSet.id(), System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    logger.warn("Failed to warm up ShapeDataSet [{}]", e, dataSet.id());
+                }
+            }
+        });
+    }
+
+    private class SyncRequestHandler extends BaseTransportRequestHandler<SyncRequest> {
+
+        @Override
+        public SyncRequest newInstance() {
+            return new SyncRequest();
+        }
+
+        @Override
+        public void messageReceived(SyncRequest request, TransportChannel channel) throws Exception {
+            apply(request.version, request.definitions);
+            channel.sendResponse(VoidStreamable.INSTANCE);
+        }
+
+        @Override
+        public String executor() {
+            // Creating packed DataSets maps their files
+            return ThreadPool.Names.GENERIC;
+        }
+    }
+
+    /**
+     * Registered definitions, as of the version of the definitions read along with them
+     */
+    private static class Snapshot {
+
+        // Snapshots taken before anything was registered are older than any other
+        private long version = 0;
+        private final List<DataSetDefinition> definitions = newArrayList();
+    }
+
+    static class SyncRequest implements Streamable {
+
+        private long version;
+        private List<DataSetDefinition> definitions;
+
+        SyncRequest() {
+        }
+
+        SyncRequest(long version, List<DataSetDefinition> definitions) {
+            this.version = version;
+            this.definitions = definitions;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            version = in.readVLong();
+            int size = in.readVInt();
+            definitions = newArrayList();
+            for (int i = 0; i < size; i++) {
+                DataSetDefinition definition = new DataSetDefinition();
+                definition.readFrom(in);
+                definitions.add(definition);
+            }
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(version);
+            out.writeVInt(definitions.size());
+            for (DataSetDefinition definition : definitions) {
+                definition.writeTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.*;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Indexes a {@link SliceableShapeDataSet} across the data nodes of the cluster.  The
+ * records of the set are split into one slice per node, and each node parses and
+ * indexes its slice locally using its {@link ShapeDataSetService}.  Sets which cannot be
+ * sliced are indexed on the local node instead.
+ */
+public class TransportDistributedDataSetIndexAction extends AbstractComponent {
+
+    private static final String SLICE_ACTION = "shapedataset/index/slice";
+
+    private final ClusterService clusterService;
+    private final TransportService transportService;
+    private final ThreadPool threadPool;
+    private final ShapeDataSetService dataSetService;
+    private final BulkLoader bulkLoader;
+
+    @Inject
+    public TransportDistributedDataSetIndexAction(
+            Settings settings,
+            ClusterService clusterService,
+            TransportService transportService,
+            ThreadPool threadPool,
+            ShapeDataSetService dataSetService,
+            BulkLoader bulkLoader) {
+        super(settings);
+        this.clusterService = clusterService;
+        this.transportService = transportService;
+        this.threadPool = threadPool;
+        this.dataSetService = dataSetService;
+        this.bulkLoader = bulkLoader;
+
+        transportService.registerHandler(SLICE_ACTION, new SliceRequestHandler());
+    }
+
+    /**
+     * Indexes the data from the given ShapeDataSet across the data nodes of the cluster.
+     * A bulk load creates the new version of the index before the slices are sent, and
+     * repoints the alias once every slice has been indexed.
+     *
+     * @param dataSet ShapeDataSet whose data will be indexed
+     * @param request Request describing where and how the data will be indexed
+     * @param listener Listener for success and failure of the indexing
+     */
+    public void execute(
+            final ShapeDataSet dataSet,
+            final DataSetIndexRequest request,
+            final ActionListener<DataSetIndexResponse> listener) {
+        if (!(dataSet instanceof SliceableShapeDataSet)) {
+            dataSetService.index(dataSet, request, listener);
+            return;
+        }
+
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+            @Override
+            public void run() {
+                ActionListener<DataSetIndexResponse> indexListener = listener;
+                try {
+                    DataSetIndexRequest indexRequest = request;
+                    if (request.bulkLoad() && !request.dryRun()) {
+                        String bulkLoadIndex = bulkLoader.start(request.index());
+                        indexListener = bulkLoader.listener(request.index(), bulkLoadIndex, listener);
+                        indexRequest = new DataSetIndexRequest(request).index(bulkLoadIndex).bulkLoad(false);
+                    }
+
+                    int numRecords = ((SliceableShapeDataSet) dataSet).numRecords();
+                    List<DiscoveryNode> nodes = newArrayList(clusterService.state().nodes().dataNodes().values());
+                    if (nodes.isEmpty()) {
+                        nodes.add(clusterService.state().nodes().localNode());
+                    }
+                    sendSlices(dataSet.id(), numRecords, nodes, indexRequest, indexListener);
+                } catch (Exception e) {
+                    indexListener.onFailure(e);
+                }
+            }
+        });
+    }
+
+    private void sendSlices(
+            String dataSetId,
+            int numRecords,
+            List<DiscoveryNode> nodes,
+            DataSetIndexRequest request,
+            final ActionListener<DataSetIndexResponse> listener) {
+        final int[] bounds = sliceBounds(numRecords, nodes.size());
+        final int numSlices = bounds.length - 1;
+        final AtomicInteger pendingSlices = new AtomicInteger(numSlices);
+        final AtomicInteger totalCount = new AtomicInteger();
+        final DataSetIndexStats stats = new DataSetIndexStats();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        // Every slice stamps its documents with the same insert date
+        long insertDate = System.currentTimeMillis();
+
+        for (int i = 0; i < numSlices; i++) {
+            SliceRequest sliceRequest = new SliceRequest(dataSetId, bounds[i], bounds[i + 1], insertDate, request);
+
+            transportService.sendRequest(nodes.get(i), SLICE_ACTION, sliceRequest, new BaseTransportResponseHandler<SliceResponse>() {
+
+                @Override
+                public SliceResponse newInstance() {
+                    return new SliceResponse();
+                }
+
+                @Override
+                public void handleResponse(SliceResponse response) {
+                    totalCount.addAndGet(response.count);
+                    synchronized (stats) {
+                        stats.merge(response.stats);
+                    }
+                    onSliceDone();
+                }
+
+                @Override
+                public void handleException(TransportException exp) {
+                    failure.compareAndSet(null, exp);
+                    onSliceDone();
+                }
+
+                @Override
+                public String executor() {
+                    return ThreadPool.Names.SAME;
+                }
+
+                private void onSliceDone() {
+                    if (pendingSlices.decrementAndGet() == 0) {
+                        if (failure.get() != null) {
+                            listener.onFailure(failure.get());
+                        } else {
+                            listener.onResponse(new DataSetIndexResponse(totalCount.get(), stats));
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Splits the given number of records into contiguous slices, one per node, whose sizes
+     * differ by at most one record
+     *
+     * @param numRecords Number of records to split
+     * @param numNodes Number of nodes the slices are sent to
+     * @return Bounds of the slices, slice {@code i} being the records from {@code bounds[i]}
+     *         (inclusive) to {@code bounds[i + 1]} (exclusive)
+     */
+    static int[] sliceBounds(int numRecords, int numNodes) {
+        int numSlices = Math.max(1, Math.min(numNodes, numRecords));
+        int sliceSize = numRecords / numSlices;
+        int remainder = numRecords % numSlices;
+
+        int[] bounds = new int[numSlices + 1];
+        for (int i = 0; i < numSlices; i++) {
+            bounds[i + 1] = bounds[i] + sliceSize + (i < remainder ? 1 : 0);
+        }
+        return bounds;
+    }
+
+    private class SliceRequestHandler extends BaseTransportRequestHandler<SliceRequest> {
+
+        @Override
+        public SliceRequest newInstance() {
+            return new SliceRequest();
+        }
+
+        @Override
+        public void messageReceived(final SliceRequest request, final TransportChannel channel) throws Exception {
+            ShapeDataSet dataSet = dataSetService.dataSet(request.dataSetId);
+            if (!(dataSet instanceof SliceableShapeDataSet)) {
+                throw new ElasticSearchIllegalArgumentException("ShapeDataSet [" + request.dataSetId + "] cannot be indexed in slices");
+            }
+
+            dataSetService.index((SliceableShapeDataSet) dataSet, request.from, request.to,
+                    new Date(request.insertDate), request.indexRequest,
+                    new ActionListener<DataSetIndexResponse>() {
+
+                @Override
+                public void onResponse(DataSetIndexResponse dataSetIndexResponse) {
+                    try {
+                        channel.sendResponse(new SliceResponse(dataSetIndexResponse.totalCount(), dataSetIndexResponse.stats()));
+                    } catch (IOException ioe) {
+                        onFailure(ioe);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    try {
+                        channel.sendResponse(e);
+                    } catch (IOException ioe) {
+                        logger.warn("Failed to send failure for slice of [{}]", ioe, request.dataSetId);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public String executor() {
+            return ThreadPool.Names.SAME;
+        }
+    }
+
+    static class SliceRequest implements Streamable {
+
+        private String dataSetId;
+        private int from;
+        private int to;
+        private long insertDate;
+        private DataSetIndexRequest indexRequest;
+
+        SliceRequest() {
+        }
+
+        SliceRequest(String dataSetId, int from, int to, long insertDate, DataSetIndexRequest indexRequest) {
+            this.dataSetId = dataSetId;
+            this.from = from;
+            this.to = to;
+            this.insertDate = insertDate;
+            this.indexRequest = indexRequest;
+        }
+
+        String dataSetId() {
+            return dataSetId;
+        }
+
+        int from() {
+            return from;
+        }
+
+        int to() {
+            return to;
+        }
+
+        long insertDate() {
+            return insertDate;
+        }
+
+        DataSetIndexRequest indexRequest() {
+            return indexRequest;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            dataSetId = in.readString();
+            from = in.readVInt();
+            to = in.readVInt();
+            insertDate = in.readLong();
+            indexRequest = new DataSetIndexRequest();
+            indexRequest.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(dataSetId);
+            out.writeVInt(from);
+            out.writeVInt(to);
+            out.writeLong(insertDate);
+            indexRequest.writeTo(out);
+        }
+    }
+
+    static class SliceResponse implements Streamable {
+
+        private int count;
+        private DataSetIndexStats stats;
+
+        SliceResponse() {
+        }
+
+        SliceResponse(int count, DataSetIndexStats stats) {
+            this.count = count;
+            this.stats = stats;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            count = in.readVInt();
+            stats = new DataSetIndexStats();
+            stats.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVInt(count);
+            stats.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.elasticsearch.shape.dataset;
+
+/**
+ * {@link ShapeDataSet} whose geometry can be validated as it is parsed, as described by a
+ * {@link GeometryValidation}
+ */
+public interface ValidatingShapeDataSet extends ShapeDataSet {
+
+    /**
+     * @param validation Validation the geometry of each record goes through, which counts their outcomes
+     * @return DataSet with the same data, validated by the given validation when parsed
+     */
+    ShapeDataSet validating(GeometryValidation validation);
+}
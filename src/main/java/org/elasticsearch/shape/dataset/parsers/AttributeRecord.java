@@ -0,0 +1,191 @@
+package org.elasticsearch.shape.dataset.parsers;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compact holder of the values of a DBF record, laid out by a {@link RecordSchema} shared
+ * between all records of the file.  Numeric and logical values are held as primitives, and
+ * field names are only held by the schema.
+ * <p>
+ * The record is also a read-only Map view of its non-hidden values, including those which
+ * are {@code null}, whose entries are created as it is iterated.  Callers only writing the values out should use
+ * {@link #writeTo(XContentBuilder)}, which avoids boxing.
+ * </p>
+ */
+public class AttributeRecord extends AbstractMap<String, Object> {
+
+    private final RecordSchema schema;
+    private final double[] numbers;
+    private final Object[] objects;
+    private final long[] nulls;
+    private final long[] booleans;
+
+    /**
+     * Creates a new AttributeRecord with all values {@code null}
+     *
+     * @param schema Schema of the record
+     */
+    public AttributeRecord(RecordSchema schema) {
+        this.schema = schema;
+        this.numbers = new double[schema.numNumbers()];
+        this.objects = new Object[schema.numObjects()];
+        this.nulls = new long[(schema.size() + 63) >>> 6];
+        this.booleans = new long[nulls.length];
+        Arrays.fill(nulls, -1L);
+    }
+
+    /**
+     * @return Schema of the record
+     */
+    public RecordSchema schema() {
+        return schema;
+    }
+
+    /**
+     * @param column Index of the field
+     * @return Whether the value of the field is {@code null}
+     */
+    public boolean isNull(int column) {
+        return (nulls[column >>> 6] & (1L << column)) != 0;
+    }
+
+    /**
+     * Returns the value of the field with the given index, boxing primitive values
+     *
+     * @param column Index of the field
+     * @return Value of the field, or {@code null} if it has no value
+     */
+    public Object get(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        switch (schema.kind(column)) {
+            case DOUBLE:
+                return numbers[schema.slot(column)];
+            case FLOAT:
+                return (float) numbers[schema.slot(column)];
+            case BOOLEAN:
+                return (booleans[column >>> 6] & (1L << column)) != 0;
+            default:
+                return objects[schema.slot(column)];
+        }
+    }
+
+    void setNumber(int column, double value) {
+        numbers[schema.slot(column)] = value;
+        nulls[column >>> 6] &= ~(1L << column);
+    }
+
+    void setBoolean(int column, boolean value) {
+        if (value) {
+            booleans[column >>> 6] |= 1L << column;
+        }
+        nulls[column >>> 6] &= ~(1L << column);
+    }
+
+    void setObject(int column, Object value) {
+        if (value != null) {
+            objects[schema.slot(column)] = value;
+            nulls[column >>> 6] &= ~(1L << column);
+        }
+    }
+
+    /**
+     * Writes the non-hidden values of the record as fields of the current object of the
+     * given builder, writing {@code null} values as null fields
+     *
+     * @param contentBuilder Builder to write the values to
+     * @throws IOException Can be thrown if there is a problem writing to the builder
+     */
+    public void writeTo(XContentBuilder contentBuilder) throws IOException {
+        for (int column = 0; column < schema.size(); column++) {
+            if (schema.hidden(column)) {
+                continue;
+            } else if (isNull(column)) {
+                contentBuilder.nullField(schema.name(column));
+                continue;
+            }
+            switch (schema.kind(column)) {
+                case DOUBLE:
+                    contentBuilder.field(schema.name(column), numbers[schema.slot(column)]);
+                    break;
+                case FLOAT:
+                    contentBuilder.field(schema.name(column), (float) numbers[schema.slot(column)]);
+                    break;
+                case BOOLEAN:
+                    contentBuilder.field(schema.name(column), (booleans[column >>> 6] & (1L << column)) != 0);
+                    break;
+                default:
+                    contentBuilder.field(schema.name(column), objects[schema.slot(column)]);
+            }
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        int column = key instanceof String ? schema.column((String) key) : -1;
+        return column == -1 || schema.hidden(column) ? null : get(column);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int column = key instanceof String ? schema.column((String) key) : -1;
+        return column != -1 && !schema.hidden(column);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+
+                    private int column = nextColumn(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return column < schema.size();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException("No more values");
+                        }
+                        Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(schema.name(column), get(column));
+                        column = nextColumn(column + 1);
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("Cannot remove from this iterator");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (int column = 0; column < schema.size(); column++) {
+                    if (!schema.hidden(column)) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        };
+    }
+
+    private int nextColumn(int from) {
+        int column = from;
+        while (column < schema.size() && schema.hidden(column)) {
+            column++;
+        }
+        return column;
+    }
+}
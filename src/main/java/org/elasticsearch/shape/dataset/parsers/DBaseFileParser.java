@@ -22,6 +22,9 @@ public class DBaseFileParser {
     private final int numRecords;
     private final List<RecordField> fields;
 
+    private int headerBytes;
+    private int recordBytes;
+
     public DBaseFileParser(ByteBuffer byteBuffer) {
         this.byteBuffer = byteBuffer;
         this.numRecords = parseHeader(byteBuffer);
@@ -32,8 +35,54 @@ public class DBaseFileParser {
         return fields;
     }
 
+    public int numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Reads the given range of records into {@link AttributeRecord}s.  Records are of fixed
+     * size, so the parser goes directly to the first record of the range.  Deleted records
+     * are returned as {@code null}, keeping the others aligned with their Shapes, and are
+     * skipped along with their Shapes by callers.
+     *
+     * @param schema Schema of the records, created from {@link #fields()}
+     * @param from Index of the first record to read (inclusive)
+     * @param to Index of the last record to read (exclusive)
+     * @return Records in the range
+     */
+    public List<AttributeRecord> records(RecordSchema schema, int from, int to) {
+        to = Math.min(to, numRecords);
+        List<AttributeRecord> records = new ArrayList<AttributeRecord>(Math.max(to - from, 0));
+
+        ByteBuffer recordBuffer = byteBuffer.duplicate();
+        for (int i = from; i < to; i++) {
+            int recordOffset = headerBytes + i * recordBytes;
+            recordBuffer.position(recordOffset);
+
+            byte marker = recordBuffer.get();
+            if (marker == END_OF_FILE) {
+                break;
+            } else if (marker == DELETED) {
+                records.add(null);
+                continue;
+            } else if (marker != VALID) {
+                throw new IllegalStateException("Unexpected marker byte[" + marker + "]");
+            }
+
+            AttributeRecord record = new AttributeRecord(schema);
+            for (int column = 0; column < fields.size(); column++) {
+                fields.get(column).read(recordBuffer, record, column);
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * @return Iterator over the values of the records which have not been deleted
+     */
     public Iterator<Object[]> records() {
-        return new RecordIterator(numRecords, fields, byteBuffer);
+        return new RecordIterator();
     }
 
     private int parseHeader(ByteBuffer byteBuffer) {
@@ -44,8 +93,8 @@ public class DBaseFileParser {
 
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
         int numRecords = byteBuffer.getInt();
-        short headerBytes = byteBuffer.getShort();
-        short recordBytes = byteBuffer.getShort();
+        this.headerBytes = byteBuffer.getShort() & 0xFFFF;
+        this.recordBytes = byteBuffer.getShort() & 0xFFFF;
         byteBuffer.order(ByteOrder.BIG_ENDIAN);
 
         skipReserved(2, byteBuffer);
@@ -102,7 +151,8 @@ public class DBaseFileParser {
         byteBuffer.get(name, 1, length - 1);
         name[0] = mark;
 
-        int end = 0;
+        // Names using the full length have no terminating null
+        int end = name.length;
         for (int i = 0; i < name.length; i++) {
             if (name[i] == '\0') {
                 end = i;
@@ -110,43 +160,30 @@ public class DBaseFileParser {
             }
         }
 
-        return (end != 0) ? new String(name, 0, end, CHARSET) : null;
+        return (end != 0) ? new String(name, 0, end, CHARSET).trim() : null;
     }
 
-    private static class RecordIterator implements Iterator<Object[]> {
-
-        private final int numRecords;
-        private final List<RecordField> fields;
-        private final ByteBuffer byteBuffer;
-        private int count;
+    private class RecordIterator implements Iterator<Object[]> {
 
-        private RecordIterator(int numRecords, List<RecordField> fields, ByteBuffer byteBuffer) {
-            this.numRecords = numRecords;
-            this.fields = fields;
-            this.byteBuffer = byteBuffer;
-        }
+        private final ByteBuffer recordBuffer = byteBuffer.duplicate();
+        private int index;
+        private Object[] next;
 
         @Override
         public boolean hasNext() {
-            return count < numRecords;
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
         }
 
         @Override
         public Object[] next() {
-            byte marker = byteBuffer.get();
-            if (marker == END_OF_FILE) {
+            if (!hasNext()) {
                 throw new NoSuchElementException("No more records");
-            } else if (marker == DELETED) {
-                return null;
-            } else if (marker != VALID) {
-                throw new IllegalStateException("Unexpected marker byte[" + marker + "]");
-            }
-
-            Object[] values = new Object[fields.size()];
-            for (int i = 0; i < fields.size(); i++) {
-                values[i] = fields.get(i).value(byteBuffer);
             }
-            count++;
+            Object[] values = next;
+            next = null;
             return values;
         }
 
@@ -154,5 +191,26 @@ public class DBaseFileParser {
         public void remove() {
             throw new UnsupportedOperationException("Cannot remove from this iterator");
         }
+
+        private Object[] readNext() {
+            while (index < numRecords) {
+                recordBuffer.position(headerBytes + index++ * recordBytes);
+                byte marker = recordBuffer.get();
+                if (marker == END_OF_FILE) {
+                    return null;
+                } else if (marker == DELETED) {
+                    continue;
+                } else if (marker != VALID) {
+                    throw new IllegalStateException("Unexpected marker byte[" + marker + "]");
+                }
+
+                Object[] values = new Object[fields.size()];
+                for (int i = 0; i < fields.size(); i++) {
+                    values[i] = fields.get(i).value(recordBuffer);
+                }
+                return values;
+            }
+            return null;
+        }
     }
 }
@@ -7,11 +7,19 @@ import com.spatial4j.core.shape.Shape;
 import com.spatial4j.core.shape.impl.PointImpl;
 import com.spatial4j.core.shape.jts.JtsGeometry;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.valid.IsValidOp;
+import com.vividsolutions.jts.operation.valid.TopologyValidationError;
 import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.ElasticSearchParseException;
 import org.elasticsearch.shape.dataset.GeoShapeConstants;
+import org.elasticsearch.shape.dataset.GeometryValidation;
+import org.elasticsearch.shape.dataset.OffHeapGeometryStore;
+import org.elasticsearch.shape.dataset.PackedGeometry;
+import org.elasticsearch.shape.dataset.projection.Projection;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,6 +47,10 @@ public class ESRIShapeFileParser {
 
     private static final int FILE_CODE = 9994;
     private static final int VERSION = 1000;
+    private static final int HEADER_BYTES = 100;
+    private static final int SHX_RECORD_BYTES = 8;
+    // Records of any type can be Null records, which have no geometry
+    private static final int NULL_SHAPE_TYPE = 0;
 
     /**
      * Enum of the ShapeTypes currently supported in this impl, along with their
@@ -80,17 +92,217 @@ public class ESRIShapeFileParser {
      * @return List of Shapes contained in the file
      */
     public static List<Shape> parseShpFile(ByteBuffer shpBuffer) {
+        return parseShpFile(shpBuffer, Projection.IDENTITY);
+    }
+
+    /**
+     * Parses the SHP file, extracting the Shapes contained and converting their
+     * coordinates into longitude and latitude using the given {@link Projection}
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param projection Projection of the coordinates in the file
+     * @return List of Shapes contained in the file
+     */
+    public static List<Shape> parseShpFile(ByteBuffer shpBuffer, Projection projection) {
+        return parseShpFile(shpBuffer, projection, new GeometryValidation(GeometryValidation.Policy.SKIP));
+    }
+
+    /**
+     * Parses the SHP file, extracting the Shapes contained, converting their coordinates
+     * into longitude and latitude using the given {@link Projection} and validating their
+     * geometry as described by the given {@link GeometryValidation}
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param projection Projection of the coordinates in the file
+     * @param validation Validation the geometry of each record goes through
+     * @return List of Shapes contained in the file, with invalid Shapes replaced by the {@link #DUMMY_SHAPE}
+     */
+    public static List<Shape> parseShpFile(ByteBuffer shpBuffer, Projection projection, GeometryValidation validation) {
         ShapeType shapeType = parseHeader(shpBuffer);
 
         List<Shape> shapes = new ArrayList<Shape>();
 
         while (shpBuffer.hasRemaining()) {
-            shapes.add(parseRecord(shpBuffer, shapeType));
+            shapes.add(parseRecord(shpBuffer, shapeType, projection, validation));
+        }
+
+        return shapes;
+    }
+
+    /**
+     * Parses the Shapes in the given range of records from the SHP file, using the
+     * record offsets read from the SHX file to go directly to the first record
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param recordOffsets Offsets of the records in the SHP file, as returned by {@link #parseShxFile(ByteBuffer)}
+     * @param from Index of the first record to parse (inclusive)
+     * @param to Index of the last record to parse (exclusive)
+     * @param projection Projection of the coordinates in the file
+     * @return List of Shapes contained in the range of records
+     */
+    public static List<Shape> parseShpFile(ByteBuffer shpBuffer, int[] recordOffsets, int from, int to, Projection projection) {
+        return parseShpFile(shpBuffer, recordOffsets, from, to, projection, new GeometryValidation(GeometryValidation.Policy.SKIP));
+    }
+
+    /**
+     * Parses the Shapes in the given range of records from the SHP file, using the
+     * record offsets read from the SHX file to go directly to the first record, and
+     * validating their geometry as described by the given {@link GeometryValidation}
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param recordOffsets Offsets of the records in the SHP file, as returned by {@link #parseShxFile(ByteBuffer)}
+     * @param from Index of the first record to parse (inclusive)
+     * @param to Index of the last record to parse (exclusive)
+     * @param projection Projection of the coordinates in the file
+     * @param validation Validation the geometry of each record goes through
+     * @return List of Shapes contained in the range of records, with invalid Shapes replaced by the {@link #DUMMY_SHAPE}
+     */
+    public static List<Shape> parseShpFile(
+            ByteBuffer shpBuffer,
+            int[] recordOffsets,
+            int from,
+            int to,
+            Projection projection,
+            GeometryValidation validation) {
+        ShapeType shapeType = parseHeader(shpBuffer);
+
+        List<Shape> shapes = new ArrayList<Shape>(Math.max(to - from, 0));
+
+        for (int i = from; i < to; i++) {
+            shpBuffer.position(recordOffsets[i]);
+            shapes.add(parseRecord(shpBuffer, shapeType, projection, validation));
         }
 
         return shapes;
     }
 
+    /**
+     * Parses the SHP file into the given {@link OffHeapGeometryStore}, converting the
+     * coordinates into longitude and latitude using the given {@link Projection}.  No
+     * on-heap geometry is created, shells and holes are distinguished by the orientation
+     * of their rings as defined by the ShapeFile specification.
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param projection Projection of the coordinates in the file
+     * @param store Store the geometries are packed into
+     * @return PackedGeometries of the Shapes contained in the file
+     */
+    public static List<PackedGeometry> parseShpFile(ByteBuffer shpBuffer, Projection projection, OffHeapGeometryStore store) {
+        return parseShpFile(shpBuffer, projection, store, new GeometryValidation(GeometryValidation.Policy.SKIP));
+    }
+
+    /**
+     * Parses the SHP file into the given {@link OffHeapGeometryStore}, validating the
+     * geometry as described by the given {@link GeometryValidation}.  Since no on-heap
+     * geometry is created, only the cheap checks are run and topology is never validated.
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param projection Projection of the coordinates in the file
+     * @param store Store the geometries are packed into
+     * @param validation Validation the geometry of each record goes through
+     * @return PackedGeometries of the Shapes contained in the file
+     */
+    public static List<PackedGeometry> parseShpFile(
+            ByteBuffer shpBuffer,
+            Projection projection,
+            OffHeapGeometryStore store,
+            GeometryValidation validation) {
+        ShapeType shapeType = parseHeader(shpBuffer);
+
+        List<PackedGeometry> geometries = new ArrayList<PackedGeometry>();
+
+        while (shpBuffer.hasRemaining()) {
+            geometries.add(parsePackedRecord(shpBuffer, shapeType, projection, store, validation));
+        }
+
+        return geometries;
+    }
+
+    /**
+     * Parses the Shapes in the given range of records from the SHP file into the given
+     * {@link OffHeapGeometryStore}, using the record offsets read from the SHX file to go
+     * directly to the first record
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param recordOffsets Offsets of the records in the SHP file, as returned by {@link #parseShxFile(ByteBuffer)}
+     * @param from Index of the first record to parse (inclusive)
+     * @param to Index of the last record to parse (exclusive)
+     * @param projection Projection of the coordinates in the file
+     * @param store Store the geometries are packed into
+     * @return PackedGeometries of the Shapes contained in the range of records
+     */
+    public static List<PackedGeometry> parseShpFile(
+            ByteBuffer shpBuffer,
+            int[] recordOffsets,
+            int from,
+            int to,
+            Projection projection,
+            OffHeapGeometryStore store) {
+        return parseShpFile(shpBuffer, recordOffsets, from, to, projection, store,
+                new GeometryValidation(GeometryValidation.Policy.SKIP));
+    }
+
+    /**
+     * Parses the Shapes in the given range of records from the SHP file into the given
+     * {@link OffHeapGeometryStore}, validating the geometry as described by the given
+     * {@link GeometryValidation}.  Only the cheap checks are run.
+     *
+     * @param shpBuffer SHP file contents to parse
+     * @param recordOffsets Offsets of the records in the SHP file, as returned by {@link #parseShxFile(ByteBuffer)}
+     * @param from Index of the first record to parse (inclusive)
+     * @param to Index of the last record to parse (exclusive)
+     * @param projection Projection of the coordinates in the file
+     * @param store Store the geometries are packed into
+     * @param validation Validation the geometry of each record goes through
+     * @return PackedGeometries of the Shapes contained in the range of records
+     */
+    public static List<PackedGeometry> parseShpFile(
+            ByteBuffer shpBuffer,
+            int[] recordOffsets,
+            int from,
+            int to,
+            Projection projection,
+            OffHeapGeometryStore store,
+            GeometryValidation validation) {
+        ShapeType shapeType = parseHeader(shpBuffer);
+
+        List<PackedGeometry> geometries = new ArrayList<PackedGeometry>(Math.max(to - from, 0));
+
+        for (int i = from; i < to; i++) {
+            shpBuffer.position(recordOffsets[i]);
+            geometries.add(parsePackedRecord(shpBuffer, shapeType, projection, store, validation));
+        }
+
+        return geometries;
+    }
+
+    /**
+     * Parses the SHX file, extracting the offset of each record in the SHP file
+     *
+     * @param shxBuffer SHX file contents to parse
+     * @return Offsets, in bytes, of the records in the SHP file
+     */
+    public static int[] parseShxFile(ByteBuffer shxBuffer) {
+        shxBuffer.order(ByteOrder.BIG_ENDIAN);
+
+        int fileCode = shxBuffer.getInt(0);
+        if (fileCode != FILE_CODE) {
+            throw new ElasticSearchParseException("Header does not have correct file code. " +
+                    "Expected [" + FILE_CODE + "] but found [" + fileCode + "]");
+        }
+
+        // Length is defined as 16-bit words in file
+        int fileLength = shxBuffer.getInt(24) * 2;
+        int[] recordOffsets = new int[(fileLength - HEADER_BYTES) / SHX_RECORD_BYTES];
+
+        for (int i = 0; i < recordOffsets.length; i++) {
+            // Offsets are also defined as 16-bit words
+            recordOffsets[i] = shxBuffer.getInt(HEADER_BYTES + i * SHX_RECORD_BYTES) * 2;
+        }
+
+        return recordOffsets;
+    }
+
     /**
      * Parses the SHP file header.  Note, only the type of Shapes contained in
      * the file is returned.  All other information is read, validated, and discarded.
@@ -99,6 +311,7 @@ public class ESRIShapeFileParser {
      * @return {@link ShapeType} representing the types of Shapes contained in the file
      */
     private static ShapeType parseHeader(ByteBuffer headerBuffer) {
+        headerBuffer.order(ByteOrder.BIG_ENDIAN);
         int fileCode = headerBuffer.getInt();
         if (fileCode != FILE_CODE) {
             throw new ElasticSearchParseException("Header does not have correct file code. " +
@@ -144,32 +357,216 @@ public class ESRIShapeFileParser {
      *
      * @param recordBuffer ByteBuffer containing the record
      * @param shapeType Type of Shape that will be read
+     * @param projection Projection of the coordinates in the record
+     * @param validation Validation the geometry of the record goes through
      * @return Shape read from the SHP File
      */
-    private static Shape parseRecord(ByteBuffer recordBuffer, ShapeType shapeType) {
-        // Record number is ignored, we assume the records are in order
+    private static Shape parseRecord(ByteBuffer recordBuffer, ShapeType shapeType, Projection projection, GeometryValidation validation) {
+        recordBuffer.order(ByteOrder.BIG_ENDIAN);
+        // Record number is only used to report invalid records, we assume the records are in order
+        int recordNumber = recordBuffer.getInt();
+        // Length is defined as 16-bit words in file
+        int contentLength = recordBuffer.getInt();
+
+        if (shapeType == ShapeType.POLYGON) {
+            return parsePolygon(recordBuffer, recordNumber, projection, validation);
+        } else {
+            throw new UnsupportedOperationException("ShapeType [" + shapeType.name() + "] not currently supported");
+        }
+    }
+
+    /**
+     * Parses the current Shape record into the given store
+     *
+     * @param recordBuffer ByteBuffer containing the record
+     * @param shapeType Type of Shape that will be read
+     * @param projection Projection of the coordinates in the record
+     * @param store Store the geometry is packed into
+     * @param validation Validation the geometry of the record goes through
+     * @return PackedGeometry read from the SHP File
+     */
+    private static PackedGeometry parsePackedRecord(
+            ByteBuffer recordBuffer,
+            ShapeType shapeType,
+            Projection projection,
+            OffHeapGeometryStore store,
+            GeometryValidation validation) {
+        recordBuffer.order(ByteOrder.BIG_ENDIAN);
+        // Record number is only used to report invalid records, we assume the records are in order
         int recordNumber = recordBuffer.getInt();
         // Length is defined as 16-bit words in file
         int contentLength = recordBuffer.getInt();
 
         if (shapeType == ShapeType.POLYGON) {
-            return parsePolygon(recordBuffer);
+            return parsePackedPolygon(recordBuffer, recordNumber, projection, store, validation);
         } else {
             throw new UnsupportedOperationException("ShapeType [" + shapeType.name() + "] not currently supported");
         }
     }
 
     /**
-     * Parses a Polygon shape from the contents of the given ByteBuffer
+     * Parses a Polygon shape from the contents of the given ByteBuffer into the given store.
+     * Only the cheap checks of the validation are run, and rings repaired, as no on-heap
+     * geometry is created, unless the validation reports on the topology of packed polygons.
+     *
+     * @param polygonBuffer ByteBuffer holding the representation of a polygon
+     * @param recordNumber Number of the record holding the polygon
+     * @param projection Projection of the coordinates in the polygon
+     * @param store Store the polygon is packed into
+     * @param validation Validation the polygon goes through
+     * @return PackedGeometry of the parsed Polygon
+     */
+    private static PackedGeometry parsePackedPolygon(
+            ByteBuffer polygonBuffer,
+            int recordNumber,
+            Projection projection,
+            OffHeapGeometryStore store,
+            GeometryValidation validation) {
+        polygonBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int shapeType = polygonBuffer.getInt();
+        if (shapeType == NULL_SHAPE_TYPE) {
+            // Equivalent of the DUMMY_SHAPE
+            return store.addPoint(0, 0);
+        } else if (shapeType != ShapeType.POLYGON.value) {
+            throw new ElasticSearchParseException("Polygon record does not have correct ShapeType. " +
+                    "Expected [" + ShapeType.POLYGON.value + "] but found [" + shapeType + "]");
+        }
+
+        double minX = polygonBuffer.getDouble();
+        double minY = polygonBuffer.getDouble();
+        double maxX = polygonBuffer.getDouble();
+        double maxY = polygonBuffer.getDouble();
+
+        int numParts = polygonBuffer.getInt();
+        int numPoints = polygonBuffer.getInt();
+
+        int[] rings = new int[Math.max(numParts, 0)];
+        for (int i = 0; i < numParts; i++) {
+            rings[i] = polygonBuffer.getInt();
+        }
+
+        String invalid = checkHeader(minX, minY, maxX, maxY, rings, numPoints, projection);
+        if (invalid != null) {
+            polygonBuffer.position(polygonBuffer.position() + Math.max(numPoints, 0) * 16);
+            validation.onInvalid(recordNumber, invalid);
+            // Equivalent of the DUMMY_SHAPE
+            return store.addPoint(0, 0);
+        }
+
+        double[] packedPoints = new double[numPoints * 2];
+        polygonBuffer.asDoubleBuffer().get(packedPoints);
+        polygonBuffer.position(polygonBuffer.position() + numPoints * 16);
+        projection.toGeographic(packedPoints, numPoints);
+
+        invalid = checkCoordinates(packedPoints, numPoints, projection);
+        if (invalid != null) {
+            validation.onInvalid(recordNumber, invalid);
+            // Equivalent of the DUMMY_SHAPE
+            return store.addPoint(0, 0);
+        }
+
+        String repaired = checkRings(rings, packedPoints, numPoints);
+        if (repaired != null) {
+            Rings repairedRings = validation.policy() == GeometryValidation.Policy.REPAIR ?
+                    repairRings(rings, packedPoints, numPoints) : null;
+            if (repairedRings == null) {
+                validation.onInvalid(recordNumber, repaired);
+                // Equivalent of the DUMMY_SHAPE
+                return store.addPoint(0, 0);
+            }
+            rings = repairedRings.parts;
+            packedPoints = repairedRings.packedPoints;
+            numPoints = repairedRings.numPoints;
+            numParts = rings.length;
+        }
+
+        int[] polygons = shells(rings, packedPoints, numPoints);
+        int numPolygons = polygons.length;
+
+        if (validation.validatesPackedTopology()) {
+            long topologyStart = System.nanoTime();
+            TopologyValidationError error = new IsValidOp(
+                    toGeometry(packedPoints, numPoints, polygons, numPolygons, rings, numParts)).getValidationError();
+            validation.onTopology(System.nanoTime() - topologyStart);
+            if (error != null) {
+                // Packed polygons are serialized without building a Shape, so they can be indexed as they are
+                validation.onReported(recordNumber, error.toString());
+                return store.addPolygons(packedPoints, numPoints, polygons, numPolygons, rings, numParts);
+            }
+        }
+
+        if (repaired != null) {
+            validation.onRepaired(recordNumber, repaired);
+        } else {
+            validation.onValid();
+        }
+        return store.addPolygons(packedPoints, numPoints, polygons, numPolygons, rings, numParts);
+    }
+
+    /**
+     * Infers which rings of a record make up each of its polygons, since ShapeFiles do not
+     * differentiate between Polygons, Polygons with holes and MultiPolygons.  Shells are
+     * clockwise and the holes which follow them counter-clockwise, so each clockwise ring
+     * starts a new polygon, as does the first ring whatever its orientation.
+     *
+     * @param rings Index of the first coordinate of each ring
+     * @param packedPoints Packed x and y values of the coordinates
+     * @param numPoints Number of coordinates
+     * @return Index of the shell ring of each polygon
+     */
+    private static int[] shells(int[] rings, double[] packedPoints, int numPoints) {
+        int[] polygons = new int[rings.length];
+        int numPolygons = 0;
+        for (int ring = 0; ring < rings.length; ring++) {
+            int end = ring + 1 < rings.length ? rings[ring + 1] : numPoints;
+            if (numPolygons == 0 || signedArea(packedPoints, rings[ring], end) < 0) {
+                polygons[numPolygons++] = ring;
+            }
+        }
+        int[] shells = new int[numPolygons];
+        System.arraycopy(polygons, 0, shells, 0, numPolygons);
+        return shells;
+    }
+
+    /**
+     * Calculates twice the signed area of the ring with the given coordinates, which is
+     * negative for clockwise rings
+     *
+     * @param packedPoints Packed x and y values of the coordinates
+     * @param start Index of the first coordinate of the ring
+     * @param end Index after the last coordinate of the ring
+     * @return Twice the signed area of the ring
+     */
+    private static double signedArea(double[] packedPoints, int start, int end) {
+        double area = 0;
+        for (int i = start; i < end - 1; i++) {
+            area += packedPoints[i * 2] * packedPoints[i * 2 + 3] - packedPoints[i * 2 + 2] * packedPoints[i * 2 + 1];
+        }
+        return area;
+    }
+
+    /**
+     * Parses a Polygon shape from the contents of the given ByteBuffer, validating it as
+     * described by the given {@link GeometryValidation}.  The cheap checks run on the packed
+     * coordinates, before any Coordinate objects are created, and topology is only validated,
+     * when the JtsGeometry is created, once they pass.  A JtsGeometry cannot be created with
+     * invalid topology, so under the report policy such polygons are still replaced by the
+     * placeholder here, and are only indexed as they are when parsed into packed geometry.
      *
      * @param polygonBuffer ByteBuffer holding the representation of a polygon
-     * @return Parsed Polygon
+     * @param recordNumber Number of the record holding the polygon
+     * @param projection Projection of the coordinates in the polygon
+     * @param validation Validation the polygon goes through
+     * @return Parsed Polygon, or the {@link #DUMMY_SHAPE} if it is invalid
      */
-    private static Shape parsePolygon(ByteBuffer polygonBuffer) {
+    private static Shape parsePolygon(ByteBuffer polygonBuffer, int recordNumber, Projection projection, GeometryValidation validation) {
         polygonBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
         int shapeType = polygonBuffer.getInt();
-        if (shapeType != ShapeType.POLYGON.value) {
+        if (shapeType == NULL_SHAPE_TYPE) {
+            return DUMMY_SHAPE;
+        } else if (shapeType != ShapeType.POLYGON.value) {
             throw new ElasticSearchParseException("Polygon record does not have correct ShapeType. " +
                     "Expected [" + ShapeType.POLYGON.value + "] but found [" + shapeType + "]");
         }
@@ -182,111 +579,257 @@ public class ESRIShapeFileParser {
         int numParts = polygonBuffer.getInt();
         int numPoints = polygonBuffer.getInt();
 
-        int[] parts = new int[numParts];
+        int[] parts = new int[Math.max(numParts, 0)];
 
         for (int i = 0; i < numParts; i++) {
             parts[i] = polygonBuffer.getInt();
         }
 
-        List<Coordinate> points = new ArrayList<Coordinate>();
+        // TODO Some Polygons (such as Antarctica) have crazy latitude and longitudes
+        // we need to think about how best to normalize them (which OGR seems to do)
+        String invalid = checkHeader(minX, minY, maxX, maxY, parts, numPoints, projection);
+        if (invalid != null) {
+            polygonBuffer.position(polygonBuffer.position() + Math.max(numPoints, 0) * 16);
+            validation.onInvalid(recordNumber, invalid);
+            return DUMMY_SHAPE;
+        }
 
-        for (int i = 0; i < numPoints; i++) {
-            Coordinate coordinate = parseCoordinates(polygonBuffer);
-            points.add(coordinate);
+        // Coordinates are read and projected in bulk before any Coordinate objects are created
+        double[] packedPoints = new double[numPoints * 2];
+        polygonBuffer.asDoubleBuffer().get(packedPoints);
+        polygonBuffer.position(polygonBuffer.position() + numPoints * 16);
+        projection.toGeographic(packedPoints, numPoints);
+
+        invalid = checkCoordinates(packedPoints, numPoints, projection);
+        if (invalid != null) {
+            validation.onInvalid(recordNumber, invalid);
+            return DUMMY_SHAPE;
         }
 
-        List<LinearRing> rings = new ArrayList<LinearRing>(numParts);
-        int lastPointer = points.size();
+        String repaired = checkRings(parts, packedPoints, numPoints);
+        if (repaired != null) {
+            Rings repairedRings = validation.policy() == GeometryValidation.Policy.REPAIR ?
+                    repairRings(parts, packedPoints, numPoints) : null;
+            if (repairedRings == null) {
+                validation.onInvalid(recordNumber, repaired);
+                return DUMMY_SHAPE;
+            }
+            parts = repairedRings.parts;
+            packedPoints = repairedRings.packedPoints;
+            numPoints = repairedRings.numPoints;
+        }
 
-        for (int i = parts.length - 1; i >= 0; i--) {
-            int pointer = parts[i];
-            List<Coordinate> ringPoints = points.subList(pointer, lastPointer);
+        // Rings are assigned to polygons by their orientation, as they are for packed polygons
+        int[] polygons = shells(parts, packedPoints, numPoints);
+        Geometry geometry = toGeometry(packedPoints, numPoints, polygons, polygons.length, parts, parts.length);
 
-            // TODO Some Polygons (such as Antarctica) have crazy latitude and longitudes
-            // we need to think about how best to normalize them (which OGR seems to do)
-            for (Coordinate point : ringPoints) {
-                if (!isValidCoordinate(point)) {
-                    return DUMMY_SHAPE;
-                }
+        // JtsGeometry validates the topology of the polygons, which is the expensive check
+        // that only polygons passing the cheap checks get to
+        long topologyStart = System.nanoTime();
+        Shape shape;
+        try {
+            shape = new JtsGeometry(geometry, GeoShapeConstants.SPATIAL_CONTEXT, true);
+        } catch (InvalidShapeException ise) {
+            shape = null;
+            if (validation.policy() == GeometryValidation.Policy.REPAIR) {
+                shape = repairTopology(geometry);
+                repaired = repaired != null ? repaired + ", " + ise.getMessage() : ise.getMessage();
             }
-            rings.add(GeoShapeConstants.GEOMETRY_FACTORY.createLinearRing(ringPoints.toArray(new Coordinate[ringPoints.size()])));
-            lastPointer = pointer;
-        }
-
-        // ShapeFiles do not differentiate between Polygons, Polygons with holes, MultiPolygons and MultiPolygons
-        // with holes.  Consequently we need to infer which rings are part of a single Polygon.
-        // This algorithm assumes that holes for a polygon follow its shell ring and are contained within.
-        List<List<LinearRing>> polygons = new ArrayList<List<LinearRing>>();
-        List<LinearRing> currentPolygon = new ArrayList<LinearRing>();
-        LinearRing currentRing = rings.get(0);
-        currentPolygon.add(currentRing);
-
-        for (int i = 1; i < rings.size(); i++) {
-            LinearRing ring = rings.get(i);
-            if (currentRing.covers(ring)) {
-                currentPolygon.add(currentRing);
-            } else {
-                polygons.add(currentPolygon);
-                currentPolygon = new ArrayList<LinearRing>();
-                currentPolygon.add(ring);
-                currentRing = ring;
+            if (shape == null) {
+                validation.onTopology(System.nanoTime() - topologyStart);
+                validation.onInvalid(recordNumber, ise.getMessage());
+                return DUMMY_SHAPE;
             }
         }
+        validation.onTopology(System.nanoTime() - topologyStart);
 
-        polygons.add(currentPolygon);
-
-        Polygon[] builtPolygons = toPolygons(polygons);
+        if (repaired != null) {
+            validation.onRepaired(recordNumber, repaired);
+        } else {
+            validation.onValid();
+        }
+        return shape;
+    }
 
-        // TODO Some Polygons (such as Canada) contain points that fail the validations in JtsGeometry
-        // Theres not much we can do about this since it is likely that using the Shape will cause problems
+    /**
+     * Repairs the topology of the given polygons by buffering them by zero, which rebuilds
+     * them from their rings and resolves self-intersections
+     *
+     * @param geometry Polygons with invalid topology
+     * @return Shape of the repaired polygons, or {@code null} if they cannot be repaired
+     */
+    private static Shape repairTopology(Geometry geometry) {
+        Geometry repaired = geometry.buffer(0);
+        if (repaired.isEmpty() || !(repaired instanceof Polygon || repaired instanceof MultiPolygon)) {
+            return null;
+        }
         try {
-            return builtPolygons.length == 1 ? new JtsGeometry(builtPolygons[0], GeoShapeConstants.SPATIAL_CONTEXT, true) :
-                    new JtsGeometry(GeoShapeConstants.GEOMETRY_FACTORY.createMultiPolygon(builtPolygons), GeoShapeConstants.SPATIAL_CONTEXT, true);
+            return new JtsGeometry(repaired, GeoShapeConstants.SPATIAL_CONTEXT, true);
         } catch (InvalidShapeException ise) {
-            return DUMMY_SHAPE;
+            return null;
         }
     }
 
     /**
-     * Converts the given List of LinearRings into Polygons.  It is assumed that the
-     * first LinearRing in each list is the shell and subsequent rings are holes
+     * Builds the JTS polygons of a packed polygon
      *
-     * @param rings List of LinearRings to be converted into Polygons
-     * @return Polygons constructed from the LinearRings
+     * @param packedPoints Packed x and y values of the coordinates
+     * @param numPoints Number of coordinates
+     * @param polygons Index of the shell ring of each polygon
+     * @param numPolygons Number of polygons
+     * @param rings Index of the first coordinate of each ring
+     * @param numRings Number of rings
+     * @return Polygons of the packed polygon
      */
-    private static Polygon[] toPolygons(List<List<LinearRing>> rings) {
-        Polygon[] polygons = new Polygon[rings.size()];
-
-        for (int i = 0; i < rings.size(); i++) {
-            List<LinearRing> polygon = rings.get(i);
-            LinearRing shell = polygon.get(polygon.size() - 1);
-            LinearRing[] holes = null;
-            if (polygon.size() > 1) {
-                holes = new LinearRing[polygon.size() - 1];
-                for (int j = 0; i < holes.length; j++) {
-                    holes[j] = polygon.get(j);
+    private static Geometry toGeometry(double[] packedPoints, int numPoints, int[] polygons, int numPolygons, int[] rings, int numRings) {
+        Polygon[] builtPolygons = new Polygon[numPolygons];
+        for (int polygon = 0; polygon < numPolygons; polygon++) {
+            int firstRing = polygons[polygon];
+            int lastRing = polygon + 1 < numPolygons ? polygons[polygon + 1] : numRings;
+            LinearRing[] polygonRings = new LinearRing[lastRing - firstRing];
+            for (int ring = firstRing; ring < lastRing; ring++) {
+                int end = ring + 1 < numRings ? rings[ring + 1] : numPoints;
+                Coordinate[] coordinates = new Coordinate[end - rings[ring]];
+                for (int i = rings[ring]; i < end; i++) {
+                    coordinates[i - rings[ring]] = new Coordinate(packedPoints[i * 2], packedPoints[i * 2 + 1]);
                 }
+                polygonRings[ring - firstRing] = GeoShapeConstants.GEOMETRY_FACTORY.createLinearRing(coordinates);
+            }
+            LinearRing[] holes = new LinearRing[polygonRings.length - 1];
+            System.arraycopy(polygonRings, 1, holes, 0, holes.length);
+            builtPolygons[polygon] = GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(polygonRings[0], holes);
+        }
+        return builtPolygons.length == 1 ? builtPolygons[0] : GeoShapeConstants.GEOMETRY_FACTORY.createMultiPolygon(builtPolygons);
+    }
+
+    /**
+     * Runs the cheap checks of a polygon which only need its record header, before its
+     * coordinates are read.  The bounding box in the header is checked to be in range when
+     * the coordinates are already longitude and latitude degrees.
+     *
+     * @param minX Minimum x value of the bounding box in the header
+     * @param minY Minimum y value of the bounding box in the header
+     * @param maxX Maximum x value of the bounding box in the header
+     * @param maxY Maximum y value of the bounding box in the header
+     * @param parts Index of the first coordinate of each ring
+     * @param numPoints Number of coordinates of the polygon
+     * @param projection Projection of the coordinates in the polygon
+     * @return Why the polygon is invalid, or {@code null} if it passed the checks
+     */
+    private static String checkHeader(
+            double minX,
+            double minY,
+            double maxX,
+            double maxY,
+            int[] parts,
+            int numPoints,
+            Projection projection) {
+        if (parts.length == 0 || numPoints <= 0) {
+            return "polygon has no rings";
+        }
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] < 0 || parts[i] >= numPoints || (i == 0 ? parts[i] != 0 : parts[i] <= parts[i - 1])) {
+                return "ring [" + i + "] starts at invalid offset [" + parts[i] + "]";
+            }
+        }
+        if (projection == Projection.IDENTITY && !(isValidCoordinate(minX, minY) && isValidCoordinate(maxX, maxY))) {
+            return "bounding box [" + minX + ", " + minY + ", " + maxX + ", " + maxY + "] out of range";
+        }
+        return null;
+    }
+
+    /**
+     * Checks that the coordinates of a polygon are in range.  Coordinates which were already
+     * longitude and latitude degrees are not checked, their bounding box having been checked
+     * by {@link #checkHeader}.
+     *
+     * @param packedPoints Packed x and y values of the coordinates
+     * @param numPoints Number of coordinates
+     * @param projection Projection the coordinates were converted from
+     * @return Why the polygon is invalid, or {@code null} if its coordinates are in range
+     */
+    private static String checkCoordinates(double[] packedPoints, int numPoints, Projection projection) {
+        if (projection == Projection.IDENTITY) {
+            return null;
+        }
+        for (int i = 0; i < numPoints; i++) {
+            if (!isValidCoordinate(packedPoints[i * 2], packedPoints[i * 2 + 1])) {
+                return "coordinate [" + packedPoints[i * 2] + ", " + packedPoints[i * 2 + 1] + "] out of range";
             }
-            polygons[i] = GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(shell, holes);
         }
-        return polygons;
+        return null;
     }
 
     /**
-     * Parses coordinates X and Y from the given Buffer.  Note, in the technical
-     * description these are referred to as Point datatypes however they do not
-     * include the ShapeType value in the file therefore they are not proper Points,
-     * instead they are just coordinates.
+     * Checks that each ring of a polygon is closed and has at least 4 coordinates, the
+     * minimum of a valid LinearRing
      *
-     * @param coordinateBuffer Buffer containing the coordinates to read
-     * @return Coordinate holding the X and Y values
+     * @param parts Index of the first coordinate of each ring
+     * @param packedPoints Packed x and y values of the coordinates
+     * @param numPoints Number of coordinates
+     * @return Why the polygon is invalid, or {@code null} if its rings are valid
      */
-    private static Coordinate parseCoordinates(ByteBuffer coordinateBuffer) {
-        coordinateBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    private static String checkRings(int[] parts, double[] packedPoints, int numPoints) {
+        for (int i = 0; i < parts.length; i++) {
+            int start = parts[i];
+            int end = i + 1 < parts.length ? parts[i + 1] : numPoints;
+            if (end - start < 4) {
+                return "ring [" + i + "] has [" + (end - start) + "] coordinates, at least 4 are needed";
+            }
+            if (!isClosed(packedPoints, start, end)) {
+                return "ring [" + i + "] is not closed";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Repairs the rings of a polygon by closing those which are open and dropping those
+     * with fewer than 4 coordinates once closed
+     *
+     * @param parts Index of the first coordinate of each ring
+     * @param packedPoints Packed x and y values of the coordinates
+     * @param numPoints Number of coordinates
+     * @return Repaired rings, or {@code null} if no ring is left
+     */
+    private static Rings repairRings(int[] parts, double[] packedPoints, int numPoints) {
+        int[] repairedParts = new int[parts.length];
+        // Each ring gains at most one coordinate when closed
+        double[] repairedPoints = new double[(numPoints + parts.length) * 2];
+        int numRings = 0;
+        int numRepairedPoints = 0;
+
+        for (int i = 0; i < parts.length; i++) {
+            int start = parts[i];
+            int end = i + 1 < parts.length ? parts[i + 1] : numPoints;
+            boolean closed = isClosed(packedPoints, start, end);
+            int length = end - start + (closed ? 0 : 1);
+            if (length < 4) {
+                continue;
+            }
+
+            repairedParts[numRings++] = numRepairedPoints;
+            System.arraycopy(packedPoints, start * 2, repairedPoints, numRepairedPoints * 2, (end - start) * 2);
+            numRepairedPoints += end - start;
+            if (!closed) {
+                repairedPoints[numRepairedPoints * 2] = packedPoints[start * 2];
+                repairedPoints[numRepairedPoints * 2 + 1] = packedPoints[start * 2 + 1];
+                numRepairedPoints++;
+            }
+        }
+
+        if (numRings == 0) {
+            return null;
+        }
+        int[] ringParts = new int[numRings];
+        System.arraycopy(repairedParts, 0, ringParts, 0, numRings);
+        return new Rings(ringParts, repairedPoints, numRepairedPoints);
+    }
 
-        double x = coordinateBuffer.getDouble();
-        double y = coordinateBuffer.getDouble();
-        return new Coordinate(x, y);
+    private static boolean isClosed(double[] packedPoints, int start, int end) {
+        return end > start &&
+                packedPoints[start * 2] == packedPoints[(end - 1) * 2] &&
+                packedPoints[start * 2 + 1] == packedPoints[(end - 1) * 2 + 1];
     }
 
     /**
@@ -297,8 +840,11 @@ public class ESRIShapeFileParser {
      * @return {@code true} if the Coordinate has valid values, {@code false} otherwise
      */
     private static boolean isValidCoordinate(Coordinate coordinate) {
-        return coordinate.x <= 180 && coordinate.x >= -180 &&
-                coordinate.y <= 90 && coordinate.y >= -90;
+        return isValidCoordinate(coordinate.x, coordinate.y);
+    }
+
+    private static boolean isValidCoordinate(double x, double y) {
+        return x <= 180 && x >= -180 && y <= 90 && y >= -90;
     }
 
     /**
@@ -337,4 +883,20 @@ public class ESRIShapeFileParser {
         }
         return records;
     }
+
+    /**
+     * Rings of a polygon, as packed coordinates with the index of the first coordinate of each ring
+     */
+    private static class Rings {
+
+        private final int[] parts;
+        private final double[] packedPoints;
+        private final int numPoints;
+
+        private Rings(int[] parts, double[] packedPoints, int numPoints) {
+            this.parts = parts;
+            this.packedPoints = packedPoints;
+            this.numPoints = numPoints;
+        }
+    }
 }
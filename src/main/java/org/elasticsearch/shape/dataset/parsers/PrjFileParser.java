@@ -0,0 +1,274 @@
+package org.elasticsearch.shape.dataset.parsers;
+
+import org.elasticsearch.ElasticSearchParseException;
+import org.elasticsearch.shape.dataset.projection.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.common.util.concurrent.ConcurrentCollections.newConcurrentMap;
+
+/**
+ * Parser of the Well Known Text coordinate system definitions found in the PRJ files
+ * accompanying ESRI ShapeFiles.
+ * <p>
+ * Supported projections are:
+ * <ul>
+ * <li>Geographic coordinate systems</li>
+ * <li>Transverse Mercator</li>
+ * <li>Mercator, including the spherical web mercator</li>
+ * <li>Lambert Conformal Conic</li>
+ * </ul>
+ * Coordinates are converted into longitude and latitude on the datum of the coordinate
+ * system, no datum transformation is applied.
+ * </p>
+ */
+public class PrjFileParser {
+
+    private static final double DEGREE_IN_RADIANS = Math.PI / 180;
+
+    private static final ConcurrentMap<String, Projection> PROJECTIONS = newConcurrentMap();
+
+    private PrjFileParser() {
+    }
+
+    /**
+     * Parses the PRJ file contents, returning the {@link Projection} which converts
+     * coordinates in its coordinate system into longitude and latitude degrees.  Projections
+     * are cached, so files with the same contents share the same instance.
+     *
+     * @param wkt Contents of the PRJ file
+     * @return Projection for the coordinate system defined in the file
+     */
+    public static Projection parsePrjFile(String wkt) {
+        String key = wkt.trim();
+        Projection projection = PROJECTIONS.get(key);
+        if (projection == null) {
+            projection = toProjection(new WKTParser(key).parse());
+            PROJECTIONS.putIfAbsent(key, projection);
+        }
+        return projection;
+    }
+
+    private static Projection toProjection(Node root) {
+        if ("GEOGCS".equals(root.name)) {
+            double toDegrees = angularUnit(root) / DEGREE_IN_RADIANS;
+            Node primeMeridian = root.child("PRIMEM");
+            double primeMeridianDegrees = primeMeridian != null ? primeMeridian.number(1) * toDegrees : 0;
+            if (Math.abs(toDegrees - 1) < 1e-9 && primeMeridianDegrees == 0) {
+                return Projection.IDENTITY;
+            }
+            return new GeographicProjection(toDegrees, primeMeridianDegrees);
+        } else if (!"PROJCS".equals(root.name)) {
+            throw new ElasticSearchParseException("Unsupported coordinate system [" + root.name + "]");
+        }
+
+        Node geographic = root.child("GEOGCS");
+        Node spheroid = geographic != null ? geographic.child("DATUM") : null;
+        spheroid = spheroid != null ? spheroid.child("SPHEROID") : null;
+        if (spheroid == null) {
+            throw new ElasticSearchParseException("Projected coordinate system does not define a SPHEROID");
+        }
+        double semiMajorAxis = spheroid.number(1);
+        double inverseFlattening = spheroid.number(2);
+
+        Node projectionNode = root.child("PROJECTION");
+        if (projectionNode == null) {
+            throw new ElasticSearchParseException("Projected coordinate system does not define a PROJECTION");
+        }
+        String projection = projectionNode.string(0).toLowerCase(Locale.ROOT);
+
+        Map<String, Double> parameters = newHashMap();
+        for (Node parameter : root.children("PARAMETER")) {
+            parameters.put(parameter.string(0).toLowerCase(Locale.ROOT), parameter.number(1));
+        }
+
+        Node unit = root.child("UNIT");
+        double toMeters = unit != null ? unit.number(1) : 1;
+
+        double falseEasting = parameter(parameters, 0, "false_easting");
+        double falseNorthing = parameter(parameters, 0, "false_northing");
+        double centralMeridian = parameter(parameters, 0, "central_meridian", "longitude_of_center", "longitude_of_origin");
+        double latitudeOfOrigin = parameter(parameters, 0, "latitude_of_origin", "latitude_of_center");
+        double scaleFactor = parameter(parameters, 1, "scale_factor");
+
+        if (projection.equals("transverse_mercator") || projection.equals("gauss_kruger")) {
+            return new TransverseMercatorProjection(semiMajorAxis, inverseFlattening, centralMeridian, latitudeOfOrigin,
+                    scaleFactor, falseEasting, falseNorthing, toMeters);
+        } else if (projection.equals("mercator") || projection.equals("mercator_1sp") || projection.equals("mercator_2sp")) {
+            return new MercatorProjection(semiMajorAxis, inverseFlattening, centralMeridian,
+                    parameter(parameters, 0, "standard_parallel_1"), scaleFactor, falseEasting, falseNorthing, toMeters);
+        } else if (projection.equals("mercator_auxiliary_sphere") || projection.equals("popular_visualisation_pseudo_mercator")) {
+            return new MercatorProjection(semiMajorAxis, 0, centralMeridian,
+                    parameter(parameters, 0, "standard_parallel_1"), scaleFactor, falseEasting, falseNorthing, toMeters);
+        } else if (projection.startsWith("lambert_conformal_conic")) {
+            double standardParallel1 = parameter(parameters, latitudeOfOrigin, "standard_parallel_1");
+            double standardParallel2 = parameter(parameters, standardParallel1, "standard_parallel_2");
+            return new LambertConformalConicProjection(semiMajorAxis, inverseFlattening, centralMeridian, latitudeOfOrigin,
+                    standardParallel1, standardParallel2, scaleFactor, falseEasting, falseNorthing, toMeters);
+        }
+
+        throw new ElasticSearchParseException("Unsupported projection [" + projectionNode.string(0) + "]");
+    }
+
+    private static double angularUnit(Node geographic) {
+        Node unit = geographic.child("UNIT");
+        return unit != null ? unit.number(1) : DEGREE_IN_RADIANS;
+    }
+
+    private static double parameter(Map<String, Double> parameters, double defaultValue, String... names) {
+        for (String name : names) {
+            Double value = parameters.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Element of a WKT definition, such as {@code UNIT["Meter",1.0]}
+     */
+    private static class Node {
+
+        private final String name;
+        private final List<Object> values = newArrayList();
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        private Node child(String name) {
+            for (Object value : values) {
+                if (value instanceof Node && ((Node) value).name.equals(name)) {
+                    return (Node) value;
+                }
+            }
+            return null;
+        }
+
+        private List<Node> children(String name) {
+            List<Node> children = newArrayList();
+            for (Object value : values) {
+                if (value instanceof Node && ((Node) value).name.equals(name)) {
+                    children.add((Node) value);
+                }
+            }
+            return children;
+        }
+
+        private String string(int index) {
+            Object value = index < values.size() ? values.get(index) : null;
+            if (!(value instanceof String)) {
+                throw new ElasticSearchParseException("Expected string value at [" + index + "] in [" + name + "]");
+            }
+            return (String) value;
+        }
+
+        private double number(int index) {
+            Object value = index < values.size() ? values.get(index) : null;
+            if (!(value instanceof Double)) {
+                throw new ElasticSearchParseException("Expected numeric value at [" + index + "] in [" + name + "]");
+            }
+            return (Double) value;
+        }
+    }
+
+    /**
+     * Simple recursive descent parser of WKT definitions
+     */
+    private static class WKTParser {
+
+        private final String wkt;
+        private int position;
+
+        private WKTParser(String wkt) {
+            this.wkt = wkt;
+        }
+
+        private Node parse() {
+            Node node = parseNode();
+            skipWhitespace();
+            if (position != wkt.length()) {
+                throw new ElasticSearchParseException("Unexpected content after position [" + position + "] in PRJ file");
+            }
+            return node;
+        }
+
+        private Node parseNode() {
+            skipWhitespace();
+            int start = position;
+            while (position < wkt.length() && (Character.isLetterOrDigit(wkt.charAt(position)) || wkt.charAt(position) == '_')) {
+                position++;
+            }
+            if (start == position) {
+                throw new ElasticSearchParseException("Expected keyword at position [" + position + "] in PRJ file");
+            }
+            Node node = new Node(wkt.substring(start, position).toUpperCase(Locale.ROOT));
+
+            skipWhitespace();
+            char open = next();
+            if (open != '[' && open != '(') {
+                throw new ElasticSearchParseException("Expected [ at position [" + (position - 1) + "] in PRJ file");
+            }
+
+            while (true) {
+                skipWhitespace();
+                char c = peek();
+                if (c == '"') {
+                    position++;
+                    int end = wkt.indexOf('"', position);
+                    if (end == -1) {
+                        throw new ElasticSearchParseException("Unterminated string at position [" + position + "] in PRJ file");
+                    }
+                    node.values.add(wkt.substring(position, end));
+                    position = end + 1;
+                } else if (c == '-' || c == '+' || c == '.' || Character.isDigit(c)) {
+                    int end = position;
+                    while (end < wkt.length() && "+-.0123456789eE".indexOf(wkt.charAt(end)) != -1) {
+                        end++;
+                    }
+                    try {
+                        node.values.add(Double.parseDouble(wkt.substring(position, end)));
+                    } catch (NumberFormatException nfe) {
+                        throw new ElasticSearchParseException("Invalid number at position [" + position + "] in PRJ file", nfe);
+                    }
+                    position = end;
+                } else {
+                    node.values.add(parseNode());
+                }
+
+                skipWhitespace();
+                char separator = next();
+                if (separator == ']' || separator == ')') {
+                    return node;
+                } else if (separator != ',') {
+                    throw new ElasticSearchParseException("Expected , at position [" + (position - 1) + "] in PRJ file");
+                }
+            }
+        }
+
+        private char peek() {
+            if (position >= wkt.length()) {
+                throw new ElasticSearchParseException("Unexpected end of PRJ file");
+            }
+            return wkt.charAt(position);
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private void skipWhitespace() {
+            while (position < wkt.length() && Character.isWhitespace(wkt.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -7,11 +7,12 @@ import java.text.SimpleDateFormat;
 public abstract class RecordField {
 
     private final String name;
-    protected final byte length;
+    protected final int length;
 
     protected RecordField(String name, byte length) {
         this.name = name;
-        this.length = length;
+        // Lengths of up to 255 are stored as an unsigned byte
+        this.length = length & 0xFF;
     }
 
     public String name() {
@@ -20,6 +21,24 @@ public abstract class RecordField {
 
     public abstract Object value(ByteBuffer byteBuffer);
 
+    /**
+     * @return How values of the field are stored in an {@link AttributeRecord}
+     */
+    public RecordSchema.Kind kind() {
+        return RecordSchema.Kind.OBJECT;
+    }
+
+    /**
+     * Reads the value of the field into the given column of the record
+     *
+     * @param byteBuffer Buffer positioned at the value
+     * @param record Record to read the value into
+     * @param column Index of the field in the record
+     */
+    public void read(ByteBuffer byteBuffer, AttributeRecord record, int column) {
+        record.setObject(column, value(byteBuffer));
+    }
+
     protected String readString(ByteBuffer byteBuffer, int length) {
         byte[] name = new byte[length];
         byteBuffer.get(name, 0, length);
@@ -39,7 +58,8 @@ public abstract class RecordField {
             case 'F':
                 return new FloatField(name, length);
             default:
-                throw new UnsupportedOperationException("Field [" + name + "] has unsupported type [" + type + "]");
+                // Memo and other types held outside the record are read as null
+                return new UnsupportedField(name, length);
         }
     }
 
@@ -66,6 +86,19 @@ public abstract class RecordField {
             String number = readString(byteBuffer, length).trim();
             return (number.length() > 0) ? Double.parseDouble(number) : null;
         }
+
+        @Override
+        public RecordSchema.Kind kind() {
+            return RecordSchema.Kind.DOUBLE;
+        }
+
+        @Override
+        public void read(ByteBuffer byteBuffer, AttributeRecord record, int column) {
+            String number = readString(byteBuffer, length).trim();
+            if (number.length() > 0) {
+                record.setNumber(column, Double.parseDouble(number));
+            }
+        }
     }
 
     public static class LogicalField extends RecordField {
@@ -79,6 +112,17 @@ public abstract class RecordField {
             byte value = byteBuffer.get();
             return value == 'Y' || value == 'y' || value == 'T' || value == 't';
         }
+
+        @Override
+        public RecordSchema.Kind kind() {
+            return RecordSchema.Kind.BOOLEAN;
+        }
+
+        @Override
+        public void read(ByteBuffer byteBuffer, AttributeRecord record, int column) {
+            byte value = byteBuffer.get();
+            record.setBoolean(column, value == 'Y' || value == 'y' || value == 'T' || value == 't');
+        }
     }
 
     public static class DateField extends RecordField {
@@ -91,11 +135,16 @@ public abstract class RecordField {
 
         @Override
         public Object value(ByteBuffer byteBuffer) {
+            String date = readString(byteBuffer, length).trim();
+            if (date.length() == 0) {
+                return null;
+            }
             try {
                 SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
-                return dateFormat.parse(readString(byteBuffer, length));
+                return dateFormat.parse(date);
             } catch (ParseException pe) {
-                throw new RuntimeException(pe);
+                // Unreadable dates are treated as missing, as javadbf did
+                return null;
             }
         }
     }
@@ -111,5 +160,31 @@ public abstract class RecordField {
             String number = readString(byteBuffer, length).trim();
             return (number.length() > 0) ? Float.parseFloat(number) : null;
         }
+
+        @Override
+        public RecordSchema.Kind kind() {
+            return RecordSchema.Kind.FLOAT;
+        }
+
+        @Override
+        public void read(ByteBuffer byteBuffer, AttributeRecord record, int column) {
+            String number = readString(byteBuffer, length).trim();
+            if (number.length() > 0) {
+                record.setNumber(column, Float.parseFloat(number));
+            }
+        }
+    }
+
+    public static class UnsupportedField extends RecordField {
+
+        public UnsupportedField(String name, byte length) {
+            super(name, length);
+        }
+
+        @Override
+        public Object value(ByteBuffer byteBuffer) {
+            byteBuffer.position(byteBuffer.position() + length);
+            return null;
+        }
     }
 }
@@ -0,0 +1,121 @@
+package org.elasticsearch.shape.dataset.parsers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+
+/**
+ * Schema of the records in a DBF file, shared by all the {@link AttributeRecord}s read from
+ * it.  Assigns each field a slot in the compact storage of the records: numeric and logical
+ * fields are held as primitives, others as objects.
+ * <p>
+ * Fields can be hidden, in which case they are still read but are not part of the Map
+ * view of the records.  This is used for fields, such as the Shape name, that are
+ * extracted from the records separately.
+ * </p>
+ */
+public class RecordSchema {
+
+    /**
+     * How the values of a field are stored
+     */
+    public static enum Kind {
+        DOUBLE,
+        FLOAT,
+        BOOLEAN,
+        OBJECT
+    }
+
+    private final String[] names;
+    private final Kind[] kinds;
+    private final int[] slots;
+    private final boolean[] hidden;
+    private final int numNumbers;
+    private final int numObjects;
+    private final Map<String, Integer> columns = newHashMap();
+
+    /**
+     * Creates a new RecordSchema for the given fields
+     *
+     * @param fields Fields of the records, as returned by {@link DBaseFileParser#fields()}
+     * @param hiddenFields Names of the fields to hide from the Map view of the records
+     */
+    public RecordSchema(List<RecordField> fields, String... hiddenFields) {
+        this.names = new String[fields.size()];
+        this.kinds = new Kind[fields.size()];
+        this.slots = new int[fields.size()];
+        this.hidden = new boolean[fields.size()];
+
+        List<String> hiddenFieldList = Arrays.asList(hiddenFields);
+        int numNumbers = 0;
+        int numObjects = 0;
+        for (int i = 0; i < fields.size(); i++) {
+            RecordField field = fields.get(i);
+            names[i] = field.name();
+            kinds[i] = field.kind();
+            hidden[i] = hiddenFieldList.contains(field.name());
+            if (kinds[i] == Kind.DOUBLE || kinds[i] == Kind.FLOAT) {
+                slots[i] = numNumbers++;
+            } else if (kinds[i] == Kind.OBJECT) {
+                slots[i] = numObjects++;
+            }
+            columns.put(field.name(), i);
+        }
+        this.numNumbers = numNumbers;
+        this.numObjects = numObjects;
+    }
+
+    /**
+     * @return Number of fields in the schema, including hidden fields
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param column Index of the field
+     * @return Name of the field
+     */
+    public String name(int column) {
+        return names[column];
+    }
+
+    /**
+     * @param column Index of the field
+     * @return How the values of the field are stored
+     */
+    public Kind kind(int column) {
+        return kinds[column];
+    }
+
+    /**
+     * @param column Index of the field
+     * @return Whether the field is hidden from the Map view of the records
+     */
+    public boolean hidden(int column) {
+        return hidden[column];
+    }
+
+    /**
+     * @param name Name of the field
+     * @return Index of the field with the name, or {@code -1} if there is no such field
+     */
+    public int column(String name) {
+        Integer column = columns.get(name);
+        return column != null ? column : -1;
+    }
+
+    int slot(int column) {
+        return slots[column];
+    }
+
+    int numNumbers() {
+        return numNumbers;
+    }
+
+    int numObjects() {
+        return numObjects;
+    }
+}
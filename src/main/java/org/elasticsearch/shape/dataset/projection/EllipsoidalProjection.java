@@ -0,0 +1,87 @@
+package org.elasticsearch.shape.dataset.projection;
+
+/**
+ * Base class for {@link Projection}s of an ellipsoid, holding the parameters shared by them
+ */
+public abstract class EllipsoidalProjection implements Projection {
+
+    private static final int MAX_ITERATIONS = 15;
+    private static final double CONVERGENCE = 1e-12;
+
+    protected final double a;
+    protected final double e;
+    protected final double e2;
+    protected final double centralMeridian;
+    protected final double falseEasting;
+    protected final double falseNorthing;
+    protected final double toMeters;
+
+    /**
+     * Creates a new EllipsoidalProjection
+     *
+     * @param semiMajorAxis Semi-major axis of the ellipsoid, in meters
+     * @param inverseFlattening Inverse flattening of the ellipsoid, or {@code 0} for a sphere
+     * @param centralMeridian Central meridian of the projection, in degrees
+     * @param falseEasting False easting, in the linear unit of the coordinates
+     * @param falseNorthing False northing, in the linear unit of the coordinates
+     * @param toMeters Factor converting the linear unit of the coordinates into meters
+     */
+    protected EllipsoidalProjection(
+            double semiMajorAxis,
+            double inverseFlattening,
+            double centralMeridian,
+            double falseEasting,
+            double falseNorthing,
+            double toMeters) {
+        double f = inverseFlattening == 0 ? 0 : 1 / inverseFlattening;
+        this.a = semiMajorAxis;
+        this.e2 = f * (2 - f);
+        this.e = Math.sqrt(e2);
+        this.centralMeridian = Math.toRadians(centralMeridian);
+        this.falseEasting = falseEasting;
+        this.falseNorthing = falseNorthing;
+        this.toMeters = toMeters;
+    }
+
+    /**
+     * Computes the latitude from Snyder's isometric latitude function t, by iteration
+     *
+     * @param t Value of t
+     * @return Latitude, in radians
+     */
+    protected double latitudeFromT(double t) {
+        double halfE = e / 2;
+        double phi = Math.PI / 2 - 2 * Math.atan(t);
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double eSinPhi = e * Math.sin(phi);
+            double next = Math.PI / 2 - 2 * Math.atan(t * Math.pow((1 - eSinPhi) / (1 + eSinPhi), halfE));
+            if (Math.abs(next - phi) < CONVERGENCE) {
+                return next;
+            }
+            phi = next;
+        }
+        return phi;
+    }
+
+    /**
+     * Computes Snyder's isometric latitude function t for the given latitude
+     *
+     * @param phi Latitude, in radians
+     * @return Value of t
+     */
+    protected double t(double phi) {
+        double eSinPhi = e * Math.sin(phi);
+        return Math.tan(Math.PI / 4 - phi / 2) / Math.pow((1 - eSinPhi) / (1 + eSinPhi), e / 2);
+    }
+
+    /**
+     * Computes Snyder's function m for the given latitude
+     *
+     * @param phi Latitude, in radians
+     * @return Value of m
+     */
+    protected double m(double phi) {
+        double sinPhi = Math.sin(phi);
+        return Math.cos(phi) / Math.sqrt(1 - e2 * sinPhi * sinPhi);
+    }
+}
@@ -0,0 +1,30 @@
+package org.elasticsearch.shape.dataset.projection;
+
+/**
+ * {@link Projection} for geographic coordinate systems whose angular unit or prime
+ * meridian differ from degrees east of Greenwich
+ */
+public class GeographicProjection implements Projection {
+
+    private final double toDegrees;
+    private final double primeMeridian;
+
+    /**
+     * Creates a new GeographicProjection
+     *
+     * @param toDegrees Factor converting the angular unit of the coordinates into degrees
+     * @param primeMeridian Longitude, in degrees east of Greenwich, of the prime meridian
+     */
+    public GeographicProjection(double toDegrees, double primeMeridian) {
+        this.toDegrees = toDegrees;
+        this.primeMeridian = primeMeridian;
+    }
+
+    @Override
+    public void toGeographic(double[] coordinates, int numCoordinates) {
+        for (int i = 0; i < numCoordinates * 2; i += 2) {
+            coordinates[i] = coordinates[i] * toDegrees + primeMeridian;
+            coordinates[i + 1] = coordinates[i + 1] * toDegrees;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.elasticsearch.shape.dataset.projection;
+
+/**
+ * Inverse of the ellipsoidal Lambert Conformal Conic projection, with one or two
+ * standard parallels
+ */
+public class LambertConformalConicProjection extends EllipsoidalProjection {
+
+    private final double n;
+    private final double aF;
+    private final double rho0;
+
+    /**
+     * Creates a new LambertConformalConicProjection
+     *
+     * @param semiMajorAxis Semi-major axis of the ellipsoid, in meters
+     * @param inverseFlattening Inverse flattening of the ellipsoid, or {@code 0} for a sphere
+     * @param centralMeridian Central meridian, in degrees
+     * @param latitudeOfOrigin Latitude of origin, in degrees
+     * @param standardParallel1 First standard parallel, in degrees
+     * @param standardParallel2 Second standard parallel, in degrees.  Same as the first for
+     *                          single parallel variants
+     * @param scaleFactor Scale factor on the standard parallel
+     * @param falseEasting False easting, in the linear unit of the coordinates
+     * @param falseNorthing False northing, in the linear unit of the coordinates
+     * @param toMeters Factor converting the linear unit of the coordinates into meters
+     */
+    public LambertConformalConicProjection(
+            double semiMajorAxis,
+            double inverseFlattening,
+            double centralMeridian,
+            double latitudeOfOrigin,
+            double standardParallel1,
+            double standardParallel2,
+            double scaleFactor,
+            double falseEasting,
+            double falseNorthing,
+            double toMeters) {
+        super(semiMajorAxis, inverseFlattening, centralMeridian, falseEasting, falseNorthing, toMeters);
+
+        double phi1 = Math.toRadians(standardParallel1);
+        double phi2 = Math.toRadians(standardParallel2);
+        double m1 = m(phi1);
+        double t1 = t(phi1);
+
+        if (Math.abs(phi1 - phi2) < 1e-10) {
+            this.n = Math.sin(phi1);
+        } else {
+            this.n = (Math.log(m1) - Math.log(m(phi2))) / (Math.log(t1) - Math.log(t(phi2)));
+        }
+        this.aF = a * scaleFactor * m1 / (n * Math.pow(t1, n));
+        this.rho0 = aF * Math.pow(t(Math.toRadians(latitudeOfOrigin)), n);
+    }
+
+    @Override
+    public void toGeographic(double[] coordinates, int numCoordinates) {
+        double sign = Math.signum(n);
+        for (int i = 0; i < numCoordinates * 2; i += 2) {
+            double x = (coordinates[i] - falseEasting) * toMeters;
+            double y = rho0 - (coordinates[i + 1] - falseNorthing) * toMeters;
+
+            double rho = sign * Math.sqrt(x * x + y * y);
+            double theta = Math.atan2(sign * x, sign * y);
+            double t = Math.pow(rho / aF, 1 / n);
+
+            coordinates[i] = Math.toDegrees(theta / n + centralMeridian);
+            coordinates[i + 1] = Math.toDegrees(latitudeFromT(t));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.elasticsearch.shape.dataset.projection;
+
+/**
+ * Inverse of the ellipsoidal Mercator projection.  Spherical variants, such as the web
+ * mercator used by online maps, are supported by using an inverse flattening of {@code 0}.
+ */
+public class MercatorProjection extends EllipsoidalProjection {
+
+    private final double aScaled;
+
+    /**
+     * Creates a new MercatorProjection
+     *
+     * @param semiMajorAxis Semi-major axis of the ellipsoid, in meters
+     * @param inverseFlattening Inverse flattening of the ellipsoid, or {@code 0} for a sphere
+     * @param centralMeridian Central meridian, in degrees
+     * @param standardParallel Latitude of true scale, in degrees
+     * @param scaleFactor Scale factor at the equator, applied in addition to the standard parallel
+     * @param falseEasting False easting, in the linear unit of the coordinates
+     * @param falseNorthing False northing, in the linear unit of the coordinates
+     * @param toMeters Factor converting the linear unit of the coordinates into meters
+     */
+    public MercatorProjection(
+            double semiMajorAxis,
+            double inverseFlattening,
+            double centralMeridian,
+            double standardParallel,
+            double scaleFactor,
+            double falseEasting,
+            double falseNorthing,
+            double toMeters) {
+        super(semiMajorAxis, inverseFlattening, centralMeridian, falseEasting, falseNorthing, toMeters);
+        this.aScaled = a * scaleFactor * m(Math.toRadians(standardParallel));
+    }
+
+    @Override
+    public void toGeographic(double[] coordinates, int numCoordinates) {
+        for (int i = 0; i < numCoordinates * 2; i += 2) {
+            double x = (coordinates[i] - falseEasting) * toMeters;
+            double y = (coordinates[i + 1] - falseNorthing) * toMeters;
+
+            coordinates[i] = Math.toDegrees(centralMeridian + x / aScaled);
+            coordinates[i + 1] = Math.toDegrees(latitudeFromT(Math.exp(-y / aScaled)));
+        }
+    }
+}
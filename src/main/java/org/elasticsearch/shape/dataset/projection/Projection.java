@@ -0,0 +1,27 @@
+package org.elasticsearch.shape.dataset.projection;
+
+/**
+ * Converts coordinates from a coordinate reference system into longitude and latitude
+ * degrees.  Conversions operate in bulk over packed arrays of coordinates so that the
+ * projection parameters are only resolved once, rather than per coordinate.
+ */
+public interface Projection {
+
+    /**
+     * Projection for coordinates that are already longitude and latitude degrees
+     */
+    Projection IDENTITY = new Projection() {
+
+        @Override
+        public void toGeographic(double[] coordinates, int numCoordinates) {
+        }
+    };
+
+    /**
+     * Converts the given coordinates into longitude and latitude degrees, in place
+     *
+     * @param coordinates Packed coordinates, with the x value of each coordinate followed by its y value
+     * @param numCoordinates Number of coordinates in the array to convert
+     */
+    void toGeographic(double[] coordinates, int numCoordinates);
+}
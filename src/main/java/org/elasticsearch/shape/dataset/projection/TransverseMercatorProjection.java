@@ -0,0 +1,89 @@
+package org.elasticsearch.shape.dataset.projection;
+
+/**
+ * Inverse of the ellipsoidal Transverse Mercator projection, as used by UTM and many
+ * national grids.  Implements the series given by Snyder in "Map Projections - A Working
+ * Manual", which is accurate to well under a meter within a few degrees of the central meridian.
+ */
+public class TransverseMercatorProjection extends EllipsoidalProjection {
+
+    private final double scaleFactor;
+    private final double ep2;
+    private final double m0;
+    private final double muDivisor;
+    private final double j1, j2, j3, j4;
+
+    /**
+     * Creates a new TransverseMercatorProjection
+     *
+     * @param semiMajorAxis Semi-major axis of the ellipsoid, in meters
+     * @param inverseFlattening Inverse flattening of the ellipsoid, or {@code 0} for a sphere
+     * @param centralMeridian Central meridian, in degrees
+     * @param latitudeOfOrigin Latitude of origin, in degrees
+     * @param scaleFactor Scale factor on the central meridian
+     * @param falseEasting False easting, in the linear unit of the coordinates
+     * @param falseNorthing False northing, in the linear unit of the coordinates
+     * @param toMeters Factor converting the linear unit of the coordinates into meters
+     */
+    public TransverseMercatorProjection(
+            double semiMajorAxis,
+            double inverseFlattening,
+            double centralMeridian,
+            double latitudeOfOrigin,
+            double scaleFactor,
+            double falseEasting,
+            double falseNorthing,
+            double toMeters) {
+        super(semiMajorAxis, inverseFlattening, centralMeridian, falseEasting, falseNorthing, toMeters);
+        this.scaleFactor = scaleFactor;
+        this.ep2 = e2 / (1 - e2);
+        this.m0 = meridionalArc(Math.toRadians(latitudeOfOrigin));
+        this.muDivisor = a * (1 - e2 / 4 - 3 * e2 * e2 / 64 - 5 * e2 * e2 * e2 / 256);
+
+        double e1 = (1 - Math.sqrt(1 - e2)) / (1 + Math.sqrt(1 - e2));
+        this.j1 = 3 * e1 / 2 - 27 * e1 * e1 * e1 / 32;
+        this.j2 = 21 * e1 * e1 / 16 - 55 * e1 * e1 * e1 * e1 / 32;
+        this.j3 = 151 * e1 * e1 * e1 / 96;
+        this.j4 = 1097 * e1 * e1 * e1 * e1 / 512;
+    }
+
+    @Override
+    public void toGeographic(double[] coordinates, int numCoordinates) {
+        for (int i = 0; i < numCoordinates * 2; i += 2) {
+            double x = (coordinates[i] - falseEasting) * toMeters;
+            double y = (coordinates[i + 1] - falseNorthing) * toMeters;
+
+            double mu = (m0 + y / scaleFactor) / muDivisor;
+            double phi1 = mu + j1 * Math.sin(2 * mu) + j2 * Math.sin(4 * mu) + j3 * Math.sin(6 * mu) + j4 * Math.sin(8 * mu);
+
+            double sinPhi1 = Math.sin(phi1);
+            double cosPhi1 = Math.cos(phi1);
+            double tanPhi1 = Math.tan(phi1);
+
+            double c1 = ep2 * cosPhi1 * cosPhi1;
+            double t1 = tanPhi1 * tanPhi1;
+            double w = 1 - e2 * sinPhi1 * sinPhi1;
+            double n1 = a / Math.sqrt(w);
+            double r1 = a * (1 - e2) / (w * Math.sqrt(w));
+            double d = x / (n1 * scaleFactor);
+            double d2 = d * d;
+
+            double phi = phi1 - (n1 * tanPhi1 / r1) * (d2 / 2
+                    - (5 + 3 * t1 + 10 * c1 - 4 * c1 * c1 - 9 * ep2) * d2 * d2 / 24
+                    + (61 + 90 * t1 + 298 * c1 + 45 * t1 * t1 - 252 * ep2 - 3 * c1 * c1) * d2 * d2 * d2 / 720);
+            double lambda = centralMeridian + (d
+                    - (1 + 2 * t1 + c1) * d2 * d / 6
+                    + (5 - 2 * c1 + 28 * t1 - 3 * c1 * c1 + 8 * ep2 + 24 * t1 * t1) * d2 * d2 * d / 120) / cosPhi1;
+
+            coordinates[i] = Math.toDegrees(lambda);
+            coordinates[i + 1] = Math.toDegrees(phi);
+        }
+    }
+
+    private double meridionalArc(double phi) {
+        return a * ((1 - e2 / 4 - 3 * e2 * e2 / 64 - 5 * e2 * e2 * e2 / 256) * phi
+                - (3 * e2 / 8 + 3 * e2 * e2 / 32 + 45 * e2 * e2 * e2 / 1024) * Math.sin(2 * phi)
+                + (15 * e2 * e2 / 256 + 45 * e2 * e2 * e2 / 1024) * Math.sin(4 * phi)
+                - (35 * e2 * e2 * e2 / 3072) * Math.sin(6 * phi));
+    }
+}
@@ -0,0 +1,272 @@
+package org.elasticsearch.shape.dataset.writers;
+
+import org.elasticsearch.shape.dataset.parsers.DBaseFileParser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Writer of dBase files, producing the DBF files read by {@link DBaseFileParser}.  Since
+ * the header defines the fields and the number of records up front, the fields are first
+ * collected with a {@link FieldsBuilder} from all the records to be written.
+ * <p>
+ * http://www.clicketyclick.dk/databases/xbase/format/dbf.html
+ * </p>
+ */
+public class DBaseFileWriter implements Closeable {
+
+    private static final byte VERSION = 0x03;
+    private static final byte FIELD_END = (byte) 0x0D;
+    private static final byte VALID = 0x20;
+    private static final byte END_OF_FILE = 0x1A;
+
+    private static final int HEADER_BYTES = 32;
+    private static final int FIELD_BYTES = 32;
+    private static final int MAX_NAME_LENGTH = 10;
+    private static final int MAX_FIELD_LENGTH = 254;
+
+    private final OutputStream out;
+    private final List<Field> fields;
+    private final byte[] record;
+
+    /**
+     * Creates a new DBaseFileWriter, writing the header to the given stream
+     *
+     * @param out Stream to write the file to
+     * @param fields Fields of the records, as built by a {@link FieldsBuilder}
+     * @param numRecords Number of records that will be written
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    public DBaseFileWriter(OutputStream out, List<Field> fields, int numRecords) throws IOException {
+        this.out = out;
+        this.fields = fields;
+
+        int recordBytes = 1;
+        for (Field field : fields) {
+            recordBytes += field.length;
+        }
+        this.record = new byte[recordBytes];
+
+        int headerBytes = HEADER_BYTES + fields.size() * FIELD_BYTES + 1;
+        ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        Calendar now = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ROOT);
+        header.put(VERSION)
+                .put((byte) (now.get(Calendar.YEAR) - 1900))
+                .put((byte) (now.get(Calendar.MONTH) + 1))
+                .put((byte) now.get(Calendar.DAY_OF_MONTH))
+                .putInt(numRecords)
+                .putShort((short) headerBytes)
+                .putShort((short) recordBytes);
+        header.position(HEADER_BYTES);
+
+        for (Field field : fields) {
+            byte[] name = field.name.getBytes(DBaseFileParser.CHARSET);
+            header.put(name).put(new byte[11 - name.length])
+                    .put((byte) field.type)
+                    .putInt(0)
+                    .put((byte) field.length)
+                    .put((byte) field.decimalCount)
+                    .put(new byte[14]);
+        }
+        header.put(FIELD_END);
+        out.write(header.array());
+    }
+
+    /**
+     * Writes a record with the given values, keyed by the names of the fields given to the
+     * {@link FieldsBuilder}.  Values without a field are ignored.
+     *
+     * @param values Values of the record
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    public void write(Map<String, Object> values) throws IOException {
+        Arrays.fill(record, (byte) ' ');
+        record[0] = VALID;
+
+        int offset = 1;
+        for (Field field : fields) {
+            Object value = values.get(field.key);
+            if (value != null) {
+                field.format(value, record, offset);
+            }
+            offset += field.length;
+        }
+        out.write(record);
+    }
+
+    /**
+     * Writes the end of file marker.  The underlying stream is not closed.
+     *
+     * @throws IOException Can be thrown if there is a problem writing to the stream
+     */
+    @Override
+    public void close() throws IOException {
+        out.write(END_OF_FILE);
+        out.flush();
+    }
+
+    /**
+     * Field of a dBase file
+     */
+    public static class Field {
+
+        private final String key;
+        private final String name;
+        private final char type;
+        private final int length;
+        private final int decimalCount;
+
+        private Field(String key, String name, char type, int length, int decimalCount) {
+            this.key = key;
+            this.name = name;
+            this.type = type;
+            this.length = length;
+            this.decimalCount = decimalCount;
+        }
+
+        /**
+         * @return Name of the field in the file, which is truncated to 10 characters
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return dBase type of the field
+         */
+        public char type() {
+            return type;
+        }
+
+        /**
+         * @return Length of the values of the field, in bytes
+         */
+        public int length() {
+            return length;
+        }
+
+        private void format(Object value, byte[] record, int offset) {
+            if (type == 'L') {
+                record[offset] = (byte) (((Boolean) value) ? 'T' : 'F');
+                return;
+            }
+
+            byte[] bytes = (value instanceof Number ? formatNumber((Number) value) : value.toString()).getBytes(DBaseFileParser.CHARSET);
+            int length = Math.min(bytes.length, this.length);
+            // Numbers are right aligned and characters left aligned
+            int start = type == 'N' ? offset + this.length - length : offset;
+            System.arraycopy(bytes, 0, record, start, length);
+        }
+    }
+
+    /**
+     * Builder of the {@link Field}s of a dBase file, inferring their types and lengths from
+     * the values of the records.  Fields holding only numbers become Number fields, those
+     * holding only booleans Logical fields, and all others Character fields.
+     */
+    public static class FieldsBuilder {
+
+        private final Map<String, FieldStats> stats = newLinkedHashMap();
+
+        /**
+         * Adds the values of a record
+         *
+         * @param values Values of the record, keyed by field name
+         * @return this
+         */
+        public FieldsBuilder add(Map<String, Object> values) {
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                FieldStats fieldStats = stats.get(entry.getKey());
+                if (fieldStats == null) {
+                    fieldStats = new FieldStats();
+                    stats.put(entry.getKey(), fieldStats);
+                }
+                fieldStats.add(entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * @return Fields for the values added, with names made unique once truncated
+         */
+        public List<Field> build() {
+            List<Field> fields = newArrayList();
+            Set<String> names = new HashSet<String>();
+
+            for (Map.Entry<String, FieldStats> entry : stats.entrySet()) {
+                String name = truncate(entry.getKey(), MAX_NAME_LENGTH);
+                for (int suffix = 1; !names.add(name.toUpperCase(Locale.ROOT)); suffix++) {
+                    String suffixString = Integer.toString(suffix);
+                    name = truncate(entry.getKey(), MAX_NAME_LENGTH - suffixString.length()) + suffixString;
+                }
+
+                FieldStats fieldStats = entry.getValue();
+                if (fieldStats.type == 'L') {
+                    fields.add(new Field(entry.getKey(), name, 'L', 1, 0));
+                } else {
+                    // Fields without any values are written as empty Character fields
+                    fields.add(new Field(entry.getKey(), name, fieldStats.type != 0 ? fieldStats.type : 'C',
+                            Math.max(1, Math.min(fieldStats.length, MAX_FIELD_LENGTH)), fieldStats.decimalCount));
+                }
+            }
+            return fields;
+        }
+
+        private static String truncate(String name, int length) {
+            byte[] bytes = name.getBytes(DBaseFileParser.CHARSET);
+            return bytes.length > length ? new String(bytes, 0, length, DBaseFileParser.CHARSET) : name;
+        }
+    }
+
+    private static class FieldStats {
+
+        // Type is undecided until the first non-null value
+        private char type;
+        private int length;
+        private int decimalCount;
+        private int characterLength;
+
+        private void add(Object value) {
+            if (value == null) {
+                return;
+            }
+
+            char valueType = value instanceof Number ? 'N' : value instanceof Boolean ? 'L' : 'C';
+            if (type == 0) {
+                type = valueType;
+            } else if (type != valueType) {
+                type = 'C';
+            }
+
+            String string = valueType == 'N' ? formatNumber((Number) value) : value.toString();
+            int stringLength = string.getBytes(DBaseFileParser.CHARSET).length;
+            characterLength = Math.max(characterLength, stringLength);
+            if (valueType == 'N') {
+                int point = string.indexOf('.');
+                decimalCount = Math.max(decimalCount, point != -1 ? string.length() - point - 1 : 0);
+            }
+            length = type == 'C' ? characterLength : Math.max(length, stringLength);
+            if (type == 'C') {
+                decimalCount = 0;
+            }
+        }
+    }
+
+    private static String formatNumber(Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            double value = number.doubleValue();
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return number.toString();
+        }
+        return number.toString();
+    }
+}
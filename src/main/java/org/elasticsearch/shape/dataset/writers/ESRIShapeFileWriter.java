@@ -0,0 +1,237 @@
+package org.elasticsearch.shape.dataset.writers;
+
+import org.elasticsearch.common.io.Closeables;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Writer of ESRI ShapeFiles, producing the SHP and SHX files read by
+ * {@link org.elasticsearch.shape.dataset.parsers.ESRIShapeFileParser}.  Implementation is
+ * derived from the technical description of the file formats provided in
+ * http://www.esri.com/library/whitepapers/pdfs/shapefile.pdf.
+ * <p>
+ * Records are appended to the files as they are written, with the headers, which hold the
+ * length of the files and the bounding box of all the Shapes, written once the writer is
+ * closed.  Memory use is therefore independent of the number of records.  Polygons are
+ * written as Polygon records, and any other Shapes as Null records.
+ * </p>
+ */
+public class ESRIShapeFileWriter implements Closeable {
+
+    private static final int FILE_CODE = 9994;
+    private static final int VERSION = 1000;
+    private static final int HEADER_BYTES = 100;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int SHX_RECORD_BYTES = 8;
+
+    private static final int NULL_SHAPE = 0;
+    private static final int POLYGON = 5;
+
+    private final RandomAccessFile shpFile;
+    private final RandomAccessFile shxFile;
+    private final FileChannel shpChannel;
+    private final FileChannel shxChannel;
+    private final ByteBuffer shxRecord = ByteBuffer.allocate(SHX_RECORD_BYTES);
+
+    private int numRecords;
+    private long shpLength = HEADER_BYTES;
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates a new ESRIShapeFileWriter writing to the given files
+     *
+     * @param shp SHP file to write the Shapes to
+     * @param shx SHX file to write the offsets of the records to
+     * @throws IOException Can be thrown if there is a problem opening the files
+     */
+    public ESRIShapeFileWriter(File shp, File shx) throws IOException {
+        this.shpFile = new RandomAccessFile(shp, "rw");
+        this.shxFile = new RandomAccessFile(shx, "rw");
+        this.shpChannel = shpFile.getChannel();
+        this.shxChannel = shxFile.getChannel();
+
+        // Space for the headers is left until the files are complete
+        shpChannel.position(HEADER_BYTES);
+        shxChannel.position(HEADER_BYTES);
+    }
+
+    /**
+     * Writes polygons as a Polygon record.  Each polygon is given as its rings of packed x
+     * and y values, the first ring being its shell and any others its holes.  Rings are
+     * reoriented as needed so that shells are clockwise and holes counter-clockwise.
+     *
+     * @param polygons Rings of each of the polygons
+     * @throws IOException Can be thrown if there is a problem writing to the files
+     */
+    public void writePolygons(List<double[][]> polygons) throws IOException {
+        int numParts = 0;
+        int numPoints = 0;
+        for (double[][] rings : polygons) {
+            numParts += rings.length;
+            for (double[] ring : rings) {
+                numPoints += ring.length / 2;
+            }
+        }
+        if (numParts == 0) {
+            writeNull();
+            return;
+        }
+
+        int contentBytes = 44 + numParts * 4 + numPoints * 16;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + contentBytes);
+        writeRecordHeader(record, contentBytes);
+
+        double recordMinX = Double.POSITIVE_INFINITY;
+        double recordMinY = Double.POSITIVE_INFINITY;
+        double recordMaxX = Double.NEGATIVE_INFINITY;
+        double recordMaxY = Double.NEGATIVE_INFINITY;
+        for (double[][] rings : polygons) {
+            for (double[] ring : rings) {
+                for (int i = 0; i < ring.length; i += 2) {
+                    recordMinX = Math.min(recordMinX, ring[i]);
+                    recordMinY = Math.min(recordMinY, ring[i + 1]);
+                    recordMaxX = Math.max(recordMaxX, ring[i]);
+                    recordMaxY = Math.max(recordMaxY, ring[i + 1]);
+                }
+            }
+        }
+
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(POLYGON)
+                .putDouble(recordMinX).putDouble(recordMinY).putDouble(recordMaxX).putDouble(recordMaxY)
+                .putInt(numParts).putInt(numPoints);
+
+        int partStart = 0;
+        for (double[][] rings : polygons) {
+            for (double[] ring : rings) {
+                record.putInt(partStart);
+                partStart += ring.length / 2;
+            }
+        }
+
+        for (double[][] rings : polygons) {
+            for (int i = 0; i < rings.length; i++) {
+                // Shells are clockwise, which have a negative signed area, and holes counter-clockwise
+                double[] ring = rings[i];
+                boolean reverse = (signedArea(ring) < 0) != (i == 0);
+                for (int point = 0; point < ring.length / 2; point++) {
+                    int index = reverse ? ring.length / 2 - 1 - point : point;
+                    record.putDouble(ring[index * 2]).putDouble(ring[index * 2 + 1]);
+                }
+            }
+        }
+
+        minX = Math.min(minX, recordMinX);
+        minY = Math.min(minY, recordMinY);
+        maxX = Math.max(maxX, recordMaxX);
+        maxY = Math.max(maxY, recordMaxY);
+        writeRecord(record);
+    }
+
+    /**
+     * Writes a Null record, which has no geometry
+     *
+     * @throws IOException Can be thrown if there is a problem writing to the files
+     */
+    public void writeNull() throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + 4);
+        writeRecordHeader(record, 4);
+        record.order(ByteOrder.LITTLE_ENDIAN).putInt(NULL_SHAPE);
+        writeRecord(record);
+    }
+
+    /**
+     * @return Number of records written
+     */
+    public int numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Writes the headers of the files and closes them
+     *
+     * @throws IOException Can be thrown if there is a problem writing to the files
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeHeader(shpChannel, shpLength);
+            writeHeader(shxChannel, HEADER_BYTES + (long) numRecords * SHX_RECORD_BYTES);
+        } finally {
+            Closeables.closeQuietly(shpFile);
+            Closeables.closeQuietly(shxFile);
+        }
+    }
+
+    private void writeRecordHeader(ByteBuffer record, int contentBytes) {
+        // Record numbers start at 1, and lengths are defined as 16-bit words
+        record.order(ByteOrder.BIG_ENDIAN);
+        record.putInt(numRecords + 1).putInt(contentBytes / 2);
+    }
+
+    private void writeRecord(ByteBuffer record) throws IOException {
+        record.flip();
+        int recordBytes = record.remaining();
+
+        shxRecord.clear();
+        shxRecord.putInt((int) (shpLength / 2)).putInt((recordBytes - RECORD_HEADER_BYTES) / 2).flip();
+        writeFully(shxChannel, shxRecord);
+        writeFully(shpChannel, record);
+
+        shpLength += recordBytes;
+        numRecords++;
+    }
+
+    private void writeHeader(FileChannel channel, long fileLength) throws IOException {
+        boolean empty = numRecords == 0 || minX > maxX;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.order(ByteOrder.BIG_ENDIAN);
+        header.putInt(FILE_CODE);
+        // Unused blocks of data
+        header.putInt(0).putInt(0).putInt(0).putInt(0).putInt(0);
+        header.putInt((int) (fileLength / 2));
+
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(VERSION);
+        header.putInt(POLYGON);
+        header.putDouble(empty ? 0 : minX).putDouble(empty ? 0 : minY)
+                .putDouble(empty ? 0 : maxX).putDouble(empty ? 0 : maxY);
+        // Z and M ranges are unused
+        header.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+        header.flip();
+
+        channel.position(0);
+        writeFully(channel, header);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Calculates twice the signed area of the given ring, which is negative for clockwise rings
+     *
+     * @param ring Packed x and y values of the coordinates of the ring
+     * @return Twice the signed area of the ring
+     */
+    private static double signedArea(double[] ring) {
+        double area = 0;
+        for (int i = 0; i < ring.length - 2; i += 2) {
+            area += ring[i] * ring[i + 3] - ring[i + 2] * ring[i + 1];
+        }
+        return area;
+    }
+}
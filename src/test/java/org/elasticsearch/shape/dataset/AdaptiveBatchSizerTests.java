@@ -0,0 +1,45 @@
+package org.elasticsearch.shape.dataset;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link AdaptiveBatchSizer}
+ */
+public class AdaptiveBatchSizerTests {
+
+    @Test
+    public void testAdjustments() {
+        AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(100, 10, 1000, 1000);
+        assertEquals(batchSizer.batchSize(), 100);
+
+        // Fast full bulks grow the batch
+        batchSizer.onBulk(100, 100, 0);
+        assertEquals(batchSizer.batchSize(), 125);
+
+        // Partial bulks say nothing about larger batches
+        batchSizer.onBulk(50, 100, 0);
+        assertEquals(batchSizer.batchSize(), 125);
+
+        // Slow bulks shrink the batch
+        batchSizer.onBulk(125, 2000, 0);
+        assertEquals(batchSizer.batchSize(), 94);
+
+        // Rejections halve the batch
+        batchSizer.onBulk(94, 100, 5);
+        assertEquals(batchSizer.batchSize(), 47);
+    }
+
+    @Test
+    public void testLimits() {
+        AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(100, 10, 120, 1000);
+        batchSizer.onBulk(100, 100, 0);
+        assertEquals(batchSizer.batchSize(), 120);
+
+        for (int i = 0; i < 10; i++) {
+            batchSizer.onBulk(batchSizer.batchSize(), 100, 1);
+        }
+        assertEquals(batchSizer.batchSize(), 10);
+    }
+}
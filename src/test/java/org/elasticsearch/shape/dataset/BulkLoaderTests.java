@@ -0,0 +1,217 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasAction;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link BulkLoader}
+ */
+public class BulkLoaderTests {
+
+    private ThreadPool threadPool;
+    private LoaderClient client;
+    private BulkLoader bulkLoader;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        threadPool = new ThreadPool();
+
+        // The alias points to the second version, whose settings and mappings are copied
+        final ClusterState state = ClusterState.newClusterStateBuilder()
+                .metaData(MetaData.newMetaDataBuilder()
+                        .put(IndexMetaData.newIndexMetaDataBuilder("shapes_v1").numberOfShards(1).numberOfReplicas(0))
+                        .put(IndexMetaData.newIndexMetaDataBuilder("shapes_v2")
+                                .settings(ImmutableSettings.settingsBuilder()
+                                        .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 3)
+                                        .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 2)
+                                        .put(IndexMetaData.SETTING_AUTO_EXPAND_REPLICAS, "0-all")
+                                        .put("index.refresh_interval", "5s")
+                                        .put("index.analysis.analyzer.names.type", "keyword"))
+                                .putMapping("countries", "{\"countries\":{\"properties\":{\"name\":{\"type\":\"string\"}}}}")
+                                .putAlias(AliasMetaData.newAliasMetaDataBuilder("shapes"))))
+                .build();
+        ClusterService clusterService = (ClusterService) Proxy.newProxyInstance(ClusterService.class.getClassLoader(),
+                new Class[]{ClusterService.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("state") ? state : null;
+                    }
+                });
+
+        client = new LoaderClient(threadPool);
+        bulkLoader = new BulkLoader(ImmutableSettings.Builder.EMPTY_SETTINGS, client.client(), clusterService, threadPool);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testVersion() {
+        assertEquals(BulkLoader.version("shapes", "shapes_v1"), 1);
+        assertEquals(BulkLoader.version("shapes", "shapes_v12"), 12);
+        assertEquals(BulkLoader.version("shapes", "shapes"), 0);
+        assertEquals(BulkLoader.version("shapes", "shapes_vx"), 0);
+        assertEquals(BulkLoader.version("shapes", "other_shapes_v2"), 0);
+        // Aliases are matched literally rather than as patterns
+        assertEquals(BulkLoader.version("sha.es", "shapes_v3"), 0);
+    }
+
+    @Test
+    public void testStartCopiesCurrentVersion() throws Exception {
+        assertEquals(bulkLoader.start("shapes"), "shapes_v3");
+        assertEquals(client.methods(), Arrays.asList("create", "health"));
+
+        Object create = client.requests.get(0);
+        assertEquals(call(create, "index"), "shapes_v3");
+        Settings settings = (Settings) call(create, "settings");
+        assertEquals(settings.get(IndexMetaData.SETTING_NUMBER_OF_SHARDS), "3");
+        assertEquals(settings.get("index.analysis.analyzer.names.type"), "keyword");
+        // Replicas, refresh and their auto expansion are held back until the load completes
+        assertEquals(settings.get(IndexMetaData.SETTING_NUMBER_OF_REPLICAS), "0");
+        assertEquals(settings.get("index.refresh_interval"), "-1");
+        assertNull(settings.get(IndexMetaData.SETTING_AUTO_EXPAND_REPLICAS));
+        assertNull(settings.get(IndexMetaData.SETTING_VERSION_CREATED));
+        assertEquals(((Map<?, ?>) call(create, "mappings")).keySet(), Collections.singleton("countries"));
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testStartRejectsIndex() {
+        bulkLoader.start("shapes_v1");
+    }
+
+    @Test
+    public void testFinishSwapsAlias() throws Exception {
+        bulkLoader.finish("shapes", "shapes_v3");
+        assertEquals(client.methods(), Arrays.asList("optimize", "updateSettings", "aliases"));
+
+        Settings settings = (Settings) call(client.requests.get(1), "settings");
+        assertEquals(settings.get(IndexMetaData.SETTING_NUMBER_OF_REPLICAS), "2");
+        assertEquals(settings.get("index.refresh_interval"), "5s");
+        assertEquals(settings.get(IndexMetaData.SETTING_AUTO_EXPAND_REPLICAS), "0-all");
+
+        // The alias is added to the new version and removed from the previous one in a single update
+        List<String> actions = new ArrayList<String>();
+        for (Object action : (List<?>) call(client.requests.get(2), "aliasActions")) {
+            AliasAction aliasAction = (AliasAction) action;
+            actions.add(aliasAction.actionType() + " " + aliasAction.index() + " " + aliasAction.alias());
+        }
+        assertEquals(actions, Arrays.asList("ADD shapes_v3 shapes", "REMOVE shapes_v2 shapes"));
+    }
+
+    @Test
+    public void testListenerAbortsFailedIngest() throws Exception {
+        PlainActionFuture<DataSetIndexResponse> future = PlainActionFuture.newFuture();
+        bulkLoader.listener("shapes", "shapes_v3", future).onFailure(new ElasticSearchIllegalStateException("Ingest failed"));
+
+        assertFailure(future, "Ingest failed");
+        assertEquals(client.methods(), Collections.singletonList("delete"));
+        assertEquals((String[]) call(client.requests.get(0), "indices"), new String[]{"shapes_v3"});
+    }
+
+    @Test
+    public void testListenerAbortsFailedSwap() throws Exception {
+        client.failing = "aliases";
+        PlainActionFuture<DataSetIndexResponse> future = PlainActionFuture.newFuture();
+        bulkLoader.listener("shapes", "shapes_v3", future).onResponse(new DataSetIndexResponse(177, new DataSetIndexStats()));
+
+        // The alias still points to the previous version, so the new one is deleted
+        assertFailure(future, "aliases failed");
+        assertEquals(client.methods(), Arrays.asList("optimize", "updateSettings", "aliases", "delete"));
+        assertEquals((String[]) call(client.requests.get(3), "indices"), new String[]{"shapes_v3"});
+    }
+
+    @Test
+    public void testListenerCompletesLoad() throws Exception {
+        PlainActionFuture<DataSetIndexResponse> future = PlainActionFuture.newFuture();
+        bulkLoader.listener("shapes", "shapes_v3", future).onResponse(new DataSetIndexResponse(177, new DataSetIndexStats()));
+
+        assertEquals(future.get().totalCount(), 177);
+        assertEquals(future.get().bulkLoadIndex(), "shapes_v3");
+        assertEquals(client.methods(), Arrays.asList("optimize", "updateSettings", "aliases"));
+    }
+
+    private static void assertFailure(PlainActionFuture<DataSetIndexResponse> future, String message) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected a failure containing [" + message + "]");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains(message), e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Calls the given accessor of a request, which the requests of the admin clients only
+     * expose to their own packages
+     */
+    private static Object call(Object request, String accessor) throws Exception {
+        Method method = request.getClass().getDeclaredMethod(accessor);
+        method.setAccessible(true);
+        return method.invoke(request);
+    }
+
+    /**
+     * Records the requests of the admin clients, failing those of the {@link #failing} method
+     */
+    private static class LoaderClient extends FakeClient {
+
+        private final ThreadPool threadPool;
+        private final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Object> requests = Collections.synchronizedList(new ArrayList<Object>());
+        private volatile String failing;
+
+        private LoaderClient(ThreadPool threadPool) {
+            this.threadPool = threadPool;
+        }
+
+        List<String> methods() {
+            return new ArrayList<String>(methods);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Object handle(String method, Object[] args) {
+            if (method.equals("threadPool")) {
+                // Requests executed through their builders wait on futures of the pool
+                return threadPool;
+            } else if (args == null || args.length != 2 || !(args[1] instanceof ActionListener)) {
+                return super.handle(method, args);
+            }
+
+            methods.add(method);
+            requests.add(args[0]);
+            ActionListener<Object> listener = (ActionListener<Object>) args[1];
+            if (method.equals(failing)) {
+                listener.onFailure(new ElasticSearchIllegalStateException(method + " failed"));
+            } else {
+                listener.onResponse(null);
+            }
+            return null;
+        }
+    }
+}
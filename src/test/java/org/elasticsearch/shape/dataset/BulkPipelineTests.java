@@ -0,0 +1,259 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.RemoteTransportException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.elasticsearch.shape.dataset.FakeClient.failure;
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link BulkPipeline}
+ */
+public class BulkPipelineTests {
+
+    // Failure message of an item rejected by the thread pool of its shard
+    private static final String REJECTION = ExceptionsHelper.detailedMessage(
+            new EsRejectedExecutionException("rejected execution of [IndexShardOperation]"));
+
+    private ThreadPool threadPool;
+
+    @BeforeMethod
+    public void setUp() {
+        threadPool = new ThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testSlowShardDoesNotBlockOtherShards() throws Exception {
+        final CountDownLatch slowShard = new CountDownLatch(1);
+        final List<String> indexed = new CopyOnWriteArrayList<String>();
+        Client client = new FakeClient() {
+
+            @Override
+            protected void bulk(final BulkRequest request, final ActionListener<BulkResponse> listener) {
+                if (id(request, 0).startsWith("slow")) {
+                    // Responds once the slow shard is released
+                    threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                slowShard.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            respond(request, listener, indexed);
+                        }
+                    });
+                } else {
+                    respond(request, listener, indexed);
+                }
+            }
+        }.client();
+
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, 2, null, 1, 0, TimeValue.timeValueMillis(10));
+        pipeline.add(indexRequest("slow-0"), 0);
+        pipeline.add(indexRequest("slow-1"), 0);
+        for (int i = 0; i < 100; i++) {
+            pipeline.add(indexRequest("fast-" + i), 1);
+        }
+
+        // Every bulk of the fast shard drained while the bulk of the slow shard is still in flight
+        assertEquals(indexed.size(), 100);
+        assertEquals(pipeline.inFlight(), 1);
+
+        slowShard.countDown();
+        pipeline.flush();
+        assertEquals(indexed.size(), 102);
+        assertEquals(pipeline.inFlight(), 0);
+    }
+
+    @Test
+    public void testRejectionsRetriedWithBackoff() {
+        final AtomicInteger bulks = new AtomicInteger();
+        final List<String> indexed = new CopyOnWriteArrayList<String>();
+        Client client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                int bulk = bulks.incrementAndGet();
+                if (bulk == 1) {
+                    // Rejects the whole bulk
+                    listener.onFailure(new EsRejectedExecutionException("rejected"));
+                } else if (bulk == 2) {
+                    // Rejects the second item only
+                    BulkItemResponse[] items = new BulkItemResponse[request.requests().size()];
+                    for (int i = 0; i < items.length; i++) {
+                        items[i] = i == 1 ? failure(request, i, REJECTION) : indexItem(i, request, indexed);
+                    }
+                    listener.onResponse(new BulkResponse(items, 1));
+                } else {
+                    respond(request, listener, indexed);
+                }
+            }
+        }.client();
+
+        long start = System.currentTimeMillis();
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, 3, null, 1, 3, TimeValue.timeValueMillis(20));
+        for (int i = 0; i < 3; i++) {
+            pipeline.add(indexRequest("doc-" + i), BulkPipeline.UNKNOWN_SHARD);
+        }
+        pipeline.flush();
+
+        assertEquals(bulks.get(), 3);
+        assertEquals(indexed.size(), 3);
+        assertTrue(indexed.containsAll(Arrays.asList("doc-0", "doc-1", "doc-2")));
+        // Waited 20ms before the first retry and 40ms before the second
+        assertTrue(System.currentTimeMillis() - start >= 60);
+    }
+
+    @Test
+    public void testRetriesExhausted() {
+        final AtomicInteger bulks = new AtomicInteger();
+        Client client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                bulks.incrementAndGet();
+                listener.onResponse(new BulkResponse(new BulkItemResponse[]{failure(request, 0, REJECTION)}, 1));
+            }
+        }.client();
+
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, 1, null, 1, 2, TimeValue.timeValueMillis(1));
+        pipeline.add(indexRequest("doc-0"), 0);
+        try {
+            pipeline.flush();
+            fail("Expected the rejected document to fail the pipeline");
+        } catch (ElasticSearchIllegalStateException e) {
+            assertTrue(e.getMessage().contains("still rejected after [2] retries"));
+        }
+        assertEquals(bulks.get(), 3);
+        assertEquals(pipeline.inFlight(), 0);
+    }
+
+    @Test
+    public void testRetryNotScheduledFailsPipeline() {
+        Client client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                listener.onResponse(new BulkResponse(new BulkItemResponse[]{failure(request, 0, REJECTION)}, 1));
+            }
+        }.client();
+
+        // Retries can no longer be scheduled once the thread pool is shut down
+        threadPool.shutdownNow();
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, 1, null, 1, 2, TimeValue.timeValueMillis(1));
+        pipeline.add(indexRequest("doc-0"), 0);
+        try {
+            pipeline.flush();
+            fail("Expected the unscheduled retry to fail the pipeline");
+        } catch (ElasticSearchIllegalStateException e) {
+            assertTrue(e.getMessage().contains("Failed to schedule the retry of [1] rejected documents"), e.getMessage());
+        }
+        assertEquals(pipeline.inFlight(), 0);
+    }
+
+    @Test
+    public void testIsRejection() {
+        BulkRequest request = new BulkRequest().add(indexRequest("doc-0"));
+        assertTrue(BulkPipeline.isRejection(failure(request, 0, REJECTION)));
+        // Rejections by the shard of another node arrive wrapped in a transport exception
+        assertTrue(BulkPipeline.isRejection(failure(request, 0, ExceptionsHelper.detailedMessage(new RemoteTransportException(
+                "[node][inet[/127.0.0.1:9300]][bulk/shard]", new EsRejectedExecutionException("rejected execution"))))));
+
+        assertFalse(BulkPipeline.isRejection(FakeClient.success(request, 0)));
+        assertFalse(BulkPipeline.isRejection(failure(request, 0, ExceptionsHelper.detailedMessage(
+                new MapperParsingException("failed to parse [name], value [EsRejectedExecutionException[x]]")))));
+    }
+
+    @Test
+    public void testFailuresFailPipeline() {
+        Client client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                listener.onResponse(new BulkResponse(new BulkItemResponse[]{
+                        failure(request, 0, "MapperParsingException[failed to parse [shape]]")}, 1));
+            }
+        }.client();
+
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, 1, null, 1, 8, TimeValue.timeValueMillis(1));
+        pipeline.add(indexRequest("doc-0"), 0);
+        try {
+            pipeline.add(indexRequest("doc-1"), 1);
+            fail("Expected the failed document to fail the pipeline");
+        } catch (ElasticSearchIllegalStateException e) {
+            assertTrue(e.getMessage().contains("MapperParsingException"));
+        }
+    }
+
+    @Test
+    public void testAdaptiveBatchSize() {
+        final List<Integer> bulkSizes = new CopyOnWriteArrayList<Integer>();
+        Client client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                bulkSizes.add(request.requests().size());
+                super.bulk(request, listener);
+            }
+        }.client();
+
+        // Fast bulks grow the batch size
+        AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10, 1000, 1000);
+        BulkPipeline pipeline = new BulkPipeline(client, threadPool, 100, batchSizer, 1, 0, TimeValue.timeValueMillis(1));
+        for (int i = 0; i < 200; i++) {
+            pipeline.add(indexRequest("doc-" + i), 0);
+        }
+        pipeline.flush();
+
+        assertEquals((int) bulkSizes.get(0), 10);
+        assertTrue(bulkSizes.size() < 20, "Expected batches to grow, got " + bulkSizes);
+    }
+
+    private static IndexRequest indexRequest(String id) {
+        return new IndexRequest("shapes", "countries", id).source("{}");
+    }
+
+    private static String id(BulkRequest request, int item) {
+        return ((IndexRequest) request.requests().get(item)).id();
+    }
+
+    private static void respond(BulkRequest request, ActionListener<BulkResponse> listener, List<String> indexed) {
+        BulkItemResponse[] items = new BulkItemResponse[request.requests().size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = indexItem(i, request, indexed);
+        }
+        listener.onResponse(new BulkResponse(items, 1));
+    }
+
+    private static BulkItemResponse indexItem(int item, BulkRequest request, List<String> indexed) {
+        indexed.add(id(request, item));
+        return FakeClient.success(request, item);
+    }
+}
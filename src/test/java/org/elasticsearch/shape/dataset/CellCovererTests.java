@@ -0,0 +1,146 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.impl.PointImpl;
+import com.spatial4j.core.shape.impl.RectangleImpl;
+import com.vividsolutions.jts.geom.Envelope;
+import org.elasticsearch.index.search.geo.GeoHashUtils;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link CellCoverer} and {@link CellCoveringIterator}
+ */
+public class CellCovererTests {
+
+    @Test
+    public void testGeohashEnvelope() {
+        CellCoverer coverer = new CellCoverer(CellCoverer.Type.GEOHASH, 5, 1024);
+        String geohash = GeoHashUtils.encode(48.85, 2.35, 5);
+        Envelope envelope = coverer.envelope(geohash);
+        assertTrue(envelope.contains(2.35, 48.85));
+        // Five characters are 13 bits of longitude and 12 of latitude
+        assertEquals(envelope.getWidth(), 360 / Math.pow(2, 13), 1e-9);
+        assertEquals(envelope.getHeight(), 180 / Math.pow(2, 12), 1e-9);
+    }
+
+    @Test
+    public void testCoverPoint() {
+        CellCoverer coverer = new CellCoverer(CellCoverer.Type.GEOHASH, 7, 1024);
+        List<String> cells = coverer.cover(new PointImpl(2.35, 48.85, GeoShapeConstants.SPATIAL_CONTEXT));
+        assertEquals(cells, Collections.singletonList(GeoHashUtils.encode(48.85, 2.35, 7)));
+    }
+
+    @Test
+    public void testCoverAlignedRectangle() {
+        CellCoverer coverer = new CellCoverer(CellCoverer.Type.QUAD, 8, 1024);
+        // The upper right quadrant of the world is covered whole at the first level
+        List<String> cells = coverer.cover(new RectangleImpl(0, 180, 0, 90, GeoShapeConstants.SPATIAL_CONTEXT));
+        assertTrue(cells.contains("3"));
+        for (String cell : cells) {
+            assertTrue(cell.equals("3") || !cell.startsWith("3"), "Cell [" + cell + "] is inside a covered cell");
+        }
+    }
+
+    @Test
+    public void testMaxCells() {
+        RectangleImpl rectangle = new RectangleImpl(-10.3, 20.7, -5.1, 30.9, GeoShapeConstants.SPATIAL_CONTEXT);
+        List<String> fine = new CellCoverer(CellCoverer.Type.QUAD, 10, 100000).cover(rectangle);
+        List<String> coarse = new CellCoverer(CellCoverer.Type.QUAD, 10, 64).cover(rectangle);
+
+        assertTrue(fine.size() > 64);
+        assertTrue(coarse.size() <= 64);
+        // Every fine cell is still within one of the coarse cells
+        for (String cell : fine) {
+            boolean covered = false;
+            for (String coarseCell : coarse) {
+                covered |= cell.startsWith(coarseCell);
+            }
+            assertTrue(covered, "Cell [" + cell + "] is not covered");
+        }
+    }
+
+    @Test
+    public void testParallelCoveringKeepsOrder() throws IOException {
+        String filePath = CellCovererTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet dataSet = new RemoteESRIShapeDataSet("test_data_set", "file://" + filePath, "NAME");
+        CellCoverer coverer = new CellCoverer(CellCoverer.Type.GEOHASH, 3, 256);
+
+        List<String> names = newArrayList();
+        List<List<String>> expected = newArrayList();
+        Iterator<ShapeData> sequential = new CellCoveringIterator(dataSet.shapeData(), coverer, null, 0,
+                new GeometryValidation(GeometryValidation.Policy.SKIP), new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 1);
+        while (sequential.hasNext()) {
+            names.add(sequential.next().name());
+            expected.add(((CellCoveringIterator) sequential).cells(0));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CellCoveringIterator parallel = new CellCoveringIterator(dataSet.shapeData(), coverer,
+                    new ShapeTiler(50), 50, new GeometryValidation(GeometryValidation.Policy.SKIP), executor, 16);
+            int record = 0;
+            while (parallel.hasNext()) {
+                assertEquals(parallel.next().name(), names.get(record));
+                if (parallel.tiles() == null || parallel.tiles().size() == 1) {
+                    assertEquals(parallel.cells(0), expected.get(record));
+                }
+                record++;
+            }
+            assertEquals(record, names.size());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(names.contains("France"));
+        List<String> france = expected.get(names.indexOf("France"));
+        assertTrue(france.contains(GeoHashUtils.encode(46.5, 2.5, 3)) ||
+                france.contains(GeoHashUtils.encode(46.5, 2.5, 2)) ||
+                france.contains(GeoHashUtils.encode(46.5, 2.5, 1)), "France covering " + Arrays.toString(france.toArray()));
+    }
+
+    @Test
+    public void testCoverInvalidPackedGeometry() {
+        // Self-intersecting polygon, indexed as it is under the report policy
+        PackedGeometry bowtie = new OffHeapGeometryStore().addPolygons(
+                new double[]{0, 0, 10, 10, 10, 0, 0, 10, 0, 0}, 5, new int[]{0}, 1, new int[]{0}, 1);
+        ShapeData shapeData = new ShapeData(bowtie, "bowtie", Collections.<String, Object>emptyMap(), null);
+        CellCoverer coverer = new CellCoverer(CellCoverer.Type.GEOHASH, 2, 256);
+        Executor sameThread = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        for (ShapeTiler shapeTiler : Arrays.asList(null, new ShapeTiler(4))) {
+            GeometryValidation validation = new GeometryValidation(GeometryValidation.Policy.REPORT);
+            CellCoveringIterator iterator = new CellCoveringIterator(Collections.singletonList(shapeData).iterator(),
+                    coverer, shapeTiler, 4, validation, sameThread, 1);
+
+            assertSame(iterator.next(), shapeData);
+            // The geometry is neither tiled nor built, and is covered by its bounding box
+            assertNull(iterator.tiles());
+            assertEquals(iterator.cells(0), coverer.cover(bowtie.boundingBox()));
+            assertEquals(validation.unbuilt(), 1);
+            assertTrue(validation.samples().get(0).startsWith("shape [bowtie]: "), validation.samples().get(0));
+        }
+    }
+}
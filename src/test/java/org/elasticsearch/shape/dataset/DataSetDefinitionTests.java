@@ -0,0 +1,71 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link DataSetDefinition}
+ */
+public class DataSetDefinitionTests {
+
+    @Test
+    public void testSourceRoundTrip() throws IOException {
+        DataSetDefinition definition = new DataSetDefinition("countries", DataSetDefinition.ESRI_TYPE,
+                "http://example.com/countries.zip", "NAME", true);
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        definition.toXContent(builder);
+        builder.endObject();
+
+        DataSetDefinition read = DataSetDefinition.fromMap(XContentHelper.convertToMap(builder.bytes(), true).v2());
+        assertEquals(read, definition);
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        DataSetDefinition definition = new DataSetDefinition("countries", DataSetDefinition.ESRI_TYPE,
+                "http://example.com/countries.zip", null, false);
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        definition.writeTo(out);
+        DataSetDefinition read = new DataSetDefinition();
+        read.readFrom(new BytesStreamInput(out.bytes()));
+        assertEquals(read, definition);
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testUnknownType() {
+        new DataSetDefinition("countries", "kml", "http://example.com/countries.kml", null, false);
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testRemotePackedFile() {
+        new DataSetDefinition("countries", DataSetDefinition.PACKED_TYPE, "http://example.com/countries.packed", null, false);
+    }
+
+    @Test
+    public void testDataSet() throws IOException {
+        String filePath = DataSetDefinitionTests.class.getResource("/esri/test.zip").getFile();
+        ShapeDataSet esri = new DataSetDefinition("esri", DataSetDefinition.ESRI_TYPE, "file://" + filePath, "NAME", false).dataSet();
+        assertTrue(esri instanceof RemoteESRIShapeDataSet);
+        assertEquals(esri.id(), "esri");
+
+        File packedFile = File.createTempFile("test_data_set", ".packed");
+        packedFile.deleteOnExit();
+        PackedShapeDataSet.write(esri, packedFile);
+        ShapeDataSet packed = new DataSetDefinition("packed", DataSetDefinition.PACKED_TYPE,
+                packedFile.toURI().toString(), null, false).dataSet();
+        assertTrue(packed instanceof PackedShapeDataSet);
+        assertEquals(((PackedShapeDataSet) packed).numRecords(), 177);
+    }
+}
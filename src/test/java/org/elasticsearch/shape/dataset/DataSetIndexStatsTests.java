@@ -0,0 +1,57 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.impl.PointImpl;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link DataSetIndexStats}
+ */
+public class DataSetIndexStatsTests {
+
+    @Test
+    public void testMergeAndStreaming() throws IOException {
+        DataSetIndexStats first = new DataSetIndexStats();
+        first.onTile(new ShapeData(new PointImpl(1, 2, GeoShapeConstants.SPATIAL_CONTEXT), "a", null), 10);
+        first.onSerialize("a", 100, 10);
+        first.onSerialize("b", 300, 10);
+        first.onCover(2, 10);
+        GeometryValidation firstValidation = new GeometryValidation(GeometryValidation.Policy.REPAIR);
+        firstValidation.onValid();
+        firstValidation.onRepaired(2, "ring [0] is not closed");
+        first.onValidation(firstValidation);
+
+        DataSetIndexStats second = new DataSetIndexStats();
+        second.onTile(new ShapeData(new PointImpl(3, 4, GeoShapeConstants.SPATIAL_CONTEXT), "c", null), 10);
+        second.onSerialize("c", 200, 10);
+        second.onCover(5, 10);
+        GeometryValidation secondValidation = new GeometryValidation(GeometryValidation.Policy.REPAIR);
+        secondValidation.onInvalid(7, "polygon has no rings");
+        second.onValidation(secondValidation);
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        second.writeTo(out);
+        DataSetIndexStats streamed = new DataSetIndexStats();
+        streamed.readFrom(new BytesStreamInput(out.bytes()));
+
+        first.merge(streamed);
+        assertEquals(first.records(), 2);
+        assertEquals(first.documents(), 3);
+        assertEquals(first.vertices(), 2);
+        assertEquals(first.bytes(), 600);
+        assertEquals(first.largestDocumentBytes(), 300);
+        assertEquals(first.largestDocumentId(), "b");
+        assertEquals(first.cells(), 7);
+        assertEquals(first.validRecords(), 1);
+        assertEquals(first.repairedRecords(), 1);
+        assertEquals(first.invalidRecords(), 1);
+        assertEquals(first.reportedRecords(), 0);
+        assertEquals(first.invalidSamples(), Arrays.asList("record [2]: ring [0] is not closed", "record [7]: polygon has no rings"));
+    }
+}
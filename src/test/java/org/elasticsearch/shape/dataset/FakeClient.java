@@ -0,0 +1,137 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequestBuilder;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.optimize.OptimizeRequestBuilder;
+import org.elasticsearch.action.admin.indices.settings.UpdateSettingsRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
+import org.elasticsearch.client.AdminClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.ClusterAdminClient;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.client.internal.InternalClient;
+import org.elasticsearch.client.internal.InternalClusterAdminClient;
+import org.elasticsearch.client.internal.InternalIndicesAdminClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * {@link Client} standing in for a cluster in tests.  Requests are prepared with the usual
+ * builders, bulks are handled by {@link #bulk}, and every other call by {@link #handle},
+ * which subclasses override for the calls they expect.
+ */
+public class FakeClient implements InvocationHandler {
+
+    private final Client client = (Client) Proxy.newProxyInstance(FakeClient.class.getClassLoader(),
+            new Class[]{InternalClient.class}, this);
+    private final AdminClient admin = (AdminClient) Proxy.newProxyInstance(FakeClient.class.getClassLoader(),
+            new Class[]{AdminClient.class}, this);
+    private final IndicesAdminClient indices = (IndicesAdminClient) Proxy.newProxyInstance(FakeClient.class.getClassLoader(),
+            new Class[]{InternalIndicesAdminClient.class}, this);
+    private final ClusterAdminClient cluster = (ClusterAdminClient) Proxy.newProxyInstance(FakeClient.class.getClassLoader(),
+            new Class[]{InternalClusterAdminClient.class}, this);
+
+    /**
+     * @return Client whose calls are handled by this FakeClient
+     */
+    public Client client() {
+        return client;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (proxy == admin) {
+            return method.getName().equals("indices") ? indices : cluster;
+        } else if (proxy == indices) {
+            return invokeIndices(method, args);
+        } else if (proxy == cluster && method.getName().equals("prepareHealth")) {
+            return new ClusterHealthRequestBuilder(cluster).setIndices((String[]) args[0]);
+        } else if (method.getName().equals("admin")) {
+            return admin;
+        } else if (method.getName().equals("prepareIndex") && args != null && args.length == 3) {
+            return new IndexRequestBuilder(client).setIndex((String) args[0]).setType((String) args[1]).setId((String) args[2]);
+        } else if (method.getName().equals("prepareDelete") && args != null && args.length == 3) {
+            return new DeleteRequestBuilder(client, (String) args[0]).setType((String) args[1]).setId((String) args[2]);
+        } else if (method.getName().equals("prepareSearch")) {
+            return new SearchRequestBuilder(client).setIndices((String[]) args[0]);
+        } else if (method.getName().equals("prepareSearchScroll")) {
+            return new SearchScrollRequestBuilder(client, (String) args[0]);
+        } else if (method.getName().equals("bulk") && args != null && args.length == 2) {
+            bulk((BulkRequest) args[0], (ActionListener<BulkResponse>) args[1]);
+            return null;
+        }
+        return handle(method.getName(), args);
+    }
+
+    private Object invokeIndices(Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("prepareCreate")) {
+            return new CreateIndexRequestBuilder(indices, (String) args[0]);
+        } else if (method.getName().equals("prepareDelete")) {
+            return new DeleteIndexRequestBuilder(indices, (String[]) args[0]);
+        } else if (method.getName().equals("prepareOptimize")) {
+            return new OptimizeRequestBuilder(indices).setIndices((String[]) args[0]);
+        } else if (method.getName().equals("prepareUpdateSettings")) {
+            return new UpdateSettingsRequestBuilder(indices, (String[]) args[0]);
+        } else if (method.getName().equals("prepareAliases")) {
+            return new IndicesAliasesRequestBuilder(indices);
+        }
+        return handle(method.getName(), args);
+    }
+
+    /**
+     * Handles a bulk, indexing every item by default
+     *
+     * @param request Bulk request
+     * @param listener Listener for the response
+     */
+    protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+        BulkItemResponse[] items = new BulkItemResponse[request.requests().size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = success(request, i);
+        }
+        listener.onResponse(new BulkResponse(items, 1));
+    }
+
+    /**
+     * Handles a call other than a bulk, including those of the admin clients
+     *
+     * @param method Name of the method called
+     * @param args Arguments of the call
+     * @return Result of the call
+     */
+    protected Object handle(String method, Object[] args) {
+        throw new UnsupportedOperationException(method);
+    }
+
+    /**
+     * @return Response for the item of the bulk that was indexed
+     */
+    static BulkItemResponse success(BulkRequest request, int item) {
+        IndexRequest indexRequest = (IndexRequest) request.requests().get(item);
+        return new BulkItemResponse(item, "index",
+                new IndexResponse(indexRequest.index(), indexRequest.type(), indexRequest.id(), 1));
+    }
+
+    /**
+     * @return Response for the item of the bulk that failed with the message
+     */
+    static BulkItemResponse failure(BulkRequest request, int item, String message) {
+        IndexRequest indexRequest = (IndexRequest) request.requests().get(item);
+        return new BulkItemResponse(item, "index",
+                new BulkItemResponse.Failure(indexRequest.index(), indexRequest.type(), indexRequest.id(), message));
+    }
+}
@@ -0,0 +1,199 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.impl.PointImpl;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link HilbertOrder}
+ */
+public class HilbertOrderTests {
+
+    @Test
+    public void testIndexQuadrants() {
+        // The curve starts in the south west, then visits the north west, north east and south east
+        long southWest = HilbertOrder.index(-90, -45);
+        long northWest = HilbertOrder.index(-90, 45);
+        long northEast = HilbertOrder.index(90, 45);
+        long southEast = HilbertOrder.index(90, -45);
+
+        assertTrue(southWest < northWest);
+        assertTrue(northWest < northEast);
+        assertTrue(northEast < southEast);
+        assertEquals(HilbertOrder.index(-180, -90), 0);
+    }
+
+    @Test
+    public void testSortInMemory() throws IOException {
+        List<String> names = names(new HilbertOrder(100).sort(shapeData().iterator()));
+        assertEquals(names, expectedNames());
+    }
+
+    @Test
+    public void testSortExternally() throws IOException {
+        String filePath = HilbertOrderTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet dataSet = new RemoteESRIShapeDataSet("test_data_set", "file://" + filePath, "NAME");
+
+        Iterator<ShapeData> inMemory = new HilbertOrder(1000).sort(dataSet.shapeData());
+        Iterator<ShapeData> external = new HilbertOrder(10).sort(dataSet.shapeData());
+
+        int count = 0;
+        while (inMemory.hasNext()) {
+            assertTrue(external.hasNext());
+            ShapeData expected = inMemory.next();
+            ShapeData actual = external.next();
+
+            // Spilled Shapes are read back packed
+            assertNotNull(actual.packedGeometry());
+            assertEquals(actual.name(), expected.name());
+            assertEquals(actual.data(), expected.data());
+            assertEquals(actual.shape().getBoundingBox(), expected.shape().getBoundingBox());
+            count++;
+        }
+        assertFalse(external.hasNext());
+        assertEquals(count, 177);
+    }
+
+    @Test
+    public void testSortExternallyKeepsOrderOfEqualIndexes() throws IOException {
+        List<ShapeData> shapeData = newArrayList();
+        for (int i = 0; i < 25; i++) {
+            shapeData.add(shapeData("point_" + i, new PointImpl(10, 10, GeoShapeConstants.SPATIAL_CONTEXT)));
+        }
+
+        List<String> names = names(new HilbertOrder(4).sort(shapeData.iterator()));
+        for (int i = 0; i < 25; i++) {
+            assertEquals(names.get(i), "point_" + i);
+        }
+    }
+
+    @Test
+    public void testSortExternallyWithInvalidTopology() throws IOException {
+        // Packed geometry indexed as it is can be too invalid to build a Shape of
+        PackedGeometry bowtie = new OffHeapGeometryStore().addPolygons(
+                new double[]{80, -50, 100, -40, 100, -50, 80, -40, 80, -50}, 5, new int[]{0}, 1, new int[]{0}, 1);
+        List<ShapeData> shapeData = shapeData();
+        shapeData.set(0, new ShapeData(bowtie, "south_east", shapeData.get(0).data(), null));
+
+        List<String> names = names(new HilbertOrder(2).sort(shapeData.iterator()));
+        assertEquals(names, expectedNames());
+    }
+
+    @Test
+    public void testSortExternallyKeepsOrderOfResolutions() throws IOException {
+        List<ShapeData> shapeData = newArrayList();
+        for (ShapeData point : shapeData()) {
+            Map<String, ShapeData> resolutions = newLinkedHashMap();
+            for (String resolution : new String[]{"110m", "50m", "10m", "1m"}) {
+                resolutions.put(resolution, point);
+            }
+            shapeData.add(new ShapeData(point, resolutions));
+        }
+
+        Iterator<ShapeData> sorted = new HilbertOrder(2).sort(shapeData.iterator());
+        while (sorted.hasNext()) {
+            assertEquals(newArrayList(sorted.next().resolutions().keySet()), newArrayList("110m", "50m", "10m", "1m"));
+        }
+    }
+
+    @Test
+    public void testSpilledRunsDeletedWhenClosedEarly() throws IOException {
+        int sortDirectories = sortDirectories();
+        ExternalSort.SortedIterator sorted = new HilbertOrder(1).sort(shapeData().iterator());
+        assertEquals(sortDirectories(), sortDirectories + 1);
+
+        sorted.next();
+        sorted.close();
+        assertEquals(sortDirectories(), sortDirectories);
+        // Closing again, or after iterating to the end, has no effect
+        sorted.close();
+    }
+
+    @Test
+    public void testSpilledRunsDeletedWhenParsingFails() throws IOException {
+        int sortDirectories = sortDirectories();
+        final Iterator<ShapeData> shapeData = shapeData().iterator();
+        Iterator<ShapeData> failing = new Iterator<ShapeData>() {
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public ShapeData next() {
+                if (!shapeData.hasNext()) {
+                    throw new IllegalStateException("Failed to parse record");
+                }
+                return shapeData.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        try {
+            new HilbertOrder(1).sort(failing);
+            fail("Expected parsing to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(sortDirectories(), sortDirectories);
+    }
+
+    private static int sortDirectories() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("shape_dataset_sort");
+            }
+        });
+        return names != null ? names.length : 0;
+    }
+
+    private static List<ShapeData> shapeData() {
+        List<ShapeData> shapeData = newArrayList();
+        shapeData.add(shapeData("south_east", new PointImpl(90, -45, GeoShapeConstants.SPATIAL_CONTEXT)));
+        shapeData.add(shapeData("north_east", new PointImpl(90, 45, GeoShapeConstants.SPATIAL_CONTEXT)));
+        shapeData.add(shapeData("south_west", new PointImpl(-90, -45, GeoShapeConstants.SPATIAL_CONTEXT)));
+        shapeData.add(shapeData("north_west", new PointImpl(-90, 45, GeoShapeConstants.SPATIAL_CONTEXT)));
+        return shapeData;
+    }
+
+    private static List<String> expectedNames() {
+        List<String> names = newArrayList();
+        names.add("south_west");
+        names.add("north_west");
+        names.add("north_east");
+        names.add("south_east");
+        return names;
+    }
+
+    private static ShapeData shapeData(String name, Shape shape) {
+        Map<String, Object> data = newLinkedHashMap();
+        data.put("name", name);
+        return new ShapeData(shape, name, data);
+    }
+
+    private static List<String> names(Iterator<ShapeData> shapeData) {
+        List<String> names = newArrayList();
+        while (shapeData.hasNext()) {
+            names.add(shapeData.next().name());
+        }
+        return names;
+    }
+}
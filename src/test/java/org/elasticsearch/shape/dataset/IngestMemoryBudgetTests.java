@@ -0,0 +1,56 @@
+package org.elasticsearch.shape.dataset;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class IngestMemoryBudgetTests {
+
+    @Test
+    public void testTryReserve() {
+        IngestMemoryBudget budget = new IngestMemoryBudget(100);
+        assertTrue(budget.tryReserve(60));
+        assertFalse(budget.tryReserve(60));
+        assertTrue(budget.tryReserve(40));
+        assertEquals(budget.reservedBytes(), 100);
+
+        budget.release(60);
+        assertTrue(budget.tryReserve(60));
+    }
+
+    @Test
+    public void testReserveWaitsForRelease() throws InterruptedException {
+        final IngestMemoryBudget budget = new IngestMemoryBudget(100);
+        assertTrue(budget.tryReserve(80));
+
+        Thread releaser = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                budget.release(80);
+            }
+        };
+        releaser.start();
+
+        assertTrue(budget.reserve(50, 10000));
+        releaser.join();
+        assertEquals(budget.reservedBytes(), 50);
+    }
+
+    @Test
+    public void testReserveTimesOut() {
+        IngestMemoryBudget budget = new IngestMemoryBudget(100);
+        assertTrue(budget.tryReserve(80));
+        assertFalse(budget.reserve(50, 10));
+        // Reservations larger than the whole budget fail without waiting
+        assertFalse(budget.reserve(150, 10000));
+        assertEquals(budget.reservedBytes(), 80);
+    }
+}
@@ -0,0 +1,153 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.impl.PointImpl;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MultiResolutionShapeDataSetTests {
+
+    @Test
+    public void testJoinByName() throws IOException {
+        String filePath = MultiResolutionShapeDataSetTests.class.getResource("/esri/test.zip").getFile();
+        MultiResolutionShapeDataSet dataSet = new MultiResolutionShapeDataSet("test_data_set",
+                new String[]{"coarse", "fine"},
+                new ShapeDataSet[]{
+                        new RemoteESRIShapeDataSet("coarse", "file://" + filePath, "NAME"),
+                        new RemoteESRIShapeDataSet("fine", "file://" + filePath, "NAME", true)
+                });
+
+        Iterator<ShapeData> shapeData = dataSet.shapeData();
+        int totalCount = 0;
+        while (shapeData.hasNext()) {
+            ShapeData data = shapeData.next();
+            assertNotNull(data.shape());
+            assertEquals(data.resolutions().keySet(), Collections.singleton("fine"));
+            ShapeData fine = data.resolutions().get("fine");
+            assertEquals(fine.name(), data.name());
+            assertNotNull(fine.packedGeometry());
+            assertTrue(fine.packedGeometry().numCoordinates() > 0);
+            totalCount++;
+        }
+
+        assertEquals(totalCount, 177);
+    }
+
+    @Test
+    public void testFeaturesMissingFromPrimary() throws IOException {
+        MultiResolutionShapeDataSet dataSet = new MultiResolutionShapeDataSet("test_data_set",
+                new String[]{"110m", "50m", "10m"},
+                new ShapeDataSet[]{
+                        new ListShapeDataSet("a", "b"),
+                        new ListShapeDataSet("b", "c"),
+                        new ListShapeDataSet("c", "d")
+                });
+
+        Iterator<ShapeData> shapeData = dataSet.shapeData();
+
+        ShapeData a = shapeData.next();
+        assertEquals(a.name(), "a");
+        assertTrue(a.resolutions().isEmpty());
+
+        ShapeData b = shapeData.next();
+        assertEquals(b.name(), "b");
+        assertEquals(b.resolutions().keySet(), Collections.singleton("50m"));
+
+        // Features missing from the primary resolution have no Shape of their own
+        ShapeData c = shapeData.next();
+        assertEquals(c.name(), "c");
+        assertFalse(c.hasGeometry());
+        assertNull(c.shape());
+        assertEquals(c.data().get("source"), "50m");
+        assertEquals(c.resolutions().keySet(), new HashSet<String>(Arrays.asList("50m", "10m")));
+
+        ShapeData d = shapeData.next();
+        assertEquals(d.name(), "d");
+        assertFalse(d.hasGeometry());
+        assertEquals(d.resolutions().keySet(), Collections.singleton("10m"));
+
+        assertFalse(shapeData.hasNext());
+    }
+
+    @Test
+    public void testJoinSortedExternally() throws IOException {
+        // Resolutions list their features in different orders, and are sorted in runs of two
+        MultiResolutionShapeDataSet dataSet = new MultiResolutionShapeDataSet("test_data_set",
+                new String[]{"110m", "50m"},
+                new ShapeDataSet[]{
+                        new ListShapeDataSet("e", "a", "c", "b", "d"),
+                        new ListShapeDataSet("d", "f", "a", "e", "b")
+                }, 2);
+
+        List<String> names = new ArrayList<String>();
+        Iterator<ShapeData> shapeData = dataSet.shapeData();
+        while (shapeData.hasNext()) {
+            ShapeData data = shapeData.next();
+            names.add(data.name());
+            assertEquals(data.hasGeometry(), !data.name().equals("f"));
+            assertEquals(data.resolutions().containsKey("50m"), !data.name().equals("c"), data.name());
+        }
+        assertEquals(names, Arrays.asList("a", "b", "c", "d", "e", "f"));
+    }
+
+    @Test
+    public void testEstimateAndValidation() throws IOException {
+        String filePath = MultiResolutionShapeDataSetTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet coarse = new RemoteESRIShapeDataSet("coarse", "file://" + filePath, "NAME");
+        RemoteESRIShapeDataSet fine = new RemoteESRIShapeDataSet("fine", "file://" + filePath, "NAME");
+        MultiResolutionShapeDataSet dataSet = new MultiResolutionShapeDataSet("test_data_set",
+                new String[]{"coarse", "fine"}, new ShapeDataSet[]{coarse, fine}, 50);
+
+        // Every resolution is parsed, so every resolution is estimated
+        DataSetMemoryEstimate estimate = dataSet.estimateMemory();
+        assertEquals(estimate.records(), coarse.estimateMemory().records() + fine.estimateMemory().records());
+        assertEquals(estimate.heapBytes(), coarse.estimateMemory().heapBytes() + fine.estimateMemory().heapBytes());
+
+        // Only the records of the primary resolution are validated
+        GeometryValidation validation = new GeometryValidation(GeometryValidation.Policy.SKIP);
+        Iterator<ShapeData> shapeData = ((ShapeDataSet) dataSet.validating(validation)).shapeData();
+        int totalCount = 0;
+        while (shapeData.hasNext()) {
+            ShapeData data = shapeData.next();
+            assertTrue(data.hasGeometry());
+            assertEquals(data.resolutions().keySet(), Collections.singleton("fine"));
+            totalCount++;
+        }
+        assertEquals(totalCount, 177);
+        assertEquals(validation.valid() + validation.invalid(), 177);
+    }
+
+    private static class ListShapeDataSet implements ShapeDataSet {
+
+        private final String[] names;
+
+        private ListShapeDataSet(String... names) {
+            this.names = names;
+        }
+
+        public String id() {
+            return names[0];
+        }
+
+        public Iterator<ShapeData> shapeData() {
+            List<ShapeData> shapeData = new ArrayList<ShapeData>();
+            for (String name : names) {
+                Map<String, Object> data = new HashMap<String, Object>();
+                data.put("source", names[0].equals("b") ? "50m" : "other");
+                shapeData.add(new ShapeData(new PointImpl(0, 0, GeoShapeConstants.SPATIAL_CONTEXT), name, data));
+            }
+            return shapeData.iterator();
+        }
+
+        public void addMetadata(XContentBuilder contentBuilder) throws IOException {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link OffHeapGeometryStore} and {@link PackedGeometry}
+ */
+public class OffHeapGeometryStoreTests {
+
+    @Test
+    public void testPolygonWithHole() throws IOException {
+        double[] coordinates = {
+                0, 0, 0, 10, 10, 10, 10, 0, 0, 0,
+                2, 2, 4, 2, 4, 4, 2, 4, 2, 2
+        };
+        OffHeapGeometryStore store = new OffHeapGeometryStore(64);
+        PackedGeometry geometry = store.addPolygons(coordinates, 10, new int[] {0}, 1, new int[] {0, 5}, 2);
+
+        assertEquals(geometry.numParts(), 1);
+        assertEquals(geometry.numRings(), 2);
+        assertEquals(geometry.ringStart(1), 5);
+        assertEquals(geometry.x(6), 4.0);
+        assertEquals(geometry.y(7), 4.0);
+
+        JtsGeometry shape = (JtsGeometry) geometry.toShape();
+        assertEquals(shape.getGeom().getArea(), 96.0, 1e-9);
+
+        // Serializing the packed geometry matches serializing the Shape built from it
+        ShapeSerializer serializer = new ShapeSerializer(0);
+        XContentBuilder packedBuilder = XContentFactory.jsonBuilder().startObject();
+        serializer.serialize(geometry, packedBuilder);
+        XContentBuilder shapeBuilder = XContentFactory.jsonBuilder().startObject();
+        serializer.serialize(shape, shapeBuilder);
+        assertEquals(packedBuilder.endObject().string(), shapeBuilder.endObject().string());
+    }
+
+    @Test
+    public void testChunks() {
+        OffHeapGeometryStore store = new OffHeapGeometryStore(40);
+        PackedGeometry first = store.addPoint(1, 2);
+        PackedGeometry second = store.addPoint(3, 4);
+        PackedGeometry third = store.addPoint(5, 6);
+
+        assertTrue(first.isPoint());
+        assertEquals(first.x(0), 1.0);
+        assertEquals(second.y(0), 4.0);
+        assertEquals(third.x(0), 5.0);
+        assertEquals(store.sizeInBytes(), 51);
+    }
+}
@@ -0,0 +1,86 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link PackedShapeDataSet}
+ */
+public class PackedShapeDataSetTests {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        String filePath = PackedShapeDataSetTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet sourceDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME");
+
+        File packedFile = File.createTempFile("test_data_set", ".packed");
+        packedFile.deleteOnExit();
+        PackedShapeDataSet.write(sourceDataSet, packedFile);
+
+        PackedShapeDataSet packedDataSet = new PackedShapeDataSet("packed_data_set", packedFile);
+        assertEquals(packedDataSet.numRecords(), 177);
+
+        Iterator<ShapeData> expected = sourceDataSet.shapeData();
+        Iterator<ShapeData> actual = packedDataSet.shapeData();
+
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            ShapeData expectedData = expected.next();
+            ShapeData actualData = actual.next();
+
+            assertEquals(actualData.name(), expectedData.name());
+            assertEquals(actualData.data(), expectedData.data());
+            assertEquals(actualData.shape().getBoundingBox(), expectedData.shape().getBoundingBox());
+            if (expectedData.shape() instanceof JtsGeometry) {
+                assertTrue(((JtsGeometry) expectedData.shape()).getGeom().equalsExact(
+                        ((JtsGeometry) actualData.shape()).getGeom()));
+            }
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    public void testWriteAndReadWithTopology() throws IOException {
+        String filePath = PackedShapeDataSetTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet sourceDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME");
+
+        File packedFile = File.createTempFile("test_data_set", ".packed");
+        packedFile.deleteOnExit();
+        PackedShapeDataSet.write(sourceDataSet, packedFile);
+
+        File topologyFile = File.createTempFile("test_data_set", ".topology.packed");
+        topologyFile.deleteOnExit();
+        PackedShapeDataSet.write(sourceDataSet, topologyFile, true);
+
+        // Neighbouring countries share their borders
+        assertTrue(topologyFile.length() < packedFile.length());
+
+        PackedShapeDataSet packedDataSet = new PackedShapeDataSet("packed_data_set", topologyFile);
+        assertEquals(packedDataSet.numRecords(), 177);
+
+        Iterator<ShapeData> expected = sourceDataSet.shapeData();
+        Iterator<ShapeData> actual = packedDataSet.shapeData();
+
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            ShapeData expectedData = expected.next();
+            ShapeData actualData = actual.next();
+
+            assertEquals(actualData.name(), expectedData.name());
+            assertEquals(actualData.data(), expectedData.data());
+            if (expectedData.shape() instanceof JtsGeometry) {
+                assertTrue(((JtsGeometry) expectedData.shape()).getGeom().equalsExact(
+                        ((JtsGeometry) actualData.shape()).getGeom()));
+            }
+        }
+        assertFalse(actual.hasNext());
+    }
+}
@@ -1,12 +1,27 @@
 package org.elasticsearch.shape.dataset;
 
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.testng.annotations.Test;
 
-import java.io.IOException;
+import java.io.*;
+import java.net.InetSocketAddress;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class RemoteESRIShapeDataSetTests {
 
@@ -27,4 +42,316 @@ public class RemoteESRIShapeDataSetTests {
 
         assertEquals(totalCount, 177);
     }
+
+    @Test
+    public void testShapeDataSlices() throws IOException {
+        String filePath = RemoteESRIShapeDataSetTests.class.getResource(
+                "/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME");
+
+        assertEquals(testDataSet.numRecords(), 177);
+
+        Iterator<ShapeData> shapeData = testDataSet.shapeData();
+        for (int from = 0; from < 177; from += 50) {
+            Iterator<ShapeData> slice = testDataSet.shapeData(from, from + 50);
+            while (slice.hasNext()) {
+                ShapeData sliceData = slice.next();
+                ShapeData expectedData = shapeData.next();
+                assertEquals(sliceData.name(), expectedData.name());
+                assertEquals(sliceData.shape(), expectedData.shape());
+            }
+        }
+        assertFalse(shapeData.hasNext());
+    }
+
+    @Test
+    public void testOffHeapShapeData() throws IOException {
+        String filePath = RemoteESRIShapeDataSetTests.class.getResource(
+                "/esri/test.zip").getFile();
+        Iterator<ShapeData> onHeap = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME").shapeData();
+        Iterator<ShapeData> offHeap = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME", true).shapeData();
+
+        while (onHeap.hasNext()) {
+            ShapeData expected = onHeap.next();
+            ShapeData actual = offHeap.next();
+            assertNotNull(actual.packedGeometry());
+            assertEquals(actual.name(), expected.name());
+            // Holes are identified differently, so only the outlines are compared
+            if (expected.shape() instanceof JtsGeometry) {
+                assertEquals(((JtsGeometry) actual.shape()).getGeom().getEnvelopeInternal(),
+                        ((JtsGeometry) expected.shape()).getGeom().getEnvelopeInternal());
+            }
+        }
+        assertFalse(offHeap.hasNext());
+    }
+
+    @Test
+    public void testMultiLayerArchive() throws IOException {
+        File archive = File.createTempFile("multi_layer", ".zip");
+        archive.deleteOnExit();
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            copyLayer(zipOutputStream, "layers/a");
+            copyLayer(zipOutputStream, "layers/b");
+        } finally {
+            zipOutputStream.close();
+        }
+
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + archive.getAbsolutePath(), "NAME");
+        assertEquals(testDataSet.numRecords(), 354);
+
+        Iterator<ShapeData> shapeData = testDataSet.shapeData();
+        for (int i = 0; i < 354; i++) {
+            assertEquals(shapeData.next().layer(), i < 177 ? "layers/a" : "layers/b");
+        }
+        assertFalse(shapeData.hasNext());
+
+        // Slices spanning layers are split between them
+        Iterator<ShapeData> slice = testDataSet.shapeData(170, 180);
+        for (int i = 170; i < 180; i++) {
+            assertEquals(slice.next().layer(), i < 177 ? "layers/a" : "layers/b");
+        }
+        assertFalse(slice.hasNext());
+    }
+
+    @Test
+    public void testDeletedRecordsSkipped() throws IOException {
+        File archive = File.createTempFile("deleted_records", ".zip");
+        archive.deleteOnExit();
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archive));
+        ZipInputStream zipInputStream = new ZipInputStream(
+                RemoteESRIShapeDataSetTests.class.getResourceAsStream("/esri/test.zip"));
+        try {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                byte[] contents = ByteStreams.toByteArray(zipInputStream);
+                if (zipEntry.getName().endsWith(".dbf")) {
+                    // Marks the first record as deleted, its marker following the header
+                    int headerBytes = (contents[8] & 0xFF) | (contents[9] & 0xFF) << 8;
+                    contents[headerBytes] = '*';
+                }
+                zipOutputStream.putNextEntry(new ZipEntry(zipEntry.getName()));
+                zipOutputStream.write(contents);
+                zipOutputStream.closeEntry();
+            }
+        } finally {
+            zipInputStream.close();
+            zipOutputStream.close();
+        }
+
+        String filePath = RemoteESRIShapeDataSetTests.class.getResource("/esri/test.zip").getFile();
+        Iterator<ShapeData> expected = new RemoteESRIShapeDataSet("test_data_set", "file://" + filePath, "NAME").shapeData();
+        String deleted = expected.next().name();
+
+        // The deleted record is skipped along with its Shape, rather than failing the ingest
+        Iterator<ShapeData> shapeData = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + archive.getAbsolutePath(), "NAME").shapeData();
+        for (int i = 1; i < 177; i++) {
+            ShapeData next = shapeData.next();
+            assertEquals(next.name(), expected.next().name());
+            assertFalse(next.name().equals(deleted));
+        }
+        assertFalse(shapeData.hasNext());
+    }
+
+    @Test
+    public void testSameNamedLayersInParallel() throws IOException {
+        File archive = File.createTempFile("same_named_layers", ".zip");
+        archive.deleteOnExit();
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            copyLayer(zipOutputStream, "north/land");
+            copyLayer(zipOutputStream, "south/land");
+        } finally {
+            zipOutputStream.close();
+        }
+
+        ThreadPool threadPool = new ThreadPool();
+        try {
+            // Layers are named by their path in the archive, so files with the same name stay apart
+            ShapeDataSet testDataSet = new RemoteESRIShapeDataSet("test_data_set", "file://" + archive.getAbsolutePath(), "NAME")
+                    .parallel(threadPool.executor(ThreadPool.Names.GENERIC));
+            Iterator<ShapeData> shapeData = testDataSet.shapeData();
+            for (int i = 0; i < 354; i++) {
+                assertEquals(shapeData.next().layer(), i < 177 ? "north/land" : "south/land");
+            }
+            assertFalse(shapeData.hasNext());
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExtractArchive() throws IOException {
+        File archive = File.createTempFile("multi_layer", ".zip");
+        archive.deleteOnExit();
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            copyLayer(zipOutputStream, "layers/a");
+            copyLayer(zipOutputStream, "b");
+        } finally {
+            zipOutputStream.close();
+        }
+
+        File directory = File.createTempFile("extracted", "");
+        assertTrue(directory.delete() && directory.mkdirs());
+        try {
+            InputStream inputStream = new FileInputStream(archive);
+            try {
+                assertEquals(RemoteESRIShapeDataSet.extractArchive(inputStream, directory), 8);
+            } finally {
+                inputStream.close();
+            }
+
+            // Layers read from the extracted directory match those read from the archive
+            RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet(
+                    "test_data_set", directory.toURI().toString(), "NAME");
+            assertEquals(testDataSet.numRecords(), 354);
+
+            Iterator<ShapeData> shapeData = testDataSet.shapeData();
+            for (int i = 0; i < 354; i++) {
+                assertEquals(shapeData.next().layer(), i < 177 ? "b" : "layers/a");
+            }
+            assertFalse(shapeData.hasNext());
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testExtractArchiveOutsideDirectory() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(archive);
+        zipOutputStream.putNextEntry(new ZipEntry("../escaped.shp"));
+        zipOutputStream.closeEntry();
+        zipOutputStream.close();
+
+        File directory = File.createTempFile("extracted", "");
+        assertTrue(directory.delete() && directory.mkdirs());
+        try {
+            RemoteESRIShapeDataSet.extractArchive(new ByteArrayInputStream(archive.toByteArray()), directory);
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testEstimateMemory() throws IOException {
+        String filePath = RemoteESRIShapeDataSetTests.class.getResource(
+                "/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME");
+
+        long fileBytes = 0;
+        ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(filePath));
+        try {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                if (!zipEntry.getName().endsWith(".prj")) {
+                    fileBytes += ByteStreams.toByteArray(zipInputStream).length;
+                }
+            }
+        } finally {
+            zipInputStream.close();
+        }
+
+        DataSetMemoryEstimate estimate = testDataSet.estimateMemory();
+        assertEquals(estimate.records(), 177);
+        // Sizes come from the headers, which don't count the end of file marker of the DBF file
+        assertEquals(estimate.fileBytes(), fileBytes - 1);
+        assertTrue(estimate.vertices() > 0);
+        assertTrue(estimate.heapBytes() > estimate.fileBytes());
+        assertTrue(estimate.lowMemoryHeapBytes() < estimate.heapBytes());
+
+        // Files of low memory DataSets are mapped, so they don't count towards the heap
+        DataSetMemoryEstimate lowMemoryEstimate = ((EstimableShapeDataSet) testDataSet.lowMemory()).estimateMemory();
+        assertEquals(lowMemoryEstimate.heapBytes(), estimate.heapBytes() - estimate.fileBytes());
+    }
+
+    @Test
+    public void testLowMemoryShapeData() throws IOException {
+        String filePath = RemoteESRIShapeDataSetTests.class.getResource(
+                "/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME");
+
+        Iterator<ShapeData> expected = testDataSet.shapeData();
+        Iterator<ShapeData> actual = testDataSet.lowMemory().shapeData();
+        while (expected.hasNext()) {
+            ShapeData shapeData = actual.next();
+            assertNotNull(shapeData.packedGeometry());
+            assertEquals(shapeData.name(), expected.next().name());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    public void testSingleLayerHasNoLayerName() throws IOException {
+        String filePath = RemoteESRIShapeDataSetTests.class.getResource(
+                "/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet(
+                "test_data_set", "file://" + filePath, "NAME");
+
+        assertNull(testDataSet.shapeData().next().layer());
+    }
+
+    @Test
+    public void testDownloadReleased() throws IOException {
+        final byte[] archive = ByteStreams.toByteArray(RemoteESRIShapeDataSetTests.class.getResourceAsStream("/esri/test.zip"));
+        final AtomicInteger downloads = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/test.zip", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                downloads.incrementAndGet();
+                exchange.sendResponseHeaders(200, archive.length);
+                exchange.getResponseBody().write(archive);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet("test_data_set",
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/test.zip", "NAME");
+
+            // Estimating and parsing, including by copies of the DataSet, share one download
+            testDataSet.estimateMemory();
+            assertEquals(testDataSet.numRecords(), 177);
+            assertTrue(((RemoteESRIShapeDataSet) testDataSet.lowMemory()).shapeData().hasNext());
+            assertEquals(downloads.get(), 1);
+
+            // Releasing a copy releases the download of every copy, so the next ingest is fresh
+            ((RemoteESRIShapeDataSet) testDataSet.lowMemory()).release();
+            assertEquals(testDataSet.numRecords(), 177);
+            assertEquals(downloads.get(), 2);
+            testDataSet.release();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void copyLayer(ZipOutputStream zipOutputStream, String baseName) throws IOException {
+        ZipInputStream zipInputStream = new ZipInputStream(
+                RemoteESRIShapeDataSetTests.class.getResourceAsStream("/esri/test.zip"));
+        try {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                String name = zipEntry.getName();
+                zipOutputStream.putNextEntry(new ZipEntry(baseName + name.substring(name.lastIndexOf('.'))));
+                ByteStreams.copy(zipInputStream, zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+        } finally {
+            zipInputStream.close();
+        }
+    }
 }
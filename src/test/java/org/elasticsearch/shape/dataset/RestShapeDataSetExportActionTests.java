@@ -0,0 +1,39 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for {@link RestShapeDataSetExportAction}
+ */
+public class RestShapeDataSetExportActionTests {
+
+    @Test
+    public void testExportFile() throws IOException {
+        File exportDirectory = new File(System.getProperty("java.io.tmpdir"), "shape_dataset_exports");
+
+        assertEquals(RestShapeDataSetExportAction.exportFile(exportDirectory, "countries.zip"),
+                new File(exportDirectory, "countries.zip"));
+        assertEquals(RestShapeDataSetExportAction.exportFile(exportDirectory, "2012/countries.ndjson"),
+                new File(exportDirectory, "2012/countries.ndjson"));
+        // Names merely containing dots stay within the directory
+        assertEquals(RestShapeDataSetExportAction.exportFile(exportDirectory, "countries..zip"),
+                new File(exportDirectory, "countries..zip"));
+
+        for (String path : new String[]{"", "/tmp/countries.zip", exportDirectory.getAbsolutePath() + "/countries.zip",
+                "../countries.zip", "2012/../../countries.zip", "2012/.."}) {
+            try {
+                RestShapeDataSetExportAction.exportFile(exportDirectory, path);
+                fail("Expected export path [" + path + "] to be rejected");
+            } catch (ElasticSearchIllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
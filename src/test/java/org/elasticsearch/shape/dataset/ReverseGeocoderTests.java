@@ -0,0 +1,49 @@
+package org.elasticsearch.shape.dataset;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ReverseGeocoder}
+ */
+public class ReverseGeocoderTests {
+
+    @Test
+    public void testLocate() throws IOException {
+        String filePath = ReverseGeocoderTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet("test_data_set", "file://" + filePath, "NAME");
+
+        ReverseGeocoder geocoder = new ReverseGeocoder(testDataSet.shapeData());
+        // Shapes which fail JTS validation are parsed as points, and so aren't indexed
+        assertEquals(geocoder.size(), 173);
+
+        List<ShapeData> paris = geocoder.locate(2.35, 48.85);
+        assertEquals(paris.size(), 1);
+        assertEquals(paris.get(0).name(), "France");
+
+        List<ShapeData> canberra = geocoder.locate(149.13, -35.28);
+        assertEquals(canberra.size(), 1);
+        assertEquals(canberra.get(0).name(), "Australia");
+
+        // Middle of the Atlantic
+        assertTrue(geocoder.locate(-30, 30).isEmpty());
+    }
+
+    @Test
+    public void testSkipsReportedShapes() throws IOException {
+        String filePath = ReverseGeocoderTests.class.getResource("/esri/test.zip").getFile();
+        RemoteESRIShapeDataSet testDataSet = new RemoteESRIShapeDataSet("test_data_set", "file://" + filePath, "NAME");
+        GeometryValidation validation = new GeometryValidation(GeometryValidation.Policy.REPORT);
+
+        // Shapes with invalid topology are indexed as they are, but cannot be built to locate points in
+        ReverseGeocoder geocoder = new ReverseGeocoder(((ShapeDataSet) testDataSet.validating(validation)).shapeData());
+        assertEquals(geocoder.skipped(), validation.reported());
+        assertTrue(geocoder.skipped() > 0);
+        assertEquals(geocoder.locate(2.35, 48.85).get(0).name(), "France");
+    }
+}
@@ -0,0 +1,140 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link ReverseGeocodingService}
+ */
+public class ReverseGeocodingServiceTests {
+
+    private ThreadPool threadPool;
+    private ShapeDataSetService dataSetService;
+    private ReverseGeocodingService geocodingService;
+
+    @BeforeMethod
+    public void setUp() {
+        threadPool = new ThreadPool();
+        dataSetService = new ShapeDataSetService(new FakeClient().client(), ImmutableSettings.Builder.EMPTY_SETTINGS,
+                null, threadPool, null);
+        geocodingService = new ReverseGeocodingService(ImmutableSettings.Builder.EMPTY_SETTINGS, dataSetService, threadPool);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test(timeOut = 10000)
+    public void testLoadsDataSetsIndependently() throws Exception {
+        LoadingShapeDataSet slow = new LoadingShapeDataSet("slow", new CountDownLatch(1));
+        LoadingShapeDataSet fast = new LoadingShapeDataSet("fast", null);
+        dataSetService.register(slow);
+        dataSetService.register(fast);
+
+        Future<ReverseGeocoder> first = lookup("slow");
+        Future<ReverseGeocoder> second = lookup("slow");
+        slow.started.await();
+
+        // A DataSet still loading holds up only the lookups in that DataSet
+        assertNotNull(geocodingService.geocoder("fast"));
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        slow.blocked.countDown();
+        assertSame(first.get(), second.get());
+        assertEquals(slow.loads.get(), 1);
+        assertEquals(fast.loads.get(), 1);
+    }
+
+    @Test
+    public void testFailedLoadRetried() throws Exception {
+        LoadingShapeDataSet failing = new LoadingShapeDataSet("failing", null);
+        failing.failures.set(1);
+        dataSetService.register(failing);
+
+        try {
+            geocodingService.geocoder("failing");
+            fail("Expected the first load to fail");
+        } catch (ElasticSearchIllegalStateException e) {
+            assertEquals(e.getMessage(), "Load failed");
+        }
+        assertNotNull(geocodingService.geocoder("failing"));
+        assertEquals(failing.loads.get(), 2);
+    }
+
+    private Future<ReverseGeocoder> lookup(final String dataSetId) {
+        FutureTask<ReverseGeocoder> task = new FutureTask<ReverseGeocoder>(new Callable<ReverseGeocoder>() {
+
+            @Override
+            public ReverseGeocoder call() throws IOException {
+                return geocodingService.geocoder(dataSetId);
+            }
+        });
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(task);
+        return task;
+    }
+
+    /**
+     * DataSet without shapes counting its loads, which wait for the given latch and fail
+     * while {@link #failures} remain
+     */
+    private static class LoadingShapeDataSet implements ShapeDataSet {
+
+        private final String id;
+        private final CountDownLatch blocked;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private LoadingShapeDataSet(String id, CountDownLatch blocked) {
+            this.id = id;
+            this.blocked = blocked;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public Iterator<ShapeData> shapeData() {
+            loads.incrementAndGet();
+            started.countDown();
+            if (blocked != null) {
+                try {
+                    if (!blocked.await(10, TimeUnit.SECONDS)) {
+                        throw new ElasticSearchIllegalStateException("Load never released");
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new ElasticSearchIllegalStateException("Load failed");
+            }
+            return Collections.<ShapeData>emptyList().iterator();
+        }
+
+        @Override
+        public void addMetadata(XContentBuilder contentBuilder) {
+        }
+    }
+}
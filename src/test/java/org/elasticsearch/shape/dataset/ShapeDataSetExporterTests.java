@@ -0,0 +1,156 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link ShapeDataSetExporter}
+ */
+public class ShapeDataSetExporterTests {
+
+    private ThreadPool threadPool;
+    private ScrollClient client;
+    private ShapeDataSetExporter exporter;
+
+    @BeforeMethod
+    public void setUp() {
+        threadPool = new ThreadPool();
+        client = new ScrollClient(threadPool);
+        exporter = new ShapeDataSetExporter(client.client(), 100, TimeValue.timeValueMinutes(1));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testExportMatchesAnalyzedDataSetId() throws IOException {
+        client.add("1", "My-Data.Set");
+        client.add("2", "My-Data.Set");
+        client.add("3", "My-Data.Set.v2");
+        client.add("4", "countries");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(exporter.exportGeoJson("shapes", "My-Data.Set", out), 2);
+        assertEquals(out.toString("UTF-8").split("\n").length, 2);
+        assertEquals(exporter.exportGeoJson("shapes", "countries", new ByteArrayOutputStream()), 1);
+    }
+
+    @Test
+    public void testDataSetId() {
+        Map<String, Object> source = new HashMap<String, Object>();
+        assertEquals(ShapeDataSetExporter.dataSetId(source), null);
+        source.put("metadata", Collections.singletonMap("data_set_id", "My-Data.Set"));
+        assertEquals(ShapeDataSetExporter.dataSetId(source), "My-Data.Set");
+    }
+
+    /**
+     * Holds documents whose DataSet ID is analyzed like a dynamically mapped string, returning
+     * those matching the query of the search from the first page of its scroll
+     */
+    private static class ScrollClient extends FakeClient {
+
+        private final ThreadPool threadPool;
+        private final Map<String, String> dataSetIds = new TreeMap<String, String>();
+        private List<String> matches = Collections.emptyList();
+
+        private ScrollClient(ThreadPool threadPool) {
+            this.threadPool = threadPool;
+        }
+
+        void add(String id, String dataSetId) {
+            dataSetIds.put(id, dataSetId);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected synchronized Object handle(String method, Object[] args) {
+            if (method.equals("threadPool")) {
+                // Requests executed through their builders wait on futures of the pool
+                return threadPool;
+            } else if (method.equals("search")) {
+                matches = matches((SearchRequest) args[0]);
+                ((ActionListener<SearchResponse>) args[1]).onResponse(response(new InternalSearchHit[0]));
+            } else if (method.equals("searchScroll")) {
+                List<InternalSearchHit> hits = new ArrayList<InternalSearchHit>();
+                for (String id : matches) {
+                    hits.add(new InternalSearchHit(hits.size(), id, "shape", source(dataSetIds.get(id)), null));
+                }
+                matches = Collections.emptyList();
+                ((ActionListener<SearchResponse>) args[1]).onResponse(response(hits.toArray(new InternalSearchHit[hits.size()])));
+            } else {
+                return super.handle(method, args);
+            }
+            return null;
+        }
+
+        /**
+         * Matches the phrase of a match query, or the term of a term filter, against the
+         * tokens of the DataSet IDs
+         */
+        @SuppressWarnings("unchecked")
+        private List<String> matches(SearchRequest request) {
+            Map<String, Object> query = (Map<String, Object>) XContentHelper.convertToMap(request.source(), false).v2().get("query");
+            List<String> phrase;
+            boolean exact;
+            if (query.containsKey("match")) {
+                Map<String, Object> match = (Map<String, Object>) ((Map<String, Object>) query.get("match")).get("metadata.data_set_id");
+                assertEquals(match.get("type"), "phrase");
+                phrase = tokens((String) match.get("query"));
+                exact = false;
+            } else {
+                Map<String, Object> filter = (Map<String, Object>) ((Map<String, Object>) query.get("constant_score")).get("filter");
+                phrase = Collections.singletonList((String) ((Map<String, Object>) filter.get("term")).get("metadata.data_set_id"));
+                exact = true;
+            }
+
+            List<String> matches = new ArrayList<String>();
+            for (Map.Entry<String, String> dataSetId : dataSetIds.entrySet()) {
+                List<String> tokens = tokens(dataSetId.getValue());
+                if (exact ? tokens.contains(phrase.get(0)) : Collections.indexOfSubList(tokens, phrase) >= 0) {
+                    matches.add(dataSetId.getKey());
+                }
+            }
+            return matches;
+        }
+
+        private static List<String> tokens(String value) {
+            return Arrays.asList(value.toLowerCase(Locale.ROOT).split("[^a-z0-9]+"));
+        }
+
+        private static byte[] source(String dataSetId) {
+            try {
+                return XContentFactory.jsonBuilder().startObject()
+                        .startObject("shape").field("type", "point").startArray("coordinates").value(1).value(2).endArray().endObject()
+                        .startObject("metadata").field("data_set_id", dataSetId).endObject()
+                        .endObject().bytes().toBytes();
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        }
+
+        private static SearchResponse response(InternalSearchHit[] hits) {
+            return new SearchResponse(new InternalSearchResponse(new InternalSearchHits(hits, hits.length, 0), null, false),
+                    "scroll", 1, 1, 0, ShardSearchFailure.EMPTY_ARRAY);
+        }
+    }
+}
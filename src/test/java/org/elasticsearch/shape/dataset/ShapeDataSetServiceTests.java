@@ -0,0 +1,279 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.impl.PointImpl;
+import com.spatial4j.core.shape.impl.RectangleImpl;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link ShapeDataSetService}
+ */
+public class ShapeDataSetServiceTests {
+
+    private ThreadPool threadPool;
+
+    @BeforeMethod
+    public void setUp() {
+        threadPool = new ThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testConcreteIndex() {
+        MetaData metaData = MetaData.builder()
+                .put(IndexMetaData.builder("shapes_v1").numberOfShards(3).numberOfReplicas(0).putAlias(AliasMetaData.builder("shapes")))
+                .put(IndexMetaData.builder("countries_v1").numberOfShards(1).numberOfReplicas(0).putAlias(AliasMetaData.builder("all")))
+                .put(IndexMetaData.builder("countries_v2").numberOfShards(1).numberOfReplicas(0).putAlias(AliasMetaData.builder("all")))
+                .build();
+
+        assertEquals(ShapeDataSetService.concreteIndex(metaData, "shapes_v1"), "shapes_v1");
+        // Aliases are resolved to the index they point to
+        assertEquals(ShapeDataSetService.concreteIndex(metaData, "shapes"), "shapes_v1");
+        // Indices yet to be created and aliases of several indices have no shards to group by
+        assertNull(ShapeDataSetService.concreteIndex(metaData, "missing"));
+        assertNull(ShapeDataSetService.concreteIndex(metaData, "all"));
+    }
+
+    @Test
+    public void testSmileDocuments() throws IOException {
+        final List<IndexRequest> indexed = new CopyOnWriteArrayList<IndexRequest>();
+        FakeClient client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                for (ActionRequest indexRequest : request.requests()) {
+                    indexed.add((IndexRequest) indexRequest);
+                }
+                super.bulk(request, listener);
+            }
+        };
+
+        DataSetIndexResponse response = index(service(client, ImmutableSettings.Builder.EMPTY_SETTINGS),
+                new DataSetIndexRequest("countries").index("shapes").contentType(XContentType.SMILE));
+
+        assertEquals(response.totalCount(), 2);
+        assertEquals(indexed.size(), 2);
+        for (IndexRequest indexRequest : indexed) {
+            assertEquals(XContentFactory.xContentType(indexRequest.source()), XContentType.SMILE);
+        }
+
+        Map<String, Object> paris = XContentHelper.convertToMap(indexed.get(0).source(), false).v2();
+        assertEquals(indexed.get(0).id(), "Paris");
+        assertEquals(paris.get("population"), 2234105);
+        assertEquals(paris.get("shape"), ImmutableMap.of("type", "point", "coordinates", Arrays.asList(2.35, 48.85)));
+        assertEquals(((Map) paris.get("metadata")).get("data_set_id"), "capitals");
+
+        Map<String, Object> france = XContentHelper.convertToMap(indexed.get(1).source(), false).v2();
+        assertEquals(((Map) france.get("shape")).get("type"), "envelope");
+    }
+
+    @Test
+    public void testRejectedDocumentsRetried() {
+        final AtomicInteger bulks = new AtomicInteger();
+        final List<String> indexed = new CopyOnWriteArrayList<String>();
+        FakeClient client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                BulkItemResponse[] items = new BulkItemResponse[request.requests().size()];
+                for (int i = 0; i < items.length; i++) {
+                    // The first attempt at each document is rejected
+                    if (bulks.get() == 0) {
+                        items[i] = FakeClient.failure(request, i, "EsRejectedExecutionException[rejected execution]");
+                    } else {
+                        items[i] = FakeClient.success(request, i);
+                        indexed.add(((IndexRequest) request.requests().get(i)).id());
+                    }
+                }
+                bulks.incrementAndGet();
+                listener.onResponse(new BulkResponse(items, 1));
+            }
+        };
+
+        Settings settings = ImmutableSettings.settingsBuilder().put("shape.dataset.bulk.initial_backoff", "10ms").build();
+        DataSetIndexResponse response = index(service(client, settings), new DataSetIndexRequest("countries").index("shapes"));
+
+        assertEquals(response.totalCount(), 2);
+        assertEquals(bulks.get(), 2);
+        assertEquals(indexed, Arrays.asList("Paris", "France"));
+    }
+
+    @Test
+    public void testRejectedDocumentsFailOnceRetriesExhausted() {
+        final AtomicInteger bulks = new AtomicInteger();
+        FakeClient client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                bulks.incrementAndGet();
+                listener.onFailure(new EsRejectedExecutionException("rejected execution"));
+            }
+        };
+
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("shape.dataset.bulk.initial_backoff", "1ms")
+                .put("shape.dataset.bulk.max_retries", 3)
+                .build();
+        try {
+            index(service(client, settings), new DataSetIndexRequest("countries").index("shapes"));
+            fail("Expected the ingest to fail once the retries were exhausted");
+        } catch (ElasticSearchIllegalStateException e) {
+            assertTrue(e.getMessage().contains("still rejected after [3] retries"), e.getMessage());
+        }
+        assertEquals(bulks.get(), 4);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDryRun() throws IOException {
+        FakeClient client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                throw new AssertionError("Dry runs must not send bulks");
+            }
+        };
+
+        DataSetIndexResponse response = index(service(client, ImmutableSettings.Builder.EMPTY_SETTINGS),
+                new DataSetIndexRequest("countries").index("shapes").dryRun(true));
+
+        DataSetIndexStats stats = response.stats();
+        assertEquals(response.totalCount(), 2);
+        assertEquals(stats.records(), 2);
+        assertEquals(stats.documents(), 2);
+        assertTrue(stats.bytes() > 0);
+        // The rectangle serializes to the largest document
+        assertEquals(stats.largestDocumentId(), "France");
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        Map<String, Object> statsMap = (Map<String, Object>) XContentHelper.convertToMap(builder.endObject().bytes(), false)
+                .v2().get("stats");
+        assertEquals(statsMap.get("records"), 2);
+        assertTrue(statsMap.containsKey("records_per_second"));
+        assertTrue(statsMap.containsKey("vertices_per_second"));
+        assertEquals(((Map) statsMap.get("largest_document")).get("id"), "France");
+        assertEquals(((Map) statsMap.get("stages")).keySet(), ImmutableSet.of(
+                "load_millis", "tile_millis", "serialize_millis", "bulk_millis", "cover_millis", "validate_millis"));
+    }
+
+    @Test
+    public void testRejectedIngestReleasesDataSet() {
+        FakeClient client = new FakeClient() {
+
+            @Override
+            protected void bulk(BulkRequest request, ActionListener<BulkResponse> listener) {
+                throw new AssertionError("Rejected ingests must not send bulks");
+            }
+        };
+
+        Settings settings = ImmutableSettings.settingsBuilder().put("shape.dataset.ingest.memory_budget", "1kb").build();
+        EstimatedShapeDataSet dataSet = new EstimatedShapeDataSet();
+        PlainActionFuture<DataSetIndexResponse> future = PlainActionFuture.newFuture();
+        service(client, settings).index(dataSet,
+                new DataSetIndexRequest("countries").index("shapes").overBudget(IngestMemoryBudget.OverBudget.REJECT), future);
+        try {
+            future.actionGet();
+            fail("Expected the ingest to be rejected by the memory budget");
+        } catch (EsRejectedExecutionException e) {
+            assertTrue(e.getMessage().contains("exceeding the available ingest memory budget"), e.getMessage());
+        }
+        // The archive downloaded to estimate the DataSet is released with the rejection
+        assertEquals(dataSet.released.get(), 1);
+    }
+
+    private ShapeDataSetService service(FakeClient client, Settings settings) {
+        return new ShapeDataSetService(client.client(), settings, null, threadPool, null);
+    }
+
+    private static DataSetIndexResponse index(ShapeDataSetService service, DataSetIndexRequest request) {
+        PlainActionFuture<DataSetIndexResponse> future = PlainActionFuture.newFuture();
+        service.index(new TestShapeDataSet(), request, future);
+        return future.actionGet();
+    }
+
+    /**
+     * DataSet of a point and a rectangle
+     */
+    private static class TestShapeDataSet implements ShapeDataSet {
+
+        @Override
+        public String id() {
+            return "capitals";
+        }
+
+        @Override
+        public Iterator<ShapeData> shapeData() {
+            return Arrays.asList(
+                    new ShapeData(new PointImpl(2.35, 48.85, GeoShapeConstants.SPATIAL_CONTEXT), "Paris",
+                            ImmutableMap.<String, Object>of("population", 2234105)),
+                    new ShapeData(new RectangleImpl(-5.1, 8.2, 42.3, 51.1, GeoShapeConstants.SPATIAL_CONTEXT), "France",
+                            ImmutableMap.<String, Object>of("population", 64057792))
+            ).iterator();
+        }
+
+        @Override
+        public void addMetadata(XContentBuilder contentBuilder) {
+        }
+    }
+
+    /**
+     * DataSet estimated to need far more heap than any test budget, counting its releases
+     */
+    private static class EstimatedShapeDataSet extends TestShapeDataSet implements EstimableShapeDataSet, ReleasableShapeDataSet {
+
+        private final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        public DataSetMemoryEstimate estimateMemory() {
+            return new DataSetMemoryEstimate(2, 10000000, 100000000, 1000, true);
+        }
+
+        @Override
+        public ShapeDataSet lowMemory() {
+            return this;
+        }
+
+        @Override
+        public void release() {
+            released.incrementAndGet();
+        }
+    }
+}
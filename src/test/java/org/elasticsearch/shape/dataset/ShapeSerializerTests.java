@@ -0,0 +1,52 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Polygon;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link ShapeSerializer}
+ */
+public class ShapeSerializerTests {
+
+    @Test
+    public void testFullPrecision() throws IOException {
+        assertEquals(serialize(square(), 0),
+                "{\"type\":\"polygon\",\"coordinates\":[[[0.0,0.0],[1.0,0.0],[1.0000001,1.0E-7],[1.0,1.0],[0.0,1.0],[0.0,0.0]]]}");
+    }
+
+    @Test
+    public void testQuantization() throws IOException {
+        assertEquals(serialize(square(), 1e-6),
+                "{\"type\":\"polygon\",\"coordinates\":[[[0.0,0.0],[1.0,0.0],[1.0,1.0],[0.0,1.0],[0.0,0.0]]]}");
+        assertEquals(serialize(new JtsGeometry(GeoShapeConstants.GEOMETRY_FACTORY.createPoint(
+                new Coordinate(12.3456789, -45.6789012)), GeoShapeConstants.SPATIAL_CONTEXT, true), 1e-3),
+                "{\"type\":\"point\",\"coordinates\":[12.346,-45.679]}");
+    }
+
+    private static JtsGeometry square() {
+        Polygon polygon = GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(
+                GeoShapeConstants.GEOMETRY_FACTORY.createLinearRing(new Coordinate[] {
+                        new Coordinate(0, 0),
+                        new Coordinate(1, 0),
+                        new Coordinate(1.0000001, 0.0000001),
+                        new Coordinate(1, 1),
+                        new Coordinate(0, 1),
+                        new Coordinate(0, 0)
+                }), null);
+        return new JtsGeometry(polygon, GeoShapeConstants.SPATIAL_CONTEXT, true);
+    }
+
+    private static String serialize(JtsGeometry shape, double precision) throws IOException {
+        XContentBuilder contentBuilder = XContentFactory.jsonBuilder().startObject();
+        new ShapeSerializer(precision).serialize(shape, contentBuilder);
+        return contentBuilder.endObject().string();
+    }
+}
@@ -0,0 +1,70 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.TopologyException;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ShapeTiler}
+ */
+public class ShapeTilerTests {
+
+    @Test
+    public void testSmallShapeNotTiled() {
+        JtsGeometry circle = circle(50);
+        List<Shape> tiles = new ShapeTiler(100).tile(circle);
+        assertEquals(tiles.size(), 1);
+        assertTrue(tiles.get(0) == circle);
+    }
+
+    @Test
+    public void testLargeShapeTiled() {
+        JtsGeometry circle = circle(1000);
+        List<Shape> tiles = new ShapeTiler(100).tile(circle);
+        assertTrue(tiles.size() > 1);
+
+        double area = 0;
+        for (Shape tile : tiles) {
+            assertTrue(((JtsGeometry) tile).getGeom().getNumPoints() <= 100);
+            area += ((JtsGeometry) tile).getGeom().getArea();
+        }
+        assertEquals(area, circle.getGeom().getArea(), 1e-9);
+    }
+
+    @Test
+    public void testFailedClipFallsBackToShape() {
+        ShapeTiler shapeTiler = new ShapeTiler(100) {
+
+            @Override
+            Geometry clip(Geometry geometry, Geometry cell) {
+                throw new TopologyException("side location conflict");
+            }
+        };
+        JtsGeometry circle = circle(1000);
+        GeometryValidation validation = new GeometryValidation(GeometryValidation.Policy.SKIP);
+        List<Shape> tiles = shapeTiler.tile(circle, "circle", validation);
+        assertEquals(tiles.size(), 1);
+        assertTrue(tiles.get(0) == circle);
+        assertEquals(validation.untiled(), 1);
+        assertEquals(validation.samples().get(0), "shape [circle]: side location conflict");
+    }
+
+    private static JtsGeometry circle(int numPoints) {
+        Coordinate[] coordinates = new Coordinate[numPoints + 1];
+        for (int i = 0; i < numPoints; i++) {
+            double angle = 2 * Math.PI * i / numPoints;
+            coordinates[i] = new Coordinate(10 + 5 * Math.cos(angle), 20 + 5 * Math.sin(angle));
+        }
+        coordinates[numPoints] = coordinates[0];
+        return new JtsGeometry(GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(
+                GeoShapeConstants.GEOMETRY_FACTORY.createLinearRing(coordinates), null), GeoShapeConstants.SPATIAL_CONTEXT, true);
+    }
+}
@@ -0,0 +1,56 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Shape;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.index.search.geo.GeoHashUtils;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link SpatialJoin}
+ */
+public class SpatialJoinTests {
+
+    @Test
+    public void testPoint() {
+        assertPoint(SpatialJoin.point(Arrays.<Object>asList(2.35, 48.85)), 2.35, 48.85);
+        assertPoint(SpatialJoin.point("48.85, 2.35"), 2.35, 48.85);
+        assertPoint(SpatialJoin.point(ImmutableMap.<String, Object>of("lat", 48.85, "lon", "2.35")), 2.35, 48.85);
+        assertPoint(SpatialJoin.point(ImmutableMap.<String, Object>of(
+                "type", "Point", "coordinates", Arrays.<Object>asList(2.35, 48.85))), 2.35, 48.85);
+
+        double[] geohash = SpatialJoin.point(GeoHashUtils.encode(48.85, 2.35));
+        assertEquals(geohash[0], 2.35, 0.0001);
+        assertEquals(geohash[1], 48.85, 0.0001);
+
+        assertNull(SpatialJoin.point(null));
+        assertNull(SpatialJoin.point("north, east"));
+        assertNull(SpatialJoin.point(ImmutableMap.<String, Object>of("type", "polygon")));
+    }
+
+    @Test
+    public void testTag() {
+        ShapeData shapeData = new ShapeData((Shape) null, "France",
+                ImmutableMap.<String, Object>of("ISO_A2", "FR", "POP_EST", 64057792), "countries");
+
+        Map<String, Object> nameOnly = SpatialJoin.tag(shapeData, Collections.<String>emptySet());
+        assertEquals(nameOnly, ImmutableMap.of("name", "France", "layer", "countries"));
+
+        Map<String, Object> withFields = SpatialJoin.tag(shapeData, ImmutableSet.of("ISO_A2"));
+        assertEquals(withFields, ImmutableMap.of("name", "France", "layer", "countries", "ISO_A2", "FR"));
+
+        assertEquals(SpatialJoin.tag(shapeData, ImmutableSet.of("*")).size(), 4);
+    }
+
+    private static void assertPoint(double[] point, double lon, double lat) {
+        assertNotNull(point);
+        assertEquals(point[0], lon, 0.0000001);
+        assertEquals(point[1], lat, 0.0000001);
+    }
+}
@@ -0,0 +1,103 @@
+package org.elasticsearch.shape.dataset;
+
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link TopologyEncoder} and {@link ArcStore}
+ */
+public class TopologyEncoderTests {
+
+    @Test
+    public void testSharedBorderStoredOnce() throws IOException {
+        // Two squares sharing the border from (1, 0) to (1, 1), starting from different corners
+        Shape left = square(0, 0, 1, 0, 1, 1, 0, 1);
+        Shape right = square(2, 1, 1, 1, 1, 0, 2, 0);
+
+        TopologyEncoder encoder = new TopologyEncoder();
+        encoder.add(left);
+        encoder.add(right);
+        encoder.cutArcs();
+
+        assertEquals(encoder.numArcs(), 3);
+        // The junctions at either end of the shared border begin and end the other arcs
+        assertEquals(encoder.numArcCoordinates(), 10);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        encoder.writeShape(0, out);
+        int rightOffset = out.size();
+        encoder.writeShape(1, out);
+        int arcsOffset = out.size();
+        encoder.writeArcs(out);
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        ArcStore arcStore = new ArcStore(buffer, arcsOffset);
+        assertEquals(arcStore.numArcs(), 3);
+        assertExact(arcStore.decode(buffer, 0), left);
+        assertExact(arcStore.decode(buffer, rightOffset), right);
+    }
+
+    @Test
+    public void testEnclaveStoredOnce() throws IOException {
+        Geometry outer = GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(
+                ring(0, 0, 4, 0, 4, 4, 0, 4),
+                new LinearRing[]{ring(1, 1, 1, 3, 3, 3, 3, 1)});
+        Shape outerShape = new JtsGeometry(outer, GeoShapeConstants.SPATIAL_CONTEXT, true);
+        Shape enclave = square(3, 3, 3, 1, 1, 1, 1, 3);
+
+        TopologyEncoder encoder = new TopologyEncoder();
+        encoder.add(outerShape);
+        encoder.add(enclave);
+        encoder.cutArcs();
+
+        // The hole and the enclave share a single arc
+        assertEquals(encoder.numArcs(), 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        encoder.writeShape(0, out);
+        int enclaveOffset = out.size();
+        encoder.writeShape(1, out);
+        int arcsOffset = out.size();
+        encoder.writeArcs(out);
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        ArcStore arcStore = new ArcStore(buffer, arcsOffset);
+        assertExact(arcStore.decode(buffer, 0), outerShape);
+        assertExact(arcStore.decode(buffer, enclaveOffset), enclave);
+    }
+
+    private static void assertExact(PackedGeometry geometry, Shape expected) {
+        Geometry actual = ((JtsGeometry) geometry.toShape()).getGeom();
+        assertTrue(actual.equalsExact(((JtsGeometry) expected).getGeom()), actual.toString());
+    }
+
+    private static Shape square(double... coordinates) {
+        return new JtsGeometry(GeoShapeConstants.GEOMETRY_FACTORY.createPolygon(ring(coordinates), null),
+                GeoShapeConstants.SPATIAL_CONTEXT, true);
+    }
+
+    private static LinearRing ring(double... coordinates) {
+        Coordinate[] ring = new Coordinate[coordinates.length / 2 + 1];
+        for (int i = 0; i < coordinates.length / 2; i++) {
+            ring[i] = new Coordinate(coordinates[i * 2], coordinates[i * 2 + 1]);
+        }
+        ring[ring.length - 1] = ring[0];
+        return GeoShapeConstants.GEOMETRY_FACTORY.createLinearRing(ring);
+    }
+}
@@ -0,0 +1,300 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.DummyTransportAddress;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link TransportDataSetRegistryAction}, against a single node whose requests
+ * are looped back to it, and whose definitions index is held by a {@link FakeClient}
+ */
+public class TransportDataSetRegistryActionTests {
+
+    private ThreadPool threadPool;
+    private TransportService transportService;
+    private IndexClient client;
+    private ShapeDataSetService dataSetService;
+    private TransportDataSetRegistryAction registryAction;
+
+    @BeforeMethod
+    public void setUp() {
+        threadPool = new ThreadPool();
+        Transport transport = (Transport) Proxy.newProxyInstance(Transport.class.getClassLoader(),
+                new Class[]{Transport.class}, new LoopbackTransport());
+        transportService = new TransportService(transport, threadPool).start();
+        DiscoveryNode node = new DiscoveryNode("node", DummyTransportAddress.INSTANCE);
+
+        final ClusterState state = ClusterState.newClusterStateBuilder()
+                .nodes(DiscoveryNodes.newNodesBuilder().put(node).localNodeId(node.id()).masterNodeId(node.id()))
+                .metaData(MetaData.newMetaDataBuilder().put(IndexMetaData.newIndexMetaDataBuilder(TransportDataSetRegistryAction.INDEX)
+                        .numberOfShards(1).numberOfReplicas(0)))
+                .build();
+        ClusterService clusterService = (ClusterService) Proxy.newProxyInstance(ClusterService.class.getClassLoader(),
+                new Class[]{ClusterService.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("state") ? state : null;
+                    }
+                });
+
+        client = new IndexClient(threadPool);
+        dataSetService = new ShapeDataSetService(client.client(), ImmutableSettings.Builder.EMPTY_SETTINGS, null, threadPool, null);
+        registryAction = new TransportDataSetRegistryAction(ImmutableSettings.Builder.EMPTY_SETTINGS, client.client(),
+                clusterService, transportService, threadPool, dataSetService,
+                new ReverseGeocodingService(ImmutableSettings.Builder.EMPTY_SETTINGS, dataSetService, threadPool));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        transportService.stop();
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testRegisterAndRemove() throws Exception {
+        PlainActionFuture<Integer> registered = PlainActionFuture.newFuture();
+        registryAction.register(definition("countries"), registered);
+        assertEquals(registered.get(), Integer.valueOf(1));
+        assertTrue(dataSetService.dataSet("countries") instanceof RemoteESRIShapeDataSet);
+
+        // Registering the definition again replaces the DataSet
+        registered = PlainActionFuture.newFuture();
+        registryAction.register(definition("countries"), registered);
+        assertEquals(registered.get(), Integer.valueOf(1));
+        assertNotNull(dataSetService.dataSet("countries"));
+
+        PlainActionFuture<Integer> removed = PlainActionFuture.newFuture();
+        registryAction.remove("countries", removed);
+        assertEquals(removed.get(), Integer.valueOf(1));
+        assertNull(dataSetService.dataSet("countries"));
+
+        removed = PlainActionFuture.newFuture();
+        registryAction.remove("countries", removed);
+        assertFailure(removed, "not found");
+    }
+
+    @Test
+    public void testBuiltInDataSetsProtected() throws Exception {
+        String id = RemoteESRIShapeDataSet.NATURAL_EARTH_DATA_COUNTRIES.id();
+
+        PlainActionFuture<Integer> registered = PlainActionFuture.newFuture();
+        registryAction.register(definition(id), registered);
+        assertFailure(registered, "built in");
+
+        PlainActionFuture<Integer> removed = PlainActionFuture.newFuture();
+        registryAction.remove(id, removed);
+        assertFailure(removed, "built in");
+
+        // Definitions of built in DataSets written to the index directly are ignored too
+        registryAction.apply(1, Collections.singletonList(definition(id)));
+        assertSame(dataSetService.dataSet(id), RemoteESRIShapeDataSet.NATURAL_EARTH_DATA_COUNTRIES);
+        assertTrue(client.documents.isEmpty());
+    }
+
+    @Test
+    public void testOlderSnapshotsIgnored() {
+        registryAction.apply(2, Arrays.asList(definition("countries"), definition("regions")));
+        // A sync of an earlier snapshot arriving late does not remove the later DataSet
+        registryAction.apply(1, Collections.singletonList(definition("countries")));
+        assertNotNull(dataSetService.dataSet("regions"));
+
+        registryAction.apply(3, Collections.singletonList(definition("countries")));
+        assertNull(dataSetService.dataSet("regions"));
+        assertNotNull(dataSetService.dataSet("countries"));
+    }
+
+    @Test
+    public void testSyncRequestStreaming() throws IOException {
+        TransportDataSetRegistryAction.SyncRequest request =
+                new TransportDataSetRegistryAction.SyncRequest(7, Collections.singletonList(definition("countries")));
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        request.writeTo(out);
+        TransportDataSetRegistryAction.SyncRequest streamed = new TransportDataSetRegistryAction.SyncRequest();
+        streamed.readFrom(new BytesStreamInput(out.bytes()));
+
+        BytesStreamOutput streamedOut = new BytesStreamOutput();
+        streamed.writeTo(streamedOut);
+        assertEquals(streamedOut.bytes().toBytes(), out.bytes().toBytes());
+    }
+
+    private static DataSetDefinition definition(String id) {
+        String filePath = TransportDataSetRegistryActionTests.class.getResource("/esri/test.zip").getFile();
+        return new DataSetDefinition(id, DataSetDefinition.ESRI_TYPE, "file://" + filePath, "NAME", false);
+    }
+
+    private static void assertFailure(PlainActionFuture<Integer> future, String message) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected a failure containing [" + message + "]");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticSearchIllegalArgumentException, e.getCause().toString());
+            assertTrue(e.getCause().getMessage().contains(message), e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * {@link Transport} delivering every request to the handler of the local node, once the
+     * request has been streamed
+     */
+    private static class LoopbackTransport implements InvocationHandler {
+
+        private TransportServiceAdapter adapter;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("transportServiceAdapter")) {
+                adapter = (TransportServiceAdapter) args[0];
+            } else if (method.getName().equals("sendRequest")) {
+                sendRequest((Long) args[1], (String) args[2], (Streamable) args[3]);
+            } else if (method.getReturnType().equals(boolean.class)) {
+                return true;
+            } else if (method.getReturnType().isInstance(proxy)) {
+                return proxy;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void sendRequest(final long requestId, final String action, Streamable message) throws Exception {
+            BytesStreamOutput out = new BytesStreamOutput();
+            message.writeTo(out);
+            TransportRequestHandler handler = adapter.handler(action);
+            Streamable request = handler.newInstance();
+            request.readFrom(new BytesStreamInput(out.bytes()));
+
+            handler.messageReceived(request, new TransportChannel() {
+
+                @Override
+                public String action() {
+                    return action;
+                }
+
+                @Override
+                public void sendResponse(Streamable response) {
+                    adapter.remove(requestId).handleResponse(response);
+                }
+
+                @Override
+                public void sendResponse(Streamable response, TransportResponseOptions options) {
+                    sendResponse(response);
+                }
+
+                @Override
+                public void sendResponse(Throwable error) {
+                    adapter.remove(requestId).handleException(new TransportException("Failed to handle [" + action + "]", error));
+                }
+            });
+        }
+    }
+
+    /**
+     * Holds the documents of the definitions index, returning them all from the first page
+     * of a scroll
+     */
+    private static class IndexClient extends FakeClient {
+
+        private final ThreadPool threadPool;
+        private final Map<String, Map<String, Object>> documents = new TreeMap<String, Map<String, Object>>();
+        private final Map<String, Long> versions = new HashMap<String, Long>();
+        private boolean scrolled;
+
+        private IndexClient(ThreadPool threadPool) {
+            this.threadPool = threadPool;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected synchronized Object handle(String method, Object[] args) {
+            if (method.equals("threadPool")) {
+                // Requests executed through their builders wait on futures of the pool
+                return threadPool;
+            } else if (method.equals("index")) {
+                IndexRequest request = (IndexRequest) args[0];
+                String key = request.type() + "/" + request.id();
+                documents.put(key, request.sourceAsMap());
+                ((ActionListener<IndexResponse>) args[1]).onResponse(
+                        new IndexResponse(request.index(), request.type(), request.id(), bump(key)));
+            } else if (method.equals("delete")) {
+                DeleteRequest request = (DeleteRequest) args[0];
+                String key = request.type() + "/" + request.id();
+                boolean found = documents.remove(key) != null;
+                ((ActionListener<DeleteResponse>) args[1]).onResponse(
+                        new DeleteResponse(request.index(), request.type(), request.id(), bump(key), !found));
+            } else if (method.equals("search")) {
+                scrolled = false;
+                ((ActionListener<SearchResponse>) args[1]).onResponse(response(new InternalSearchHit[0]));
+            } else if (method.equals("searchScroll")) {
+                List<InternalSearchHit> hits = new ArrayList<InternalSearchHit>();
+                if (!scrolled) {
+                    for (Map.Entry<String, Map<String, Object>> document : documents.entrySet()) {
+                        String[] key = document.getKey().split("/");
+                        InternalSearchHit hit = new InternalSearchHit(hits.size(), key[1], key[0], source(document.getValue()), null);
+                        hit.version(versions.get(document.getKey()));
+                        hits.add(hit);
+                    }
+                    scrolled = true;
+                }
+                ((ActionListener<SearchResponse>) args[1]).onResponse(response(hits.toArray(new InternalSearchHit[hits.size()])));
+            } else {
+                return super.handle(method, args);
+            }
+            return null;
+        }
+
+        private long bump(String key) {
+            long version = versions.containsKey(key) ? versions.get(key) + 1 : 1;
+            versions.put(key, version);
+            return version;
+        }
+
+        private static byte[] source(Map<String, Object> source) {
+            try {
+                return XContentFactory.jsonBuilder().map(source).bytes().toBytes();
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        }
+
+        private static SearchResponse response(InternalSearchHit[] hits) {
+            return new SearchResponse(new InternalSearchResponse(new InternalSearchHits(hits, hits.length, 0), null, false),
+                    "scroll", 1, 1, 0, ShardSearchFailure.EMPTY_ARRAY);
+        }
+    }
+}
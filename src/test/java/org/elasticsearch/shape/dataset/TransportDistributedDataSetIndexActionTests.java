@@ -0,0 +1,47 @@
+package org.elasticsearch.shape.dataset;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link TransportDistributedDataSetIndexAction}
+ */
+public class TransportDistributedDataSetIndexActionTests {
+
+    @Test
+    public void testSliceBounds() {
+        assertEquals(TransportDistributedDataSetIndexAction.sliceBounds(177, 1), new int[]{0, 177});
+        assertEquals(TransportDistributedDataSetIndexAction.sliceBounds(177, 4), new int[]{0, 45, 89, 133, 177});
+        assertEquals(TransportDistributedDataSetIndexAction.sliceBounds(10, 5), new int[]{0, 2, 4, 6, 8, 10});
+        // There are never more slices than records
+        assertEquals(TransportDistributedDataSetIndexAction.sliceBounds(2, 5), new int[]{0, 1, 2});
+        assertEquals(TransportDistributedDataSetIndexAction.sliceBounds(0, 3), new int[]{0, 0});
+    }
+
+    @Test
+    public void testSliceRequestStreaming() throws IOException {
+        DataSetIndexRequest indexRequest = new DataSetIndexRequest("countries").index("shapes").batchSize(250)
+                .validation(GeometryValidation.Policy.REPORT);
+        TransportDistributedDataSetIndexAction.SliceRequest request =
+                new TransportDistributedDataSetIndexAction.SliceRequest("natural_earth_data_countries", 45, 89, 1350000000000L, indexRequest);
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        request.writeTo(out);
+        TransportDistributedDataSetIndexAction.SliceRequest streamed = new TransportDistributedDataSetIndexAction.SliceRequest();
+        streamed.readFrom(new BytesStreamInput(out.bytes()));
+
+        assertEquals(streamed.dataSetId(), "natural_earth_data_countries");
+        assertEquals(streamed.from(), 45);
+        assertEquals(streamed.to(), 89);
+        assertEquals(streamed.insertDate(), 1350000000000L);
+        assertEquals(streamed.indexRequest().index(), "shapes");
+        assertEquals(streamed.indexRequest().type(), "countries");
+        assertEquals(streamed.indexRequest().batchSize(), 250);
+        assertEquals(streamed.indexRequest().validation(), GeometryValidation.Policy.REPORT);
+    }
+}
@@ -0,0 +1,73 @@
+package org.elasticsearch.shape.dataset.parsers;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.shape.dataset.ByteStreams;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for {@link AttributeRecord} and {@link RecordSchema}
+ */
+public class AttributeRecordTests {
+
+    @Test
+    public void testRecordsMatchJavaDBF() throws IOException {
+        byte[] dbf = readDbf();
+
+        DBaseFileParser parser = new DBaseFileParser(ByteBuffer.wrap(dbf));
+        RecordSchema schema = new RecordSchema(parser.fields(), "NAME");
+        List<AttributeRecord> records = parser.records(schema, 0, parser.numRecords());
+        List<Map<String, Object>> expected = ESRIShapeFileParser.parseDBFFile(new ByteArrayInputStream(dbf));
+
+        assertEquals(records.size(), expected.size());
+        for (int i = 0; i < records.size(); i++) {
+            Map<String, Object> expectedRecord = expected.get(i);
+            AttributeRecord record = records.get(i);
+
+            assertEquals(record.get(schema.column("NAME")), expectedRecord.remove("NAME"));
+            assertFalse(record.containsKey("NAME"));
+            for (Map.Entry<String, Object> entry : expectedRecord.entrySet()) {
+                assertEquals(record.get(entry.getKey()), entry.getValue(), entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testSlicesAndWriting() throws IOException {
+        DBaseFileParser parser = new DBaseFileParser(ByteBuffer.wrap(readDbf()));
+        RecordSchema schema = new RecordSchema(parser.fields());
+
+        AttributeRecord record = parser.records(schema, 10, 11).get(0);
+        assertEquals(record, parser.records(schema, 0, 20).get(10));
+
+        XContentBuilder recordBuilder = XContentFactory.jsonBuilder().startObject();
+        record.writeTo(recordBuilder);
+        XContentBuilder mapBuilder = XContentFactory.jsonBuilder().map(record);
+        assertEquals(recordBuilder.endObject().string(), mapBuilder.string());
+    }
+
+    private static byte[] readDbf() throws IOException {
+        ZipInputStream zipInputStream = new ZipInputStream(AttributeRecordTests.class.getResourceAsStream("/esri/test.zip"));
+        try {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                if (zipEntry.getName().endsWith(".dbf")) {
+                    return ByteStreams.toByteArray(zipInputStream);
+                }
+            }
+            throw new IllegalStateException("No DBF file in test archive");
+        } finally {
+            zipInputStream.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.elasticsearch.shape.dataset.parsers;
 
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.shape.dataset.ByteStreams;
 import org.testng.annotations.Test;
 
@@ -8,9 +10,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
 import java.util.Iterator;
+import java.util.List;
 
-import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.*;
 
 /**
  * Tests for {@link DBaseFileParser}
@@ -36,4 +41,63 @@ public class DBaseFileParserTests {
 
         assertEquals(count, 177);
     }
+
+    @Test
+    public void testBlankDatesMemosAndDeletedRecords() throws Exception {
+        ByteBuffer dbf = dbf(new String[]{"NAME", "FOUNDED", "NOTES"}, new byte[]{'C', 'D', 'M'}, new int[]{6, 8, 10},
+                " France17920922         1",
+                "*Gone  19000101         2",
+                " Chad          ##########");
+
+        DBaseFileParser parser = new DBaseFileParser(dbf);
+        RecordSchema schema = new RecordSchema(parser.fields(), "NAME");
+        List<AttributeRecord> records = parser.records(schema, 0, parser.numRecords());
+
+        // Deleted records are kept as null so that the others stay aligned with their Shapes
+        assertEquals(records.size(), 3);
+        assertNull(records.get(1));
+        assertEquals(records.get(0).get("FOUNDED"), new SimpleDateFormat("yyyyMMdd").parse("17920922"));
+        // Blank dates and fields of unsupported types are read as null, and still written out
+        assertNull(records.get(2).get("FOUNDED"));
+        assertTrue(records.get(2).containsKey("FOUNDED"));
+        assertNull(records.get(0).get("NOTES"));
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        records.get(2).writeTo(builder);
+        assertEquals(builder.endObject().string(), "{\"FOUNDED\":null,\"NOTES\":null}");
+
+        Iterator<Object[]> values = parser.records();
+        assertEquals(values.next()[0], "France");
+        assertEquals(values.next()[0], "Chad  ");
+        assertFalse(values.hasNext());
+    }
+
+    /**
+     * Builds a dBase file with the given fields and records, each record given as its
+     * deletion marker followed by its values
+     */
+    private static ByteBuffer dbf(String[] names, byte[] types, int[] lengths, String... records) {
+        int recordBytes = 1;
+        for (int length : lengths) {
+            recordBytes += length;
+        }
+        int headerBytes = 32 + 32 * names.length + 1;
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerBytes + recordBytes * records.length + 1);
+        buffer.put((byte) 3).put(new byte[3]);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(records.length).putShort((short) headerBytes).putShort((short) recordBytes);
+        buffer.order(ByteOrder.BIG_ENDIAN).put(new byte[20]);
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = new byte[11];
+            System.arraycopy(names[i].getBytes(DBaseFileParser.CHARSET), 0, name, 0, names[i].length());
+            buffer.put(name).put(types[i]).put(new byte[4]).put((byte) lengths[i]).put(new byte[15]);
+        }
+        buffer.put((byte) 0x0D);
+        for (String record : records) {
+            buffer.put(record.getBytes(DBaseFileParser.CHARSET));
+        }
+        buffer.put((byte) 0x1A);
+        buffer.flip();
+        return buffer;
+    }
 }
@@ -1,6 +1,12 @@
 package org.elasticsearch.shape.dataset.parsers;
 
 import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import org.elasticsearch.shape.dataset.OffHeapGeometryStore;
+import org.elasticsearch.shape.dataset.PackedGeometry;
+import org.elasticsearch.shape.dataset.projection.Projection;
 import org.testng.annotations.Test;
 
 import java.io.File;
@@ -8,10 +14,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Map;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Tests for {@link ESRIShapeFileParser}
@@ -38,4 +46,38 @@ public class ESRIShapeFileParserTests {
         dbfInputStream.close();
         fileInputStream.close();
     }
+
+    @Test
+    public void testOnHeapMatchesOffHeap() throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(
+                new File(getClass().getResource("/esri/test.shp").getFile()));
+        ByteBuffer shpBuffer;
+        try {
+            shpBuffer = fileInputStream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileInputStream.getChannel().size());
+        } finally {
+            fileInputStream.close();
+        }
+
+        List<Shape> shapes = ESRIShapeFileParser.parseShpFile(shpBuffer.duplicate());
+        List<PackedGeometry> geometries = ESRIShapeFileParser.parseShpFile(
+                shpBuffer.duplicate(), Projection.IDENTITY, new OffHeapGeometryStore());
+        assertEquals(geometries.size(), shapes.size());
+
+        // Both paths assign rings to polygons by their orientation, so holes such as
+        // Lesotho within South Africa stay holes rather than becoming polygons
+        int numHoles = 0;
+        for (int i = 0; i < shapes.size(); i++) {
+            if (shapes.get(i) == ESRIShapeFileParser.DUMMY_SHAPE) {
+                // Topology is only validated on-heap, off-heap geometry is indexed as it is
+                continue;
+            }
+            Geometry onHeap = ((JtsGeometry) shapes.get(i)).getGeom();
+            Geometry offHeap = ((JtsGeometry) geometries.get(i).toShape()).getGeom();
+            assertTrue(onHeap.equalsExact(offHeap), "Record [" + (i + 1) + "] differs: " + onHeap + " vs " + offHeap);
+            for (int j = 0; j < onHeap.getNumGeometries(); j++) {
+                numHoles += ((Polygon) onHeap.getGeometryN(j)).getNumInteriorRing();
+            }
+        }
+        assertTrue(numHoles > 0);
+    }
 }
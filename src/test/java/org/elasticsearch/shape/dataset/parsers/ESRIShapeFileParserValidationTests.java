@@ -0,0 +1,139 @@
+package org.elasticsearch.shape.dataset.parsers;
+
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import org.elasticsearch.ElasticSearchParseException;
+import org.elasticsearch.shape.dataset.GeometryValidation;
+import org.elasticsearch.shape.dataset.OffHeapGeometryStore;
+import org.elasticsearch.shape.dataset.PackedGeometry;
+import org.elasticsearch.shape.dataset.projection.Projection;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests for the geometry validation of {@link ESRIShapeFileParser}
+ */
+public class ESRIShapeFileParserValidationTests {
+
+    private static final double[] SQUARE = {0, 0, 0, 10, 10, 10, 10, 0, 0, 0};
+    private static final double[] OPEN_SQUARE = {0, 0, 0, 10, 10, 10, 10, 0};
+    private static final double[] BOWTIE = {0, 0, 10, 10, 10, 0, 0, 10, 0, 0};
+    private static final double[] OUT_OF_RANGE = {0, 0, 0, 100, 10, 100, 10, 0, 0, 0};
+
+    @Test
+    public void testSkip() {
+        GeometryValidation validation = new GeometryValidation(GeometryValidation.Policy.SKIP);
+        List<Shape> shapes = ESRIShapeFileParser.parseShpFile(
+                shpFile(SQUARE, OPEN_SQUARE, BOWTIE, OUT_OF_RANGE), Projection.IDENTITY, validation);
+
+        assertEquals(shapes.size(), 4);
+        assertTrue(shapes.get(0) instanceof JtsGeometry);
+        assertSame(shapes.get(1), ESRIShapeFileParser.DUMMY_SHAPE);
+        assertSame(shapes.get(2), ESRIShapeFileParser.DUMMY_SHAPE);
+        assertSame(shapes.get(3), ESRIShapeFileParser.DUMMY_SHAPE);
+
+        assertEquals(validation.valid(), 1);
+        assertEquals(validation.invalid(), 3);
+        assertEquals(validation.samples().get(0), "record [2]: ring [0] is not closed");
+        assertTrue(validation.samples().get(1).startsWith("record [3]: Self-intersection"), validation.samples().get(1));
+        assertTrue(validation.samples().get(2).startsWith("record [4]: bounding box"), validation.samples().get(2));
+    }
+
+    @Test
+    public void testRepair() {
+        GeometryValidation validation = new GeometryValidation(GeometryValidation.Policy.REPAIR);
+        List<Shape> shapes = ESRIShapeFileParser.parseShpFile(
+                shpFile(OPEN_SQUARE, BOWTIE, OUT_OF_RANGE), Projection.IDENTITY, validation);
+
+        JtsGeometry closed = (JtsGeometry) shapes.get(0);
+        assertEquals(closed.getGeom().getArea(), 100, 0.0001);
+        assertTrue(((JtsGeometry) shapes.get(1)).getGeom().isValid());
+        assertSame(shapes.get(2), ESRIShapeFileParser.DUMMY_SHAPE);
+
+        assertEquals(validation.repaired(), 2);
+        assertEquals(validation.invalid(), 1);
+    }
+
+    @Test(expectedExceptions = ElasticSearchParseException.class)
+    public void testStrict() {
+        ESRIShapeFileParser.parseShpFile(shpFile(SQUARE, BOWTIE), Projection.IDENTITY,
+                new GeometryValidation(GeometryValidation.Policy.STRICT));
+    }
+
+    @Test
+    public void testPacked() {
+        GeometryValidation repair = new GeometryValidation(GeometryValidation.Policy.REPAIR);
+        List<PackedGeometry> repaired = ESRIShapeFileParser.parseShpFile(
+                shpFile(OPEN_SQUARE, BOWTIE, OUT_OF_RANGE), Projection.IDENTITY, new OffHeapGeometryStore(), repair);
+
+        assertEquals(repaired.get(0).numCoordinates(), 5);
+        // Topology of packed polygons is not validated, so the self-intersecting polygon is packed as it is
+        assertEquals(repaired.get(1).numCoordinates(), 5);
+        assertEquals(repaired.get(2).numCoordinates(), 1);
+        assertEquals(repair.valid(), 1);
+        assertEquals(repair.repaired(), 1);
+        assertEquals(repair.invalid(), 1);
+
+        GeometryValidation report = new GeometryValidation(GeometryValidation.Policy.REPORT);
+        List<PackedGeometry> reported = ESRIShapeFileParser.parseShpFile(
+                shpFile(SQUARE, BOWTIE), Projection.IDENTITY, new OffHeapGeometryStore(), report);
+
+        assertEquals(reported.get(1).numCoordinates(), 5);
+        assertEquals(report.valid(), 1);
+        assertEquals(report.reported(), 1);
+        assertTrue(report.samples().get(0).startsWith("record [2]: Self-intersection"), report.samples().get(0));
+    }
+
+    /**
+     * Writes a SHP file of single ring polygons, with the bounding box of each record
+     * calculated from its coordinates
+     */
+    private static ByteBuffer shpFile(double[]... rings) {
+        int length = 100;
+        for (double[] ring : rings) {
+            length += 8 + 44 + 4 + ring.length * 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(9994);
+        buffer.position(24);
+        buffer.putInt(length / 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(1000);
+        buffer.putInt(5);
+        buffer.position(100);
+
+        for (int i = 0; i < rings.length; i++) {
+            double[] ring = rings[i];
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(i + 1);
+            buffer.putInt((44 + 4 + ring.length * 8) / 2);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(5);
+
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int j = 0; j < ring.length; j += 2) {
+                minX = Math.min(minX, ring[j]);
+                maxX = Math.max(maxX, ring[j]);
+                minY = Math.min(minY, ring[j + 1]);
+                maxY = Math.max(maxY, ring[j + 1]);
+            }
+            buffer.putDouble(minX).putDouble(minY).putDouble(maxX).putDouble(maxY);
+            buffer.putInt(1);
+            buffer.putInt(ring.length / 2);
+            buffer.putInt(0);
+            for (double value : ring) {
+                buffer.putDouble(value);
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+}
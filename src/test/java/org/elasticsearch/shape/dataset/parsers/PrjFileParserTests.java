@@ -0,0 +1,63 @@
+package org.elasticsearch.shape.dataset.parsers;
+
+import org.elasticsearch.shape.dataset.projection.Projection;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link PrjFileParser}
+ */
+public class PrjFileParserTests {
+
+    private static final String GCS_WGS_1984 = "GEOGCS[\"GCS_WGS_1984\",DATUM[\"D_WGS_1984\"," +
+            "SPHEROID[\"WGS_1984\",6378137.0,298.257223563]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]]";
+
+    @Test
+    public void testGeographic() {
+        assertTrue(PrjFileParser.parsePrjFile(GCS_WGS_1984) == Projection.IDENTITY);
+    }
+
+    @Test
+    public void testTransverseMercator() {
+        Projection projection = PrjFileParser.parsePrjFile("PROJCS[\"WGS_1984_UTM_Zone_10N\"," + GCS_WGS_1984 + "," +
+                "PROJECTION[\"Transverse_Mercator\"],PARAMETER[\"False_Easting\",500000.0],PARAMETER[\"False_Northing\",0.0]," +
+                "PARAMETER[\"Central_Meridian\",-123.0],PARAMETER[\"Scale_Factor\",0.9996],PARAMETER[\"Latitude_Of_Origin\",0.0]," +
+                "UNIT[\"Meter\",1.0]]");
+
+        double[] coordinates = {500000, 4649776.224, 500000, 0};
+        projection.toGeographic(coordinates, 2);
+        assertEquals(coordinates[0], -123.0, 1e-6);
+        assertEquals(coordinates[1], 42.0, 1e-6);
+        assertEquals(coordinates[2], -123.0, 1e-9);
+        assertEquals(coordinates[3], 0.0, 1e-9);
+    }
+
+    @Test
+    public void testWebMercator() {
+        Projection projection = PrjFileParser.parsePrjFile("PROJCS[\"WGS_1984_Web_Mercator_Auxiliary_Sphere\"," + GCS_WGS_1984 + "," +
+                "PROJECTION[\"Mercator_Auxiliary_Sphere\"],PARAMETER[\"False_Easting\",0.0],PARAMETER[\"False_Northing\",0.0]," +
+                "PARAMETER[\"Central_Meridian\",0.0],PARAMETER[\"Standard_Parallel_1\",0.0],PARAMETER[\"Auxiliary_Sphere_Type\",0.0]," +
+                "UNIT[\"Meter\",1.0]]");
+
+        double[] coordinates = {-13358338.895192828, 5160979.444049783};
+        projection.toGeographic(coordinates, 1);
+        assertEquals(coordinates[0], -120.0, 1e-9);
+        assertEquals(coordinates[1], 42.0, 1e-9);
+    }
+
+    @Test
+    public void testLambertConformalConic() {
+        Projection projection = PrjFileParser.parsePrjFile("PROJCS[\"RGF_1993_Lambert_93\",GEOGCS[\"GCS_RGF_1993\"," +
+                "DATUM[\"D_RGF_1993\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0]," +
+                "UNIT[\"Degree\",0.0174532925199433]],PROJECTION[\"Lambert_Conformal_Conic\"],PARAMETER[\"False_Easting\",700000.0]," +
+                "PARAMETER[\"False_Northing\",6600000.0],PARAMETER[\"Central_Meridian\",3.0],PARAMETER[\"Standard_Parallel_1\",49.0]," +
+                "PARAMETER[\"Standard_Parallel_2\",44.0],PARAMETER[\"Latitude_Of_Origin\",46.5],UNIT[\"Meter\",1.0]]");
+
+        double[] coordinates = {700000, 6600000};
+        projection.toGeographic(coordinates, 1);
+        assertEquals(coordinates[0], 3.0, 1e-9);
+        assertEquals(coordinates[1], 46.5, 1e-9);
+    }
+}
@@ -0,0 +1,70 @@
+package org.elasticsearch.shape.dataset.writers;
+
+import org.elasticsearch.shape.dataset.parsers.AttributeRecord;
+import org.elasticsearch.shape.dataset.parsers.DBaseFileParser;
+import org.elasticsearch.shape.dataset.parsers.RecordSchema;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Tests for {@link DBaseFileWriter}
+ */
+public class DBaseFileWriterTests {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> first = new LinkedHashMap<String, Object>();
+        first.put("NAME", "France");
+        first.put("POP_EST", 64057792.0);
+        first.put("GDP", 2128000.5);
+        first.put("MEMBER", true);
+        first.put("A_VERY_LONG_NAME", "a");
+        first.put("A_VERY_LONG_NAME_TOO", "b");
+
+        Map<String, Object> second = new LinkedHashMap<String, Object>();
+        second.put("NAME", "Australia");
+        second.put("POP_EST", 21262641);
+        second.put("MEMBER", false);
+
+        DBaseFileWriter.FieldsBuilder fieldsBuilder = new DBaseFileWriter.FieldsBuilder().add(first).add(second);
+        List<DBaseFileWriter.Field> fields = fieldsBuilder.build();
+        assertEquals(fields.get(0).type(), 'C');
+        assertEquals(fields.get(0).length(), 9);
+        assertEquals(fields.get(1).type(), 'N');
+        assertEquals(fields.get(3).type(), 'L');
+        // Names are truncated to 10 characters and kept unique
+        assertEquals(fields.get(4).name(), "A_VERY_LON");
+        assertEquals(fields.get(5).name(), "A_VERY_LO1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DBaseFileWriter writer = new DBaseFileWriter(out, fields, 2);
+        writer.write(first);
+        writer.write(second);
+        writer.close();
+
+        DBaseFileParser parser = new DBaseFileParser(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(parser.numRecords(), 2);
+        assertEquals(parser.fields().size(), 6);
+
+        RecordSchema schema = new RecordSchema(parser.fields());
+        List<AttributeRecord> records = parser.records(schema, 0, 2);
+        assertEquals(records.get(0).get("NAME").toString().trim(), "France");
+        assertEquals(records.get(0).get("POP_EST"), 64057792.0);
+        assertEquals(records.get(0).get("GDP"), 2128000.5);
+        assertEquals(records.get(0).get("MEMBER"), true);
+        assertEquals(records.get(1).get("NAME").toString().trim(), "Australia");
+        assertEquals(records.get(1).get("POP_EST"), 21262641.0);
+        assertNull(records.get(1).get("GDP"));
+        assertFalse((Boolean) records.get(1).get("MEMBER"));
+    }
+}
@@ -0,0 +1,85 @@
+package org.elasticsearch.shape.dataset.writers;
+
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Geometry;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.shape.dataset.ByteStreams;
+import org.elasticsearch.shape.dataset.OffHeapGeometryStore;
+import org.elasticsearch.shape.dataset.PackedGeometry;
+import org.elasticsearch.shape.dataset.parsers.ESRIShapeFileParser;
+import org.elasticsearch.shape.dataset.projection.Projection;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ESRIShapeFileWriter}
+ */
+public class ESRIShapeFileWriterTests {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File directory = File.createTempFile("shp_writer", "");
+        assertTrue(directory.delete() && directory.mkdirs());
+        try {
+            File shp = new File(directory, "test.shp");
+            File shx = new File(directory, "test.shx");
+
+            ESRIShapeFileWriter writer = new ESRIShapeFileWriter(shp, shx);
+            // Shell is given counter-clockwise and the hole clockwise, the reverse of shapefiles
+            writer.writePolygons(Collections.singletonList(new double[][]{
+                    {0, 0, 10, 0, 10, 10, 0, 10, 0, 0},
+                    {2, 2, 2, 4, 4, 4, 4, 2, 2, 2}}));
+            writer.writeNull();
+            writer.writePolygons(Arrays.asList(
+                    new double[][]{{20, 20, 20, 21, 21, 21, 21, 20, 20, 20}},
+                    new double[][]{{30, 30, 30, 31, 31, 31, 31, 30, 30, 30}}));
+            writer.close();
+            assertEquals(writer.numRecords(), 3);
+
+            List<Shape> shapes = ESRIShapeFileParser.parseShpFile(ByteBuffer.wrap(read(shp)));
+            assertEquals(shapes.size(), 3);
+            assertSame(shapes.get(1), ESRIShapeFileParser.DUMMY_SHAPE);
+            Geometry multiPolygon = ((JtsGeometry) shapes.get(2)).getGeom();
+            assertEquals(multiPolygon.getNumGeometries(), 2);
+            assertEquals(multiPolygon.getArea(), 2.0, 1e-9);
+
+            // Holes are identified by their orientation
+            List<PackedGeometry> geometries = ESRIShapeFileParser.parseShpFile(
+                    ByteBuffer.wrap(read(shp)), Projection.IDENTITY, new OffHeapGeometryStore());
+            assertEquals(geometries.get(0).numParts(), 1);
+            assertEquals(geometries.get(0).numRings(), 2);
+            assertEquals(((JtsGeometry) geometries.get(0).toShape()).getGeom().getArea(), 96.0, 1e-9);
+            assertTrue(geometries.get(1).isPoint());
+
+            // Records can be read directly using the offsets in the SHX file
+            int[] offsets = ESRIShapeFileParser.parseShxFile(ByteBuffer.wrap(read(shx)));
+            assertEquals(offsets.length, 3);
+            List<Shape> last = ESRIShapeFileParser.parseShpFile(ByteBuffer.wrap(read(shp)), offsets, 2, 3, Projection.IDENTITY);
+            assertEquals(((JtsGeometry) last.get(0)).getGeom().getArea(), 2.0, 1e-9);
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+}